@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.metrics.Metrics;
+import com.example.android.sunshine.app.utils.Deadline;
+import com.example.android.sunshine.core.ForecastDates;
+
+import java.util.Arrays;
+import java.util.TimeZone;
+
+/*
+    Opens each day of a stored forecast the way the detail screen does, by its content URI,
+    and times it from the query to the bound text.  Once the list has read the forecast, every
+    open should be answered from the rows it read, without SQLite, and faster than an open
+    that has to go to the database.
+ */
+public class TestDetailOpen extends AndroidTestCase {
+
+    private static final String LOG_TAG = TestDetailOpen.class.getSimpleName();
+    static final String DETAIL_LOCATION_SETTING = "99708";
+    private static final int DAYS = 14;
+
+    private long mLocationId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteDetailLocation();
+        FetchWeatherTask fwt = new FetchWeatherTask(getContext(), null);
+        mLocationId = fwt.addLocation(DETAIL_LOCATION_SETTING, "Sunnydale", 34.4, -119.7);
+        storeForecast();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteDetailLocation();
+        super.tearDown();
+    }
+
+    private void deleteDetailLocation() {
+        getContext().getContentResolver().delete(WeatherEntry.CONTENT_URI,
+                WeatherEntry.COLUMN_LOC_KEY + " IN (SELECT " + WeatherContract.LocationEntry._ID +
+                        " FROM " + WeatherContract.LocationEntry.TABLE_NAME + " WHERE " +
+                        WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?)",
+                new String[]{DETAIL_LOCATION_SETTING});
+        getContext().getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI,
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{DETAIL_LOCATION_SETTING});
+    }
+
+    // Fourteen days from today.
+    private void storeForecast() throws Exception {
+        int today = ForecastDates.getJulianDay(System.currentTimeMillis(), TimeZone.getDefault());
+        FetchWeatherTask fwt = new FetchWeatherTask(getContext(), null);
+        assertEquals(DAYS, fwt.storeForecast(FetchWeatherTask.parseForecastDays(
+                TestForecastBatch.createForecastJson(DAYS), mLocationId, today), Deadline.none()));
+    }
+
+    // What the list does on showing the location: read the stored forecast through the
+    // provider.  Returns the dates of its rows.
+    private long[] showList() {
+        FetchWeatherTask fwt = new FetchWeatherTask(getContext(), null);
+        String[] days = fwt.readStoredForecast(DETAIL_LOCATION_SETTING);
+        assertNotNull(days);
+        assertEquals(DAYS, days.length);
+        return fwt.getForecastDates();
+    }
+
+    // Opens a day as the detail screen does and returns the nanoseconds from the query to the
+    // bound text.
+    private long open(long date, String[] boundText) {
+        long start = System.nanoTime();
+        Cursor cursor = getContext().getContentResolver().query(
+                WeatherEntry.buildWeatherLocationWithDate(DETAIL_LOCATION_SETTING, date),
+                WeatherEntry.DETAIL_PROJECTION, null, null, null);
+        try {
+            assertTrue("Error: no row for " + date, cursor.moveToFirst());
+            assertEquals(date, cursor.getLong(WeatherEntry.DETAIL_COL_DATE));
+            boundText[0] = DetailActivity.DetailFragment.formatSummary(getContext(), cursor) +
+                    "\n" + DetailActivity.DetailFragment.formatConditions(getContext(), cursor);
+        } finally {
+            cursor.close();
+        }
+        return System.nanoTime() - start;
+    }
+
+    public void testOpenIsServedFromListRows() {
+        long[] dates = showList();
+        long hits = Metrics.PROVIDER_DAY_HITS.get();
+        long misses = Metrics.PROVIDER_DAY_MISSES.get();
+
+        String[] text = new String[1];
+        for (long date : dates) {
+            open(date, text);
+            assertTrue("Error: the detail should show the humidity: " + text[0],
+                    text[0].contains("Humidity: "));
+        }
+        assertEquals("Error: some days were read from SQLite",
+                hits + DAYS, Metrics.PROVIDER_DAY_HITS.get());
+        assertEquals(misses, Metrics.PROVIDER_DAY_MISSES.get());
+    }
+
+    public void testOpenAfterWriteIsNotStale() throws Exception {
+        long[] dates = showList();
+        String[] before = new String[1];
+        open(dates[0], before);
+
+        // A write lands between the list read and the open.
+        ContentValues values = new ContentValues();
+        values.put(WeatherEntry.COLUMN_HUMIDITY, 61);
+        getContext().getContentResolver().update(WeatherEntry.CONTENT_URI, values,
+                WeatherEntry.COLUMN_LOC_KEY + " = ?", new String[]{Long.toString(mLocationId)});
+        long hits = Metrics.PROVIDER_DAY_HITS.get();
+        String[] after = new String[1];
+        open(dates[0], after);
+        assertEquals("Error: the rows from before the write were served",
+                hits, Metrics.PROVIDER_DAY_HITS.get());
+        assertFalse(before[0].equals(after[0]));
+        assertTrue(after[0], after[0].contains("Humidity: 61 %"));
+    }
+
+    public void testOpenToBindLatency() {
+        String[] text = new String[1];
+
+        // Before the list has read anything, each day is a query of its own.
+        long[] cold = new long[DAYS];
+        int today = ForecastDates.getJulianDay(System.currentTimeMillis(), TimeZone.getDefault());
+        for (int day = 0; day < DAYS; day++) {
+            cold[day] = open(ForecastDates.getStartOfJulianDay(today + day,
+                    TimeZone.getDefault()), text);
+        }
+
+        long[] dates = showList();
+        long[] warm = new long[DAYS];
+        for (int day = 0; day < DAYS; day++) {
+            warm[day] = open(dates[day], text);
+        }
+
+        Arrays.sort(cold);
+        Arrays.sort(warm);
+        long coldMedian = cold[DAYS / 2];
+        long warmMedian = warm[DAYS / 2];
+        Log.i(LOG_TAG, "Open to bind, median: " + coldMedian / 1000 + "us from SQLite, " +
+                warmMedian / 1000 + "us from the list's rows; worst " + cold[DAYS - 1] / 1000 +
+                "us and " + warm[DAYS - 1] / 1000 + "us");
+        assertTrue("Error: opening from the list's rows took " + warmMedian / 1000 +
+                "us against " + coldMedian / 1000 + "us from SQLite", warmMedian < coldMedian);
+    }
+
+    public void testAdapterAddressesRowsByDayUri() {
+        ForecastAdapter adapter = new ForecastAdapter(getContext(), R.layout.list_item_forecast,
+                R.id.list_item_forecast_textview);
+        long[] dates = {1419033600000L, 1419120000000L};
+        adapter.setForecast(DETAIL_LOCATION_SETTING, new String[]{"Sat", "Sun"}, dates);
+
+        assertEquals(2, adapter.getCount());
+        assertEquals(WeatherEntry.buildWeatherLocationWithDate(DETAIL_LOCATION_SETTING,
+                dates[1]), adapter.getDayUri(1));
+        assertNull(adapter.getDayUri(2));
+
+        // Rows without dates can't be opened by URI.
+        adapter.setForecast(DETAIL_LOCATION_SETTING, new String[]{"Sat", "Sun"}, null);
+        assertNull(adapter.getDayUri(0));
+    }
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.annotation.TargetApi;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.text.format.Time;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.utils.Deadline;
+import com.example.android.sunshine.core.ForecastBatch;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.Vector;
+
+/*
+    Checks that a ForecastBatch carries a forecast from the JSON to the database unchanged, and
+    compares the allocations of the batch with the per-day ContentValues it replaced.
+ */
+public class TestForecastBatch extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastBatch.class.getSimpleName();
+
+    static final String BATCH_LOCATION_SETTING = "99706";
+    static final int JULIAN_START_DAY = 2457012;  // December 20th, 2014
+
+    private static final String[] DESCRIPTIONS = {"Clear", "Clouds", "Rain", "Snow"};
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteBatchLocation();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteBatchLocation();
+        super.tearDown();
+    }
+
+    private void deleteBatchLocation() {
+        getContext().getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI,
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{BATCH_LOCATION_SETTING});
+    }
+
+    public void testGrowAndInternDescriptions() {
+        ForecastBatch batch = new ForecastBatch(7, 2);
+        for (int day = 0; day < 100; day++) {
+            batch.add(day, day - 5, day + 5, 80, 1000 + day, 2.5f, 90, 800 + day % 4,
+                    new String(DESCRIPTIONS[day % DESCRIPTIONS.length]));
+        }
+        assertEquals(100, batch.size());
+        assertEquals("Error: each distinct description should be stored once",
+                DESCRIPTIONS.length, batch.getDescriptionCount());
+        assertSame(batch.getDescription(0), batch.getDescription(DESCRIPTIONS.length));
+        assertEquals(7, batch.getLocationId());
+        assertEquals(99, batch.getDate(99));
+        assertEquals(94f, batch.getMinTemp(99));
+        assertEquals(104f, batch.getMaxTemp(99));
+        assertEquals(1099f, batch.getPressure(99));
+        assertEquals(803, batch.getWeatherId(99));
+        assertEquals("Snow", batch.getDescription(99));
+    }
+
+    public void testParseForecastDays() throws JSONException {
+        JSONArray days = createForecastJson(16);
+        ForecastBatch batch = FetchWeatherTask.parseForecastDays(days, 3, JULIAN_START_DAY);
+
+        assertEquals(16, batch.size());
+        Time time = new Time();
+        for (int i = 0; i < batch.size(); i++) {
+            JSONObject day = days.getJSONObject(i);
+            JSONObject temperature = day.getJSONObject("temp");
+            JSONObject weather = day.getJSONArray("weather").getJSONObject(0);
+            assertEquals(time.setJulianDay(JULIAN_START_DAY + i), batch.getDate(i));
+            assertEquals(temperature.getDouble("min"), batch.getMinTemp(i), 0.001);
+            assertEquals(temperature.getDouble("max"), batch.getMaxTemp(i), 0.001);
+            assertEquals(day.getDouble("humidity"), batch.getHumidity(i), 0.001);
+            assertEquals(day.getDouble("pressure"), batch.getPressure(i), 0.001);
+            assertEquals(day.getDouble("speed"), batch.getWindSpeed(i), 0.001);
+            assertEquals(day.getDouble("deg"), batch.getDegrees(i), 0.001);
+            assertEquals(weather.getInt("id"), batch.getWeatherId(i));
+            assertEquals(weather.getString("main"), batch.getDescription(i));
+        }
+    }
+
+    @TargetApi(11)
+    public void testStoreForecastMatchesBatch() throws JSONException, IOException {
+        FetchWeatherTask fwt = new FetchWeatherTask(getContext(), null);
+        long locationId = fwt.addLocation(BATCH_LOCATION_SETTING, "Sunnydale", 34.4, -119.7);
+        ForecastBatch batch = FetchWeatherTask.parseForecastDays(createForecastJson(16),
+                locationId, JULIAN_START_DAY);
+
+        assertEquals(16, fwt.storeForecast(batch, Deadline.none()));
+        // Storing the same days again replaces them rather than adding rows.
+        assertEquals(16, fwt.storeForecast(batch, Deadline.none()));
+
+        Cursor cursor = getContext().getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(BATCH_LOCATION_SETTING),
+                WeatherEntry.DETAIL_PROJECTION, null, null, WeatherEntry.SORT_BY_DATE);
+        assertEquals(batch.size(), cursor.getCount());
+        for (int i = 0; cursor.moveToNext(); i++) {
+            assertEquals(WeatherContract.normalizeDate(batch.getDate(i)),
+                    cursor.getLong(WeatherEntry.DETAIL_COL_DATE));
+            assertEquals(batch.getDescription(i),
+                    cursor.getString(WeatherEntry.DETAIL_COL_SHORT_DESC));
+            assertEquals(batch.getMaxTemp(i), cursor.getFloat(WeatherEntry.DETAIL_COL_MAX_TEMP));
+            assertEquals(batch.getMinTemp(i), cursor.getFloat(WeatherEntry.DETAIL_COL_MIN_TEMP));
+            assertEquals(batch.getWeatherId(i), cursor.getInt(WeatherEntry.DETAIL_COL_WEATHER_ID));
+            assertEquals(batch.getHumidity(i), cursor.getFloat(WeatherEntry.DETAIL_COL_HUMIDITY));
+            assertEquals(batch.getPressure(i), cursor.getFloat(WeatherEntry.DETAIL_COL_PRESSURE));
+            assertEquals(batch.getWindSpeed(i),
+                    cursor.getFloat(WeatherEntry.DETAIL_COL_WIND_SPEED));
+            assertEquals(batch.getDegrees(i), cursor.getFloat(WeatherEntry.DETAIL_COL_DEGREES));
+        }
+        cursor.close();
+
+        // The ContentValues fallback writes the same rows.
+        ContentValues[] values = FetchWeatherTask.toContentValues(batch);
+        assertEquals(batch.size(), values.length);
+        assertEquals(batch.getDescription(3),
+                values[3].getAsString(WeatherEntry.COLUMN_SHORT_DESC));
+        assertEquals(batch.getLocationId(),
+                (long) values[3].getAsLong(WeatherEntry.COLUMN_LOC_KEY));
+    }
+
+    /*
+        Counts the objects allocated on this thread to carry a forecast from the parsed JSON to
+        the point where every field has been read back, once with a ContentValues per day in a
+        Vector (the old pipeline) and once with a ForecastBatch.  The JSON itself is parsed up
+        front so that only the pipeline's own allocations are counted.
+     */
+    @SuppressWarnings("deprecation")
+    public void testAllocationsPerBatch() throws JSONException {
+        for (int days : new int[]{16, 365}) {
+            JSONArray json = createForecastJson(days);
+
+            // Warm up both paths so that class loading isn't counted.
+            readBack(toContentValuesVector(json, 1));
+            readBack(FetchWeatherTask.parseForecastDays(json, 1, JULIAN_START_DAY));
+
+            Debug.startAllocCounting();
+            try {
+                Debug.resetThreadAllocCount();
+                readBack(toContentValuesVector(json, 1));
+                int vectorAllocs = Debug.getThreadAllocCount();
+
+                Debug.resetThreadAllocCount();
+                readBack(FetchWeatherTask.parseForecastDays(json, 1, JULIAN_START_DAY));
+                int batchAllocs = Debug.getThreadAllocCount();
+
+                Log.i(LOG_TAG, days + " days: ContentValues " + vectorAllocs + " allocations (" +
+                        (float) vectorAllocs / days + " per day), ForecastBatch " + batchAllocs +
+                        " allocations (" + (float) batchAllocs / days + " per day)");
+
+                // Allocation counting isn't supported everywhere; only compare real numbers.
+                if (vectorAllocs > 0) {
+                    assertTrue("Error: the batch should allocate less than ContentValues",
+                            batchAllocs < vectorAllocs);
+                }
+            } finally {
+                Debug.stopAllocCounting();
+            }
+        }
+    }
+
+    private static double readBack(Vector<ContentValues> cvv) {
+        double sum = 0;
+        for (int i = 0; i < cvv.size(); i++) {
+            ContentValues values = cvv.elementAt(i);
+            sum += values.getAsLong(WeatherEntry.COLUMN_DATE);
+            sum += values.getAsDouble(WeatherEntry.COLUMN_MAX_TEMP);
+            sum += values.getAsDouble(WeatherEntry.COLUMN_MIN_TEMP);
+            sum += values.getAsDouble(WeatherEntry.COLUMN_HUMIDITY);
+            sum += values.getAsDouble(WeatherEntry.COLUMN_PRESSURE);
+            sum += values.getAsDouble(WeatherEntry.COLUMN_WIND_SPEED);
+            sum += values.getAsDouble(WeatherEntry.COLUMN_DEGREES);
+            sum += values.getAsInteger(WeatherEntry.COLUMN_WEATHER_ID);
+            sum += values.getAsString(WeatherEntry.COLUMN_SHORT_DESC).length();
+        }
+        return sum;
+    }
+
+    private static double readBack(ForecastBatch batch) {
+        double sum = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            sum += batch.getDate(i);
+            sum += batch.getMaxTemp(i);
+            sum += batch.getMinTemp(i);
+            sum += batch.getHumidity(i);
+            sum += batch.getPressure(i);
+            sum += batch.getWindSpeed(i);
+            sum += batch.getDegrees(i);
+            sum += batch.getWeatherId(i);
+            sum += batch.getDescription(i).length();
+        }
+        return sum;
+    }
+
+    // The pipeline as it was before ForecastBatch.
+    private static Vector<ContentValues> toContentValuesVector(JSONArray weatherArray,
+                                                               long locationId)
+            throws JSONException {
+        Vector<ContentValues> cVVector = new Vector<ContentValues>(weatherArray.length());
+        Time dayTime = new Time();
+        for (int i = 0; i < weatherArray.length(); i++) {
+            JSONObject dayForecast = weatherArray.getJSONObject(i);
+            JSONObject weatherObject = dayForecast.getJSONArray("weather").getJSONObject(0);
+            JSONObject temperatureObject = dayForecast.getJSONObject("temp");
+
+            ContentValues weatherValues = new ContentValues();
+            weatherValues.put(WeatherEntry.COLUMN_LOC_KEY, locationId);
+            weatherValues.put(WeatherEntry.COLUMN_DATE, dayTime.setJulianDay(JULIAN_START_DAY + i));
+            weatherValues.put(WeatherEntry.COLUMN_HUMIDITY, dayForecast.getInt("humidity"));
+            weatherValues.put(WeatherEntry.COLUMN_PRESSURE, dayForecast.getDouble("pressure"));
+            weatherValues.put(WeatherEntry.COLUMN_WIND_SPEED, dayForecast.getDouble("speed"));
+            weatherValues.put(WeatherEntry.COLUMN_DEGREES, dayForecast.getDouble("deg"));
+            weatherValues.put(WeatherEntry.COLUMN_MAX_TEMP, temperatureObject.getDouble("max"));
+            weatherValues.put(WeatherEntry.COLUMN_MIN_TEMP, temperatureObject.getDouble("min"));
+            weatherValues.put(WeatherEntry.COLUMN_SHORT_DESC, weatherObject.getString("main"));
+            weatherValues.put(WeatherEntry.COLUMN_WEATHER_ID, weatherObject.getInt("id"));
+            cVVector.add(weatherValues);
+        }
+        return cVVector;
+    }
+
+    // The "list" array of an OpenWeatherMap daily forecast, with made up weather.
+    static JSONArray createForecastJson(int days) throws JSONException {
+        JSONArray list = new JSONArray();
+        for (int i = 0; i < days; i++) {
+            JSONObject temperature = new JSONObject()
+                    .put("min", 10.25 + i % 7)
+                    .put("max", 20.5 + i % 9);
+            JSONObject weather = new JSONObject()
+                    .put("id", 800 + i % DESCRIPTIONS.length)
+                    .put("main", DESCRIPTIONS[i % DESCRIPTIONS.length]);
+            list.put(new JSONObject()
+                    .put("temp", temperature)
+                    .put("pressure", 1013.25 + i % 5)
+                    .put("humidity", 60 + i % 30)
+                    .put("speed", 3.5 + i % 4)
+                    .put("deg", (i * 15) % 360)
+                    .put("weather", new JSONArray().put(weather)));
+        }
+        return list;
+    }
+}
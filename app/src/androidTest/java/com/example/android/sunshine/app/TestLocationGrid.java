@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.annotation.TargetApi;
+import android.database.Cursor;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.TestUtilities;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.utils.Deadline;
+import com.example.android.sunshine.core.CoordinateGrid;
+import com.example.android.sunshine.core.ForecastDates;
+
+import java.util.Random;
+import java.util.TimeZone;
+
+/*
+    Replays a synthetic GPS trace, a phone going between home and work with a few tens of
+    metres of jitter on every fix, the way the list would: show the stored forecast for the
+    fix's location setting if there is one, or download and store one if not.  With the
+    settings snapped to a grid, nearly every fix finds a forecast already stored, and the
+    database holds a location's worth of rows per place instead of per fix.
+ */
+public class TestLocationGrid extends AndroidTestCase {
+
+    private static final int FIXES = 200;
+    // Fixes in a row at one place before moving to the other.
+    private static final int FIXES_PER_VISIT = 10;
+    private static final double[][] PLACES = {{37.4219, -122.084}, {37.7749, -122.4194}};
+    // About 20 metres.
+    private static final double JITTER_DEGREES = 0.0002;
+    private static final int DAYS = 14;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        TestUtilities.deleteAllRecordsFromProvider(getContext());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TestUtilities.deleteAllRecordsFromProvider(getContext());
+        super.tearDown();
+    }
+
+    /** The fraction of fixes that found a forecast already stored. */
+    @TargetApi(11)
+    private double replayTrace(CoordinateGrid grid) throws Exception {
+        Random random = new Random(42);
+        int today = ForecastDates.getJulianDay(System.currentTimeMillis(), TimeZone.getDefault());
+        FetchWeatherTask fwt = new FetchWeatherTask(getContext(), null);
+        int hits = 0;
+        for (int i = 0; i < FIXES; i++) {
+            double[] place = PLACES[(i / FIXES_PER_VISIT) % PLACES.length];
+            double lat = place[0] + random.nextGaussian() * JITTER_DEGREES;
+            double lon = place[1] + random.nextGaussian() * JITTER_DEGREES;
+            String setting = grid.snap(lat, lon);
+
+            if (fwt.readStoredForecast(setting) != null) {
+                hits++;
+                continue;
+            }
+            // What a download would store, the location at the coordinates the API reports.
+            long locationId = fwt.addLocation(setting, "Trace", lat, lon);
+            assertEquals(DAYS, fwt.storeForecast(FetchWeatherTask.parseForecastDays(
+                    TestForecastBatch.createForecastJson(DAYS), locationId, today),
+                    Deadline.none()));
+        }
+        return (double) hits / FIXES;
+    }
+
+    private int countRows(Uri uri) {
+        Cursor cursor = getContext().getContentResolver().query(uri,
+                new String[]{"count(*)"}, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private int countStoredRows() {
+        return countRows(LocationEntry.CONTENT_URI) + countRows(WeatherEntry.CONTENT_URI);
+    }
+
+    public void testJitterTrace() throws Exception {
+        double exactHitRate = replayTrace(new CoordinateGrid(0));
+        int exactRows = countStoredRows();
+        TestUtilities.deleteAllRecordsFromProvider(getContext());
+
+        double snappedHitRate = replayTrace(new CoordinateGrid(0.01));
+        int snappedRows = countStoredRows();
+        TestUtilities.deleteAllRecordsFromProvider(getContext());
+
+        // Every fix is somewhere new.
+        assertTrue("Error: exact coordinates hit rate " + exactHitRate, exactHitRate < 0.05);
+        assertEquals(FIXES * (1 + DAYS), exactRows);
+        // Kilometre cells: only the first fix in each cell misses, and the fixes straddle
+        // few cell edges.
+        assertTrue("Error: snapped hit rate " + snappedHitRate, snappedHitRate >= 0.95);
+        assertTrue("Error: " + snappedRows + " rows stored against " + exactRows + " exact",
+                snappedRows * 20 <= exactRows);
+    }
+
+    // Ten kilometre cells: each place is one location, fetched once.
+    public void testDefaultGridSharesOnePlace() throws Exception {
+        double hitRate = replayTrace(new CoordinateGrid(Double.parseDouble(
+                getContext().getString(R.string.pref_location_grid_default))));
+        assertEquals((double) (FIXES - PLACES.length) / FIXES, hitRate, 0.0001);
+        assertEquals(PLACES.length, countRows(LocationEntry.CONTENT_URI));
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.annotation.TargetApi;
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.data.WeatherProvider;
+import com.example.android.sunshine.app.net.ForecastClient;
+import com.example.android.sunshine.app.utils.Clock;
+import com.example.android.sunshine.app.utils.Deadline;
+import com.example.android.sunshine.app.utils.StandInHttpServer;
+import com.example.android.sunshine.core.ForecastBatch;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Random;
+
+/*
+    Runs refreshes against a local stand-in server that answers slowly or trickles its body out
+    a few bytes at a time, and checks that each gives up once its deadline passes, however far
+    it got, without leaving a partly written forecast behind.
+ */
+public class TestRefreshDeadline extends AndroidTestCase {
+
+    static final String DEADLINE_LOCATION_SETTING = "99707";
+    static final int JULIAN_START_DAY = 2457012;  // December 20th, 2014
+    private static final String PATH = "/data/2.5/forecast/daily?q=" + DEADLINE_LOCATION_SETTING;
+
+    // Slack for thread scheduling on a slow emulator.
+    private static final long SLACK_MILLIS = 500;
+
+    private StandInHttpServer mServer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteDeadlineLocation();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (mServer != null) mServer.close();
+        deleteDeadlineLocation();
+        super.tearDown();
+    }
+
+    private void deleteDeadlineLocation() {
+        getContext().getContentResolver().delete(WeatherEntry.CONTENT_URI,
+                WeatherEntry.COLUMN_LOC_KEY + " IN (SELECT " + WeatherContract.LocationEntry._ID +
+                        " FROM " + WeatherContract.LocationEntry.TABLE_NAME + " WHERE " +
+                        WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?)",
+                new String[]{DEADLINE_LOCATION_SETTING});
+        getContext().getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI,
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{DEADLINE_LOCATION_SETTING});
+    }
+
+    private URL serve(final StandInHttpServer.Response response) throws IOException {
+        if (mServer != null) mServer.close();
+        mServer = new StandInHttpServer(new StandInHttpServer.Handler() {
+            @Override
+            public StandInHttpServer.Response handle(int requestNumber, String path) {
+                return response;
+            }
+        });
+        return mServer.getUrl(PATH);
+    }
+
+    public void testTrickledBodyExpiresDuringRead() throws Exception {
+        String body = createForecastBody(0);
+        // About four seconds for the whole body, but never long enough between bytes to trip
+        // the read timeout.
+        URL url = serve(new StandInHttpServer.Response(200, body)
+                .trickle(body.length() / 80, 50));
+        ForecastClient client = new ForecastClient(Clock.SYSTEM, new Random(), 1000, 1000);
+
+        long start = System.currentTimeMillis();
+        try {
+            client.fetch(url, new Deadline(Clock.SYSTEM, 500));
+            fail("Error: the body should have taken longer than the deadline");
+        } catch (Deadline.ExpiredException e) {
+            assertEquals(Deadline.STAGE_READ, e.getStage());
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        assertTrue("Error: gave up after " + elapsed + "ms", elapsed < 500 + SLACK_MILLIS);
+    }
+
+    public void testSlowResponseExpiresBeforeFirstByte() throws Exception {
+        URL url = serve(new StandInHttpServer.Response(200, createForecastBody(0)).delay(5000));
+        // The client's own timeouts are far longer than the deadline.
+        ForecastClient client = new ForecastClient(Clock.SYSTEM, new Random(), 30000, 30000);
+
+        long start = System.currentTimeMillis();
+        try {
+            client.fetch(url, new Deadline(Clock.SYSTEM, 300));
+            fail("Error: the response should have taken longer than the deadline");
+        } catch (Deadline.ExpiredException e) {
+            assertEquals(Deadline.STAGE_CONNECT, e.getStage());
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        assertTrue("Error: gave up after " + elapsed + "ms", elapsed < 300 + SLACK_MILLIS);
+    }
+
+    public void testExpiredDeadlineSendsNothing() throws Exception {
+        URL url = serve(new StandInHttpServer.Response(200, createForecastBody(0)));
+        ForecastClient client = new ForecastClient(Clock.SYSTEM, new Random(), 1000, 1000);
+
+        try {
+            client.fetch(url, new Deadline(Clock.SYSTEM, 0));
+            fail();
+        } catch (Deadline.ExpiredException e) {
+            assertEquals(Deadline.STAGE_CONNECT, e.getStage());
+        }
+        assertEquals(0, mServer.getRequestCount());
+        assertEquals(0, client.getBreaker(url).getConsecutiveFailures());
+    }
+
+    public void testCancelStopsRefreshDuringRead() throws Exception {
+        String body = createForecastBody(0);
+        URL url = serve(new StandInHttpServer.Response(200, body)
+                .trickle(body.length() / 80, 50));
+        ForecastClient client = new ForecastClient(Clock.SYSTEM, new Random(), 1000, 1000);
+
+        // Plenty of time, but another thread decides the download isn't wanted any more.
+        final Deadline deadline = new Deadline(Clock.SYSTEM, 10000);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(300);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                deadline.cancel();
+            }
+        }).start();
+
+        long start = System.currentTimeMillis();
+        try {
+            client.fetch(url, deadline);
+            fail("Error: the cancelled download should have stopped");
+        } catch (Deadline.ExpiredException e) {
+            assertEquals(Deadline.STAGE_READ, e.getStage());
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        assertTrue("Error: stopped after " + elapsed + "ms", elapsed < 300 + SLACK_MILLIS);
+        // The server was answering fine, so the cancel isn't held against it.
+        assertEquals(0, client.getBreaker(url).getConsecutiveFailures());
+    }
+
+    public void testAbandonedRefreshKeepsStoredForecast() throws Exception {
+        FetchWeatherTask fwt = new FetchWeatherTask(getContext(), null);
+
+        URL url = serve(new StandInHttpServer.Response(200, createForecastBody(0)));
+        assertNotNull(fwt.fetchForecast(url, DEADLINE_LOCATION_SETTING,
+                new Deadline(Clock.SYSTEM, 10000)));
+        float[] stored = readMaxTemps();
+        assertEquals(14, stored.length);
+
+        // A second refresh with different temperatures that can't arrive in time.
+        String slowBody = createForecastBody(10);
+        url = serve(new StandInHttpServer.Response(200, slowBody)
+                .trickle(slowBody.length() / 40, 50));
+        assertNull(fwt.fetchForecast(url, DEADLINE_LOCATION_SETTING,
+                new Deadline(Clock.SYSTEM, 300)));
+
+        float[] after = readMaxTemps();
+        assertEquals(stored.length, after.length);
+        for (int i = 0; i < stored.length; i++) {
+            assertEquals("Error: an abandoned refresh changed day " + i, stored[i], after[i]);
+        }
+    }
+
+    @TargetApi(11)
+    public void testExpiryDuringWriteRollsBack() throws Exception {
+        FetchWeatherTask fwt = new FetchWeatherTask(getContext(), null);
+        long locationId = fwt.addLocation(DEADLINE_LOCATION_SETTING, "Sunnydale", 34.4, -119.7);
+        JSONArray days = createForecastDays(0);
+        assertEquals(14, fwt.storeForecast(
+                FetchWeatherTask.parseForecastDays(days, locationId, JULIAN_START_DAY),
+                Deadline.none()));
+        float[] stored = readMaxTemps();
+
+        // A clock that stands still for the deadline's creation and the first few checks,
+        // then jumps past it, so the deadline runs out with half the rows inserted.
+        Clock expiresMidWrite = new Clock() {
+            private int mCalls;
+
+            @Override
+            public long currentTimeMillis() {
+                return ++mCalls <= 8 ? 0 : 1000;
+            }
+        };
+        ForecastBatch warmer = FetchWeatherTask.parseForecastDays(createForecastDays(10),
+                locationId, JULIAN_START_DAY);
+        WeatherProvider provider = (WeatherProvider) getContext().getContentResolver()
+                .acquireContentProviderClient(WeatherEntry.CONTENT_URI).getLocalContentProvider();
+        try {
+            provider.bulkInsert(warmer, new Deadline(expiresMidWrite, 500));
+            fail("Error: the deadline should have run out during the write");
+        } catch (Deadline.ExpiredException e) {
+            assertEquals(Deadline.STAGE_WRITE, e.getStage());
+        }
+
+        float[] after = readMaxTemps();
+        assertEquals(stored.length, after.length);
+        for (int i = 0; i < stored.length; i++) {
+            assertEquals("Error: a rolled back write changed day " + i, stored[i], after[i]);
+        }
+    }
+
+    private float[] readMaxTemps() {
+        Cursor cursor = getContext().getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(DEADLINE_LOCATION_SETTING),
+                WeatherEntry.DETAIL_PROJECTION, null, null, WeatherEntry.SORT_BY_DATE);
+        try {
+            float[] maxTemps = new float[cursor.getCount()];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                maxTemps[i] = cursor.getFloat(WeatherEntry.DETAIL_COL_MAX_TEMP);
+            }
+            return maxTemps;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // Fourteen days, with every temperature raised by the given number of degrees.
+    private static JSONArray createForecastDays(int warmer) throws JSONException {
+        JSONArray days = TestForecastBatch.createForecastJson(14);
+        for (int i = 0; i < days.length(); i++) {
+            JSONObject temperature = days.getJSONObject(i).getJSONObject("temp");
+            temperature.put("min", temperature.getDouble("min") + warmer);
+            temperature.put("max", temperature.getDouble("max") + warmer);
+        }
+        return days;
+    }
+
+    private static String createForecastBody(int warmer) throws JSONException {
+        JSONObject city = new JSONObject()
+                .put("name", "Sunnydale")
+                .put("coord", new JSONObject().put("lat", 34.4).put("lon", -119.7));
+        return new JSONObject()
+                .put("city", city)
+                .put("list", createForecastDays(warmer))
+                .toString();
+    }
+}
@@ -0,0 +1,378 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.annotation.TargetApi;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Build;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/*
+    Tests for the read-through cache inside WeatherProvider: counters, exact invalidation by
+    location, and consistency while another thread keeps writing.
+ */
+@TargetApi(11)
+public class TestForecastCache extends AndroidTestCase {
+
+    private static final String OTHER_LOCATION = "12345";
+    private static final int DAYS = 14;
+
+    private WeatherProvider mProvider;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mProvider = (WeatherProvider) mContext.getContentResolver()
+                .acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY)
+                .getLocalContentProvider();
+        TestUtilities.deleteAllRecordsFromProvider(getContext());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TestUtilities.deleteAllRecordsFromProvider(getContext());
+        super.tearDown();
+    }
+
+    private boolean cacheSupported() {
+        // The cache needs Cursor.getType, from API level 11.
+        return Build.VERSION.SDK_INT >= 11;
+    }
+
+    public void testHitRateAndMemoryCounters() {
+        if (!cacheSupported()) return;
+        long locationId = insertLocation(TestUtilities.TEST_LOCATION);
+        insertForecast(locationId, 0);
+
+        ForecastCache cache = mProvider.getForecastCache();
+        long hits = cache.getHitCount();
+        long misses = cache.getMissCount();
+
+        Cursor first = queryForecast(TestUtilities.TEST_LOCATION);
+        Cursor second = queryForecast(TestUtilities.TEST_LOCATION);
+
+        assertEquals("Error: the first query should miss", misses + 1, cache.getMissCount());
+        assertEquals("Error: the repeated query should hit", hits + 1, cache.getHitCount());
+        assertTrue(cache.getHitRate() > 0);
+        assertTrue("Error: the cache should account for what it holds",
+                cache.getSizeInBytes() > 0);
+        assertTrue(cache.getSizeInBytes() <= cache.getMaxSizeInBytes());
+
+        assertSameRows(first, second);
+        first.close();
+        second.close();
+    }
+
+    public void testCachedRowsMatchDatabase() {
+        if (!cacheSupported()) return;
+        long locationId = insertLocation(TestUtilities.TEST_LOCATION);
+        insertForecast(locationId, 0);
+
+        queryForecast(TestUtilities.TEST_LOCATION).close();
+        Cursor cached = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                null, null, null, WeatherEntry.SORT_BY_DATE);
+
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getReadableDatabase();
+        Cursor direct = db.rawQuery("SELECT * FROM " + WeatherEntry.TABLE_NAME +
+                " INNER JOIN " + LocationEntry.TABLE_NAME + " ON " + WeatherEntry.TABLE_NAME +
+                "." + WeatherEntry.COLUMN_LOC_KEY + " = " + LocationEntry.TABLE_NAME + "." +
+                LocationEntry._ID + " ORDER BY " + WeatherEntry.SORT_BY_DATE, null);
+        assertSameRows(direct, cached);
+        direct.close();
+        cached.close();
+        db.close();
+    }
+
+    public void testWriteInvalidatesOnlyAffectedLocation() {
+        if (!cacheSupported()) return;
+        long locationId = insertLocation(TestUtilities.TEST_LOCATION);
+        long otherId = insertLocation(OTHER_LOCATION);
+        insertForecast(locationId, 0);
+        insertForecast(otherId, 0);
+
+        queryForecast(TestUtilities.TEST_LOCATION).close();
+        queryForecast(OTHER_LOCATION).close();
+
+        insertForecast(locationId, 10);
+
+        ForecastCache cache = mProvider.getForecastCache();
+        long hits = cache.getHitCount();
+        Cursor other = queryForecast(OTHER_LOCATION);
+        assertEquals("Error: a write to one location dropped another location's entry",
+                hits + 1, cache.getHitCount());
+        other.close();
+
+        Cursor updated = queryForecast(TestUtilities.TEST_LOCATION);
+        assertEquals("Error: the written location was served from the cache",
+                hits + 1, cache.getHitCount());
+        assertTrue(updated.moveToFirst());
+        assertEquals(75 + 10, updated.getInt(WeatherEntry.LIST_COL_MAX_TEMP));
+        updated.close();
+    }
+
+    public void testUpdateAndDeleteInvalidate() {
+        if (!cacheSupported()) return;
+        long locationId = insertLocation(TestUtilities.TEST_LOCATION);
+        insertForecast(locationId, 0);
+        queryForecast(TestUtilities.TEST_LOCATION).close();
+
+        ContentValues hotter = new ContentValues();
+        hotter.put(WeatherEntry.COLUMN_MAX_TEMP, 100);
+        mContext.getContentResolver().update(WeatherEntry.CONTENT_URI, hotter,
+                WeatherEntry.COLUMN_LOC_KEY + " = ?", new String[]{Long.toString(locationId)});
+
+        Cursor cursor = queryForecast(TestUtilities.TEST_LOCATION);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(100, cursor.getInt(WeatherEntry.LIST_COL_MAX_TEMP));
+        cursor.close();
+
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI,
+                WeatherEntry.COLUMN_LOC_KEY + " = ?", new String[]{Long.toString(locationId)});
+        cursor = queryForecast(TestUtilities.TEST_LOCATION);
+        assertEquals("Error: deleted rows were served from the cache", 0, cursor.getCount());
+        cursor.close();
+    }
+
+    public void testWriteAroundProviderIsNotServedStale() {
+        if (!cacheSupported()) return;
+        long locationId = insertLocation(TestUtilities.TEST_LOCATION);
+        insertForecast(locationId, 0);
+        queryForecast(TestUtilities.TEST_LOCATION).close();
+
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        db.delete(WeatherEntry.TABLE_NAME, null, null);
+        db.close();
+
+        Cursor cursor = queryForecast(TestUtilities.TEST_LOCATION);
+        assertEquals("Error: a direct database write was hidden by the cache",
+                0, cursor.getCount());
+        cursor.close();
+    }
+
+    public void testCacheIsBounded() {
+        if (!cacheSupported()) return;
+        ForecastCache cache = new ForecastCache(4 * 1024);
+        for (int i = 0; i < 50; i++) {
+            MatrixCursor cursor = new MatrixCursor(new String[]{"_id", "short_desc"});
+            for (int row = 0; row < 10; row++) {
+                cursor.addRow(new Object[]{row, "description " + i});
+            }
+            cache.readThrough("key" + i, null, 0, cursor).close();
+        }
+        assertTrue(cache.getSizeInBytes() <= 4 * 1024);
+        assertTrue(cache.getEvictionCount() > 0);
+        assertNull(cache.get("key0", 0));
+        assertNotNull(cache.get("key49", 0));
+
+        cache.onWrite(Collections.<String>emptySet(), 0, 1);
+        assertEquals("Error: entries spanning all locations should be dropped by any write",
+                0, cache.getEntryCount());
+    }
+
+    public void testDayIndex() {
+        if (!cacheSupported()) return;
+        ForecastCache cache = new ForecastCache(64 * 1024);
+        MatrixCursor cursor = new MatrixCursor(new String[]{"_id", WeatherEntry.COLUMN_DATE,
+                WeatherEntry.COLUMN_HUMIDITY});
+        for (int row = 0; row < 7; row++) {
+            cursor.addRow(new Object[]{row, TestUtilities.TEST_DATE + row, 80.0 + row});
+        }
+        cache.readThrough("list", TestUtilities.TEST_LOCATION, 5, cursor, true).close();
+        assertEquals(1, cache.getIndexedLocationCount());
+
+        Cursor day = cache.getDay(TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE + 3);
+        assertNotNull(day);
+        assertEquals(1, day.getCount());
+        assertTrue(day.moveToFirst());
+        assertEquals(3, day.getLong(0));
+        assertEquals(83.0, day.getDouble(2));
+        day.close();
+        assertNull(cache.getDay(TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE + 10));
+        assertNull(cache.getDay(OTHER_LOCATION, TestUtilities.TEST_DATE));
+        assertEquals(1, cache.getDayHitCount());
+        assertEquals(2, cache.getDayMissCount());
+
+        // A write elsewhere carries the index over; one to its location drops it.
+        cache.onWrite(Collections.singleton(OTHER_LOCATION), 5, 6);
+        assertNotNull(cache.getDay(TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE));
+        cache.onWrite(Collections.singleton(TestUtilities.TEST_LOCATION), 6, 7);
+        assertNull(cache.getDay(TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE));
+        assertEquals(0, cache.getIndexedLocationCount());
+    }
+
+    // A query that read the counter between two commits whose callbacks then ran in the other
+    // order must not have its rows indexed as current.
+    public void testWriteCallbacksOutOfOrder() {
+        if (!cacheSupported()) return;
+        ForecastCache cache = new ForecastCache(64 * 1024);
+        cache.onWrite(Collections.singleton(OTHER_LOCATION), 6, 7);
+        cache.onWrite(Collections.singleton(OTHER_LOCATION), 5, 6);
+
+        MatrixCursor cursor = new MatrixCursor(new String[]{"_id", WeatherEntry.COLUMN_DATE});
+        cursor.addRow(new Object[]{0, TestUtilities.TEST_DATE});
+        cache.readThrough("list", TestUtilities.TEST_LOCATION, 6, cursor, true).close();
+        assertEquals(0, cache.getIndexedLocationCount());
+        assertNull(cache.getDay(TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE));
+    }
+
+    public void testDayIndexNoticesWriteAroundProvider() {
+        if (!cacheSupported()) return;
+        long locationId = insertLocation(TestUtilities.TEST_LOCATION);
+        insertForecast(locationId, 0);
+        mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                WeatherEntry.DETAIL_PROJECTION, null, null, WeatherEntry.SORT_BY_DATE).close();
+        ForecastCache cache = mProvider.getForecastCache();
+        assertNotNull(cache.getDay(TestUtilities.TEST_LOCATION,
+                WeatherContract.normalizeDate(TestUtilities.TEST_DATE)));
+
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        db.delete(WeatherEntry.TABLE_NAME, null, null);
+        db.close();
+
+        // Any query that reads the change counter tells the cache about the write.
+        queryForecast(OTHER_LOCATION).close();
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION,
+                        TestUtilities.TEST_DATE),
+                WeatherEntry.DETAIL_PROJECTION, null, null, null);
+        assertEquals("Error: a direct database write was hidden by the day index",
+                0, cursor.getCount());
+        cursor.close();
+    }
+
+    /*
+        One thread keeps rewriting a location's forecast with an increasing version in the max
+        temperature.  Readers check that once a write has returned, no query ever sees an
+        older version.
+     */
+    public void testConsistencyUnderConcurrentWrites() throws Exception {
+        if (!cacheSupported()) return;
+        final long locationId = insertLocation(TestUtilities.TEST_LOCATION);
+        insertForecast(locationId, 0);
+
+        final int writes = 100;
+        final int readers = 3;
+        final AtomicInteger committed = new AtomicInteger(0);
+        final AtomicReference<String> failure = new AtomicReference<>();
+        final CountDownLatch done = new CountDownLatch(readers + 1);
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int version = 1; version <= writes; version++) {
+                        insertForecast(locationId, version);
+                        committed.set(version);
+                    }
+                } catch (RuntimeException e) {
+                    failure.compareAndSet(null, e.toString());
+                } finally {
+                    done.countDown();
+                }
+            }
+        }).start();
+
+        for (int i = 0; i < readers; i++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while (committed.get() < writes && failure.get() == null) {
+                            int expected = committed.get();
+                            Cursor cursor = queryForecast(TestUtilities.TEST_LOCATION);
+                            while (cursor.moveToNext()) {
+                                int version = cursor.getInt(WeatherEntry.LIST_COL_MAX_TEMP) - 75;
+                                if (version < expected) {
+                                    failure.compareAndSet(null, "read version " + version +
+                                            " after version " + expected + " was committed");
+                                }
+                            }
+                            cursor.close();
+                        }
+                    } catch (RuntimeException e) {
+                        failure.compareAndSet(null, e.toString());
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+
+        done.await();
+        assertNull("Error: " + failure.get(), failure.get());
+
+        Cursor cursor = queryForecast(TestUtilities.TEST_LOCATION);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(75 + writes, cursor.getInt(WeatherEntry.LIST_COL_MAX_TEMP));
+        cursor.close();
+    }
+
+    private long insertLocation(String locationSetting) {
+        ContentValues values = TestUtilities.createNorthPoleLocationValues();
+        values.put(LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        Uri uri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, values);
+        return ContentUris.parseId(uri);
+    }
+
+    private void insertForecast(long locationId, int version) {
+        ContentValues[] values = new ContentValues[DAYS];
+        for (int i = 0; i < DAYS; i++) {
+            values[i] = TestUtilities.createWeatherValues(locationId);
+            values[i].put(WeatherEntry.COLUMN_DATE,
+                    TestUtilities.TEST_DATE + i * 1000L * 60 * 60 * 24);
+            values[i].put(WeatherEntry.COLUMN_MAX_TEMP, 75 + version);
+        }
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, values);
+    }
+
+    private Cursor queryForecast(String locationSetting) {
+        return mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(locationSetting),
+                WeatherEntry.LIST_PROJECTION, null, null, WeatherEntry.SORT_BY_DATE);
+    }
+
+    private static void assertSameRows(Cursor expected, Cursor actual) {
+        assertEquals(expected.getCount(), actual.getCount());
+        assertEquals(expected.getColumnCount(), actual.getColumnCount());
+        expected.moveToPosition(-1);
+        actual.moveToPosition(-1);
+        while (expected.moveToNext()) {
+            assertTrue(actual.moveToNext());
+            for (int column = 0; column < expected.getColumnCount(); column++) {
+                assertEquals(expected.getColumnName(column), actual.getColumnName(column));
+                assertEquals(expected.getType(column), actual.getType(column));
+                assertEquals(expected.getString(column), actual.getString(column));
+            }
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    Searches a handful of locations by the start of the words of their city names and
+    settings, and checks that the index follows every insert, update and delete of the
+    location table, the provider's or not.
+ */
+public class TestLocationSearch extends AndroidTestCase {
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        TestUtilities.deleteAllRecordsFromProvider(getContext());
+        insertLocation("94080", "South San Francisco");
+        insertLocation("84070", "Sandy");
+        insertLocation("London, UK", "London");
+        insertLocation("94043", "Mountain View");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TestUtilities.deleteAllRecordsFromProvider(getContext());
+        super.tearDown();
+    }
+
+    private long insertLocation(String setting, String cityName) {
+        ContentValues values = new ContentValues();
+        values.put(LocationEntry.COLUMN_LOCATION_SETTING, setting);
+        values.put(LocationEntry.COLUMN_CITY_NAME, cityName);
+        values.put(LocationEntry.COLUMN_COORD_LAT, 0.0);
+        values.put(LocationEntry.COLUMN_COORD_LONG, 0.0);
+        return ContentUris.parseId(
+                getContext().getContentResolver().insert(LocationEntry.CONTENT_URI, values));
+    }
+
+    // The city names found for what's been typed, in the order they came back.
+    private List<String> search(String typed, int limit) {
+        Cursor cursor = getContext().getContentResolver().query(
+                LocationEntry.buildSearchUri(typed, limit),
+                new String[]{LocationEntry.COLUMN_CITY_NAME}, null, null, null);
+        List<String> names = new ArrayList<>();
+        try {
+            while (cursor.moveToNext()) names.add(cursor.getString(0));
+        } finally {
+            cursor.close();
+        }
+        return names;
+    }
+
+    public void testBuildMatchQuery() {
+        assertEquals("san* fr*", WeatherProvider.buildMatchQuery("San Fr"));
+        assertEquals("london* uk*", WeatherProvider.buildMatchQuery("  london, UK "));
+        // FTS operators and quotes are dropped, not passed through.
+        assertEquals("a* b*", WeatherProvider.buildMatchQuery("\"a\" -b*"));
+        assertEquals("", WeatherProvider.buildMatchQuery(" ,-* "));
+    }
+
+    public void testPrefixOfAnyWord() {
+        List<String> names = search("san", LocationEntry.DEFAULT_SEARCH_LIMIT);
+        // "Sandy" by its first word, "South San Francisco" by its second, in name order.
+        assertEquals(2, names.size());
+        assertEquals("Sandy", names.get(0));
+        assertEquals("South San Francisco", names.get(1));
+
+        assertEquals(1, search("SAN FR", LocationEntry.DEFAULT_SEARCH_LIMIT).size());
+        assertEquals(0, search("san x", LocationEntry.DEFAULT_SEARCH_LIMIT).size());
+    }
+
+    public void testSettingPrefix() {
+        List<String> names = search("940", LocationEntry.DEFAULT_SEARCH_LIMIT);
+        assertEquals(2, names.size());
+        assertEquals("Mountain View", names.get(0));
+        assertEquals("South San Francisco", names.get(1));
+
+        assertEquals("London", search("uk", LocationEntry.DEFAULT_SEARCH_LIMIT).get(0));
+    }
+
+    public void testLeadingZeroSetting() {
+        insertLocation("02134", "Allston");
+        // The setting is indexed as it was typed, not as the number 2134.
+        List<String> names = search("021", LocationEntry.DEFAULT_SEARCH_LIMIT);
+        assertEquals(1, names.size());
+        assertEquals("Allston", names.get(0));
+        assertEquals(0, search("2134", LocationEntry.DEFAULT_SEARCH_LIMIT).size());
+    }
+
+    public void testLimit() {
+        assertEquals(1, search("s", 1).size());
+        assertEquals(2, search("s", 5).size());
+    }
+
+    public void testNothingToSearchFor() {
+        assertEquals(0, search("", LocationEntry.DEFAULT_SEARCH_LIMIT).size());
+        assertEquals(0, search("\"*", LocationEntry.DEFAULT_SEARCH_LIMIT).size());
+    }
+
+    public void testIndexFollowsWrites() {
+        long id = insertLocation("10001", "New York");
+        assertEquals(1, search("new y", LocationEntry.DEFAULT_SEARCH_LIMIT).size());
+
+        ContentValues renamed = new ContentValues();
+        renamed.put(LocationEntry.COLUMN_CITY_NAME, "Brooklyn");
+        getContext().getContentResolver().update(LocationEntry.CONTENT_URI, renamed,
+                LocationEntry._ID + " = ?", new String[]{Long.toString(id)});
+        assertEquals(0, search("new", LocationEntry.DEFAULT_SEARCH_LIMIT).size());
+        assertEquals(1, search("brook", LocationEntry.DEFAULT_SEARCH_LIMIT).size());
+
+        // Straight to the table, around the provider.
+        SQLiteDatabase db = new WeatherDbHelper(getContext()).getWritableDatabase();
+        db.delete(LocationEntry.TABLE_NAME, LocationEntry._ID + " = ?",
+                new String[]{Long.toString(id)});
+        db.close();
+        assertEquals(0, search("brook", LocationEntry.DEFAULT_SEARCH_LIMIT).size());
+    }
+
+    public void testOtherSortOrderIsRejected() {
+        try {
+            getContext().getContentResolver().query(LocationEntry.buildSearchUri("s", 5), null,
+                    null, null, LocationEntry.COLUMN_LOCATION_SETTING);
+            fail("Error: search results are always in city name order");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
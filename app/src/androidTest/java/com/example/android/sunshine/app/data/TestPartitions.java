@@ -0,0 +1,340 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.annotation.TargetApi;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.RollupEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.utils.Deadline;
+import com.example.android.sunshine.core.ForecastBatch;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    Seeds a few years of days, archives the older ones into monthly partitions, and checks that
+    the location, day and range URIs read the same days as before, from only the partitions
+    they need, that writes on the weather URI reach the archived days, and that old months can
+    be dropped and written again.
+ */
+@TargetApi(11)
+public class TestPartitions extends AndroidTestCase {
+
+    private static final int SEEDED_DAYS = 1000;
+    private static final int ARCHIVED_DAYS = 500;
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000L;
+    private static final long START_DATE = 1419033600000L;  // December 20th, 2014
+
+    private WeatherProvider mProvider;
+    private long mLocationId;
+    private long mCutoff;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        TestUtilities.deleteAllRecordsFromProvider(getContext());
+        mProvider = (WeatherProvider) getContext().getContentResolver()
+                .acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY)
+                .getLocalContentProvider();
+        mLocationId = TestUtilities.insertNorthPoleLocationValues(getContext());
+
+        // Every day gets a weather id of its own, so a row can be told apart by it.
+        ForecastBatch batch = new ForecastBatch(mLocationId, SEEDED_DAYS);
+        for (int day = 0; day < SEEDED_DAYS; day++) {
+            batch.add(getDate(day), -5, 5, 80, 1000, 2.5f, 90, day, "Snow");
+        }
+        assertEquals(SEEDED_DAYS, mProvider.bulkInsert(batch, Deadline.none()));
+
+        mProvider.archiveBefore(getDate(ARCHIVED_DAYS));
+        mCutoff = WeatherContract.getStartOfMonth(getDate(ARCHIVED_DAYS));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        QueryProfiler profiler = mProvider.getProfiler();
+        profiler.setEnabled(false);
+        profiler.setThresholdMillis(QueryProfiler.DEFAULT_THRESHOLD_MILLIS);
+        profiler.clear();
+        TestUtilities.deleteAllRecordsFromProvider(getContext());
+        super.tearDown();
+    }
+
+    private static long getDate(int day) {
+        return WeatherContract.normalizeDate(START_DATE + day * DAY_IN_MILLIS);
+    }
+
+    // The first seeded day on or after the date.
+    private static int getDay(long date) {
+        int day = 0;
+        while (getDate(day) < date) day++;
+        return day;
+    }
+
+    // The weather ids of a query's rows, which are the days they were seeded for.
+    private List<Integer> readDays(Uri uri, String sortOrder) {
+        Cursor cursor = getContext().getContentResolver().query(uri,
+                WeatherEntry.LIST_PROJECTION, null, null, sortOrder);
+        List<Integer> days = new ArrayList<>();
+        try {
+            while (cursor.moveToNext()) {
+                int day = cursor.getInt(WeatherEntry.LIST_COL_WEATHER_ID);
+                assertEquals("Error: day " + day + " has the wrong date", getDate(day),
+                        cursor.getLong(WeatherEntry.LIST_COL_DATE));
+                days.add(day);
+            }
+        } finally {
+            cursor.close();
+        }
+        return days;
+    }
+
+    private static long count(SQLiteDatabase db, String table) {
+        return DatabaseUtils.longForQuery(db, "SELECT count(*) FROM " + table, null);
+    }
+
+    public void testArchiveMovesWholeMonths() {
+        SQLiteDatabase db = new WeatherDbHelper(getContext()).getReadableDatabase();
+        int cutoffDay = getDay(mCutoff);
+        assertEquals(SEEDED_DAYS - cutoffDay, count(db, WeatherEntry.TABLE_NAME));
+
+        // One partition for each month from December 2014 up to the cutoff, holding that
+        // month and nothing else.
+        int months = 0;
+        for (long month = WeatherContract.getStartOfMonth(getDate(0)); month < mCutoff;
+             month = WeatherContract.getStartOfNextMonth(month)) {
+            months++;
+        }
+        long archived = 0;
+        List<String> partitions = WeatherPartitions.readTableNames(db);
+        assertEquals(months, partitions.size());
+        for (String partition : partitions) {
+            archived += count(db, partition);
+            long first = DatabaseUtils.longForQuery(db, "SELECT min(" +
+                    WeatherEntry.COLUMN_DATE + ") FROM " + partition, null);
+            long last = DatabaseUtils.longForQuery(db, "SELECT max(" +
+                    WeatherEntry.COLUMN_DATE + ") FROM " + partition, null);
+            assertEquals("Error: " + partition + " spans months",
+                    WeatherContract.getStartOfMonth(first), WeatherContract.getStartOfMonth(last));
+        }
+        assertEquals(cutoffDay, archived);
+    }
+
+    public void testLocationUriReadsEveryDayInOrder() {
+        Uri uri = WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION);
+        List<Integer> days = readDays(uri, WeatherEntry.SORT_BY_DATE);
+        assertEquals(SEEDED_DAYS, days.size());
+        for (int i = 0; i < days.size(); i++) assertEquals((Integer) i, days.get(i));
+
+        days = readDays(uri, WeatherEntry.COLUMN_DATE + " DESC");
+        assertEquals(SEEDED_DAYS, days.size());
+        for (int i = 0; i < days.size(); i++) {
+            assertEquals((Integer) (SEEDED_DAYS - 1 - i), days.get(i));
+        }
+
+        // From a start date after the cutoff, only the weather table is read.
+        days = readDays(WeatherEntry.buildWeatherLocationWithStartDate(
+                TestUtilities.TEST_LOCATION, getDate(SEEDED_DAYS - 14)), WeatherEntry.SORT_BY_DATE);
+        assertEquals(14, days.size());
+    }
+
+    public void testArchivedDayIsReadFromItsPartition() {
+        QueryProfiler profiler = mProvider.getProfiler();
+        profiler.clear();
+        profiler.setEnabled(true);
+        profiler.setThresholdMillis(0);
+
+        int day = 100;
+        Cursor cursor = getContext().getContentResolver().query(
+                WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION,
+                        getDate(day)), WeatherEntry.DETAIL_PROJECTION, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(day, cursor.getInt(WeatherEntry.DETAIL_COL_WEATHER_ID));
+        } finally {
+            cursor.close();
+        }
+
+        String sql = profiler.getSlowCalls().get(0).getSql();
+        SQLiteDatabase db = new WeatherDbHelper(getContext()).getReadableDatabase();
+        String partition = getPartition(db, getDate(day));
+        assertTrue("Error: expected " + partition + " in " + sql, sql.contains(partition));
+    }
+
+    public void testRangeReadsOnlyOverlappingPartitions() {
+        QueryProfiler profiler = mProvider.getProfiler();
+        profiler.clear();
+        profiler.setEnabled(true);
+        profiler.setThresholdMillis(0);
+
+        // Ten days in the middle of one archived month.
+        long monthStart = WeatherContract.getStartOfMonth(getDate(200));
+        int first = getDay(monthStart) + 5;
+        Uri uri = WeatherEntry.buildWeatherRange(TestUtilities.TEST_LOCATION,
+                getDate(first), getDate(first + 10), 30);
+        List<Integer> days = readDays(uri, null);
+        assertEquals(10, days.size());
+        assertEquals((Integer) first, days.get(0));
+
+        QueryProfiler.Call call = profiler.getSlowCalls().get(0);
+        SQLiteDatabase db = new WeatherDbHelper(getContext()).getReadableDatabase();
+        for (String partition : WeatherPartitions.readTableNames(db)) {
+            assertEquals("Error: wrong tables read by " + call.getSql(),
+                    partition.equals(getPartition(db, monthStart)),
+                    call.getSql().contains(partition));
+        }
+        assertTrue("Error: a partition search should use its index: " + call.getPlan(),
+                call.getPlan().contains("INDEX"));
+    }
+
+    public void testRangePagesAcrossTheCutoff() {
+        int cutoffDay = getDay(mCutoff);
+        Uri uri = WeatherEntry.buildWeatherRange(TestUtilities.TEST_LOCATION,
+                getDate(cutoffDay - 95), getDate(cutoffDay + 95), 30);
+
+        List<Integer> all = new ArrayList<>();
+        while (true) {
+            List<Integer> page = readDays(uri, null);
+            assertTrue("Error: page larger than the limit", page.size() <= 30);
+            if (page.isEmpty()) break;
+            all.addAll(page);
+            uri = WeatherEntry.buildNextPage(uri, getDate(page.get(page.size() - 1)));
+        }
+        assertEquals(190, all.size());
+        for (int i = 0; i < all.size(); i++) {
+            assertEquals((Integer) (cutoffDay - 95 + i), all.get(i));
+        }
+    }
+
+    public void testOtherSortOrderReadsEveryDay() {
+        List<Integer> days = readDays(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                WeatherEntry.COLUMN_WEATHER_ID + " DESC");
+        assertEquals(SEEDED_DAYS, days.size());
+        for (int i = 0; i < days.size(); i++) {
+            assertEquals((Integer) (SEEDED_DAYS - 1 - i), days.get(i));
+        }
+    }
+
+    public void testWeatherUriReadsArchivedDays() {
+        List<Integer> days = readDays(WeatherEntry.CONTENT_URI, WeatherEntry.SORT_BY_DATE);
+        assertEquals(SEEDED_DAYS, days.size());
+        for (int i = 0; i < days.size(); i++) assertEquals((Integer) i, days.get(i));
+    }
+
+    public void testDeleteWithSelectionReachesTheArchive() {
+        // Ten archived days and ten live ones.
+        int deleted = getContext().getContentResolver().delete(WeatherEntry.CONTENT_URI,
+                WeatherEntry.COLUMN_WEATHER_ID + " < ? OR " + WeatherEntry.COLUMN_WEATHER_ID +
+                        " >= ?", new String[]{"10", Integer.toString(SEEDED_DAYS - 10)});
+        assertEquals(20, deleted);
+
+        List<Integer> days = readDays(WeatherEntry.buildWeatherLocation(
+                TestUtilities.TEST_LOCATION), WeatherEntry.SORT_BY_DATE);
+        assertEquals(SEEDED_DAYS - 20, days.size());
+        assertEquals((Integer) 10, days.get(0));
+        assertEquals((Integer) (SEEDED_DAYS - 11), days.get(days.size() - 1));
+    }
+
+    public void testUpdateReachesTheArchive() {
+        ContentValues values = new ContentValues();
+        values.put(WeatherEntry.COLUMN_SHORT_DESC, "Sleet");
+        String selection = WeatherEntry.COLUMN_WEATHER_ID + " < ? OR " +
+                WeatherEntry.COLUMN_WEATHER_ID + " >= ?";
+        String[] selectionArgs = new String[]{"10", Integer.toString(SEEDED_DAYS - 10)};
+        assertEquals(20, getContext().getContentResolver().update(WeatherEntry.CONTENT_URI,
+                values, selection, selectionArgs));
+
+        Cursor cursor = getContext().getContentResolver().query(WeatherEntry.CONTENT_URI,
+                WeatherEntry.LIST_PROJECTION, WeatherEntry.COLUMN_SHORT_DESC + " = ?",
+                new String[]{"Sleet"}, null);
+        assertEquals(20, cursor.getCount());
+        cursor.close();
+
+        // Moving an archived day past the cutoff would leave it in the wrong table.
+        values.put(WeatherEntry.COLUMN_DATE, getDate(SEEDED_DAYS + 5));
+        try {
+            getContext().getContentResolver().update(WeatherEntry.CONTENT_URI, values,
+                    WeatherEntry.COLUMN_WEATHER_ID + " = ?", new String[]{"3"});
+            fail("Error: an archived day was moved out of its partition");
+        } catch (IllegalArgumentException expected) {
+        }
+        List<Integer> days = readDays(WeatherEntry.buildWeatherLocation(
+                TestUtilities.TEST_LOCATION), WeatherEntry.SORT_BY_DATE);
+        assertEquals(SEEDED_DAYS, days.size());
+        assertEquals((Integer) 3, days.get(3));
+    }
+
+    public void testDropRemovesWholeMonths() {
+        SQLiteDatabase db = new WeatherDbHelper(getContext()).getReadableDatabase();
+        int partitions = WeatherPartitions.readTableNames(db).size();
+        long dropBefore = WeatherContract.getStartOfMonth(getDate(200));
+        long monthlyRollups = count(db, RollupEntry.MONTHLY_TABLE_NAME);
+
+        int dropped = mProvider.dropArchiveBefore(getDate(200));
+        assertTrue(dropped > 0);
+        assertEquals(partitions - dropped, WeatherPartitions.readTableNames(db).size());
+
+        List<Integer> days = readDays(WeatherEntry.buildWeatherLocation(
+                TestUtilities.TEST_LOCATION), WeatherEntry.SORT_BY_DATE);
+        assertEquals(SEEDED_DAYS - getDay(dropBefore), days.size());
+        assertEquals((Integer) getDay(dropBefore), days.get(0));
+
+        // The summaries of the dropped months outlive their days.
+        assertEquals(monthlyRollups, count(db, RollupEntry.MONTHLY_TABLE_NAME));
+    }
+
+    public void testInsertBeforeCutoffGoesToItsPartition() throws Exception {
+        int day = 300;
+        ForecastBatch batch = new ForecastBatch(mLocationId, 1);
+        batch.add(getDate(day), -5, 5, 80, 1000, 2.5f, 90, day + 5000, "Snow");
+        assertEquals(1, mProvider.bulkInsert(batch, Deadline.none()));
+
+        SQLiteDatabase db = new WeatherDbHelper(getContext()).getReadableDatabase();
+        assertEquals(SEEDED_DAYS - getDay(mCutoff), count(db, WeatherEntry.TABLE_NAME));
+        assertEquals(day + 5000, DatabaseUtils.longForQuery(db, "SELECT " +
+                WeatherEntry.COLUMN_WEATHER_ID + " FROM " + getPartition(db, getDate(day)) +
+                " WHERE " + WeatherEntry.COLUMN_DATE + " = ?",
+                new String[]{Long.toString(getDate(day))}));
+    }
+
+    public void testDeleteAllDropsTheArchive() {
+        SQLiteDatabase db = new WeatherDbHelper(getContext()).getReadableDatabase();
+        int deleted = getContext().getContentResolver().delete(WeatherEntry.CONTENT_URI, null,
+                null);
+        assertEquals(SEEDED_DAYS, deleted);
+        assertTrue(WeatherPartitions.readTableNames(db).isEmpty());
+    }
+
+    // The partition the date's month was archived to.
+    private static String getPartition(SQLiteDatabase db, long date) {
+        for (String partition : WeatherPartitions.readTableNames(db)) {
+            long start = DatabaseUtils.longForQuery(db, "SELECT min(" +
+                    WeatherEntry.COLUMN_DATE + ") FROM " + partition, null);
+            if (WeatherContract.getStartOfMonth(start) == WeatherContract.getStartOfMonth(date)) {
+                return partition;
+            }
+        }
+        fail("Error: no partition for " + date);
+        return null;
+    }
+}
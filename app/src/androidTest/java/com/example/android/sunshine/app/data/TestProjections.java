@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.annotation.TargetApi;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.CursorWindow;
+import android.database.DatabaseUtils;
+import android.net.Uri;
+import android.os.Build;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.io.UnsupportedEncodingException;
+
+/*
+    Checks that the named projections in WeatherContract line up with their column index
+    constants, and measures how much each one copies across the provider boundary compared with
+    a null (all columns) projection.
+ */
+public class TestProjections extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestProjections.class.getSimpleName();
+
+    // A two week forecast, and a long history that spills over more than one cursor window.
+    private static final int FORECAST_DAYS = 14;
+    private static final int HISTORY_DAYS = 20000;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        TestUtilities.deleteAllRecordsFromProvider(getContext());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TestUtilities.deleteAllRecordsFromProvider(getContext());
+        super.tearDown();
+    }
+
+    public void testListProjectionIndices() {
+        seed(FORECAST_DAYS);
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                WeatherEntry.LIST_PROJECTION, null, null, WeatherEntry.SORT_BY_DATE);
+
+        assertEquals(WeatherEntry.LIST_PROJECTION.length, cursor.getColumnCount());
+        assertEquals(WeatherEntry.LIST_COL_ID, cursor.getColumnIndex(WeatherEntry._ID));
+        assertEquals(WeatherEntry.LIST_COL_DATE, cursor.getColumnIndex(WeatherEntry.COLUMN_DATE));
+        assertEquals(WeatherEntry.LIST_COL_SHORT_DESC,
+                cursor.getColumnIndex(WeatherEntry.COLUMN_SHORT_DESC));
+        assertEquals(WeatherEntry.LIST_COL_MAX_TEMP,
+                cursor.getColumnIndex(WeatherEntry.COLUMN_MAX_TEMP));
+        assertEquals(WeatherEntry.LIST_COL_MIN_TEMP,
+                cursor.getColumnIndex(WeatherEntry.COLUMN_MIN_TEMP));
+        assertEquals(WeatherEntry.LIST_COL_WEATHER_ID,
+                cursor.getColumnIndex(WeatherEntry.COLUMN_WEATHER_ID));
+
+        assertTrue(cursor.moveToFirst());
+        assertEquals("Asteroids", cursor.getString(WeatherEntry.LIST_COL_SHORT_DESC));
+        assertEquals(321, cursor.getInt(WeatherEntry.LIST_COL_WEATHER_ID));
+        cursor.close();
+    }
+
+    public void testDetailProjectionIndices() {
+        seed(FORECAST_DAYS);
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION,
+                        TestUtilities.TEST_DATE),
+                WeatherEntry.DETAIL_PROJECTION, null, null, null);
+
+        assertEquals(WeatherEntry.DETAIL_PROJECTION.length, cursor.getColumnCount());
+        assertEquals(WeatherEntry.DETAIL_COL_HUMIDITY,
+                cursor.getColumnIndex(WeatherEntry.COLUMN_HUMIDITY));
+        assertEquals(WeatherEntry.DETAIL_COL_PRESSURE,
+                cursor.getColumnIndex(WeatherEntry.COLUMN_PRESSURE));
+        assertEquals(WeatherEntry.DETAIL_COL_WIND_SPEED,
+                cursor.getColumnIndex(WeatherEntry.COLUMN_WIND_SPEED));
+        assertEquals(WeatherEntry.DETAIL_COL_DEGREES,
+                cursor.getColumnIndex(WeatherEntry.COLUMN_DEGREES));
+
+        // The detail projection starts with the list projection
+        for (int i = 0; i < WeatherEntry.LIST_PROJECTION.length; i++) {
+            assertEquals(WeatherEntry.LIST_PROJECTION[i], WeatherEntry.DETAIL_PROJECTION[i]);
+        }
+
+        assertTrue(cursor.moveToFirst());
+        assertEquals(5.5, cursor.getDouble(WeatherEntry.DETAIL_COL_WIND_SPEED), 0.001);
+        cursor.close();
+    }
+
+    public void testMapProjectionIndices() {
+        seed(FORECAST_DAYS);
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                LocationEntry.MAP_PROJECTION, null, null, null);
+
+        assertTrue(cursor.moveToFirst());
+        assertEquals(TestUtilities.TEST_LOCATION,
+                cursor.getString(LocationEntry.MAP_COL_LOCATION_SETTING));
+        assertEquals(64.7488, cursor.getDouble(LocationEntry.MAP_COL_COORD_LAT), 0.0001);
+        assertEquals(-147.353, cursor.getDouble(LocationEntry.MAP_COL_COORD_LONG), 0.0001);
+        cursor.close();
+    }
+
+    @TargetApi(15)
+    public void testWindowFillsAndBytesPerQuery() {
+        // DatabaseUtils.cursorFillWindow showed up in API level 15.
+        if (Build.VERSION.SDK_INT < 15) return;
+
+        for (int days : new int[]{FORECAST_DAYS, HISTORY_DAYS}) {
+            TestUtilities.deleteAllRecordsFromProvider(getContext());
+            seed(days);
+            Uri uri = WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION);
+
+            long[] all = measure(uri, null);
+            long[] list = measure(uri, WeatherEntry.LIST_PROJECTION);
+            long[] detail = measure(uri, WeatherEntry.DETAIL_PROJECTION);
+
+            Log.i(LOG_TAG, days + " days: null projection " + all[0] + " window fills, " +
+                    all[1] + " bytes; list " + list[0] + " fills, " + list[1] + " bytes; detail " +
+                    detail[0] + " fills, " + detail[1] + " bytes");
+
+            assertTrue("Error: the list projection should copy less than all columns",
+                    list[1] < all[1]);
+            assertTrue("Error: the list projection should never need more window fills",
+                    list[0] <= all[0]);
+            assertTrue("Error: the detail projection should copy less than all columns",
+                    detail[1] < all[1]);
+        }
+    }
+
+    /**
+     * Copies the whole query result through cursor windows the way a cross-process cursor
+     * does, and returns {number of window fills, bytes of field data copied}.  Strings are
+     * counted as their UTF-8 bytes plus a terminator, which is how CursorWindow stores them.
+     */
+    @TargetApi(15)
+    private long[] measure(Uri uri, String[] projection) {
+        Cursor cursor = mContext.getContentResolver().query(uri, projection, null, null,
+                WeatherEntry.SORT_BY_DATE);
+        int count = cursor.getCount();
+        CursorWindow window = new CursorWindow(LOG_TAG);
+        long fills = 0;
+        try {
+            for (int position = 0; position < count; position += window.getNumRows()) {
+                window.clear();
+                DatabaseUtils.cursorFillWindow(cursor, position, window);
+                fills++;
+                assertTrue("Error: no rows fit in the cursor window", window.getNumRows() > 0);
+            }
+        } finally {
+            window.close();
+        }
+
+        long bytes = 0;
+        int columns = cursor.getColumnCount();
+        for (cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
+            for (int column = 0; column < columns; column++) {
+                bytes += fieldSize(cursor, column);
+            }
+        }
+        cursor.close();
+        return new long[]{fills, bytes};
+    }
+
+    @TargetApi(11)
+    private static long fieldSize(Cursor cursor, int column) {
+        switch (cursor.getType(column)) {
+            case Cursor.FIELD_TYPE_INTEGER:
+            case Cursor.FIELD_TYPE_FLOAT:
+                return 8;
+            case Cursor.FIELD_TYPE_STRING:
+                try {
+                    return cursor.getString(column).getBytes("UTF-8").length + 1;
+                } catch (UnsupportedEncodingException e) {
+                    throw new AssertionError(e);
+                }
+            case Cursor.FIELD_TYPE_BLOB:
+                return cursor.getBlob(column).length;
+            default:
+                return 0;
+        }
+    }
+
+    private void seed(int days) {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        ContentValues[] values = new ContentValues[days];
+        for (int i = 0; i < days; i++) {
+            values[i] = TestUtilities.createWeatherValues(locationRowId);
+            values[i].put(WeatherEntry.COLUMN_DATE,
+                    TestUtilities.TEST_DATE + i * 1000L * 60 * 60 * 24);
+        }
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, values);
+    }
+}
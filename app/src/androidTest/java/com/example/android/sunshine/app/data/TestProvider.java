@@ -51,36 +51,7 @@ public class TestProvider extends AndroidTestCase {
        the delete functionality in the ContentProvider.
      */
     public void deleteAllRecordsFromProvider() {
-        mContext.getContentResolver().delete(
-                WeatherEntry.CONTENT_URI,
-                null,
-                null
-        );
-        mContext.getContentResolver().delete(
-                LocationEntry.CONTENT_URI,
-                null,
-                null
-        );
-
-        Cursor cursor = mContext.getContentResolver().query(
-                WeatherEntry.CONTENT_URI,
-                null,
-                null,
-                null,
-                null
-        );
-        assertEquals("Error: Records not deleted from Weather table during delete", 0, cursor.getCount());
-        cursor.close();
-
-        cursor = mContext.getContentResolver().query(
-                LocationEntry.CONTENT_URI,
-                null,
-                null,
-                null,
-                null
-        );
-        assertEquals("Error: Records not deleted from Location table during delete", 0, cursor.getCount());
-        cursor.close();
+        TestUtilities.deleteAllRecordsFromProvider(mContext);
     }
 
     /*
@@ -167,11 +138,43 @@ public class TestProvider extends AndroidTestCase {
         assertEquals("Error: the WeatherEntry CONTENT_URI with location and date should return WeatherEntry.CONTENT_ITEM_TYPE",
                 WeatherEntry.CONTENT_ITEM_TYPE, type);
 
+        // content://com.example.android.sunshine.app/weather/94074/range?start=...
+        type = mContext.getContentResolver().getType(
+                WeatherEntry.buildWeatherRange(testLocation, testDate, testDate, 10));
+        // vnd.android.cursor.dir/com.example.android.sunshine.app/weather
+        assertEquals("Error: the WeatherEntry range URI should return WeatherEntry.CONTENT_TYPE",
+                WeatherEntry.CONTENT_TYPE, type);
+
+        // content://com.example.android.sunshine.app/weather/94074/monthly?start=...
+        type = mContext.getContentResolver().getType(
+                WeatherContract.RollupEntry.buildMonthlyUri(testLocation, testDate, testDate));
+        // vnd.android.cursor.dir/com.example.android.sunshine.app/rollup
+        assertEquals("Error: the monthly URI should return RollupEntry.CONTENT_TYPE",
+                WeatherContract.RollupEntry.CONTENT_TYPE, type);
+
         // content://com.example.android.sunshine.app/location/
         type = mContext.getContentResolver().getType(LocationEntry.CONTENT_URI);
         // vnd.android.cursor.dir/com.example.android.sunshine.app/location
         assertEquals("Error: the LocationEntry CONTENT_URI should return LocationEntry.CONTENT_TYPE",
                 LocationEntry.CONTENT_TYPE, type);
+
+        // content://com.example.android.sunshine.app/location/search?q=...
+        type = mContext.getContentResolver().getType(LocationEntry.buildSearchUri("north", 20));
+        // vnd.android.cursor.dir/com.example.android.sunshine.app/location
+        assertEquals("Error: the location search URI should return LocationEntry.CONTENT_TYPE",
+                LocationEntry.CONTENT_TYPE, type);
+
+        // content://com.example.android.sunshine.app/location/box?south=...
+        type = mContext.getContentResolver().getType(LocationEntry.buildBoxUri(64, -148, 65, -147));
+        // vnd.android.cursor.dir/com.example.android.sunshine.app/location
+        assertEquals("Error: the location box URI should return LocationEntry.CONTENT_TYPE",
+                LocationEntry.CONTENT_TYPE, type);
+
+        // content://com.example.android.sunshine.app/location/nearest?lat=...&lon=...
+        type = mContext.getContentResolver().getType(LocationEntry.buildNearestUri(64.7, -147.3));
+        // vnd.android.cursor.item/com.example.android.sunshine.app/location
+        assertEquals("Error: the location nearest URI should return LocationEntry.CONTENT_ITEM_TYPE",
+                LocationEntry.CONTENT_ITEM_TYPE, type);
     }
 
 
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.annotation.TargetApi;
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.utils.Deadline;
+import com.example.android.sunshine.core.ForecastBatch;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.List;
+
+/*
+    Seeds a large forecast, runs queries that have to scan it, and checks that the profiler
+    catches them with their query plans while keeping its ring buffer bounded.
+ */
+@TargetApi(11)
+public class TestQueryProfiler extends AndroidTestCase {
+
+    private static final int SEEDED_DAYS = 30000;
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000L;
+    private static final long START_DATE = 1419033600000L;  // December 20th, 2014
+
+    private WeatherProvider mProvider;
+    private QueryProfiler mProfiler;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        TestUtilities.deleteAllRecordsFromProvider(getContext());
+        mProvider = (WeatherProvider) getContext().getContentResolver()
+                .acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY)
+                .getLocalContentProvider();
+        mProfiler = mProvider.getProfiler();
+        mProfiler.clear();
+        mProfiler.setEnabled(true);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mProfiler.setEnabled(false);
+        mProfiler.setThresholdMillis(QueryProfiler.DEFAULT_THRESHOLD_MILLIS);
+        mProfiler.clear();
+        TestUtilities.deleteAllRecordsFromProvider(getContext());
+        super.tearDown();
+    }
+
+    // Years of days for one location, so that a query on an unindexed column has plenty to
+    // scan.  The weather ids cycle, so each one matches a known number of days.
+    private long seed() throws Deadline.ExpiredException {
+        long locationId = TestUtilities.insertNorthPoleLocationValues(getContext());
+        ForecastBatch batch = new ForecastBatch(locationId, SEEDED_DAYS);
+        for (int day = 0; day < SEEDED_DAYS; day++) {
+            batch.add(START_DATE + day * DAY_IN_MILLIS, -5, 5, 80, 1000, 2.5f, 90,
+                    200 + day % 100, "Snow");
+        }
+        assertEquals(SEEDED_DAYS, mProvider.bulkInsert(batch, Deadline.none()));
+        return locationId;
+    }
+
+    public void testSlowUnindexedQueryIsCaptured() throws Exception {
+        seed();
+        mProfiler.clear();
+        mProfiler.setThresholdMillis(1);
+
+        // Nothing indexes weather_id, so this scans every row of the join.
+        Cursor cursor = getContext().getContentResolver().query(WeatherEntry.CONTENT_URI,
+                WeatherEntry.LIST_PROJECTION, WeatherEntry.COLUMN_WEATHER_ID + " = ?",
+                new String[]{"242"}, WeatherEntry.SORT_BY_DATE);
+        assertEquals(SEEDED_DAYS / 100, cursor.getCount());
+        cursor.close();
+
+        List<QueryProfiler.Call> slow = mProfiler.getSlowCalls();
+        assertEquals("Error: the scan should have been slow", 1, slow.size());
+        QueryProfiler.Call call = slow.get(0);
+        assertEquals("query", call.getOperation());
+        assertEquals(WeatherContract.PATH_WEATHER, call.getRoute());
+        assertTrue(call.getSql().contains(WeatherEntry.COLUMN_WEATHER_ID + " = ?"));
+        assertEquals("242", call.getArgs()[0]);
+        assertEquals(SEEDED_DAYS / 100, call.getRows());
+        assertTrue(call.getWindowFills() >= 1);
+        assertTrue(call.getWallNanos() >= 1000000);
+        assertNotNull("Error: a slow call should carry its query plan", call.getPlan());
+        assertTrue("Error: expected a table scan in " + call.getPlan(),
+                call.getPlan().contains("SCAN")
+                        && call.getPlan().contains(WeatherEntry.TABLE_NAME));
+
+        StringWriter dump = new StringWriter();
+        mProvider.dump(null, new PrintWriter(dump), null);
+        assertTrue(dump.toString().contains(call.getPlan()));
+    }
+
+    public void testFastCallsAreCountedButNotKept() throws Exception {
+        mProfiler.setThresholdMillis(60 * 1000);
+
+        long locationId = TestUtilities.insertNorthPoleLocationValues(getContext());
+        Cursor cursor = getContext().getContentResolver().query(LocationEntry.CONTENT_URI,
+                null, LocationEntry._ID + " = ?", new String[]{Long.toString(locationId)}, null);
+        assertEquals(1, cursor.getCount());
+        cursor.close();
+
+        assertEquals(1, mProfiler.getProfiledCount());
+        assertEquals(0, mProfiler.getSlowCount());
+        assertTrue(mProfiler.getSlowCalls().isEmpty());
+    }
+
+    public void testWritesAreExplainedThroughTheirLookup() throws Exception {
+        seed();
+        mProfiler.clear();
+        mProfiler.setThresholdMillis(0);
+
+        int deleted = getContext().getContentResolver().delete(WeatherEntry.CONTENT_URI,
+                WeatherEntry.COLUMN_WEATHER_ID + " = ?", new String[]{"250"});
+        assertEquals(SEEDED_DAYS / 100, deleted);
+
+        List<QueryProfiler.Call> slow = mProfiler.getSlowCalls();
+        assertEquals(1, slow.size());
+        QueryProfiler.Call call = slow.get(0);
+        assertEquals("delete", call.getOperation());
+        assertEquals(deleted, call.getRows());
+        assertTrue(call.getSql().startsWith("DELETE FROM " + WeatherEntry.TABLE_NAME));
+        assertTrue("Error: expected a table scan in " + call.getPlan(),
+                call.getPlan().contains("SCAN"));
+    }
+
+    public void testLargeResultCountsWindowFills() throws Exception {
+        seed();
+        mProfiler.clear();
+        mProfiler.setThresholdMillis(0);
+
+        // Too many rows for the result cache, so the caller reads them straight from SQLite.
+        Cursor cursor = getContext().getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                WeatherEntry.DETAIL_PROJECTION, null, null, WeatherEntry.SORT_BY_DATE);
+        int rows = 0;
+        while (cursor.moveToNext()) rows++;
+        cursor.close();
+        assertEquals(SEEDED_DAYS, rows);
+
+        QueryProfiler.Call call = mProfiler.getSlowCalls().get(0);
+        assertEquals(SEEDED_DAYS, call.getRows());
+        assertTrue("Error: " + call.getWindowFills() + " window fills",
+                call.getWindowFills() >= 1);
+    }
+
+    public void testRingBufferIsBounded() throws Exception {
+        mProfiler.setThresholdMillis(0);
+
+        int calls = QueryProfiler.DEFAULT_CAPACITY + 5;
+        for (int i = 0; i < calls; i++) {
+            Cursor cursor = getContext().getContentResolver().query(LocationEntry.CONTENT_URI,
+                    null, LocationEntry._ID + " = ?", new String[]{Integer.toString(i)}, null);
+            cursor.close();
+        }
+
+        List<QueryProfiler.Call> slow = mProfiler.getSlowCalls();
+        assertEquals(QueryProfiler.DEFAULT_CAPACITY, slow.size());
+        assertEquals(calls, mProfiler.getSlowCount());
+        // Oldest first, with the first five pushed out.
+        assertEquals("5", slow.get(0).getArgs()[0]);
+        assertEquals(Integer.toString(calls - 1), slow.get(slow.size() - 1).getArgs()[0]);
+    }
+
+    public void testDisabledProfilerRecordsNothing() {
+        mProfiler.setEnabled(false);
+        mProfiler.setThresholdMillis(0);
+
+        Cursor cursor = getContext().getContentResolver().query(LocationEntry.CONTENT_URI,
+                null, null, null, null);
+        cursor.close();
+
+        assertEquals(0, mProfiler.getProfiledCount());
+        assertNull(mProfiler.current());
+    }
+}
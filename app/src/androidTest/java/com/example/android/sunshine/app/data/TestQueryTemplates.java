@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Checks the per-route query templates used by WeatherProvider, and benchmarks them against
+    the SQLiteQueryBuilder calls they replaced.  The benchmark only logs its numbers; look for
+    the LOG_TAG in logcat.
+ */
+public class TestQueryTemplates extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestQueryTemplates.class.getSimpleName();
+
+    private static final int BENCHMARK_DAYS = 14;
+    private static final long BENCHMARK_MILLIS = 1000;
+
+    private static final String JOIN_TABLES = WeatherEntry.TABLE_NAME + " INNER JOIN " +
+            LocationEntry.TABLE_NAME + " ON " + WeatherEntry.TABLE_NAME + "." +
+            WeatherEntry.COLUMN_LOC_KEY + " = " + LocationEntry.TABLE_NAME + "." +
+            LocationEntry._ID;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        TestUtilities.deleteAllRecordsFromProvider(getContext());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TestUtilities.deleteAllRecordsFromProvider(getContext());
+        super.tearDown();
+    }
+
+    public void testTemplateIsBuiltOnce() {
+        QueryTemplates templates = new QueryTemplates(JOIN_TABLES,
+                LocationEntry.TABLE_NAME + "." + LocationEntry.COLUMN_LOCATION_SETTING + " = ?");
+        String sortOrder = WeatherEntry.COLUMN_DATE + " ASC";
+
+        String first = templates.get(null, sortOrder);
+        String second = templates.get(null, sortOrder);
+        assertSame("Error: the same route and sort order should reuse the same SQL text",
+                first, second);
+
+        // A different array with the same columns is the same template
+        String[] projection = new String[]{WeatherEntry.COLUMN_DATE, WeatherEntry.COLUMN_MAX_TEMP};
+        String third = templates.get(projection, sortOrder);
+        String fourth = templates.get(projection.clone(), sortOrder);
+        assertSame("Error: equal projections should share a template", third, fourth);
+        assertEquals(2, templates.size());
+
+        assertEquals("SELECT date, max FROM " + JOIN_TABLES +
+                " WHERE (location.location_setting = ?) ORDER BY date ASC", third);
+    }
+
+    public void testTemplateCacheIsBounded() {
+        QueryTemplates templates = new QueryTemplates(LocationEntry.TABLE_NAME, null);
+        for (int i = 0; i < QueryTemplates.MAX_TEMPLATES * 2; i++) {
+            templates.get(null, "_id LIMIT " + i);
+        }
+        assertEquals(QueryTemplates.MAX_TEMPLATES, templates.size());
+    }
+
+    public void testCallerSelectionIsApplied() {
+        ContentValues northPole = TestUtilities.createNorthPoleLocationValues();
+        mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, northPole);
+
+        ContentValues elsewhere = new ContentValues(northPole);
+        elsewhere.put(LocationEntry.COLUMN_LOCATION_SETTING, "12345");
+        mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, elsewhere);
+
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI, null,
+                LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{TestUtilities.TEST_LOCATION}, null);
+        assertEquals("Error: the location query ignored the caller's selection",
+                1, cursor.getCount());
+        TestUtilities.validateCursor("testCallerSelectionIsApplied", cursor, northPole);
+    }
+
+    public void testCallerSelectionIsAppliedToDay() {
+        seed();
+        String location = TestUtilities.TEST_LOCATION;
+        // Reading the list first puts its days in the day index, which mustn't answer a
+        // filtered query with an unfiltered row.
+        mContext.getContentResolver().query(WeatherEntry.buildWeatherLocation(location),
+                WeatherEntry.DETAIL_PROJECTION, null, null, WeatherEntry.SORT_BY_DATE).close();
+
+        Uri day = WeatherEntry.buildWeatherLocationWithDate(location, TestUtilities.TEST_DATE);
+        String selection = WeatherEntry.COLUMN_WEATHER_ID + " = ?";
+        Cursor cursor = mContext.getContentResolver().query(day,
+                WeatherEntry.DETAIL_PROJECTION, selection, new String[]{"800"}, null);
+        assertEquals("Error: the day query ignored the caller's selection",
+                0, cursor.getCount());
+        cursor.close();
+
+        cursor = mContext.getContentResolver().query(day,
+                WeatherEntry.DETAIL_PROJECTION, selection, new String[]{"321"}, null);
+        assertEquals(1, cursor.getCount());
+        cursor.close();
+    }
+
+    public void testQueriesPerSecondPerRoute() {
+        long locationRowId = seed();
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getReadableDatabase();
+        String sortOrder = WeatherEntry.COLUMN_DATE + " ASC";
+        String location = TestUtilities.TEST_LOCATION;
+        String date = Long.toString(WeatherContract.normalizeDate(TestUtilities.TEST_DATE));
+
+        SQLiteQueryBuilder join = new SQLiteQueryBuilder();
+        join.setTables(JOIN_TABLES);
+        SQLiteQueryBuilder locationTable = new SQLiteQueryBuilder();
+        locationTable.setTables(LocationEntry.TABLE_NAME);
+
+        report("WEATHER", WeatherEntry.CONTENT_URI, sortOrder,
+                join, db, WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID + " >= ? ",
+                new String[]{"-1"});
+        report("WEATHER_WITH_LOCATION", WeatherEntry.buildWeatherLocation(location), sortOrder,
+                join, db, "location.location_setting = ? ", new String[]{location});
+        report("WEATHER_WITH_LOCATION (start date)",
+                WeatherEntry.buildWeatherLocationWithStartDate(location, TestUtilities.TEST_DATE),
+                sortOrder, join, db, "location.location_setting = ? AND date >= ? ",
+                new String[]{location, date});
+        report("WEATHER_WITH_LOCATION_AND_DATE",
+                WeatherEntry.buildWeatherLocationWithDate(location, TestUtilities.TEST_DATE),
+                null, join, db, "location.location_setting = ? AND date = ? ",
+                new String[]{location, date});
+        report("LOCATION", LocationEntry.CONTENT_URI, null,
+                locationTable, db, LocationEntry.TABLE_NAME + "." + LocationEntry._ID + " >= ? ",
+                new String[]{"-1"});
+
+        db.close();
+        assertTrue(locationRowId != -1);
+    }
+
+    private void report(String route, Uri uri, String sortOrder, SQLiteQueryBuilder builder,
+                        SQLiteDatabase db, String builderSelection, String[] builderArgs) {
+        // warm up both paths so neither pays for opening the database
+        runProvider(uri, sortOrder, 50);
+        runBuilder(builder, db, builderSelection, builderArgs, sortOrder, 50);
+
+        double templateQps = queriesPerSecond(uri, sortOrder);
+
+        int builderQueries = 0;
+        long builderStart = SystemClock.elapsedRealtime();
+        while (SystemClock.elapsedRealtime() - builderStart < BENCHMARK_MILLIS) {
+            builderQueries += runBuilder(builder, db, builderSelection, builderArgs, sortOrder, 10);
+        }
+        double builderQps = builderQueries * 1000.0 /
+                (SystemClock.elapsedRealtime() - builderStart);
+
+        Log.i(LOG_TAG, String.format(
+                "%s: template %.0f queries/sec, query builder %.0f queries/sec",
+                route, templateQps, builderQps));
+        assertTrue("Error: no queries completed for " + route, templateQps > 0);
+    }
+
+    private double queriesPerSecond(Uri uri, String sortOrder) {
+        int queries = 0;
+        long start = SystemClock.elapsedRealtime();
+        while (SystemClock.elapsedRealtime() - start < BENCHMARK_MILLIS) {
+            queries += runProvider(uri, sortOrder, 10);
+        }
+        return queries * 1000.0 / (SystemClock.elapsedRealtime() - start);
+    }
+
+    private int runProvider(Uri uri, String sortOrder, int times) {
+        for (int i = 0; i < times; i++) {
+            Cursor cursor = mContext.getContentResolver().query(uri, null, null, null, sortOrder);
+            assertTrue("Error: empty cursor from " + uri, cursor.getCount() > 0);
+            cursor.close();
+        }
+        return times;
+    }
+
+    private static int runBuilder(SQLiteQueryBuilder builder, SQLiteDatabase db,
+                                  String selection, String[] selectionArgs, String sortOrder,
+                                  int times) {
+        for (int i = 0; i < times; i++) {
+            Cursor cursor = builder.query(db, null, selection, selectionArgs, null, null,
+                    sortOrder);
+            assertTrue("Error: empty cursor from the query builder", cursor.getCount() > 0);
+            cursor.close();
+        }
+        return times;
+    }
+
+    private long seed() {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        ContentValues[] days = new ContentValues[BENCHMARK_DAYS];
+        for (int i = 0; i < BENCHMARK_DAYS; i++) {
+            days[i] = TestUtilities.createWeatherValues(locationRowId);
+            days[i].put(WeatherEntry.COLUMN_DATE,
+                    TestUtilities.TEST_DATE + i * 1000L * 60 * 60 * 24);
+        }
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, days);
+        return locationRowId;
+    }
+}
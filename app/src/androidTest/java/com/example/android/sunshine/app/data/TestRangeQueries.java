@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.annotation.TargetApi;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.utils.Deadline;
+import com.example.android.sunshine.core.ForecastBatch;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    Seeds a few years of days for two locations and pages through date ranges of one of them,
+    checking that the pages add up to exactly the range, stay put when rows are written between
+    them, and are read straight off the (location_id, date) index.
+ */
+@TargetApi(11)
+public class TestRangeQueries extends AndroidTestCase {
+
+    private static final int SEEDED_DAYS = 1000;
+    private static final int PAGE_SIZE = 30;
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000L;
+    private static final long START_DATE = 1419033600000L;  // December 20th, 2014
+    private static final String OTHER_LOCATION_SETTING = "99710";
+
+    private WeatherProvider mProvider;
+    private long mLocationId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        TestUtilities.deleteAllRecordsFromProvider(getContext());
+        mProvider = (WeatherProvider) getContext().getContentResolver()
+                .acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY)
+                .getLocalContentProvider();
+        mLocationId = TestUtilities.insertNorthPoleLocationValues(getContext());
+        seed(mLocationId, 0);
+
+        // The same days somewhere else, which no page of the North Pole may pick up.
+        ContentValues other = TestUtilities.createNorthPoleLocationValues();
+        other.put(LocationEntry.COLUMN_LOCATION_SETTING, OTHER_LOCATION_SETTING);
+        long otherId = ContentUris.parseId(
+                getContext().getContentResolver().insert(LocationEntry.CONTENT_URI, other));
+        seed(otherId, 10000);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        QueryProfiler profiler = mProvider.getProfiler();
+        profiler.setEnabled(false);
+        profiler.setThresholdMillis(QueryProfiler.DEFAULT_THRESHOLD_MILLIS);
+        profiler.clear();
+        TestUtilities.deleteAllRecordsFromProvider(getContext());
+        super.tearDown();
+    }
+
+    // Every day gets a weather id of its own, so a row can be told apart by it.
+    private void seed(long locationId, int firstWeatherId) throws Deadline.ExpiredException {
+        ForecastBatch batch = new ForecastBatch(locationId, SEEDED_DAYS);
+        for (int day = 0; day < SEEDED_DAYS; day++) {
+            batch.add(getDate(day), -5, 5, 80, 1000, 2.5f, 90, firstWeatherId + day, "Snow");
+        }
+        assertEquals(SEEDED_DAYS, mProvider.bulkInsert(batch, Deadline.none()));
+    }
+
+    private static long getDate(int day) {
+        return WeatherContract.normalizeDate(START_DATE + day * DAY_IN_MILLIS);
+    }
+
+    // The dates of one page, checking on the way that they're the North Pole's and ascending.
+    private List<Long> readPage(Uri uri) {
+        Cursor cursor = getContext().getContentResolver().query(uri,
+                WeatherEntry.LIST_PROJECTION, null, null, null);
+        List<Long> dates = new ArrayList<>();
+        try {
+            while (cursor.moveToNext()) {
+                long date = cursor.getLong(WeatherEntry.LIST_COL_DATE);
+                assertTrue("Error: another location's day in the page",
+                        cursor.getInt(WeatherEntry.LIST_COL_WEATHER_ID) < 10000);
+                if (!dates.isEmpty()) {
+                    assertTrue("Error: page out of date order", date > dates.get(dates.size() - 1));
+                }
+                dates.add(date);
+            }
+        } finally {
+            cursor.close();
+        }
+        return dates;
+    }
+
+    public void testPagesCoverTheRangeExactly() {
+        int first = 100;
+        int end = 705;
+        Uri uri = WeatherEntry.buildWeatherRange(TestUtilities.TEST_LOCATION,
+                getDate(first), getDate(end), PAGE_SIZE);
+
+        List<Long> all = new ArrayList<>();
+        int pages = 0;
+        while (true) {
+            List<Long> page = readPage(uri);
+            assertTrue("Error: page larger than the limit", page.size() <= PAGE_SIZE);
+            if (page.isEmpty()) break;
+            all.addAll(page);
+            pages++;
+            uri = WeatherEntry.buildNextPage(uri, page.get(page.size() - 1));
+        }
+
+        // [first, end) and no more: the end date is left out.
+        assertEquals(end - first, all.size());
+        for (int i = 0; i < all.size(); i++) {
+            assertEquals("Error: wrong day " + i, getDate(first + i), (long) all.get(i));
+        }
+        assertEquals((end - first + PAGE_SIZE - 1) / PAGE_SIZE, pages);
+    }
+
+    public void testLaterPageIsNotShiftedByWrites() {
+        Uri uri = WeatherEntry.buildWeatherRange(TestUtilities.TEST_LOCATION,
+                getDate(0), getDate(SEEDED_DAYS), PAGE_SIZE);
+        List<Long> page = readPage(uri);
+        assertEquals(PAGE_SIZE, page.size());
+
+        // Days go away from the start of the range, before the next page is read.
+        int deleted = getContext().getContentResolver().delete(WeatherEntry.CONTENT_URI,
+                WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DATE + " < ?",
+                new String[]{Long.toString(mLocationId), Long.toString(getDate(10))});
+        assertEquals(10, deleted);
+
+        // An offset would now skip ten days; the page after the last date seen skips none.
+        List<Long> next = readPage(WeatherEntry.buildNextPage(uri, page.get(page.size() - 1)));
+        assertEquals(PAGE_SIZE, next.size());
+        assertEquals(getDate(PAGE_SIZE), (long) next.get(0));
+    }
+
+    public void testRangeWithoutLimitReturnsEveryDay() {
+        Uri uri = WeatherEntry.buildWeatherRange(TestUtilities.TEST_LOCATION,
+                getDate(200), getDate(300), -1);
+        assertEquals(100, readPage(uri).size());
+    }
+
+    public void testDeepPageReadsOnlyItsRows() {
+        QueryProfiler profiler = mProvider.getProfiler();
+        profiler.clear();
+        profiler.setEnabled(true);
+        profiler.setThresholdMillis(0);
+
+        Uri uri = WeatherEntry.buildNextPage(WeatherEntry.buildWeatherRange(
+                        TestUtilities.TEST_LOCATION, getDate(0), getDate(SEEDED_DAYS), PAGE_SIZE),
+                getDate(SEEDED_DAYS - 2 * PAGE_SIZE));
+        assertEquals(PAGE_SIZE, readPage(uri).size());
+
+        QueryProfiler.Call call = profiler.getSlowCalls().get(0);
+        assertEquals(PAGE_SIZE, call.getRows());
+        String plan = call.getPlan();
+        assertTrue("Error: expected an index search of weather in " + plan,
+                plan.contains("SEARCH") && plan.contains(WeatherEntry.TABLE_NAME)
+                        && plan.contains("INDEX"));
+        assertFalse("Error: a page shouldn't need sorting: " + plan, plan.contains("TEMP B-TREE"));
+    }
+
+    public void testOtherSortOrderIsRejected() {
+        Uri uri = WeatherEntry.buildWeatherRange(TestUtilities.TEST_LOCATION,
+                getDate(0), getDate(SEEDED_DAYS), PAGE_SIZE);
+        try {
+            getContext().getContentResolver().query(uri, WeatherEntry.LIST_PROJECTION, null, null,
+                    WeatherEntry.COLUMN_DATE + " DESC");
+            fail("Error: a range can only be paged in date order");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
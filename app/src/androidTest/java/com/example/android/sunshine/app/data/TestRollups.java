@@ -0,0 +1,274 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.RollupEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.utils.Deadline;
+import com.example.android.sunshine.core.ForecastBatch;
+
+import java.util.Random;
+import java.util.TreeSet;
+
+/*
+    Writes weather through every provider write path and, after each, checks every weekly and
+    monthly rollup row against the same summary worked out from scratch with an aggregate over
+    the weather table.
+ */
+public class TestRollups extends AndroidTestCase {
+
+    private static final int SEEDED_DAYS = 400;
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000L;
+    private static final long START_DATE = 1419033600000L;  // December 20th, 2014
+    private static final String OTHER_LOCATION_SETTING = "99711";
+    private static final double DELTA = 1e-4;
+
+    // The summary of one location's days in [start, end), from scratch.
+    private static final String BRUTE_FORCE_SQL = "SELECT count(*), " +
+            "min(" + WeatherEntry.COLUMN_MIN_TEMP + "), " +
+            "max(" + WeatherEntry.COLUMN_MAX_TEMP + "), " +
+            "sum(" + WeatherEntry.COLUMN_MIN_TEMP + " + " + WeatherEntry.COLUMN_MAX_TEMP +
+            ") / (2.0 * count(*)), " +
+            "min(" + WeatherEntry.COLUMN_HUMIDITY + "), " +
+            "max(" + WeatherEntry.COLUMN_HUMIDITY + "), " +
+            "sum(" + WeatherEntry.COLUMN_HUMIDITY + ") / count(*), " +
+            "min(" + WeatherEntry.COLUMN_WIND_SPEED + "), " +
+            "max(" + WeatherEntry.COLUMN_WIND_SPEED + "), " +
+            "sum(" + WeatherEntry.COLUMN_WIND_SPEED + ") / count(*)" +
+            " FROM " + WeatherEntry.TABLE_NAME + " WHERE " + WeatherEntry.COLUMN_LOC_KEY +
+            " = ? AND " + WeatherEntry.COLUMN_DATE + " >= ? AND " + WeatherEntry.COLUMN_DATE +
+            " < ?";
+
+    private final Random mRandom = new Random(11);
+    private WeatherProvider mProvider;
+    private long mLocationId;
+    private long mOtherLocationId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        TestUtilities.deleteAllRecordsFromProvider(getContext());
+        mProvider = (WeatherProvider) getContext().getContentResolver()
+                .acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY)
+                .getLocalContentProvider();
+        mLocationId = TestUtilities.insertNorthPoleLocationValues(getContext());
+
+        ContentValues other = TestUtilities.createNorthPoleLocationValues();
+        other.put(LocationEntry.COLUMN_LOCATION_SETTING, OTHER_LOCATION_SETTING);
+        mOtherLocationId = ContentUris.parseId(
+                getContext().getContentResolver().insert(LocationEntry.CONTENT_URI, other));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TestUtilities.deleteAllRecordsFromProvider(getContext());
+        super.tearDown();
+    }
+
+    private static long getDate(int day) {
+        return WeatherContract.normalizeDate(START_DATE + day * DAY_IN_MILLIS);
+    }
+
+    private ForecastBatch createBatch(long locationId, int first, int count) {
+        ForecastBatch batch = new ForecastBatch(locationId, count);
+        for (int day = first; day < first + count; day++) {
+            float min = mRandom.nextInt(40) - 10;
+            batch.add(getDate(day), min, min + mRandom.nextInt(15), mRandom.nextInt(100), 1000,
+                    mRandom.nextFloat() * 20, 90, 800, "Clear");
+        }
+        return batch;
+    }
+
+    private ContentValues createValues(long locationId, int day) {
+        ContentValues values = new ContentValues();
+        values.put(WeatherEntry.COLUMN_LOC_KEY, locationId);
+        values.put(WeatherEntry.COLUMN_DATE, getDate(day));
+        values.put(WeatherEntry.COLUMN_SHORT_DESC, "Clear");
+        values.put(WeatherEntry.COLUMN_WEATHER_ID, 800);
+        float min = mRandom.nextInt(40) - 10;
+        values.put(WeatherEntry.COLUMN_MIN_TEMP, min);
+        values.put(WeatherEntry.COLUMN_MAX_TEMP, min + mRandom.nextInt(15));
+        values.put(WeatherEntry.COLUMN_HUMIDITY, mRandom.nextInt(100));
+        values.put(WeatherEntry.COLUMN_PRESSURE, 1000);
+        values.put(WeatherEntry.COLUMN_WIND_SPEED, mRandom.nextFloat() * 20);
+        values.put(WeatherEntry.COLUMN_DEGREES, 90);
+        return values;
+    }
+
+    private void seed() throws Deadline.ExpiredException {
+        assertEquals(SEEDED_DAYS,
+                mProvider.bulkInsert(createBatch(mLocationId, 0, SEEDED_DAYS), Deadline.none()));
+        assertEquals(SEEDED_DAYS, mProvider.bulkInsert(
+                createBatch(mOtherLocationId, 0, SEEDED_DAYS), Deadline.none()));
+        assertRollupsMatch();
+    }
+
+    public void testBatchInsert() throws Exception {
+        seed();
+        // A refresh that replaces the last days and adds a few more.
+        mProvider.bulkInsert(createBatch(mLocationId, SEEDED_DAYS - 10, 14), Deadline.none());
+        assertRollupsMatch();
+    }
+
+    public void testInsertAndBulkInsert() throws Exception {
+        seed();
+        getContext().getContentResolver().insert(WeatherEntry.CONTENT_URI,
+                createValues(mLocationId, SEEDED_DAYS + 20));
+        getContext().getContentResolver().insert(WeatherEntry.CONTENT_URI,
+                createValues(mLocationId, 150));
+        assertRollupsMatch();
+
+        ContentValues[] values = new ContentValues[30];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = createValues(mOtherLocationId, 50 + 3 * i);
+        }
+        getContext().getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, values);
+        assertRollupsMatch();
+    }
+
+    public void testUpdate() throws Exception {
+        seed();
+        // Raise the highs and the wind of a stretch of days across a month boundary.
+        ContentValues hot = new ContentValues();
+        hot.put(WeatherEntry.COLUMN_MAX_TEMP, 45);
+        hot.put(WeatherEntry.COLUMN_WIND_SPEED, 30);
+        assertEquals(20, getContext().getContentResolver().update(WeatherEntry.CONTENT_URI, hot,
+                WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DATE +
+                        " >= ? AND " + WeatherEntry.COLUMN_DATE + " < ?",
+                new String[]{Long.toString(mLocationId), Long.toString(getDate(5)),
+                        Long.toString(getDate(25))}));
+        assertRollupsMatch();
+
+        // Move a day to the other location, leaving a gap behind and replacing a day there.
+        ContentValues move = new ContentValues();
+        move.put(WeatherEntry.COLUMN_LOC_KEY, mOtherLocationId);
+        move.put(WeatherEntry.COLUMN_DATE, getDate(300));
+        assertEquals(1, getContext().getContentResolver().update(WeatherEntry.CONTENT_URI, move,
+                WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DATE + " = ?",
+                new String[]{Long.toString(mLocationId), Long.toString(getDate(100))}));
+        assertRollupsMatch();
+    }
+
+    public void testDelete() throws Exception {
+        seed();
+        // A whole month and a bit from the middle, so some periods go away entirely.
+        getContext().getContentResolver().delete(WeatherEntry.CONTENT_URI,
+                WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DATE +
+                        " >= ? AND " + WeatherEntry.COLUMN_DATE + " < ?",
+                new String[]{Long.toString(mLocationId), Long.toString(getDate(40)),
+                        Long.toString(getDate(90))});
+        // And every day with the hottest afternoon, whichever periods those are in.
+        getContext().getContentResolver().delete(WeatherEntry.CONTENT_URI,
+                WeatherEntry.COLUMN_MAX_TEMP + " >= ?", new String[]{"25"});
+        assertRollupsMatch();
+
+        // No days at all leaves no periods.
+        getContext().getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        assertRollupsMatch();
+    }
+
+    public void testRollupUris() throws Exception {
+        seed();
+        // Days 12 through 40, January 1st to 29th, fall in the five weeks from Monday
+        // December 29th to Monday January 26th.
+        Uri weekly = RollupEntry.buildWeeklyUri(TestUtilities.TEST_LOCATION, getDate(12),
+                getDate(41));
+        Cursor cursor = getContext().getContentResolver().query(weekly,
+                RollupEntry.ROLLUP_PROJECTION, null, null, RollupEntry.SORT_BY_PERIOD);
+        long previous = 0;
+        int weeks = 0;
+        while (cursor.moveToNext()) {
+            long start = cursor.getLong(RollupEntry.ROLLUP_COL_PERIOD_START);
+            assertEquals(WeatherContract.getStartOfWeek(start), start);
+            assertTrue(start > previous);
+            assertEquals(7, cursor.getInt(RollupEntry.ROLLUP_COL_DAYS));
+            previous = start;
+            weeks++;
+        }
+        cursor.close();
+        assertEquals(5, weeks);
+
+        // The whole seeded history: December 2014 through January 2016.
+        cursor = getContext().getContentResolver().query(
+                RollupEntry.buildMonthlyUri(TestUtilities.TEST_LOCATION, getDate(0),
+                        getDate(SEEDED_DAYS)),
+                RollupEntry.ROLLUP_PROJECTION, null, null, RollupEntry.SORT_BY_PERIOD);
+        assertEquals(14, cursor.getCount());
+        int days = 0;
+        while (cursor.moveToNext()) days += cursor.getInt(RollupEntry.ROLLUP_COL_DAYS);
+        cursor.close();
+        assertEquals(SEEDED_DAYS, days);
+    }
+
+    private static Cursor readRollups(SQLiteDatabase db, String table, long locationId) {
+        return db.query(table, RollupEntry.ROLLUP_PROJECTION,
+                RollupEntry.COLUMN_LOC_KEY + " = ?", new String[]{Long.toString(locationId)},
+                null, null, RollupEntry.SORT_BY_PERIOD);
+    }
+
+    private void assertRollupsMatch() {
+        for (long locationId : new long[]{mLocationId, mOtherLocationId}) {
+            assertRollupsMatch(RollupEntry.WEEKLY_TABLE_NAME, locationId, false);
+            assertRollupsMatch(RollupEntry.MONTHLY_TABLE_NAME, locationId, true);
+        }
+    }
+
+    // Every period with a day in it has exactly one rollup row, and nothing else does.
+    private void assertRollupsMatch(String table, long locationId, boolean monthly) {
+        SQLiteDatabase db = new WeatherDbHelper(getContext()).getReadableDatabase();
+        TreeSet<Long> periods = new TreeSet<>();
+        Cursor dates = db.query(WeatherEntry.TABLE_NAME, new String[]{WeatherEntry.COLUMN_DATE},
+                WeatherEntry.COLUMN_LOC_KEY + " = ?", new String[]{Long.toString(locationId)},
+                null, null, null);
+        while (dates.moveToNext()) {
+            long date = dates.getLong(0);
+            periods.add(monthly ? WeatherContract.getStartOfMonth(date)
+                    : WeatherContract.getStartOfWeek(date));
+        }
+        dates.close();
+
+        Cursor rollups = readRollups(db, table, locationId);
+        assertEquals("Error: wrong number of rows in " + table, periods.size(),
+                rollups.getCount());
+        for (long start : periods) {
+            assertTrue(rollups.moveToNext());
+            assertEquals(start, rollups.getLong(RollupEntry.ROLLUP_COL_PERIOD_START));
+
+            long end = monthly ? WeatherContract.getStartOfNextMonth(start)
+                    : WeatherContract.getStartOfNextWeek(start);
+            Cursor expected = db.rawQuery(BRUTE_FORCE_SQL, new String[]{
+                    Long.toString(locationId), Long.toString(start), Long.toString(end)});
+            assertTrue(expected.moveToFirst());
+            String period = table + " " + start;
+            assertEquals(period, expected.getInt(0), rollups.getInt(RollupEntry.ROLLUP_COL_DAYS));
+            for (int i = 1; i < 10; i++) {
+                assertEquals(period + " column " + i, expected.getDouble(i),
+                        rollups.getDouble(RollupEntry.ROLLUP_COL_DAYS + i), DELTA);
+            }
+            expected.close();
+        }
+        rollups.close();
+        db.close();
+    }
+}
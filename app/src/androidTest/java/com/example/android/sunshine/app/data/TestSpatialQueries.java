@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.core.GeoHash;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    Looks locations up by box and by nearest point, including across the antimeridian and
+    near a pole, and checks that the geohash follows the coordinates through updates.
+ */
+public class TestSpatialQueries extends AndroidTestCase {
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        TestUtilities.deleteAllRecordsFromProvider(getContext());
+        insertLocation("94043", "Mountain View", 37.386, -122.084);
+        insertLocation("94080", "South San Francisco", 37.655, -122.408);
+        insertLocation("London, UK", "London", 51.507, -0.128);
+        insertLocation("Suva, FJ", "Suva", -18.142, 178.442);
+        insertLocation("Apia, WS", "Apia", -13.833, -171.767);
+        insertLocation("Longyearbyen, SJ", "Longyearbyen", 78.223, 15.647);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TestUtilities.deleteAllRecordsFromProvider(getContext());
+        super.tearDown();
+    }
+
+    private long insertLocation(String setting, String cityName, double lat, double lon) {
+        ContentValues values = new ContentValues();
+        values.put(LocationEntry.COLUMN_LOCATION_SETTING, setting);
+        values.put(LocationEntry.COLUMN_CITY_NAME, cityName);
+        values.put(LocationEntry.COLUMN_COORD_LAT, lat);
+        values.put(LocationEntry.COLUMN_COORD_LONG, lon);
+        return ContentUris.parseId(
+                getContext().getContentResolver().insert(LocationEntry.CONTENT_URI, values));
+    }
+
+    // The city names a URI returns, in the order they came back.
+    private List<String> query(Uri uri, String sortOrder) {
+        Cursor cursor = getContext().getContentResolver().query(uri,
+                new String[]{LocationEntry.COLUMN_CITY_NAME}, null, null, sortOrder);
+        List<String> names = new ArrayList<>();
+        try {
+            while (cursor.moveToNext()) names.add(cursor.getString(0));
+        } finally {
+            cursor.close();
+        }
+        return names;
+    }
+
+    public void testInsertStoresGeohash() {
+        Cursor cursor = getContext().getContentResolver().query(LocationEntry.CONTENT_URI,
+                new String[]{LocationEntry.COLUMN_GEOHASH}, LocationEntry.COLUMN_CITY_NAME + " = ?",
+                new String[]{"London"}, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(GeoHash.encode(51.507, -0.128, LocationEntry.GEOHASH_PRECISION),
+                cursor.getString(0));
+        cursor.close();
+    }
+
+    public void testBox() {
+        List<String> names = query(LocationEntry.buildBoxUri(37, -123, 38, -122),
+                LocationEntry.SORT_BY_CITY_NAME);
+        assertEquals(2, names.size());
+        assertEquals("Mountain View", names.get(0));
+        assertEquals("South San Francisco", names.get(1));
+
+        assertEquals(1, query(LocationEntry.buildBoxUri(37.5, -123, 38, -122), null).size());
+        assertEquals(0, query(LocationEntry.buildBoxUri(0, 0, 1, 1), null).size());
+        // Too big to narrow down by geohash, so read by coordinates alone.
+        assertEquals(6, query(LocationEntry.buildBoxUri(-90, -180, 90, 180), null).size());
+    }
+
+    public void testBoxAcrossTheAntimeridian() {
+        List<String> names = query(LocationEntry.buildBoxUri(-20, 170, -10, -170),
+                LocationEntry.SORT_BY_CITY_NAME);
+        assertEquals(2, names.size());
+        assertEquals("Apia", names.get(0));
+        assertEquals("Suva", names.get(1));
+    }
+
+    public void testNotABox() {
+        try {
+            query(LocationEntry.buildBoxUri(38, -123, 37, -122), null);
+            fail("Error: a box's south edge can't be north of its north edge");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testNearest() {
+        // Palo Alto is nearer Mountain View than South San Francisco.
+        assertEquals("Mountain View", query(LocationEntry.buildNearestUri(37.44, -122.14), null)
+                .get(0));
+        // Nothing within thousands of kilometres: the search has to grow a long way.
+        assertEquals("London", query(LocationEntry.buildNearestUri(40, -20), null).get(0));
+        // Nearer Suva the short way round, over the antimeridian.
+        assertEquals("Suva", query(LocationEntry.buildNearestUri(-17, -179.9), null).get(0));
+        assertEquals("Longyearbyen", query(LocationEntry.buildNearestUri(89.9, -100), null)
+                .get(0));
+    }
+
+    public void testNearestWithSelection() {
+        Cursor cursor = getContext().getContentResolver().query(
+                LocationEntry.buildNearestUri(37.44, -122.14),
+                new String[]{LocationEntry.COLUMN_CITY_NAME},
+                LocationEntry.COLUMN_LOCATION_SETTING + " <> ?", new String[]{"94043"}, null);
+        assertEquals(1, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals("South San Francisco", cursor.getString(0));
+        cursor.close();
+    }
+
+    public void testNearestWithNoLocations() {
+        TestUtilities.deleteAllRecordsFromProvider(getContext());
+        assertEquals(0, query(LocationEntry.buildNearestUri(0, 0), null).size());
+    }
+
+    public void testUpdateMovesGeohash() {
+        // Move Mountain View to Hawaii, one coordinate at a time.
+        ContentValues lat = new ContentValues();
+        lat.put(LocationEntry.COLUMN_COORD_LAT, 21.307);
+        getContext().getContentResolver().update(LocationEntry.CONTENT_URI, lat,
+                LocationEntry.COLUMN_LOCATION_SETTING + " = ?", new String[]{"94043"});
+        ContentValues lon = new ContentValues();
+        lon.put(LocationEntry.COLUMN_COORD_LONG, -157.858);
+        getContext().getContentResolver().update(LocationEntry.CONTENT_URI, lon,
+                LocationEntry.COLUMN_LOCATION_SETTING + " = ?", new String[]{"94043"});
+
+        assertEquals(1, query(LocationEntry.buildBoxUri(37, -123, 38, -122), null).size());
+        assertEquals("Mountain View", query(LocationEntry.buildBoxUri(21, -158, 22, -157), null)
+                .get(0));
+
+        // Both at once, back home.
+        ContentValues both = new ContentValues();
+        both.put(LocationEntry.COLUMN_COORD_LAT, 37.386);
+        both.put(LocationEntry.COLUMN_COORD_LONG, -122.084);
+        getContext().getContentResolver().update(LocationEntry.CONTENT_URI, both,
+                LocationEntry.COLUMN_LOCATION_SETTING + " = ?", new String[]{"94043"});
+        assertEquals(2, query(LocationEntry.buildBoxUri(37, -123, 38, -122), null).size());
+    }
+}
@@ -34,8 +34,11 @@ public class TestUriMatcher extends AndroidTestCase {
     private static final Uri TEST_WEATHER_DIR = WeatherContract.WeatherEntry.CONTENT_URI;
     private static final Uri TEST_WEATHER_WITH_LOCATION_DIR = WeatherContract.WeatherEntry.buildWeatherLocation(LOCATION_QUERY);
     private static final Uri TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(LOCATION_QUERY, TEST_DATE);
+    private static final Uri TEST_WEATHER_RANGE_DIR = WeatherContract.WeatherEntry.buildWeatherRange(LOCATION_QUERY, TEST_DATE, TEST_DATE + 7 * 24 * 60 * 60 * 1000L, 20);
     // content://com.example.android.sunshine.app/location"
     private static final Uri TEST_LOCATION_DIR = WeatherContract.LocationEntry.CONTENT_URI;
+    // content://com.example.android.sunshine.app/stats"
+    private static final Uri TEST_STATS_DIR = WeatherContract.StatsEntry.CONTENT_URI;
 
     /*
         Students: This function tests that your UriMatcher returns the correct integer value
@@ -51,7 +54,29 @@ public class TestUriMatcher extends AndroidTestCase {
                 testMatcher.match(TEST_WEATHER_WITH_LOCATION_DIR), WeatherProvider.WEATHER_WITH_LOCATION);
         assertEquals("Error: The WEATHER WITH LOCATION AND DATE URI was matched incorrectly.",
                 testMatcher.match(TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR), WeatherProvider.WEATHER_WITH_LOCATION_AND_DATE);
+        assertEquals("Error: The WEATHER RANGE URI was matched incorrectly.",
+                testMatcher.match(TEST_WEATHER_RANGE_DIR), WeatherProvider.WEATHER_RANGE);
+        assertEquals("Error: The next page of a WEATHER RANGE URI was matched incorrectly.",
+                testMatcher.match(WeatherContract.WeatherEntry.buildNextPage(TEST_WEATHER_RANGE_DIR, TEST_DATE)),
+                WeatherProvider.WEATHER_RANGE);
+        assertEquals("Error: The WEATHER WEEKLY URI was matched incorrectly.",
+                testMatcher.match(WeatherContract.RollupEntry.buildWeeklyUri(LOCATION_QUERY, TEST_DATE, TEST_DATE)),
+                WeatherProvider.WEATHER_WEEKLY);
+        assertEquals("Error: The WEATHER MONTHLY URI was matched incorrectly.",
+                testMatcher.match(WeatherContract.RollupEntry.buildMonthlyUri(LOCATION_QUERY, TEST_DATE, TEST_DATE)),
+                WeatherProvider.WEATHER_MONTHLY);
         assertEquals("Error: The LOCATION URI was matched incorrectly.",
                 testMatcher.match(TEST_LOCATION_DIR), WeatherProvider.LOCATION);
+        assertEquals("Error: The LOCATION SEARCH URI was matched incorrectly.",
+                testMatcher.match(WeatherContract.LocationEntry.buildSearchUri("san fr", 20)),
+                WeatherProvider.LOCATION_SEARCH);
+        assertEquals("Error: The LOCATION BOX URI was matched incorrectly.",
+                testMatcher.match(WeatherContract.LocationEntry.buildBoxUri(37, -123, 38, -122)),
+                WeatherProvider.LOCATION_BOX);
+        assertEquals("Error: The LOCATION NEAREST URI was matched incorrectly.",
+                testMatcher.match(WeatherContract.LocationEntry.buildNearestUri(37.4, -122.1)),
+                WeatherProvider.LOCATION_NEAREST);
+        assertEquals("Error: The STATS URI was matched incorrectly.",
+                testMatcher.match(TEST_STATS_DIR), WeatherProvider.STATS);
     }
 }
@@ -96,6 +96,46 @@ public class TestUtilities extends AndroidTestCase {
         return locationRowId;
     }
 
+    /*
+        Deletes every record through the provider, so that archived days and rollups go with the
+        weather rows and its cache hears about the delete, then checks that both tables read
+        back empty.  Tests that need a clean slate call this from setUp and tearDown.
+     */
+    public static void deleteAllRecordsFromProvider(Context context) {
+        context.getContentResolver().delete(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                null,
+                null
+        );
+        context.getContentResolver().delete(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                null,
+                null
+        );
+
+        Cursor cursor = context.getContentResolver().query(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                null,
+                null,
+                null,
+                null
+        );
+        assertEquals("Error: Records not deleted from Weather table during delete",
+                0, cursor.getCount());
+        cursor.close();
+
+        cursor = context.getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                null,
+                null,
+                null,
+                null
+        );
+        assertEquals("Error: Records not deleted from Location table during delete",
+                0, cursor.getCount());
+        cursor.close();
+    }
+
     /*
         Students: The functions we provide inside of TestProvider use this utility class to test
         the ContentObserver callbacks using the PollingCheck class that we grabbed from the Android
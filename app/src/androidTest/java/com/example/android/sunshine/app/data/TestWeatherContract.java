@@ -15,6 +15,7 @@
  */
 package com.example.android.sunshine.app.data;
 
+import android.net.Uri;
 import android.test.AndroidTestCase;
 
 /*
@@ -41,4 +42,37 @@ public class TestWeatherContract extends AndroidTestCase {
 //                locationUri.toString(),
 //                "content://com.example.android.sunshine.app/weather/%2FNorth%20Pole");
 //    }
+
+    public void testBuildWeatherRange() {
+        long dayInMillis = 24 * 60 * 60 * 1000L;
+        long start = WeatherContract.normalizeDate(TEST_WEATHER_DATE);
+        Uri rangeUri = WeatherContract.WeatherEntry.buildWeatherRange(TEST_WEATHER_LOCATION,
+                TEST_WEATHER_DATE, TEST_WEATHER_DATE + 30 * dayInMillis, 10);
+        assertEquals(TEST_WEATHER_LOCATION,
+                WeatherContract.WeatherEntry.getLocationSettingFromUri(rangeUri));
+        assertEquals(start, WeatherContract.WeatherEntry.getRangeStartFromUri(rangeUri));
+        assertEquals(WeatherContract.normalizeDate(TEST_WEATHER_DATE + 30 * dayInMillis),
+                WeatherContract.WeatherEntry.getRangeEndFromUri(rangeUri));
+        assertEquals(10, WeatherContract.WeatherEntry.getRangeLimitFromUri(rangeUri));
+        assertEquals("Error: a first page shouldn't start after any date",
+                -1, WeatherContract.WeatherEntry.getRangeAfterFromUri(rangeUri));
+
+        // The next page keeps the range and only moves its start past the given date.
+        Uri nextUri = WeatherContract.WeatherEntry.buildNextPage(rangeUri, start + dayInMillis);
+        assertEquals(TEST_WEATHER_LOCATION,
+                WeatherContract.WeatherEntry.getLocationSettingFromUri(nextUri));
+        assertEquals(start, WeatherContract.WeatherEntry.getRangeStartFromUri(nextUri));
+        assertEquals(WeatherContract.WeatherEntry.getRangeEndFromUri(rangeUri),
+                WeatherContract.WeatherEntry.getRangeEndFromUri(nextUri));
+        assertEquals(10, WeatherContract.WeatherEntry.getRangeLimitFromUri(nextUri));
+        assertEquals(start + dayInMillis,
+                WeatherContract.WeatherEntry.getRangeAfterFromUri(nextUri));
+
+        // Paging on from the next page replaces its date rather than adding another.
+        Uri thirdUri = WeatherContract.WeatherEntry.buildNextPage(nextUri, start + 2 * dayInMillis);
+        assertEquals(start + 2 * dayInMillis,
+                WeatherContract.WeatherEntry.getRangeAfterFromUri(thirdUri));
+        assertEquals(1,
+                thirdUri.getQueryParameters(WeatherContract.WeatherEntry.PARAM_AFTER).size());
+    }
 }
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.metrics;
+
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.StatsEntry;
+
+/*
+    Checks the striped counters and histograms, holds the cost of recording one event to a
+    budget, and reads the metrics back through the provider's stats URI.
+ */
+public class TestMetrics extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestMetrics.class.getSimpleName();
+
+    // Recording sits on the query and download paths, so it has to stay well under a
+    // microsecond even on a slow device.
+    static final long RECORD_BUDGET_NANOS = 1000;
+
+    private static final int EVENTS = 200000;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        Metrics.reset();
+    }
+
+    public void testStripedCounterFromManyThreads() throws InterruptedException {
+        final StripedCounter counter = Metrics.counter("test.counter");
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 100000; i++) counter.increment();
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) thread.join();
+
+        assertEquals(400000, counter.get());
+        assertSame("Error: registering a name twice should give the same counter",
+                counter, Metrics.counter("test.counter"));
+    }
+
+    public void testHistogramBuckets() {
+        Histogram histogram = Metrics.histogram("test.histogram_us");
+        assertEquals(0, histogram.getPercentile(50));
+        for (int value = 1; value <= 1000; value++) histogram.record(value);
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500500, histogram.getSum());
+        assertEquals(1000, histogram.getMax());
+        assertEquals(500, histogram.getPercentile(50));
+        assertEquals(1000, histogram.getPercentile(90));
+        assertEquals(1000, histogram.getPercentile(99));
+
+        // Past the last bucket, the largest value seen stands in for the bound.
+        histogram.record(Histogram.BUCKET_BOUNDS[Histogram.BUCKET_BOUNDS.length - 1] * 3);
+        assertEquals(histogram.getMax(), histogram.getPercentile(100));
+
+        assertEquals("Error: a histogram row should be whole cache lines",
+                0, Histogram.ROW % StripedCounter.PADDING);
+    }
+
+    public void testRecordingOverheadWithinBudget() {
+        StripedCounter counter = Metrics.counter("test.overhead");
+        Histogram histogram = Metrics.histogram("test.overhead_us");
+
+        long counterNanos = Long.MAX_VALUE;
+        long histogramNanos = Long.MAX_VALUE;
+        // The first round warms up the JIT; the best of the rest is what's compared.
+        for (int round = 0; round < 4; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < EVENTS; i++) counter.add(i);
+            long end = System.nanoTime();
+            if (round > 0) counterNanos = Math.min(counterNanos, (end - start) / EVENTS);
+
+            start = System.nanoTime();
+            for (int i = 0; i < EVENTS; i++) histogram.record(i & 0xffff);
+            end = System.nanoTime();
+            if (round > 0) histogramNanos = Math.min(histogramNanos, (end - start) / EVENTS);
+        }
+
+        Log.i(LOG_TAG, "Recording cost: counter " + counterNanos + "ns, histogram " +
+                histogramNanos + "ns per event");
+        assertTrue("Error: a counter add took " + counterNanos + "ns",
+                counterNanos < RECORD_BUDGET_NANOS);
+        assertTrue("Error: a histogram record took " + histogramNanos + "ns",
+                histogramNanos < RECORD_BUDGET_NANOS);
+    }
+
+    public void testStatsUri() {
+        Cursor cursor = getContext().getContentResolver().query(LocationEntry.CONTENT_URI,
+                LocationEntry.MAP_PROJECTION, null, null, null);
+        cursor.close();
+
+        cursor = getContext().getContentResolver().query(StatsEntry.CONTENT_URI,
+                StatsEntry.STATS_PROJECTION, null, null, null);
+        boolean sawLocationQuery = false;
+        boolean sawRowsWritten = false;
+        while (cursor.moveToNext()) {
+            String name = cursor.getString(StatsEntry.STATS_COL_NAME);
+            if (name.equals("provider.query.location_us")) {
+                sawLocationQuery = true;
+                assertTrue("Error: the location query wasn't recorded",
+                        cursor.getLong(StatsEntry.STATS_COL_COUNT) >= 1);
+                assertTrue(cursor.getLong(StatsEntry.STATS_COL_P99) >=
+                        cursor.getLong(StatsEntry.STATS_COL_P50));
+            } else if (name.equals(Metrics.DB_ROWS_WRITTEN.getName())) {
+                sawRowsWritten = true;
+                assertTrue("Error: counters have no percentiles",
+                        cursor.isNull(StatsEntry.STATS_COL_P50));
+            }
+        }
+        cursor.close();
+        assertTrue(sawLocationQuery);
+        assertTrue(sawRowsWritten);
+
+        assertEquals(StatsEntry.CONTENT_TYPE,
+                getContext().getContentResolver().getType(StatsEntry.CONTENT_URI));
+        try {
+            getContext().getContentResolver().delete(StatsEntry.CONTENT_URI, null, null);
+            fail("Error: the stats URI should be read-only");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.net;
+
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.utils.FakeClock;
+import com.example.android.sunshine.app.utils.StandInHttpServer;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Checks the backoff and circuit breaker state machine on a fake clock, then runs the
+    forecast client against a local stand-in server that fails, and counts how many requests
+    actually reach it while the test asks for one every simulated second.
+ */
+public class TestCircuitBreaker extends AndroidTestCase {
+
+    private static final long START_TIME = 1419033600000L;  // December 20th, 2014
+    private static final long SECOND = 1000;
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+    private FakeClock mClock;
+    private StandInHttpServer mServer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mClock = new FakeClock(START_TIME);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (mServer != null) mServer.close();
+        super.tearDown();
+    }
+
+    public void testBackoffGrowsThenOpens() {
+        CircuitBreaker breaker = new CircuitBreaker(mClock, new Random(1));
+        long previous = 0;
+        for (int failure = 1; failure < CircuitBreaker.FAILURE_THRESHOLD; failure++) {
+            assertTrue(breaker.tryAcquire());
+            breaker.onFailure();
+            assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+            long backoff = breaker.getRetryAfterMillis();
+            long nominal = CircuitBreaker.BASE_BACKOFF_MILLIS << (failure - 1);
+            assertTrue("Error: backoff " + backoff + " outside its jitter range",
+                    backoff >= nominal / 2 && backoff <= nominal);
+            assertTrue("Error: backoff should grow", backoff > previous / 2);
+            previous = backoff;
+
+            assertFalse("Error: a request got through during backoff", breaker.tryAcquire());
+            mClock.advance(backoff);
+        }
+
+        assertTrue(breaker.tryAcquire());
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire());
+    }
+
+    public void testHalfOpenSendsSingleProbe() {
+        CircuitBreaker breaker = open(new CircuitBreaker(mClock, new Random(2)));
+        mClock.advance(breaker.getRetryAfterMillis());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+
+        assertTrue("Error: the probe should go out", breaker.tryAcquire());
+        assertFalse("Error: only one probe at a time", breaker.tryAcquire());
+        assertFalse(breaker.tryAcquire());
+
+        // A failed probe reopens for longer.
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertTrue(breaker.getRetryAfterMillis() >= CircuitBreaker.BASE_OPEN_MILLIS);
+
+        mClock.advance(breaker.getRetryAfterMillis());
+        assertTrue(breaker.tryAcquire());
+        breaker.onSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(0, breaker.getConsecutiveFailures());
+        assertTrue(breaker.tryAcquire());
+    }
+
+    public void testServerErrorsOverAnHour() throws IOException {
+        final boolean[] healthy = {false};
+        mServer = new StandInHttpServer(new StandInHttpServer.Handler() {
+            @Override
+            public StandInHttpServer.Response handle(int requestNumber, String path) {
+                return healthy[0] ? new StandInHttpServer.Response(200, "{}")
+                        : new StandInHttpServer.Response(503, "down");
+            }
+        });
+        ForecastClient client = new ForecastClient(mClock, new Random(3), 1000, 1000);
+        URL url = mServer.getUrl("/data/2.5/forecast/daily?q=94043");
+
+        int attempts = 0;
+        int rejected = 0;
+        for (long elapsed = 0; elapsed < HOUR; elapsed += SECOND) {
+            attempts++;
+            try {
+                client.fetch(url);
+                fail("Error: the server is down");
+            } catch (ForecastClient.CircuitOpenException e) {
+                rejected++;
+            } catch (ForecastClient.HttpStatusException e) {
+                assertEquals(503, e.getStatus());
+            }
+            mClock.advance(SECOND);
+        }
+
+        // Four backoffs, then open periods of 1, 2, 4, 8, 16 and 30 minutes, each ended by one
+        // probe: about a dozen requests, where retrying every second would have sent 3600.
+        int requests = mServer.getRequestCount();
+        assertEquals(attempts, requests + rejected);
+        assertTrue("Error: " + requests + " requests reached a failing server in an hour",
+                requests >= CircuitBreaker.FAILURE_THRESHOLD && requests <= 15);
+        assertEquals(CircuitBreaker.State.OPEN, client.getBreaker(url).getState());
+
+        // Once the server recovers, the next probe closes the breaker and traffic resumes.
+        healthy[0] = true;
+        int before = mServer.getRequestCount();
+        boolean recovered = false;
+        for (long elapsed = 0; elapsed <= CircuitBreaker.MAX_OPEN_MILLIS && !recovered;
+             elapsed += SECOND) {
+            try {
+                client.fetch(url);
+                recovered = true;
+            } catch (ForecastClient.CircuitOpenException e) {
+                mClock.advance(SECOND);
+            }
+        }
+        assertTrue("Error: the breaker never let a probe through", recovered);
+        assertEquals(before + 1, mServer.getRequestCount());
+        assertEquals(CircuitBreaker.State.CLOSED, client.getBreaker(url).getState());
+        for (int i = 0; i < 5; i++) {
+            client.fetch(url);
+        }
+        assertEquals(before + 6, mServer.getRequestCount());
+    }
+
+    public void testTimeoutsCountAsFailures() throws IOException {
+        mServer = new StandInHttpServer(new StandInHttpServer.Handler() {
+            @Override
+            public StandInHttpServer.Response handle(int requestNumber, String path) {
+                return new StandInHttpServer.Response(200, "{}").hang();
+            }
+        });
+        ForecastClient client = new ForecastClient(mClock, new Random(4), 1000, 100);
+        URL url = mServer.getUrl("/data/2.5/forecast/daily?q=94043");
+
+        int timeouts = 0;
+        for (long elapsed = 0; elapsed < 10 * 60 * SECOND; elapsed += SECOND) {
+            try {
+                client.fetch(url);
+                fail("Error: the server never answers");
+            } catch (ForecastClient.CircuitOpenException e) {
+                // backed off
+            } catch (IOException e) {
+                timeouts++;
+            }
+            mClock.advance(SECOND);
+        }
+
+        // Five failures open the breaker, and in ten minutes it can only have probed a few times.
+        assertEquals(timeouts, mServer.getRequestCount());
+        assertTrue("Error: " + timeouts + " requests to a hung server in ten minutes",
+                timeouts >= CircuitBreaker.FAILURE_THRESHOLD
+                        && timeouts <= CircuitBreaker.FAILURE_THRESHOLD + 4);
+    }
+
+    public void testClientErrorsDontTripTheBreaker() throws IOException {
+        mServer = new StandInHttpServer(new StandInHttpServer.Handler() {
+            @Override
+            public StandInHttpServer.Response handle(int requestNumber, String path) {
+                return new StandInHttpServer.Response(404, "{\"cod\":\"404\"}");
+            }
+        });
+        ForecastClient client = new ForecastClient(mClock, new Random(5), 1000, 1000);
+        URL url = mServer.getUrl("/data/2.5/forecast/daily?q=nowhere");
+
+        for (int i = 0; i < 20; i++) {
+            try {
+                client.fetch(url);
+                fail();
+            } catch (ForecastClient.HttpStatusException e) {
+                assertEquals(404, e.getStatus());
+            }
+        }
+        assertEquals("Error: an unknown location shouldn't back off the whole endpoint",
+                20, mServer.getRequestCount());
+        assertEquals(CircuitBreaker.State.CLOSED, client.getBreaker(url).getState());
+    }
+
+    private CircuitBreaker open(CircuitBreaker breaker) {
+        while (breaker.getState() != CircuitBreaker.State.OPEN) {
+            mClock.advance(breaker.getRetryAfterMillis());
+            assertTrue(breaker.tryAcquire());
+            breaker.onFailure();
+        }
+        return breaker;
+    }
+}
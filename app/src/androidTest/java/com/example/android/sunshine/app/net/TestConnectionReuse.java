@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.net;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.utils.Clock;
+import com.example.android.sunshine.app.utils.StandInHttpServer;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Random;
+
+/*
+    Checks that the forecast client hands its connections back for reuse, and benchmarks the
+    time to first byte of back to back refreshes with and without keep-alive against a local
+    stand-in server.
+ */
+public class TestConnectionReuse extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestConnectionReuse.class.getSimpleName();
+
+    private static final int REFRESHES = 100;
+    private static final String PATH = "/data/2.5/forecast/daily?q=94043&mode=json&cnt=14";
+
+    private StandInHttpServer mServer;
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (mServer != null) mServer.close();
+        super.tearDown();
+    }
+
+    private StandInHttpServer startServer(final int status, final String body) throws IOException {
+        mServer = new StandInHttpServer(new StandInHttpServer.Handler() {
+            @Override
+            public StandInHttpServer.Response handle(int requestNumber, String path) {
+                return new StandInHttpServer.Response(status, body);
+            }
+        });
+        return mServer;
+    }
+
+    private static ForecastClient newClient(boolean keepAlive) {
+        return new ForecastClient(Clock.SYSTEM, new Random(), 5000, 5000, keepAlive);
+    }
+
+    public void testSuccessfulResponsesReuseOneConnection() throws IOException {
+        String body = createForecastBody();
+        URL url = startServer(200, body).getUrl(PATH);
+        ForecastClient client = newClient(true);
+
+        for (int i = 0; i < REFRESHES; i++) {
+            assertEquals(body, client.fetch(url).trim());
+        }
+
+        ForecastClient.PoolStats stats = client.getPoolStats();
+        assertEquals(REFRESHES, stats.getRequestCount());
+        assertEquals(REFRESHES, stats.getReleasedCount());
+        assertEquals(0, stats.getDiscardedCount());
+        assertEquals(REFRESHES, mServer.getRequestCount());
+        assertEquals("Error: sequential refreshes should share one connection",
+                1, mServer.getConnectionCount());
+    }
+
+    public void testErrorBodiesAreDrained() throws IOException {
+        String body = "{\"cod\":\"404\",\"message\":\"Error: Not found city\"}";
+        URL url = startServer(404, body).getUrl(PATH);
+        ForecastClient client = newClient(true);
+
+        for (int i = 0; i < 20; i++) {
+            try {
+                client.fetch(url);
+                fail();
+            } catch (ForecastClient.HttpStatusException e) {
+                assertEquals(404, e.getStatus());
+            }
+        }
+
+        assertEquals(20L * body.length(), client.getPoolStats().getDrainedBytes());
+        assertEquals("Error: error responses should leave their connection reusable",
+                1, mServer.getConnectionCount());
+    }
+
+    public void testTimeToFirstByteWithAndWithoutReuse() throws IOException {
+        String body = createForecastBody();
+
+        long[] reused = timeToFirstByte(true, body);
+        assertEquals(1, mServer.getConnectionCount());
+        mServer.close();
+
+        long[] fresh = timeToFirstByte(false, body);
+        assertEquals("Error: without keep-alive each refresh should open a connection",
+                REFRESHES, mServer.getConnectionCount());
+
+        Log.i(LOG_TAG, REFRESHES + " refreshes, time to first byte: with reuse median " +
+                percentile(reused, 50) + "us p90 " + percentile(reused, 90) +
+                "us; without reuse median " + percentile(fresh, 50) + "us p90 " +
+                percentile(fresh, 90) + "us");
+    }
+
+    // Microseconds to first byte of each refresh.
+    private long[] timeToFirstByte(boolean keepAlive, String body) throws IOException {
+        URL url = startServer(200, body).getUrl(PATH);
+        ForecastClient client = newClient(keepAlive);
+
+        // One refresh outside the measurement, to load classes.
+        client.fetch(url);
+        long[] micros = new long[REFRESHES - 1];
+        for (int i = 0; i < micros.length; i++) {
+            long before = client.getPoolStats().getTimeToFirstByteNanos();
+            client.fetch(url);
+            micros[i] = (client.getPoolStats().getTimeToFirstByteNanos() - before) / 1000;
+        }
+        return micros;
+    }
+
+    private static long percentile(long[] values, int percentile) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[Math.min(sorted.length - 1, sorted.length * percentile / 100)];
+    }
+
+    // A fourteen day forecast body of about the size the real API returns.
+    private static String createForecastBody() {
+        StringBuilder body = new StringBuilder("{\"city\":{\"name\":\"Mountain View\"},\"list\":[");
+        for (int i = 0; i < 14; i++) {
+            if (i > 0) body.append(',');
+            body.append("{\"dt\":").append(1419033600 + i * 86400)
+                    .append(",\"temp\":{\"min\":10.25,\"max\":20.5},\"pressure\":1013.25,")
+                    .append("\"humidity\":70,\"weather\":[{\"id\":800,\"main\":\"Clear\"}],")
+                    .append("\"speed\":3.5,\"deg\":270}");
+        }
+        return body.append("]}").toString();
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.utils.Deadline;
+import com.example.android.sunshine.app.utils.FakeClock;
+import com.example.android.sunshine.app.utils.ManualScheduledExecutor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+    Drives the refresher with a fake clock through the ways a location gets edited in
+    Settings: one change, a burst of them, a change while a download is under way, and leaving
+    before a change has settled.
+ */
+public class TestLocationRefresher extends AndroidTestCase {
+
+    private static final long START_TIME = 1419033600000L;  // December 20th, 2014
+    private static final long SETTLE = LocationRefresher.SETTLE_MILLIS;
+    private static final long BUDGET = 60 * 1000;
+
+    private FakeClock mClock;
+    private ManualScheduledExecutor mExecutor;
+    private LocationHistory mHistory;
+    private RecordingFetcher mFetcher;
+    private LocationRefresher mRefresher;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        SharedPreferences prefs =
+                mContext.getSharedPreferences("test_location_history", Context.MODE_PRIVATE);
+        prefs.edit().clear().commit();
+        mClock = new FakeClock(START_TIME);
+        mExecutor = new ManualScheduledExecutor(mClock);
+        mHistory = new LocationHistory(prefs, mClock);
+        mFetcher = new RecordingFetcher();
+        mRefresher = new LocationRefresher(mHistory, mFetcher, mClock, mExecutor, SETTLE,
+                BUDGET);
+    }
+
+    public void testChangeWaitsToSettle() {
+        mRefresher.onLocationChanged("94043");
+        mExecutor.advance(SETTLE - 1);
+        assertTrue("Error: downloaded before the change settled", mFetcher.mFetched.isEmpty());
+
+        mExecutor.advance(1);
+        assertEquals(Arrays.asList("94043"), mFetcher.mFetched);
+        assertEquals(1, mRefresher.getRefreshCount());
+        assertTrue(mHistory.isFresh("94043"));
+        assertEquals(0, mExecutor.getPendingCount());
+    }
+
+    public void testBurstOfEditsDownloadsOnlyTheLast() {
+        // Someone correcting a zip code a digit at a time, a few hundred millis apart.
+        for (String edit : new String[]{"9", "94", "940", "9404", "94043"}) {
+            mRefresher.onLocationChanged(edit);
+            mExecutor.advance(SETTLE / 2);
+        }
+        assertTrue(mFetcher.mFetched.isEmpty());
+
+        mExecutor.advance(SETTLE);
+        assertEquals(Arrays.asList("94043"), mFetcher.mFetched);
+        assertEquals(0, mRefresher.getCancelledCount());
+    }
+
+    public void testChangeCancelsObsoleteDownload() {
+        mFetcher.mDuringFetch = new Runnable() {
+            @Override
+            public void run() {
+                mFetcher.mDuringFetch = null;
+                mRefresher.onLocationChanged("10001");
+            }
+        };
+        mRefresher.onLocationChanged("94043");
+        mExecutor.advance(SETTLE);
+
+        // The first download saw its deadline expire part way through and stored nothing.
+        assertEquals(Arrays.asList("94043"), mFetcher.mFetched);
+        assertTrue(mFetcher.mDeadlines.get(0).isCancelled());
+        assertFalse(mHistory.isFresh("94043"));
+        assertEquals(1, mRefresher.getCancelledCount());
+
+        mExecutor.advance(SETTLE);
+        assertEquals(Arrays.asList("94043", "10001"), mFetcher.mFetched);
+        assertFalse(mFetcher.mDeadlines.get(1).isCancelled());
+        assertTrue(mHistory.isFresh("10001"));
+        assertEquals(1, mRefresher.getRefreshCount());
+    }
+
+    public void testSameLocationKeepsDownloadUnderWay() {
+        mFetcher.mDuringFetch = new Runnable() {
+            @Override
+            public void run() {
+                mFetcher.mDuringFetch = null;
+                mRefresher.onLocationChanged("94043");
+            }
+        };
+        mRefresher.onLocationChanged("94043");
+        mExecutor.advance(SETTLE);
+        mExecutor.advance(SETTLE);
+
+        assertEquals(Arrays.asList("94043"), mFetcher.mFetched);
+        assertFalse(mFetcher.mDeadlines.get(0).isCancelled());
+        assertTrue(mHistory.isFresh("94043"));
+        assertEquals(0, mExecutor.getPendingCount());
+    }
+
+    public void testChangingBackAfterCancelDownloadsAgain() {
+        mFetcher.mDuringFetch = new Runnable() {
+            @Override
+            public void run() {
+                mFetcher.mDuringFetch = null;
+                mRefresher.onLocationChanged("10001");
+                mRefresher.onLocationChanged("94043");
+            }
+        };
+        mRefresher.onLocationChanged("94043");
+        mExecutor.advance(SETTLE);
+        mExecutor.advance(SETTLE);
+
+        // The first change away cancelled the download, so coming back needs a new one, and
+        // 10001 is never downloaded at all.
+        assertEquals(Arrays.asList("94043", "94043"), mFetcher.mFetched);
+        assertTrue(mFetcher.mDeadlines.get(0).isCancelled());
+        assertFalse(mFetcher.mDeadlines.get(1).isCancelled());
+        assertTrue(mHistory.isFresh("94043"));
+        assertEquals(1, mRefresher.getCancelledCount());
+    }
+
+    public void testFlushStartsWaitingDownload() {
+        mRefresher.onLocationChanged("94043");
+        mExecutor.advance(SETTLE / 3);
+
+        // Back to the list already.
+        mRefresher.flush();
+        mExecutor.runDue();
+        assertEquals(Arrays.asList("94043"), mFetcher.mFetched);
+        assertEquals(START_TIME + SETTLE / 3, mClock.currentTimeMillis());
+
+        // Nothing is left to run when the original delay would have run out.
+        mExecutor.advance(SETTLE);
+        assertEquals(1, mFetcher.mFetched.size());
+    }
+
+    public void testFreshLocationIsNotDownloaded() {
+        mHistory.recordRefresh("94043");
+        mClock.advance(LocationHistory.FRESH_MILLIS / 2);
+
+        mRefresher.onLocationChanged("94043");
+        mExecutor.advance(SETTLE);
+        assertTrue(mFetcher.mFetched.isEmpty());
+        assertEquals(1, mRefresher.getSkippedCount());
+    }
+
+    public void testDeadlineHasRefreshBudget() {
+        mRefresher.onLocationChanged("94043");
+        mExecutor.advance(SETTLE);
+        assertEquals(BUDGET, mFetcher.mRemainingAtStart.get(0).longValue());
+    }
+
+    public void testAwaitRefresh() {
+        // Nothing on its way for this location, so there's nothing to wait for.
+        assertTrue(mRefresher.awaitRefresh("94043", 0));
+
+        mRefresher.onLocationChanged("94043");
+        // The wait starts the download, but only the executor can run it.
+        assertFalse(mRefresher.awaitRefresh("94043", 0));
+        assertTrue("Error: a different location shouldn't wait",
+                mRefresher.awaitRefresh("10001", 0));
+        mExecutor.runDue();
+
+        assertEquals(Arrays.asList("94043"), mFetcher.mFetched);
+        assertTrue(mRefresher.awaitRefresh("94043", 0));
+    }
+
+    // Stands in for a download: takes no time, and stores the forecast unless its deadline
+    // expired while the hook ran.
+    private class RecordingFetcher implements ForecastFetcher {
+        final List<String> mFetched = new ArrayList<>();
+        final List<Deadline> mDeadlines = new ArrayList<>();
+        final List<Long> mRemainingAtStart = new ArrayList<>();
+        Runnable mDuringFetch;
+
+        @Override
+        public long fetch(String locationSetting, Deadline deadline) {
+            mFetched.add(locationSetting);
+            mDeadlines.add(deadline);
+            mRemainingAtStart.add(deadline.getRemainingMillis());
+            if (mDuringFetch != null) mDuringFetch.run();
+            if (deadline.isExpired()) return -1;
+            mHistory.recordRefresh(locationSetting);
+            return 0;
+        }
+    }
+}
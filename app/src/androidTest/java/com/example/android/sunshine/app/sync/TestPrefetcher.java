@@ -0,0 +1,353 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.utils.Deadline;
+import com.example.android.sunshine.app.utils.FakeClock;
+import com.example.android.sunshine.app.utils.ManualScheduledExecutor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Checks the location history's ranking and the prefetcher's idle timing and budget, then
+    replays four weeks of simulated use to measure how often a location switch finds its
+    forecast already stored, and what that does to the time a switch waits.
+ */
+public class TestPrefetcher extends AndroidTestCase {
+
+    private static final String LOG_TAG = TestPrefetcher.class.getSimpleName();
+
+    private static final long START_TIME = 1419033600000L;  // December 20th, 2014
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+    private static final long FORECAST_BYTES = 4000;
+    private static final int TRACE_DAYS = 28;
+
+    // What a switch waits for: reading a stored forecast, or downloading a new one.
+    private static final long STORED_LATENCY_MILLIS = 40;
+    private static final long NETWORK_LATENCY_MILLIS = 1500;
+
+    private SharedPreferences mPrefs;
+    private SharedPreferences mState;
+    private FakeClock mClock;
+    private ManualScheduledExecutor mExecutor;
+    private LocationHistory mHistory;
+    private RecordingFetcher mFetcher;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPrefs = mContext.getSharedPreferences("test_location_history", Context.MODE_PRIVATE);
+        mPrefs.edit().clear().commit();
+        mState = mContext.getSharedPreferences("test_prefetch_state", Context.MODE_PRIVATE);
+        mState.edit().clear().commit();
+        mClock = new FakeClock(START_TIME);
+        mExecutor = new ManualScheduledExecutor(mClock);
+        mHistory = new LocationHistory(mPrefs, mClock);
+        mFetcher = new RecordingFetcher();
+    }
+
+    private Prefetcher newPrefetcher(int topLocations, int maxRequests, long maxBytes) {
+        return new Prefetcher(mHistory, mState, mFetcher, mClock, mExecutor, topLocations,
+                maxRequests, maxBytes);
+    }
+
+    private void use(String locationSetting, int times) {
+        for (int i = 0; i < times; i++) mHistory.recordUse(locationSetting);
+    }
+
+    public void testRankingFavoursFrequentAndRecentUse() {
+        use("94043", 5);
+        mClock.advance(2 * LocationHistory.HALF_LIFE_MILLIS);
+        use("99705", 2);
+        use("10001", 1);
+
+        // Five uses two half-lives ago are worth 1.25 uses today.
+        assertEquals(1.25, mHistory.getScore("94043"), 0.01);
+        assertEquals(Arrays.asList("99705", "94043", "10001"), mHistory.getTopLocations(5));
+        assertEquals(Arrays.asList("99705", "94043"), mHistory.getTopLocations(2));
+    }
+
+    public void testHistoryIsBounded() {
+        for (int i = 0; i < LocationHistory.MAX_LOCATIONS + 4; i++) {
+            use(Integer.toString(10000 + i), i < 4 ? 3 : 1);
+        }
+        List<String> top = mHistory.getTopLocations(100);
+        assertEquals(LocationHistory.MAX_LOCATIONS, top.size());
+        assertTrue("Error: a frequently used location was forgotten", top.contains("10000"));
+    }
+
+    public void testFreshness() {
+        assertFalse(mHistory.isFresh("94043"));
+        mHistory.recordRefresh("94043");
+        assertTrue(mHistory.isFresh("94043"));
+        mClock.advance(LocationHistory.FRESH_MILLIS);
+        assertFalse(mHistory.isFresh("94043"));
+    }
+
+    public void testPrefetchWaitsForIdle() {
+        use("94043", 3);
+        use("99705", 2);
+        Prefetcher prefetcher = newPrefetcher(4, 10, 100000);
+
+        prefetcher.notifyActive();
+        mExecutor.advance(Prefetcher.IDLE_DELAY_MILLIS - 1000);
+        prefetcher.notifyActive();
+        mExecutor.advance(Prefetcher.IDLE_DELAY_MILLIS - 1000);
+        assertTrue("Error: prefetched while the user was busy", mFetcher.mFetched.isEmpty());
+
+        mExecutor.advance(1000);
+        assertEquals(Arrays.asList("94043", "99705"), mFetcher.mFetched);
+        assertEquals(2, prefetcher.getPrefetchCount());
+        assertEquals(2 * FORECAST_BYTES, prefetcher.getWindowBytes());
+
+        // Both are fresh now, so the next idle spell downloads nothing.
+        prefetcher.notifyActive();
+        mExecutor.advance(Prefetcher.IDLE_DELAY_MILLIS);
+        assertEquals(2, mFetcher.mFetched.size());
+    }
+
+    public void testActivityStopsPrefetchInProgress() {
+        use("94043", 3);
+        use("99705", 2);
+        use("10001", 1);
+        final Prefetcher prefetcher = newPrefetcher(4, 10, 100000);
+        mFetcher.mDuringFetch = new Runnable() {
+            @Override
+            public void run() {
+                mFetcher.mDuringFetch = null;
+                prefetcher.notifyActive();
+            }
+        };
+
+        prefetcher.notifyActive();
+        mExecutor.advance(Prefetcher.IDLE_DELAY_MILLIS);
+        assertEquals(Arrays.asList("94043"), mFetcher.mFetched);
+
+        // The rest wait for the next idle spell.
+        mExecutor.advance(Prefetcher.IDLE_DELAY_MILLIS);
+        assertEquals(Arrays.asList("94043", "99705", "10001"), mFetcher.mFetched);
+    }
+
+    public void testRequestBudget() {
+        for (int i = 0; i < 5; i++) use(Integer.toString(10000 + i), 5 - i);
+        Prefetcher prefetcher = newPrefetcher(5, 3, 100000);
+
+        prefetcher.notifyActive();
+        mExecutor.advance(Prefetcher.IDLE_DELAY_MILLIS);
+        assertEquals(3, mFetcher.mFetched.size());
+        assertEquals(1, prefetcher.getOverBudgetCount());
+
+        // Still nothing left in this window...
+        mExecutor.advance(LocationHistory.FRESH_MILLIS);
+        prefetcher.notifyActive();
+        mExecutor.advance(Prefetcher.IDLE_DELAY_MILLIS);
+        assertEquals(3, mFetcher.mFetched.size());
+
+        // ...but a new window brings a new budget.
+        mExecutor.advance(Prefetcher.BUDGET_WINDOW_MILLIS);
+        prefetcher.notifyActive();
+        mExecutor.advance(Prefetcher.IDLE_DELAY_MILLIS);
+        assertEquals(6, mFetcher.mFetched.size());
+    }
+
+    public void testBudgetSurvivesRestart() {
+        for (int i = 0; i < 5; i++) use(Integer.toString(10000 + i), 5 - i);
+        Prefetcher first = newPrefetcher(5, 3, 100000);
+        first.notifyActive();
+        mExecutor.advance(Prefetcher.IDLE_DELAY_MILLIS);
+        assertEquals(3, mFetcher.mFetched.size());
+
+        // A restart later the same day picks up the spent budget instead of a new one.
+        mExecutor.advance(LocationHistory.FRESH_MILLIS);
+        Prefetcher second = newPrefetcher(5, 3, 100000);
+        assertEquals(3, second.getWindowRequests());
+        assertEquals(3 * FORECAST_BYTES, second.getWindowBytes());
+        second.notifyActive();
+        mExecutor.advance(Prefetcher.IDLE_DELAY_MILLIS);
+        assertEquals(3, mFetcher.mFetched.size());
+        assertEquals(1, second.getOverBudgetCount());
+
+        mExecutor.advance(Prefetcher.BUDGET_WINDOW_MILLIS);
+        second.notifyActive();
+        mExecutor.advance(Prefetcher.IDLE_DELAY_MILLIS);
+        assertEquals(6, mFetcher.mFetched.size());
+    }
+
+    public void testByteBudget() {
+        for (int i = 0; i < 5; i++) use(Integer.toString(10000 + i), 5 - i);
+        Prefetcher prefetcher = newPrefetcher(5, 100, (long) (2.5 * FORECAST_BYTES));
+
+        prefetcher.notifyActive();
+        mExecutor.advance(Prefetcher.IDLE_DELAY_MILLIS);
+        // A third forecast would probably go over, so it isn't started.
+        assertEquals(2, mFetcher.mFetched.size());
+        assertTrue(prefetcher.getWindowBytes() <= 2.5 * FORECAST_BYTES);
+    }
+
+    public void testFailedFetchesAreRetried() {
+        use("94043", 1);
+        mFetcher.mFailing = "94043";
+        Prefetcher prefetcher = newPrefetcher(4, 10, 100000);
+
+        prefetcher.notifyActive();
+        mExecutor.advance(Prefetcher.IDLE_DELAY_MILLIS);
+        assertEquals(1, prefetcher.getFailedCount());
+        assertFalse(mHistory.isFresh("94043"));
+
+        mFetcher.mFailing = null;
+        prefetcher.notifyActive();
+        mExecutor.advance(Prefetcher.IDLE_DELAY_MILLIS);
+        assertEquals(1, prefetcher.getPrefetchCount());
+        assertTrue(mHistory.isFresh("94043"));
+    }
+
+    public void testUsageTrace() throws Exception {
+        TraceResult without = runTrace(false);
+        setUp();
+        TraceResult with = runTrace(true);
+
+        Log.i(LOG_TAG, "Without prefetch: " + without);
+        Log.i(LOG_TAG, "With prefetch: " + with);
+        assertEquals(without.mSwitches, with.mSwitches);
+        assertTrue("Error: too few switches to measure: " + with.mSwitches, with.mSwitches >= 40);
+        assertTrue("Error: prefetch hit rate " + with.getHitRate(), with.getHitRate() >= 0.6);
+        // Visits are hours apart, so without prefetching a switch almost always downloads.
+        assertTrue("Error: prefetching should raise the hit rate",
+                with.getHitRate() > without.getHitRate() + 0.5);
+        assertTrue("Error: switches should wait less with prefetching",
+                with.getMeanLatencyMillis() < without.getMeanLatencyMillis() / 2);
+        assertTrue("Error: prefetch used " + with.mPrefetches + " downloads",
+                with.mPrefetches <= TRACE_DAYS * Prefetcher.DEFAULT_MAX_REQUESTS);
+    }
+
+    private static final String[] TRACE_LOCATIONS =
+            {"94043", "10001", "60601", "98101", "33101", "80202"};
+    // How likely the user is to pick each location: a favourite few and some rare ones.
+    private static final int[] TRACE_WEIGHTS = {40, 25, 15, 10, 6, 4};
+
+    /*
+        Four weeks of a user who opens the app a few times a day, reads the list for a while,
+        and about half the time switches to another location in Settings.  The same seed gives
+        the same trace with and without prefetching.
+     */
+    private TraceResult runTrace(boolean prefetch) {
+        Random random = new Random(2014);
+        Prefetcher prefetcher = newPrefetcher(Prefetcher.DEFAULT_TOP_LOCATIONS,
+                Prefetcher.DEFAULT_MAX_REQUESTS, Prefetcher.DEFAULT_MAX_BYTES);
+        TraceResult result = new TraceResult();
+        String current = TRACE_LOCATIONS[0];
+
+        long end = mClock.currentTimeMillis() + TRACE_DAYS * DAY;
+        while (mClock.currentTimeMillis() < end) {
+            // Open the app on the current location.
+            show(current, prefetch, prefetcher, null);
+            // Read the list for 20 seconds to two minutes.
+            mExecutor.advance(TimeUnit.SECONDS.toMillis(20 + random.nextInt(100)));
+
+            if (random.nextBoolean()) {
+                String next = pickLocation(random, current);
+                // Off to Settings for a few seconds, then back to the list.
+                if (prefetch) prefetcher.notifyActive();
+                mExecutor.advance(TimeUnit.SECONDS.toMillis(3 + random.nextInt(12)));
+                show(next, prefetch, prefetcher, result);
+                current = next;
+                mExecutor.advance(TimeUnit.SECONDS.toMillis(10 + random.nextInt(50)));
+            }
+
+            // Leave, and come back in three to nine hours.
+            if (prefetch) prefetcher.notifyActive();
+            mExecutor.advance(TimeUnit.HOURS.toMillis(3) + random.nextInt(6 * 60) * 60000L);
+        }
+        result.mPrefetches = prefetcher.getPrefetchCount();
+        return result;
+    }
+
+    // What ForecastFragment does on showing a location: a stored forecast if it's fresh,
+    // otherwise a download.  Switches are counted into the result, if there is one.
+    private void show(String locationSetting, boolean prefetch, Prefetcher prefetcher,
+                      TraceResult result) {
+        mHistory.recordUse(locationSetting);
+        boolean hit = mHistory.isFresh(locationSetting);
+        if (!hit) {
+            mHistory.recordRefresh(locationSetting);
+        }
+        if (result != null) {
+            result.mSwitches++;
+            if (hit) result.mHits++;
+            result.mLatencyMillis += hit ? STORED_LATENCY_MILLIS : NETWORK_LATENCY_MILLIS;
+        }
+        if (prefetch) prefetcher.notifyActive();
+    }
+
+    private static String pickLocation(Random random, String current) {
+        while (true) {
+            int pick = random.nextInt(100);
+            for (int i = 0; i < TRACE_LOCATIONS.length; i++) {
+                pick -= TRACE_WEIGHTS[i];
+                if (pick < 0) {
+                    if (!TRACE_LOCATIONS[i].equals(current)) return TRACE_LOCATIONS[i];
+                    break;
+                }
+            }
+        }
+    }
+
+    private static class TraceResult {
+        int mSwitches;
+        int mHits;
+        long mLatencyMillis;
+        long mPrefetches;
+
+        double getHitRate() {
+            return mSwitches == 0 ? 0 : (double) mHits / mSwitches;
+        }
+
+        long getMeanLatencyMillis() {
+            return mSwitches == 0 ? 0 : mLatencyMillis / mSwitches;
+        }
+
+        @Override
+        public String toString() {
+            return mSwitches + " switches, hit rate " + getHitRate() + ", mean switch latency " +
+                    getMeanLatencyMillis() + "ms, " + mPrefetches + " prefetches";
+        }
+    }
+
+    // Stands in for a download: takes no time, stores a forecast of a fixed size.
+    private class RecordingFetcher implements ForecastFetcher {
+        final List<String> mFetched = new ArrayList<>();
+        String mFailing;
+        Runnable mDuringFetch;
+
+        @Override
+        public long fetch(String locationSetting, Deadline deadline) {
+            if (mDuringFetch != null) mDuringFetch.run();
+            mFetched.add(locationSetting);
+            if (locationSetting.equals(mFailing)) return -1;
+            mHistory.recordRefresh(locationSetting);
+            return FORECAST_BYTES;
+        }
+    }
+}
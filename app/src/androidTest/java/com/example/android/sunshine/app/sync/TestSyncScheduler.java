@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.FetchWeatherTask;
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.utils.FakeClock;
+import com.example.android.sunshine.app.utils.ManualScheduledExecutor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Drives the sync scheduler with a fake clock and a hand-cranked executor, so a day of
+    scheduling runs in a few milliseconds.
+ */
+public class TestSyncScheduler extends AndroidTestCase {
+
+    private static final long START_TIME = 1419033600000L;  // December 20th, 2014
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+
+    private SharedPreferences mSettings;
+    private SharedPreferences mState;
+    private FakeClock mClock;
+    private ManualScheduledExecutor mExecutor;
+    private RecordingSyncer mSyncer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mSettings = mContext.getSharedPreferences("test_sync_settings", Context.MODE_PRIVATE);
+        mState = mContext.getSharedPreferences("test_sync_state", Context.MODE_PRIVATE);
+        mSettings.edit().clear().commit();
+        mState.edit().clear().commit();
+        mClock = new FakeClock(START_TIME);
+        mExecutor = new ManualScheduledExecutor(mClock);
+        mSyncer = new RecordingSyncer("94043", "99705");
+    }
+
+    private SyncScheduler newScheduler() {
+        return new SyncScheduler(mContext, mSettings, mState, mSyncer, mClock, mExecutor,
+                new Random(42));
+    }
+
+    private void setFrequencyMinutes(SyncScheduler scheduler, int minutes) {
+        String key = mContext.getString(R.string.pref_sync_frequency_key);
+        mSettings.edit().putString(key, Integer.toString(minutes)).commit();
+        scheduler.onSharedPreferenceChanged(mSettings, key);
+    }
+
+    public void testFirstRunIsImmediate() {
+        SyncScheduler scheduler = newScheduler();
+        scheduler.start();
+        mExecutor.runDue();
+
+        assertEquals("Error: a scheduler that has never run should sync straight away",
+                1, scheduler.getRunCount());
+        assertEquals(Arrays.asList("94043", "99705"), mSyncer.mSynced);
+        assertEquals(START_TIME, scheduler.getLastRunStart());
+    }
+
+    public void testRunsOnIntervalWithJitter() {
+        SyncScheduler scheduler = newScheduler();
+        scheduler.start();
+        setFrequencyMinutes(scheduler, 15);
+        mExecutor.advance(DAY);
+
+        long interval = TimeUnit.MINUTES.toMillis(15);
+        long slack = (long) (interval * SyncScheduler.JITTER_FRACTION);
+        List<Long> starts = mSyncer.mRunStarts;
+
+        // About one run every 15 minutes, give or take the jitter.
+        assertTrue("Error: too few runs in a day: " + starts.size(),
+                starts.size() >= DAY / (interval + slack));
+        assertTrue("Error: too many runs in a day: " + starts.size(),
+                starts.size() <= DAY / (interval - slack) + 1);
+
+        boolean jittered = false;
+        for (int i = 1; i < starts.size(); i++) {
+            long spacing = starts.get(i) - starts.get(i - 1);
+            assertTrue("Error: runs " + spacing + "ms apart",
+                    spacing >= interval - slack && spacing <= interval + slack);
+            if (spacing != interval) jittered = true;
+        }
+        assertTrue("Error: every run was exactly on the interval", jittered);
+    }
+
+    public void testNeverTurnsOffPeriodicSync() {
+        SyncScheduler scheduler = newScheduler();
+        scheduler.start();
+        mExecutor.runDue();
+        setFrequencyMinutes(scheduler, -1);
+        mExecutor.advance(7 * DAY);
+
+        assertEquals(1, scheduler.getRunCount());
+        assertEquals(-1, scheduler.getNextRunTime());
+
+        // Asking for a sync still works.
+        assertTrue(scheduler.requestSync());
+        mExecutor.runDue();
+        assertEquals(2, scheduler.getRunCount());
+    }
+
+    public void testFrequencyChangeReschedules() {
+        SyncScheduler scheduler = newScheduler();
+        scheduler.start();
+        mExecutor.runDue();
+        long hours = scheduler.getNextRunTime() - START_TIME;
+        assertTrue("Error: the default is every three hours",
+                Math.abs(hours - TimeUnit.HOURS.toMillis(3)) <= TimeUnit.MINUTES.toMillis(18));
+
+        setFrequencyMinutes(scheduler, 30);
+        assertTrue("Error: a shorter interval should bring the next run forward",
+                scheduler.getNextRunTime() - START_TIME <= TimeUnit.MINUTES.toMillis(33));
+    }
+
+    public void testOverlappingRequestsAreCoalesced() {
+        final SyncScheduler scheduler = newScheduler();
+        // Each sync asks for another one while it's running, as a refresh tap would.
+        mSyncer.mDuringSync = new Runnable() {
+            @Override
+            public void run() {
+                assertFalse(scheduler.requestSync());
+            }
+        };
+        scheduler.start();
+        // The overdue first run and this request fall due together; only one of them runs.
+        assertTrue(scheduler.requestSync());
+        mExecutor.runDue();
+
+        assertEquals(1, scheduler.getRunCount());
+        assertEquals("Error: each location should be synced once", 2, mSyncer.mSynced.size());
+        assertEquals(1 + mSyncer.mSynced.size(), scheduler.getCoalescedCount());
+    }
+
+    public void testLastRunIsPersisted() {
+        SyncScheduler first = newScheduler();
+        first.start();
+        mExecutor.runDue();
+        first.stop();
+        assertEquals(START_TIME, mState.getLong(SyncScheduler.STATE_LAST_RUN_START, 0));
+        assertEquals(2, mState.getInt(SyncScheduler.STATE_LAST_RUN_SYNCED, 0));
+
+        // A restart an hour later carries on from the saved schedule instead of syncing again.
+        mExecutor.advance(TimeUnit.HOURS.toMillis(1));
+        SyncScheduler second = newScheduler();
+        second.start();
+        mExecutor.runDue();
+        assertEquals(0, second.getRunCount());
+        assertTrue(second.getNextRunTime() - START_TIME
+                >= TimeUnit.HOURS.toMillis(3) - TimeUnit.MINUTES.toMillis(18));
+
+        mExecutor.advance(TimeUnit.HOURS.toMillis(3));
+        assertEquals(1, second.getRunCount());
+    }
+
+    public void testFailuresAreRecorded() {
+        mSyncer.mFailing = "99705";
+        SyncScheduler scheduler = newScheduler();
+        scheduler.start();
+        mExecutor.runDue();
+
+        assertEquals(1, mState.getInt(SyncScheduler.STATE_LAST_RUN_SYNCED, 0));
+        assertEquals(1, mState.getInt(SyncScheduler.STATE_LAST_RUN_FAILED, 0));
+        assertTrue("Error: a failed location shouldn't stop the schedule",
+                scheduler.getNextRunTime() > START_TIME);
+    }
+
+    public void testSyncsPreferredAndMostUsedLocations() {
+        SharedPreferences prefs = mContext.getSharedPreferences("test_sync_history",
+                Context.MODE_PRIVATE);
+        prefs.edit().clear().commit();
+        LocationHistory history = new LocationHistory(prefs, mClock);
+        // A zero-led postal code has to come back as it was typed, not as a number.
+        String[] used = {"02134", "10001", "60601", "73301", "94105"};
+        for (int i = 0; i < used.length; i++) {
+            for (int uses = used.length - i; uses > 0; uses--) {
+                history.recordUse(used[i]);
+            }
+        }
+
+        SyncScheduler.ForecastSyncer syncer = new SyncScheduler.ForecastSyncer(mContext,
+                history, 3);
+        List<String> tracked = new ArrayList<>(syncer.getTrackedLocations());
+        String preferred = FetchWeatherTask.getPreferredLocation(mContext);
+        assertEquals("Error: the preferred location should be synced first",
+                preferred, tracked.get(0));
+        assertTrue("Error: too many locations synced: " + tracked,
+                tracked.size() <= 4);
+        for (String location : Arrays.asList("02134", "10001", "60601")) {
+            assertTrue("Error: " + location + " wasn't synced: " + tracked,
+                    tracked.contains(location));
+        }
+        assertFalse(tracked.contains("94105"));
+        prefs.edit().clear().commit();
+    }
+
+    private class RecordingSyncer implements SyncScheduler.LocationSyncer {
+        final List<String> mLocations;
+        final List<String> mSynced = new ArrayList<>();
+        final List<Long> mRunStarts = new ArrayList<>();
+        String mFailing;
+        Runnable mDuringSync;
+
+        RecordingSyncer(String... locations) {
+            mLocations = Arrays.asList(locations);
+        }
+
+        @Override
+        public Collection<String> getTrackedLocations() {
+            mRunStarts.add(mClock.currentTimeMillis());
+            return mLocations;
+        }
+
+        @Override
+        public boolean sync(String locationSetting) {
+            if (mDuringSync != null) mDuringSync.run();
+            mSynced.add(locationSetting);
+            return !locationSetting.equals(mFailing);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.utils;
+
+/**
+ * A clock that only moves when a test moves it.
+ */
+public class FakeClock implements Clock {
+    private long mNow;
+
+    public FakeClock(long now) {
+        mNow = now;
+    }
+
+    @Override
+    public synchronized long currentTimeMillis() {
+        return mNow;
+    }
+
+    public synchronized void set(long now) {
+        mNow = now;
+    }
+
+    public synchronized void advance(long millis) {
+        mNow += millis;
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A ScheduledExecutorService that runs nothing on its own.  Tasks run on the test's thread when
+ * the test calls {@link #advance}, which moves a FakeClock forward through each task's due time
+ * in order.  Plain execute() tasks are due immediately.
+ */
+public class ManualScheduledExecutor extends AbstractExecutorService
+        implements ScheduledExecutorService {
+
+    private final FakeClock mClock;
+    private final List<Task<?>> mTasks = new ArrayList<>();
+    private long mSequence;
+    private boolean mShutdown;
+
+    public ManualScheduledExecutor(FakeClock clock) {
+        mClock = clock;
+    }
+
+    /**
+     * Moves the clock forward by the given amount, running every task that falls due on the
+     * way, including ones scheduled by the tasks themselves.
+     */
+    public void advance(long millis) {
+        long target = mClock.currentTimeMillis() + millis;
+        Task<?> next;
+        while ((next = takeDue(target)) != null) {
+            if (next.mTime > mClock.currentTimeMillis()) mClock.set(next.mTime);
+            next.run();
+            rethrowFailure(next);
+        }
+        mClock.set(target);
+    }
+
+    // FutureTask keeps a task's exception to itself; a test wants to see it.
+    private static void rethrowFailure(Task<?> task) {
+        if (task.isCancelled()) return;
+        try {
+            task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /** Runs whatever is due now without moving the clock. */
+    public void runDue() {
+        advance(0);
+    }
+
+    /** Tasks waiting to run, not counting cancelled ones. */
+    public synchronized int getPendingCount() {
+        int pending = 0;
+        for (Task<?> task : mTasks) {
+            if (!task.isCancelled()) pending++;
+        }
+        return pending;
+    }
+
+    private synchronized Task<?> takeDue(long target) {
+        Task<?> earliest = null;
+        for (int i = mTasks.size() - 1; i >= 0; i--) {
+            Task<?> task = mTasks.get(i);
+            if (task.isCancelled()) {
+                mTasks.remove(i);
+            } else if (task.mTime <= target
+                    && (earliest == null || task.compareTo(earliest) < 0)) {
+                earliest = task;
+            }
+        }
+        if (earliest != null) mTasks.remove(earliest);
+        return earliest;
+    }
+
+    private synchronized <V> Task<V> add(Task<V> task) {
+        if (mShutdown) throw new IllegalStateException("shut down");
+        mTasks.add(task);
+        return task;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        schedule(command, 0, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+        return add(new Task<Object>(Executors.callable(command), unit.toMillis(delay)));
+    }
+
+    @Override
+    public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+        return add(new Task<>(callable, unit.toMillis(delay)));
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay,
+                                                  long period, TimeUnit unit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay,
+                                                     long delay, TimeUnit unit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public synchronized void shutdown() {
+        mShutdown = true;
+    }
+
+    @Override
+    public synchronized List<Runnable> shutdownNow() {
+        mShutdown = true;
+        List<Runnable> pending = new ArrayList<Runnable>(mTasks);
+        mTasks.clear();
+        return pending;
+    }
+
+    @Override
+    public synchronized boolean isShutdown() {
+        return mShutdown;
+    }
+
+    @Override
+    public synchronized boolean isTerminated() {
+        return mShutdown && mTasks.isEmpty();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) {
+        return isTerminated();
+    }
+
+    private final class Task<V> extends FutureTask<V> implements ScheduledFuture<V> {
+        final long mTime;
+        final long mOrder;
+
+        Task(Callable<V> callable, long delay) {
+            super(callable);
+            mTime = mClock.currentTimeMillis() + Math.max(delay, 0);
+            synchronized (ManualScheduledExecutor.this) {
+                mOrder = mSequence++;
+            }
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(mTime - mClock.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            Task<?> task = (Task<?>) other;
+            if (mTime != task.mTime) return mTime < task.mTime ? -1 : 1;
+            return mOrder < task.mOrder ? -1 : mOrder == task.mOrder ? 0 : 1;
+        }
+    }
+}
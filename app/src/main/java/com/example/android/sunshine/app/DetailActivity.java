@@ -1,11 +1,14 @@
 package com.example.android.sunshine.app;
 
+import android.content.Context;
 import android.content.Intent;
-import android.content.SharedPreferences;
+import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
-import android.preference.PreferenceManager;
 import android.support.v4.app.Fragment;
+import android.support.v4.app.LoaderManager;
+import android.support.v4.content.CursorLoader;
+import android.support.v4.content.Loader;
 import android.support.v4.view.MenuItemCompat;
 import android.support.v7.app.ActionBarActivity;
 import android.support.v7.widget.ShareActionProvider;
@@ -16,14 +19,26 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
 
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.metrics.Histogram;
+import com.example.android.sunshine.app.metrics.Metrics;
+import com.example.android.sunshine.app.perf.FrameMonitor;
+import com.example.android.sunshine.app.perf.FrameTracker;
+import com.example.android.sunshine.core.ForecastFormat;
+
+import java.util.Locale;
+
 
 public class DetailActivity extends ActionBarActivity {
     private ShareActionProvider mShareActionProvider;
+    // What the share action sends: the list's text until the day has loaded.
+    private String mShareText;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_detail);
+        mShareText = getIntent().getStringExtra(Intent.EXTRA_TEXT);
         if (savedInstanceState == null) {
             getSupportFragmentManager().beginTransaction()
                     .add(R.id.container, new DetailFragment())
@@ -40,16 +55,24 @@ public class DetailActivity extends ActionBarActivity {
         MenuItem shareItem = menu.findItem(R.id.action_share);
         //mShareActionProvider = (ShareActionProvider)shareItem.getActionProvider();
         mShareActionProvider = (ShareActionProvider) MenuItemCompat.getActionProvider(shareItem);
+        updateShareIntent();
+
+        return true;
+    }
 
+    /** Shares this text from now on; the day's loader calls it once the day is bound. */
+    void setShareText(String text) {
+        mShareText = text;
+        updateShareIntent();
+    }
+
+    private void updateShareIntent() {
+        if (mShareActionProvider == null) return;
         Intent shareIntent = new Intent(Intent.ACTION_SEND);
         shareIntent.addFlags(Intent.FLAG_ACTIVITY_CLEAR_WHEN_TASK_RESET);
         shareIntent.setType("text/plain");
-
-        String forecast = getIntent().getStringExtra(Intent.EXTRA_TEXT);
-        shareIntent.putExtra(Intent.EXTRA_TEXT, forecast + " #SunshineApp");
+        shareIntent.putExtra(Intent.EXTRA_TEXT, mShareText + " #SunshineApp");
         mShareActionProvider.setShareIntent(shareIntent);
-
-        return true;
     }
 
     @Override
@@ -83,9 +106,8 @@ public class DetailActivity extends ActionBarActivity {
     }
 
     private void showMap() {
-        SharedPreferences pref = PreferenceManager.getDefaultSharedPreferences(this);
-        String location = pref.getString(getString(R.string.pref_location_code_key),
-                getString(R.string.pref_default_location_code));
+        // The place the forecast is for, snapped to the grid like the setting it's stored under.
+        String location = FetchWeatherTask.getPreferredLocation(this);
 
         Intent intent = new Intent(Intent.ACTION_VIEW);
         intent.setData(Uri.parse("geo:0,0?q=" + location));
@@ -94,20 +116,118 @@ public class DetailActivity extends ActionBarActivity {
     }
 
     /**
-     * A placeholder fragment containing a simple view.
+     * Shows one day, loaded by the content URI the activity was started with.  The provider
+     * answers it from the rows the forecast list already read, so in the common case the
+     * load runs no SQLite query at all.  Until it finishes, the list's text for the day is
+     * shown.
      */
-    public static class DetailFragment extends Fragment {
+    public static class DetailFragment extends Fragment
+            implements LoaderManager.LoaderCallbacks<Cursor> {
+
+        /** From the fragment's creation to the loaded day's first bind. */
+        static final Histogram OPEN_TO_BIND = Metrics.histogram("ui.detail_open_to_bind_us");
+
+        private static final int DETAIL_LOADER = 0;
+
+        private final FrameMonitor mFrameMonitor = new FrameMonitor(FrameMonitor.SCREEN_DETAIL);
+        private TextView mTextView;
+        private long mOpenedNanos;
+        private boolean mBound;
 
         public DetailFragment() {
         }
 
+        @Override
+        public void onCreate(Bundle savedInstanceState) {
+            super.onCreate(savedInstanceState);
+            mOpenedNanos = System.nanoTime();
+        }
+
         @Override
         public View onCreateView(LayoutInflater inflater, ViewGroup container,
                                  Bundle savedInstanceState) {
             View rootView = inflater.inflate(R.layout.fragment_detail, container, false);
-            TextView textView = (TextView) rootView.findViewById(R.id.detail_textview);
-            textView.setText(getActivity().getIntent().getStringExtra(Intent.EXTRA_TEXT));
+            mTextView = (TextView) rootView.findViewById(R.id.detail_textview);
+            mTextView.setText(getActivity().getIntent().getStringExtra(Intent.EXTRA_TEXT));
             return rootView;
         }
+
+        @Override
+        public void onActivityCreated(Bundle savedInstanceState) {
+            super.onActivityCreated(savedInstanceState);
+            if (getActivity().getIntent().getData() != null) {
+                getLoaderManager().initLoader(DETAIL_LOADER, null, this);
+            }
+        }
+
+        @Override
+        public void onResume() {
+            super.onResume();
+            mFrameMonitor.start();
+        }
+
+        @Override
+        public void onPause() {
+            mFrameMonitor.stop();
+            super.onPause();
+        }
+
+        @Override
+        public Loader<Cursor> onCreateLoader(int id, Bundle args) {
+            return new CursorLoader(getActivity(), getActivity().getIntent().getData(),
+                    WeatherEntry.DETAIL_PROJECTION, null, null, null);
+        }
+
+        @Override
+        public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
+            if (cursor == null || !cursor.moveToFirst()) return;
+
+            FrameTracker tracker = mFrameMonitor.getTracker();
+            tracker.beginRefresh(System.nanoTime());
+            String summary = formatSummary(getActivity(), cursor);
+            mTextView.setText(summary + "\n" + formatConditions(getActivity(), cursor));
+            tracker.endRefresh(System.nanoTime());
+
+            if (!mBound) {
+                mBound = true;
+                OPEN_TO_BIND.recordElapsed(mOpenedNanos);
+            }
+            ((DetailActivity) getActivity()).setShareText(summary);
+        }
+
+        @Override
+        public void onLoaderReset(Loader<Cursor> loader) {
+        }
+
+        /** The day's line from the list, e.g. "Sat, Dec 20 - Clear - 21/9". */
+        static String formatSummary(Context context, Cursor cursor) {
+            return new ForecastFormat(Locale.getDefault(), FetchWeatherTask.isImperial(context))
+                    .formatDay(cursor.getLong(WeatherEntry.DETAIL_COL_DATE),
+                            cursor.getString(WeatherEntry.DETAIL_COL_SHORT_DESC),
+                            cursor.getDouble(WeatherEntry.DETAIL_COL_MAX_TEMP),
+                            cursor.getDouble(WeatherEntry.DETAIL_COL_MIN_TEMP));
+        }
+
+        /** Humidity, pressure and wind, a line each. */
+        static String formatConditions(Context context, Cursor cursor) {
+            // Forecasts are fetched in metric units, so the wind is in meters per second.
+            double windSpeed = cursor.getDouble(WeatherEntry.DETAIL_COL_WIND_SPEED);
+            String direction = getWindDirection(cursor.getFloat(WeatherEntry.DETAIL_COL_DEGREES));
+            String wind = FetchWeatherTask.isImperial(context)
+                    ? context.getString(R.string.format_wind_mph, windSpeed * 2.237, direction)
+                    : context.getString(R.string.format_wind_kmh, windSpeed * 3.6, direction);
+            return context.getString(R.string.format_humidity,
+                    cursor.getDouble(WeatherEntry.DETAIL_COL_HUMIDITY)) + "\n" +
+                    context.getString(R.string.format_pressure,
+                            cursor.getDouble(WeatherEntry.DETAIL_COL_PRESSURE)) + "\n" +
+                    wind;
+        }
+
+        /** The compass point a meteorological wind direction is closest to, e.g. "NE". */
+        static String getWindDirection(float degrees) {
+            final String[] points = {"N", "NE", "E", "SE", "S", "SW", "W", "NW"};
+            int point = Math.round(((degrees % 360) + 360) % 360 / 45f) % points.length;
+            return points[point];
+        }
     }
 }
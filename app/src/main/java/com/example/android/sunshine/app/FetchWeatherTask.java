@@ -15,87 +15,117 @@
  */
 package com.example.android.sunshine.app;
 
+import android.annotation.TargetApi;
+import android.content.ContentProvider;
+import android.content.ContentProviderClient;
 import android.content.ContentValues;
 import android.content.Context;
-import android.content.SharedPreferences;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.AsyncTask;
+import android.os.Build;
 import android.preference.PreferenceManager;
-import android.text.format.Time;
 import android.util.Log;
-import android.widget.ArrayAdapter;
 
+import com.example.android.sunshine.app.data.ForecastSnapshotStore;
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.data.WeatherProvider;
+import com.example.android.sunshine.app.metrics.Metrics;
+import com.example.android.sunshine.app.net.ForecastClient;
+import com.example.android.sunshine.app.perf.FrameMonitor;
+import com.example.android.sunshine.app.perf.FrameTracker;
+import com.example.android.sunshine.app.sync.LocationHistory;
+import com.example.android.sunshine.app.sync.LocationRefresher;
+import com.example.android.sunshine.app.utils.Clock;
+import com.example.android.sunshine.app.utils.Deadline;
+import com.example.android.sunshine.core.CoordinateGrid;
+import com.example.android.sunshine.core.ForecastBatch;
+import com.example.android.sunshine.core.ForecastDates;
+import com.example.android.sunshine.core.ForecastFormat;
+import com.example.android.sunshine.core.ForecastJson;
 
 import org.json.JSONArray;
 import org.json.JSONException;
-import org.json.JSONObject;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
 import java.net.URL;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.Vector;
+import java.util.Locale;
+import java.util.TimeZone;
 
 public class FetchWeatherTask extends AsyncTask<String, Void, String[]> {
 
     private final String LOG_TAG = FetchWeatherTask.class.getSimpleName();
 
-    private ArrayAdapter<String> mForecastAdapter;
+    // How long one refresh may take, from connecting to the end of the database write.
+    public static final long REFRESH_BUDGET_MILLIS = 60 * 1000;
+
+    // OpenWeatherMap's daily forecast API.
+    static final String FORECAST_BASE_URL =
+            "http://api.openweathermap.org/data/2.5/forecast/daily?";
+
+    // Where forecasts are downloaded from; tests point it at a local stand-in for the API.
+    private static volatile String sForecastBaseUrl = FORECAST_BASE_URL;
+
+    private ForecastAdapter mForecastAdapter;
     private final Context mContext;
+    private long mLastDownloadBytes = -1;
+    // The location and the dates of the days the task last formatted, for the adapter.
+    private String mLocationSetting;
+    private long[] mForecastDates;
 
-    public FetchWeatherTask(Context context, ArrayAdapter<String> forecastAdapter) {
+    public FetchWeatherTask(Context context, ForecastAdapter forecastAdapter) {
         mContext = context;
         mForecastAdapter = forecastAdapter;
     }
 
     private boolean DEBUG = true;
 
-    /* The date/time conversion code is going to be moved outside the asynctask later,
-     * so for convenience we're breaking it out into its own method now.
-     */
-    private String getReadableDateString(long time) {
-        // Because the API returns a unix timestamp (measured in seconds),
-        // it must be converted to milliseconds in order to be converted to valid date.
-        Date date = new Date(time);
-        SimpleDateFormat format = new SimpleDateFormat("E, MMM d");
-        return format.format(date).toString();
+    static void setForecastBaseUrl(String baseUrl) {
+        sForecastBaseUrl = baseUrl;
     }
 
     /**
-     * Prepare the weather high/lows for presentation.
+     * Whether the user wants temperatures in Fahrenheit.  Anything other than the two known
+     * settings is shown in Celsius, the units forecasts are fetched and stored in.
      */
-    private String formatHighLows(double high, double low) {
-        // Data is fetched in Celsius by default.
-        // If user prefers to see in Fahrenheit, convert the values here.
-        // We do this rather than fetching in Fahrenheit so that the user can
-        // change this option without us having to re-fetch the data once
-        // we start storing the values in a database.
-        SharedPreferences sharedPrefs =
-                PreferenceManager.getDefaultSharedPreferences(mContext);
-        String unitType = sharedPrefs.getString(
-                mContext.getString(R.string.pref_temperature_units_key),
-                mContext.getString(R.string.pref_temperature_units_default));
-
+    static boolean isImperial(Context context) {
+        String unitType = PreferenceManager.getDefaultSharedPreferences(context).getString(
+                context.getString(R.string.pref_temperature_units_key),
+                context.getString(R.string.pref_temperature_units_default));
         if (unitType.equals("Fahrenheit")) {
-            high = (high * 1.8) + 32;
-            low = (low * 1.8) + 32;
-        } else if (!unitType.equals(mContext.getString(R.string.pref_temperature_units_default))) {
-            Log.d(LOG_TAG, "Unit type not found: " + unitType);
+            return true;
+        } else if (!unitType.equals(context.getString(R.string.pref_temperature_units_default))) {
+            Log.d(FetchWeatherTask.class.getSimpleName(), "Unit type not found: " + unitType);
         }
+        return false;
+    }
 
-        // For presentation, assume the user doesn't care about tenths of a degree.
-        long roundedHigh = Math.round(high);
-        long roundedLow = Math.round(low);
+    /** The grid that location settings given as coordinates are snapped to. */
+    public static CoordinateGrid getLocationGrid(Context context) {
+        String cellDegrees = PreferenceManager.getDefaultSharedPreferences(context).getString(
+                context.getString(R.string.pref_location_grid_key),
+                context.getString(R.string.pref_location_grid_default));
+        try {
+            return new CoordinateGrid(Double.parseDouble(cellDegrees));
+        } catch (IllegalArgumentException e) {
+            Log.d(FetchWeatherTask.class.getSimpleName(), "Grid not found: " + cellDegrees);
+            return new CoordinateGrid(Double.parseDouble(
+                    context.getString(R.string.pref_location_grid_default)));
+        }
+    }
 
-        String highLowStr = roundedHigh + "/" + roundedLow;
-        return highLowStr;
+    /**
+     * The location setting forecasts are fetched and stored under: the preference, with
+     * coordinates snapped to the grid, so a location that wobbles by a few metres from one fix
+     * to the next keeps one location row and one stored forecast.
+     */
+    public static String getPreferredLocation(Context context) {
+        String location = PreferenceManager.getDefaultSharedPreferences(context).getString(
+                context.getString(R.string.pref_location_code_key),
+                context.getString(R.string.pref_default_location_code));
+        return getLocationGrid(context).snap(location);
     }
 
     /**
@@ -129,11 +159,15 @@ public class FetchWeatherTask extends AsyncTask<String, Void, String[]> {
                 .insert(WeatherContract.LocationEntry.CONTENT_URI, values);
     }
 
+    // Only the row id is needed, so that's all we ask for.
+    private static final String[] LOCATION_ID_PROJECTION = {WeatherContract.LocationEntry._ID};
+    private static final int COL_LOCATION_ID = 0;
+
     private long getLocationId(String locationSetting, String cityName, double lat, double lon) {
         Cursor cursor = null;
         try {
             cursor = mContext.getContentResolver().query(WeatherContract.LocationEntry.CONTENT_URI,
-                        null,
+                        LOCATION_ID_PROJECTION,
                         WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                                 WeatherContract.LocationEntry.COLUMN_CITY_NAME + " = ? AND " +
                                 WeatherContract.LocationEntry.COLUMN_COORD_LAT + " = ? AND " +
@@ -142,7 +176,7 @@ public class FetchWeatherTask extends AsyncTask<String, Void, String[]> {
                         null);
 
             if (cursor.moveToFirst())
-                return cursor.getLong(cursor.getColumnIndex(WeatherContract.LocationEntry._ID));
+                return cursor.getLong(COL_LOCATION_ID);
             else
                 return -1;
 
@@ -155,21 +189,83 @@ public class FetchWeatherTask extends AsyncTask<String, Void, String[]> {
         Students: This code will allow the FetchWeatherTask to continue to return the strings that
         the UX expects so that we can continue to test the application even once we begin using
         the database.
+
+        The unit preference and the date format are looked up once per batch rather than once
+        per day.
      */
-    String[] convertContentValuesToUXFormat(Vector<ContentValues> cvv) {
+    String[] convertBatchToUXFormat(ForecastBatch batch) {
+        mForecastDates = new long[batch.size()];
+        for (int day = 0; day < batch.size(); day++) {
+            mForecastDates[day] = batch.getDate(day);
+        }
         // return strings to keep UI functional for now
-        String[] resultStrs = new String[cvv.size()];
-        for (int i = 0; i < cvv.size(); i++) {
-            ContentValues weatherValues = cvv.elementAt(i);
-            String highAndLow = formatHighLows(
-                    weatherValues.getAsDouble(WeatherEntry.COLUMN_MAX_TEMP),
-                    weatherValues.getAsDouble(WeatherEntry.COLUMN_MIN_TEMP));
-            resultStrs[i] = getReadableDateString(
-                    weatherValues.getAsLong(WeatherEntry.COLUMN_DATE)) +
-                    " - " + weatherValues.getAsString(WeatherEntry.COLUMN_SHORT_DESC) +
-                    " - " + highAndLow;
+        return new ForecastFormat(Locale.getDefault(), isImperial(mContext)).formatBatch(batch);
+    }
+
+    /**
+     * Reads the days of the "list" array of an OpenWeatherMap daily forecast into a batch,
+     * dated in this device's time zone.
+     *
+     * @param julianStartDay the Julian day of the first entry, in the city's local time
+     */
+    static ForecastBatch parseForecastDays(JSONArray weatherArray, long locationId,
+                                           int julianStartDay) throws JSONException {
+        return ForecastJson.parseForecastDays(weatherArray, locationId, julianStartDay,
+                TimeZone.getDefault());
+    }
+
+    /**
+     * Writes the batch to the database.  When WeatherProvider lives in this process, which it
+     * does for this app, the rows are bound straight from the batch; otherwise they go through
+     * an ordinary bulkInsert.  Either way the rows go in one transaction, so a deadline that
+     * runs out part way leaves the stored forecast as it was.
+     *
+     * @return the number of rows inserted
+     */
+    @TargetApi(11)
+    int storeForecast(ForecastBatch batch, Deadline deadline) throws Deadline.ExpiredException {
+        if (batch.size() == 0) return 0;
+
+        // ContentProviderClient.getLocalContentProvider showed up in API level 11.
+        if (Build.VERSION.SDK_INT >= 11) {
+            ContentProviderClient client = mContext.getContentResolver()
+                    .acquireContentProviderClient(WeatherEntry.CONTENT_URI);
+            if (client != null) {
+                try {
+                    ContentProvider provider = client.getLocalContentProvider();
+                    if (provider instanceof WeatherProvider) {
+                        return ((WeatherProvider) provider).bulkInsert(batch, deadline);
+                    }
+                } finally {
+                    client.release();
+                }
+            }
         }
-        return resultStrs;
+        // A remote provider can't be handed the deadline, so this is the last check.
+        deadline.check(Deadline.STAGE_WRITE);
+        return mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                toContentValues(batch));
+    }
+
+    static ContentValues[] toContentValues(ForecastBatch batch) {
+        ContentValues[] values = new ContentValues[batch.size()];
+        for (int i = 0; i < batch.size(); i++) {
+            ContentValues weatherValues = new ContentValues();
+
+            weatherValues.put(WeatherEntry.COLUMN_LOC_KEY, batch.getLocationId());
+            weatherValues.put(WeatherEntry.COLUMN_DATE, batch.getDate(i));
+            weatherValues.put(WeatherEntry.COLUMN_HUMIDITY, batch.getHumidity(i));
+            weatherValues.put(WeatherEntry.COLUMN_PRESSURE, batch.getPressure(i));
+            weatherValues.put(WeatherEntry.COLUMN_WIND_SPEED, batch.getWindSpeed(i));
+            weatherValues.put(WeatherEntry.COLUMN_DEGREES, batch.getDegrees(i));
+            weatherValues.put(WeatherEntry.COLUMN_MAX_TEMP, batch.getMaxTemp(i));
+            weatherValues.put(WeatherEntry.COLUMN_MIN_TEMP, batch.getMinTemp(i));
+            weatherValues.put(WeatherEntry.COLUMN_SHORT_DESC, batch.getDescription(i));
+            weatherValues.put(WeatherEntry.COLUMN_WEATHER_ID, batch.getWeatherId(i));
+
+            values[i] = weatherValues;
+        }
+        return values;
     }
 
     /**
@@ -178,58 +274,29 @@ public class FetchWeatherTask extends AsyncTask<String, Void, String[]> {
      * <p/>
      * Fortunately parsing is easy:  constructor takes the JSON string and converts it
      * into an Object hierarchy for us.
+     * <p/>
+     * The deadline is checked before parsing and again before anything is written.  The
+     * location row is only a lookup record that the next refresh reuses; the forecast rows
+     * themselves are written all or nothing.
      */
     private String[] getWeatherDataFromJson(String forecastJsonStr,
-                                            String locationSetting)
-            throws JSONException {
+                                            String locationSetting, Deadline deadline)
+            throws JSONException, Deadline.ExpiredException {
 
         // Now we have a String representing the complete forecast in JSON Format.
         // Fortunately parsing is easy:  constructor takes the JSON string and converts it
         // into an Object hierarchy for us.
 
-        // These are the names of the JSON objects that need to be extracted.
-
-        // Location information
-        final String OWM_CITY = "city";
-        final String OWM_CITY_NAME = "name";
-        final String OWM_COORD = "coord";
-
-        // Location coordinate
-        final String OWM_LATITUDE = "lat";
-        final String OWM_LONGITUDE = "lon";
-
-        // Weather information.  Each day's forecast info is an element of the "list" array.
-        final String OWM_LIST = "list";
-
-        final String OWM_PRESSURE = "pressure";
-        final String OWM_HUMIDITY = "humidity";
-        final String OWM_WINDSPEED = "speed";
-        final String OWM_WIND_DIRECTION = "deg";
-
-        // All temperatures are children of the "temp" object.
-        final String OWM_TEMPERATURE = "temp";
-        final String OWM_MAX = "max";
-        final String OWM_MIN = "min";
-
-        final String OWM_WEATHER = "weather";
-        final String OWM_DESCRIPTION = "main";
-        final String OWM_WEATHER_ID = "id";
-
         try {
-            JSONObject forecastJson = new JSONObject(forecastJsonStr);
-            JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
-
-            JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
-            String cityName = cityJson.getString(OWM_CITY_NAME);
-
-            JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
-            double cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
-            double cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
+            deadline.check(Deadline.STAGE_PARSE);
+            // The parse is timed in two parts, leaving out the location lookup between them.
+            long parseStart = System.nanoTime();
+            ForecastJson forecast = ForecastJson.parse(forecastJsonStr);
+            long parseNanos = System.nanoTime() - parseStart;
 
-            long locationId = addLocation(locationSetting, cityName, cityLatitude, cityLongitude);
-
-            // Insert the new weather information into the database
-            Vector<ContentValues> cVVector = new Vector<ContentValues>(weatherArray.length());
+            deadline.check(Deadline.STAGE_WRITE);
+            long locationId = addLocation(locationSetting, forecast.getCityName(),
+                    forecast.getLatitude(), forecast.getLongitude());
 
             // OWM returns daily forecasts based upon the local time of the city that is being
             // asked for, which means that we need to know the GMT offset to translate this data
@@ -239,96 +306,27 @@ public class FetchWeatherTask extends AsyncTask<String, Void, String[]> {
             // current day, we're going to take advantage of that to get a nice
             // normalized UTC date for all of our weather.
 
-            Time dayTime = new Time();
-            dayTime.setToNow();
+            TimeZone zone = TimeZone.getDefault();
 
             // we start at the day returned by local time. Otherwise this is a mess.
-            int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
-
-            // now we work exclusively in UTC
-            dayTime = new Time();
-
-            for (int i = 0; i < weatherArray.length(); i++) {
-                // These are the values that will be collected.
-                long dateTime;
-                double pressure;
-                int humidity;
-                double windSpeed;
-                double windDirection;
-
-                double high;
-                double low;
-
-                String description;
-                int weatherId;
-
-                // Get the JSON object representing the day
-                JSONObject dayForecast = weatherArray.getJSONObject(i);
-
-                // Cheating to convert this to UTC time, which is what we want anyhow
-                dateTime = dayTime.setJulianDay(julianStartDay + i);
-
-                pressure = dayForecast.getDouble(OWM_PRESSURE);
-                humidity = dayForecast.getInt(OWM_HUMIDITY);
-                windSpeed = dayForecast.getDouble(OWM_WINDSPEED);
-                windDirection = dayForecast.getDouble(OWM_WIND_DIRECTION);
-
-                // Description is in a child array called "weather", which is 1 element long.
-                // That element also contains a weather code.
-                JSONObject weatherObject =
-                        dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
-                description = weatherObject.getString(OWM_DESCRIPTION);
-                weatherId = weatherObject.getInt(OWM_WEATHER_ID);
-
-                // Temperatures are in a child object called "temp".  Try not to name variables
-                // "temp" when working with temperature.  It confuses everybody.
-                JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
-                high = temperatureObject.getDouble(OWM_MAX);
-                low = temperatureObject.getDouble(OWM_MIN);
-
-                ContentValues weatherValues = new ContentValues();
-
-                weatherValues.put(WeatherEntry.COLUMN_LOC_KEY, locationId);
-                weatherValues.put(WeatherEntry.COLUMN_DATE, dateTime);
-                weatherValues.put(WeatherEntry.COLUMN_HUMIDITY, humidity);
-                weatherValues.put(WeatherEntry.COLUMN_PRESSURE, pressure);
-                weatherValues.put(WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
-                weatherValues.put(WeatherEntry.COLUMN_DEGREES, windDirection);
-                weatherValues.put(WeatherEntry.COLUMN_MAX_TEMP, high);
-                weatherValues.put(WeatherEntry.COLUMN_MIN_TEMP, low);
-                weatherValues.put(WeatherEntry.COLUMN_SHORT_DESC, description);
-                weatherValues.put(WeatherEntry.COLUMN_WEATHER_ID, weatherId);
-
-                cVVector.add(weatherValues);
-            }
-
-            // add to database
-            if (cVVector.size() > 0) {
-                // Student: call bulkInsert to add the weatherEntries to the database here
-            }
+            int julianStartDay = ForecastDates.getJulianDay(System.currentTimeMillis(), zone);
 
-            // Sort order:  Ascending, by date.
-            String sortOrder = WeatherEntry.COLUMN_DATE + " ASC";
-            Uri weatherForLocationUri = WeatherEntry.buildWeatherLocationWithStartDate(
-                    locationSetting, System.currentTimeMillis());
+            parseStart = System.nanoTime();
+            ForecastBatch batch = forecast.toBatch(locationId, julianStartDay, zone);
+            Metrics.PIPELINE_PARSE.record((parseNanos + System.nanoTime() - parseStart) / 1000);
 
-            // Students: Uncomment the next lines to display what what you stored in the bulkInsert
+            // add to database
+            int inserted = storeForecast(batch, deadline);
 
-//            Cursor cur = mContext.getContentResolver().query(weatherForLocationUri,
-//                    null, null, null, sortOrder);
-//
-//            cVVector = new Vector<ContentValues>(cur.getCount());
-//            if ( cur.moveToFirst() ) {
-//                do {
-//                    ContentValues cv = new ContentValues();
-//                    DatabaseUtils.cursorRowToContentValues(cur, cv);
-//                    cVVector.add(cv);
-//                } while (cur.moveToNext());
-//            }
+            Log.d(LOG_TAG, "FetchWeatherTask Complete. " + inserted + " Inserted");
 
-            Log.d(LOG_TAG, "FetchWeatherTask Complete. " + cVVector.size() + " Inserted");
+            // The next launch shows this straight from the snapshot, before the database is
+            // open.  Only the location the list shows is worth keeping one for.
+            if (locationSetting.equals(getPreferredLocation(mContext))) {
+                ForecastSnapshotStore.getInstance(mContext).write(locationSetting, batch);
+            }
 
-            String[] resultStrs = convertContentValuesToUXFormat(cVVector);
+            String[] resultStrs = convertBatchToUXFormat(batch);
             return resultStrs;
 
         } catch (JSONException e) {
@@ -345,16 +343,84 @@ public class FetchWeatherTask extends AsyncTask<String, Void, String[]> {
         if (params.length == 0) {
             return null;
         }
-        String locationQuery = params[0];
+        mLocationSetting = params[0];
+        // A location just picked in Settings may still be downloading; wait for that rather
+        // than download it twice.
+        LocationRefresher.getInstance(mContext).awaitRefresh(params[0], REFRESH_BUDGET_MILLIS);
+        // A forecast that was prefetched, synced or refreshed recently is shown straight from
+        // the database.
+        if (LocationHistory.getInstance(mContext).isFresh(params[0])) {
+            String[] stored = readStoredForecast(params[0]);
+            if (stored != null) return stored;
+        }
+        String[] fetched = fetchForecast(params[0]);
+        if (fetched == null) return null;
+        // The list is always read back through the provider, which indexes the rows by day, so
+        // that opening a day's detail doesn't have to query SQLite.
+        String[] stored = readStoredForecast(params[0]);
+        return stored != null ? stored : fetched;
+    }
 
-        // These two need to be declared outside the try/catch
-        // so that they can be closed in the finally block.
-        HttpURLConnection urlConnection = null;
-        BufferedReader reader = null;
+    /**
+     * The stored forecast for a location from today on, formatted for the list, or null if
+     * nothing is stored.  It reads whole detail rows, which the provider keeps for the detail
+     * screen.
+     */
+    String[] readStoredForecast(String locationSetting) {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationWithStartDate(locationSetting,
+                        System.currentTimeMillis()),
+                WeatherEntry.DETAIL_PROJECTION, null, null, WeatherEntry.SORT_BY_DATE);
+        if (cursor == null) return null;
+        try {
+            if (cursor.getCount() == 0) return null;
+            ForecastBatch batch = new ForecastBatch(0, cursor.getCount());
+            while (cursor.moveToNext()) {
+                batch.add(cursor.getLong(WeatherEntry.DETAIL_COL_DATE),
+                        cursor.getFloat(WeatherEntry.DETAIL_COL_MIN_TEMP),
+                        cursor.getFloat(WeatherEntry.DETAIL_COL_MAX_TEMP),
+                        cursor.getFloat(WeatherEntry.DETAIL_COL_HUMIDITY),
+                        cursor.getFloat(WeatherEntry.DETAIL_COL_PRESSURE),
+                        cursor.getFloat(WeatherEntry.DETAIL_COL_WIND_SPEED),
+                        cursor.getFloat(WeatherEntry.DETAIL_COL_DEGREES),
+                        cursor.getInt(WeatherEntry.DETAIL_COL_WEATHER_ID),
+                        cursor.getString(WeatherEntry.DETAIL_COL_SHORT_DESC));
+            }
+            return convertBatchToUXFormat(batch);
+        } finally {
+            cursor.close();
+        }
+    }
 
-        // Will contain the raw JSON response as a string.
-        String forecastJsonStr = null;
+    /** The dates of the days the task last formatted, in list order, or null. */
+    long[] getForecastDates() {
+        return mForecastDates;
+    }
+
+    /** The size of the last forecast this task downloaded, or -1 if it hasn't downloaded one. */
+    public long getLastDownloadBytes() {
+        return mLastDownloadBytes;
+    }
 
+    /**
+     * Downloads the forecast for a location and stores it, on the calling thread.  This is the
+     * whole of the task's background work, available to callers that already run off the main
+     * thread, like the sync scheduler.
+     *
+     * @return the forecast formatted for the list, or null if it couldn't be fetched
+     */
+    public String[] fetchForecast(String locationQuery) {
+        return fetchForecast(locationQuery, new Deadline(Clock.SYSTEM, REFRESH_BUDGET_MILLIS));
+    }
+
+    /**
+     * Downloads the forecast for a location and stores it within the deadline, for callers
+     * that may want to cancel the refresh part way through.
+     *
+     * @return the forecast formatted for the list, or null if it couldn't be fetched in time
+     */
+    public String[] fetchForecast(String locationQuery, Deadline deadline) {
+        URL url;
         String format = "json";
         String units = "metric";
         int numDays = 14;
@@ -363,72 +429,73 @@ public class FetchWeatherTask extends AsyncTask<String, Void, String[]> {
             // Construct the URL for the OpenWeatherMap query
             // Possible parameters are avaiable at OWM's forecast API page, at
             // http://openweathermap.org/API#forecast
-            final String FORECAST_BASE_URL =
-                    "http://api.openweathermap.org/data/2.5/forecast/daily?";
             final String QUERY_PARAM = "q";
+            final String LAT_PARAM = "lat";
+            final String LON_PARAM = "lon";
             final String FORMAT_PARAM = "mode";
             final String UNITS_PARAM = "units";
             final String DAYS_PARAM = "cnt";
 
-            Uri builtUri = Uri.parse(FORECAST_BASE_URL).buildUpon()
-                    .appendQueryParameter(QUERY_PARAM, params[0])
+            // Coordinates are asked for as such, rather than searched for as a place name.
+            Uri.Builder builder = Uri.parse(sForecastBaseUrl).buildUpon();
+            double[] coordinates = CoordinateGrid.parse(locationQuery);
+            if (coordinates != null) {
+                builder.appendQueryParameter(LAT_PARAM, Double.toString(coordinates[0]))
+                        .appendQueryParameter(LON_PARAM, Double.toString(coordinates[1]));
+            } else {
+                builder.appendQueryParameter(QUERY_PARAM, locationQuery);
+            }
+            Uri builtUri = builder
                     .appendQueryParameter(FORMAT_PARAM, format)
                     .appendQueryParameter(UNITS_PARAM, units)
                     .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
                     .build();
 
-            URL url = new URL(builtUri.toString());
+            url = new URL(builtUri.toString());
+        } catch (MalformedURLException e) {
+            Log.e(LOG_TAG, "Error ", e);
+            return null;
+        }
+        return fetchForecast(url, locationQuery, deadline);
+    }
 
-            // Create the request to OpenWeatherMap, and open the connection
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
+    /**
+     * Downloads, parses and stores the forecast at the URL, giving up once the deadline has
+     * passed.  A refresh that runs out of time leaves the stored forecast as it was.
+     *
+     * @return the forecast formatted for the list, or null if it couldn't be fetched
+     */
+    String[] fetchForecast(URL url, String locationQuery, Deadline deadline) {
 
-            // Read the input stream into a String
-            InputStream inputStream = urlConnection.getInputStream();
-            StringBuffer buffer = new StringBuffer();
-            if (inputStream == null) {
-                // Nothing to do.
-                return null;
-            }
-            reader = new BufferedReader(new InputStreamReader(inputStream));
-
-            String line;
-            while ((line = reader.readLine()) != null) {
-                // Since it's JSON, adding a newline isn't necessary (it won't affect parsing)
-                // But it does make debugging a *lot* easier if you print out the completed
-                // buffer for debugging.
-                buffer.append(line + "\n");
-            }
+        // Will contain the raw JSON response as a string.
+        String forecastJsonStr = null;
 
-            if (buffer.length() == 0) {
+        try {
+            // The client backs off from the API while it's failing, in which case this throws
+            // without sending anything.
+            forecastJsonStr = ForecastClient.getInstance().fetch(url, deadline);
+
+            if (forecastJsonStr.length() == 0) {
                 // Stream was empty.  No point in parsing.
                 return null;
             }
-            forecastJsonStr = buffer.toString();
+            mLastDownloadBytes = forecastJsonStr.length();
         } catch (IOException e) {
             Log.e(LOG_TAG, "Error ", e);
             // If the code didn't successfully get the weather data, there's no point in attemping
             // to parse it.
             return null;
-        } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
-            }
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (final IOException e) {
-                    Log.e(LOG_TAG, "Error closing stream", e);
-                }
-            }
         }
 
         try {
-            return getWeatherDataFromJson(forecastJsonStr, locationQuery);
+            String[] result = getWeatherDataFromJson(forecastJsonStr, locationQuery, deadline);
+            if (result != null) LocationHistory.getInstance(mContext).recordRefresh(locationQuery);
+            return result;
         } catch (JSONException e) {
             Log.e(LOG_TAG, e.getMessage(), e);
             e.printStackTrace();
+        } catch (Deadline.ExpiredException e) {
+            Log.w(LOG_TAG, "Refresh abandoned: " + e.getMessage());
         }
         // This will only happen if there was an error getting or parsing the forecast.
         return null;
@@ -437,10 +504,10 @@ public class FetchWeatherTask extends AsyncTask<String, Void, String[]> {
     @Override
     protected void onPostExecute(String[] result) {
         if (result != null && mForecastAdapter != null) {
-            mForecastAdapter.clear();
-            for (String dayForecastStr : result) {
-                mForecastAdapter.add(dayForecastStr);
-            }
+            FrameTracker tracker = FrameMonitor.getTracker(FrameMonitor.SCREEN_FORECAST_LIST);
+            tracker.beginRefresh(System.nanoTime());
+            mForecastAdapter.setForecast(mLocationSetting, result, mForecastDates);
+            tracker.endRefresh(System.nanoTime());
             // New data is back from the server.  Hooray!
         }
     }
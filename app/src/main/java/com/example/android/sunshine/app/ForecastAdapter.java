@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.net.Uri;
+import android.widget.ArrayAdapter;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.perf.StartupTrace;
+
+import java.util.ArrayList;
+
+/**
+ * The forecast list's rows, one formatted day each, along with which location and date each
+ * row is for, so that a row can be opened by its content URI.
+ */
+public class ForecastAdapter extends ArrayAdapter<String> {
+
+    private String mLocationSetting;
+    private long[] mDates = new long[0];
+
+    public ForecastAdapter(Context context, int resource, int textViewResourceId) {
+        super(context, resource, textViewResourceId, new ArrayList<String>());
+    }
+
+    /**
+     * Replaces the rows.
+     *
+     * @param dates the date of each day, or null if they aren't known
+     */
+    public void setForecast(String locationSetting, String[] days, long[] dates) {
+        setNotifyOnChange(false);
+        clear();
+        for (String day : days) {
+            add(day);
+        }
+        mLocationSetting = locationSetting;
+        mDates = dates != null && dates.length == days.length ? dates : new long[0];
+        notifyDataSetChanged();
+        if (days.length > 0) StartupTrace.mark(StartupTrace.PHASE_FIRST_BIND);
+    }
+
+    /** The content URI of the day in a row, or null if the row's date isn't known. */
+    public Uri getDayUri(int position) {
+        if (mLocationSetting == null || position >= mDates.length) return null;
+        return WeatherEntry.buildWeatherLocationWithDate(mLocationSetting, mDates[position]);
+    }
+}
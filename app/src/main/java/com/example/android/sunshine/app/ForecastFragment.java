@@ -16,17 +16,27 @@ import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
 import android.widget.AdapterView;
-import android.widget.ArrayAdapter;
 import android.widget.ListView;
 
-import java.util.ArrayList;
+import com.example.android.sunshine.app.data.ForecastSnapshotStore;
+import com.example.android.sunshine.app.perf.FrameMonitor;
+import com.example.android.sunshine.app.perf.StartupTrace;
+import com.example.android.sunshine.app.sync.LocationHistory;
+import com.example.android.sunshine.app.sync.Prefetcher;
+import com.example.android.sunshine.core.ForecastBatch;
+import com.example.android.sunshine.core.ForecastFormat;
+
+import java.util.Locale;
 
 /**
  * A forecast fragment containing a simple view.
  */
 public class ForecastFragment extends Fragment {
-    protected ArrayAdapter<String> mListAdapter;
+    protected ForecastAdapter mListAdapter;
+    private final FrameMonitor mFrameMonitor =
+            new FrameMonitor(FrameMonitor.SCREEN_FORECAST_LIST);
 
     public ForecastFragment() {
     }
@@ -41,21 +51,38 @@ public class ForecastFragment extends Fragment {
     public View onCreateView(LayoutInflater inflater, ViewGroup container,
                              Bundle savedInstanceState) {
         View rootView = inflater.inflate(R.layout.fragment_main, container, false);
-        mListAdapter = new ArrayAdapter<>(
+        mListAdapter = new ForecastAdapter(
                 getActivity(),
                 R.layout.list_item_forecast,
-                R.id.list_item_forecast_textview,
-                new ArrayList<String>());
+                R.id.list_item_forecast_textview);
 
-        ListView listView = (ListView) rootView.findViewById(R.id.listview_forecast);
+        final ListView listView = (ListView) rootView.findViewById(R.id.listview_forecast);
         listView.setAdapter(mListAdapter);
+        StartupTrace.mark(StartupTrace.PHASE_INFLATE);
+        // The launch is over at the first frame with forecast rows in it.
+        listView.getViewTreeObserver().addOnPreDrawListener(
+                new ViewTreeObserver.OnPreDrawListener() {
+                    @Override
+                    public boolean onPreDraw() {
+                        if (mListAdapter.getCount() > 0) {
+                            StartupTrace.mark(StartupTrace.PHASE_FIRST_FRAME);
+                            listView.getViewTreeObserver().removeOnPreDrawListener(this);
+                        }
+                        return true;
+                    }
+                });
+        // Something to look at while onStart's refresh opens the database.
+        showSnapshot();
 
         listView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
             @Override
             public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
                 String forecast = mListAdapter.getItem(position);
                 //Toast.makeText(mListAdapter.getContext(), forecast, Toast.LENGTH_LONG).show();
-                Intent intent = new Intent(getActivity(), DetailActivity.class);
+                // The detail screen loads the whole day by its URI; the list's text is there
+                // to show until it has.
+                Intent intent = new Intent(getActivity(), DetailActivity.class)
+                        .setData(mListAdapter.getDayUri(position));
                 intent.putExtra(Intent.EXTRA_TEXT, forecast);
 
                 startActivity(intent);
@@ -71,6 +98,21 @@ public class ForecastFragment extends Fragment {
         updateWeather();
     }
 
+    @Override
+    public void onResume() {
+        super.onResume();
+        mFrameMonitor.start();
+        Prefetcher.getInstance(getActivity()).notifyActive();
+    }
+
+    @Override
+    public void onPause() {
+        mFrameMonitor.stop();
+        // Leaving the list, perhaps for Settings, is a good time to start counting idle time.
+        Prefetcher.getInstance(getActivity()).notifyActive();
+        super.onPause();
+    }
+
     @Override
     public void onCreateOptionsMenu(Menu menu, MenuInflater inflater) {
         inflater.inflate(R.menu.forecastfragment, menu);
@@ -94,9 +136,8 @@ public class ForecastFragment extends Fragment {
     }
 
     private void showMap() {
-        SharedPreferences pref = PreferenceManager.getDefaultSharedPreferences(getActivity());
-        String location = pref.getString(getString(R.string.pref_location_code_key),
-                getString(R.string.pref_default_location_code));
+        // The place the forecast is for, snapped to the grid like the setting it's stored under.
+        String location = FetchWeatherTask.getPreferredLocation(getActivity());
 
         Intent intent = new Intent(Intent.ACTION_VIEW);
         intent.setData(Uri.parse("geo:0,0?q=" + location));
@@ -104,12 +145,30 @@ public class ForecastFragment extends Fragment {
             startActivity(intent);
     }
 
+    /**
+     * Fills the list from the forecast snapshot the last refresh left, if it's of the preferred
+     * location.  It's read from a small file, without touching the database or the network, so
+     * the list has rows on its first frame; the refresh in onStart replaces them.
+     */
+    void showSnapshot() {
+        String location = FetchWeatherTask.getPreferredLocation(getActivity());
+        ForecastBatch batch = ForecastSnapshotStore.getInstance(getActivity())
+                .read(location, System.currentTimeMillis());
+        if (batch == null) return;
+        long[] dates = new long[batch.size()];
+        for (int day = 0; day < batch.size(); day++) {
+            dates[day] = batch.getDate(day);
+        }
+        mListAdapter.setForecast(location, new ForecastFormat(Locale.getDefault(),
+                FetchWeatherTask.isImperial(getActivity())).formatBatch(batch), dates);
+    }
+
     private void updateWeather() {
         SharedPreferences pref = PreferenceManager.getDefaultSharedPreferences(getActivity());
-        String location = pref.getString(getString(R.string.pref_location_code_key),
-                                         getString(R.string.pref_default_location_code));
+        String location = FetchWeatherTask.getPreferredLocation(getActivity());
         String temperatureUnit = pref.getString(getString(R.string.pref_temperature_units_key),
                                          getString(R.string.pref_temperature_units_default));
+        LocationHistory.getInstance(getActivity()).recordUse(location);
         new FetchWeatherTask(getActivity(), mListAdapter).execute(location, temperatureUnit);
     }
 }
@@ -6,11 +6,15 @@ import android.support.v7.app.ActionBarActivity;
 import android.view.Menu;
 import android.view.MenuItem;
 
+import com.example.android.sunshine.app.perf.StartupTrace;
+import com.example.android.sunshine.app.sync.SyncScheduler;
+
 
 public class MainActivity extends ActionBarActivity {
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        StartupTrace.activityCreated();
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
         if (savedInstanceState == null) {
@@ -18,6 +22,11 @@ public class MainActivity extends ActionBarActivity {
                     .add(R.id.container, new ForecastFragment())
                     .commit();
         }
+
+        // Keep the tracked locations fresh in the background; this syncs straight away if the
+        // last run is overdue.
+        SyncScheduler.getInstance(this).start();
+        StartupTrace.mark(StartupTrace.PHASE_ACTIVITY);
     }
 
 
@@ -6,6 +6,9 @@ import android.preference.Preference;
 import android.preference.PreferenceActivity;
 import android.preference.PreferenceManager;
 
+import com.example.android.sunshine.app.sync.LocationRefresher;
+import com.example.android.sunshine.core.CoordinateGrid;
+
 /**
  * A {@link PreferenceActivity} that presents a set of application settings.
  * <p>
@@ -22,11 +25,22 @@ public class SettingsActivity extends PreferenceActivity
         super.onCreate(savedInstanceState);
         // Add 'general' preferences, defined in the XML file
         addPreferencesFromResource(R.xml.pref_general);
+        // and the background sync preferences
+        addPreferencesFromResource(R.xml.pref_data_sync);
 
         // For all preferences, attach an OnPreferenceChangeListener so the UI summary can be
         // updated when the preference changes.
         bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_location_code_key)));
+        bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_location_grid_key)));
         bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_temperature_units_key)));
+        bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_sync_frequency_key)));
+    }
+
+    @Override
+    protected void onPause() {
+        // On the way back to the list: don't keep a new location waiting to settle.
+        LocationRefresher.getInstance(this).flush();
+        super.onPause();
     }
 
     /**
@@ -50,6 +64,19 @@ public class SettingsActivity extends PreferenceActivity
     public boolean onPreferenceChange(Preference preference, Object value) {
         String stringValue = value.toString();
 
+        // The listener hears about a change before it's saved, so the stored value is still
+        // the old one.  That also keeps the call from bindPreferenceSummaryToValue out.  New
+        // coordinates in the same grid cell as the old ones are the same location.
+        if (preference.getKey().equals(getString(R.string.pref_location_code_key))) {
+            CoordinateGrid grid = FetchWeatherTask.getLocationGrid(this);
+            String location = grid.snap(stringValue);
+            if (!location.equals(grid.snap(PreferenceManager
+                    .getDefaultSharedPreferences(preference.getContext())
+                    .getString(preference.getKey(), "")))) {
+                LocationRefresher.getInstance(this).onLocationChanged(location);
+            }
+        }
+
         if (preference instanceof ListPreference) {
             // For list preferences, look up the correct display value in
             // the preference's 'entries' list (since they have separate labels/values).
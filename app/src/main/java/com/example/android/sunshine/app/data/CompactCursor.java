@@ -0,0 +1,279 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.annotation.TargetApi;
+import android.database.AbstractCursor;
+import android.database.Cursor;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A read-only cursor over a {@link Snapshot}: a query result copied column by column into
+ * primitive arrays.  Any number of CompactCursors can share one snapshot, each with its own
+ * position, which is what lets the forecast cache hand out hits without touching SQLite.
+ */
+final class CompactCursor extends AbstractCursor {
+
+    private final Snapshot mSnapshot;
+
+    CompactCursor(Snapshot snapshot) {
+        mSnapshot = snapshot;
+    }
+
+    Snapshot getSnapshot() {
+        return mSnapshot;
+    }
+
+    @Override
+    public int getCount() {
+        return mSnapshot.mCount;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return mSnapshot.mColumnNames;
+    }
+
+    @Override
+    public int getType(int column) {
+        int type = mSnapshot.mTypes[column];
+        if (type == Cursor.FIELD_TYPE_STRING && isNull(column)) return Cursor.FIELD_TYPE_NULL;
+        return type;
+    }
+
+    @Override
+    public String getString(int column) {
+        checkPosition();
+        switch (mSnapshot.mTypes[column]) {
+            case Cursor.FIELD_TYPE_INTEGER:
+                return Long.toString(mSnapshot.mLongs[column][mPos]);
+            case Cursor.FIELD_TYPE_FLOAT:
+                return Double.toString(mSnapshot.mDoubles[column][mPos]);
+            default:
+                return mSnapshot.mStrings[column][mPos];
+        }
+    }
+
+    @Override
+    public short getShort(int column) {
+        return (short) getLong(column);
+    }
+
+    @Override
+    public int getInt(int column) {
+        return (int) getLong(column);
+    }
+
+    @Override
+    public long getLong(int column) {
+        checkPosition();
+        return mSnapshot.getLong(mPos, column);
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return (float) getDouble(column);
+    }
+
+    @Override
+    public double getDouble(int column) {
+        checkPosition();
+        switch (mSnapshot.mTypes[column]) {
+            case Cursor.FIELD_TYPE_INTEGER:
+                return mSnapshot.mLongs[column][mPos];
+            case Cursor.FIELD_TYPE_FLOAT:
+                return mSnapshot.mDoubles[column][mPos];
+            default:
+                String value = mSnapshot.mStrings[column][mPos];
+                return value == null ? 0 : Double.parseDouble(value);
+        }
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        checkPosition();
+        return mSnapshot.mTypes[column] == Cursor.FIELD_TYPE_STRING
+                && mSnapshot.mStrings[column][mPos] == null;
+    }
+
+    /**
+     * An immutable copy of a query result.  INTEGER columns are stored as long[], REAL columns
+     * as double[], and anything else (text, nulls, mixed types) as String[] with repeated values
+     * sharing one String, since a forecast has only a handful of distinct descriptions.
+     */
+    static final class Snapshot {
+        // Rough per-object costs used for the memory estimate.
+        private static final int OBJECT_OVERHEAD = 16;
+        private static final int STRING_OVERHEAD = 40;
+        private static final int REFERENCE_SIZE = 4;
+
+        final String[] mColumnNames;
+        final int[] mTypes;
+        final long[][] mLongs;
+        final double[][] mDoubles;
+        final String[][] mStrings;
+        final int mCount;
+        final int mSizeInBytes;
+
+        private Snapshot(String[] columnNames, int[] types, long[][] longs, double[][] doubles,
+                         String[][] strings, int count, int sizeInBytes) {
+            mColumnNames = columnNames;
+            mTypes = types;
+            mLongs = longs;
+            mDoubles = doubles;
+            mStrings = strings;
+            mCount = count;
+            mSizeInBytes = sizeInBytes;
+        }
+
+        /** An estimate of the heap this snapshot holds on to. */
+        int getSizeInBytes() {
+            return mSizeInBytes;
+        }
+
+        int getCount() {
+            return mCount;
+        }
+
+        /** The index of the named column, or -1. */
+        int getColumnIndex(String columnName) {
+            for (int column = 0; column < mColumnNames.length; column++) {
+                if (mColumnNames[column].equals(columnName)) return column;
+            }
+            return -1;
+        }
+
+        /** A column's value in a row, as a long.  Text columns are parsed. */
+        long getLong(int row, int column) {
+            switch (mTypes[column]) {
+                case Cursor.FIELD_TYPE_INTEGER:
+                    return mLongs[column][row];
+                case Cursor.FIELD_TYPE_FLOAT:
+                    return (long) mDoubles[column][row];
+                default:
+                    String value = mStrings[column][row];
+                    return value == null ? 0 : Long.parseLong(value);
+            }
+        }
+
+        /** A one-row copy of a row, sharing its strings and column names with this one. */
+        Snapshot row(int row) {
+            int columns = mColumnNames.length;
+            long[][] longs = new long[columns][];
+            double[][] doubles = new double[columns][];
+            String[][] strings = new String[columns][];
+            for (int column = 0; column < columns; column++) {
+                switch (mTypes[column]) {
+                    case Cursor.FIELD_TYPE_INTEGER:
+                        longs[column] = new long[]{mLongs[column][row]};
+                        break;
+                    case Cursor.FIELD_TYPE_FLOAT:
+                        doubles[column] = new double[]{mDoubles[column][row]};
+                        break;
+                    default:
+                        strings[column] = new String[]{mStrings[column][row]};
+                }
+            }
+            return new Snapshot(mColumnNames, mTypes, longs, doubles, strings, 1,
+                    mSizeInBytes / Math.max(1, mCount));
+        }
+
+        /**
+         * Copies every row of the cursor, or returns null if it holds something a snapshot
+         * can't represent (blobs).  The cursor is left positioned before the first row.
+         */
+        @TargetApi(11)
+        static Snapshot of(Cursor cursor) {
+            String[] columnNames = cursor.getColumnNames();
+            int columns = columnNames.length;
+            int count = cursor.getCount();
+
+            // First pass: pick the narrowest storage that holds every row of each column.
+            int[] types = new int[columns];
+            for (int column = 0; column < columns; column++) {
+                types[column] = Cursor.FIELD_TYPE_INTEGER;
+            }
+            cursor.moveToPosition(-1);
+            while (cursor.moveToNext()) {
+                for (int column = 0; column < columns; column++) {
+                    int type = cursor.getType(column);
+                    if (type == Cursor.FIELD_TYPE_BLOB) return null;
+                    if (type == Cursor.FIELD_TYPE_INTEGER) continue;
+                    if (type == Cursor.FIELD_TYPE_FLOAT
+                            && types[column] != Cursor.FIELD_TYPE_STRING) {
+                        types[column] = Cursor.FIELD_TYPE_FLOAT;
+                    } else if (type != Cursor.FIELD_TYPE_FLOAT) {
+                        types[column] = Cursor.FIELD_TYPE_STRING;
+                    }
+                }
+            }
+
+            // Second pass: copy.
+            long[][] longs = new long[columns][];
+            double[][] doubles = new double[columns][];
+            String[][] strings = new String[columns][];
+            int size = OBJECT_OVERHEAD * 4;
+            for (int column = 0; column < columns; column++) {
+                size += STRING_OVERHEAD + 2 * columnNames[column].length() + OBJECT_OVERHEAD;
+                switch (types[column]) {
+                    case Cursor.FIELD_TYPE_INTEGER:
+                        longs[column] = new long[count];
+                        size += 8 * count;
+                        break;
+                    case Cursor.FIELD_TYPE_FLOAT:
+                        doubles[column] = new double[count];
+                        size += 8 * count;
+                        break;
+                    default:
+                        strings[column] = new String[count];
+                        size += REFERENCE_SIZE * count;
+                }
+            }
+
+            Map<String, String> distinct = new HashMap<>();
+            cursor.moveToPosition(-1);
+            for (int row = 0; cursor.moveToNext(); row++) {
+                for (int column = 0; column < columns; column++) {
+                    switch (types[column]) {
+                        case Cursor.FIELD_TYPE_INTEGER:
+                            longs[column][row] = cursor.getLong(column);
+                            break;
+                        case Cursor.FIELD_TYPE_FLOAT:
+                            doubles[column][row] = cursor.getDouble(column);
+                            break;
+                        default:
+                            String value = cursor.getString(column);
+                            if (value != null) {
+                                String shared = distinct.get(value);
+                                if (shared == null) {
+                                    distinct.put(value, value);
+                                    size += STRING_OVERHEAD + 2 * value.length();
+                                    shared = value;
+                                }
+                                value = shared;
+                            }
+                            strings[column][row] = value;
+                    }
+                }
+            }
+            cursor.moveToPosition(-1);
+
+            return new Snapshot(columnNames, types, longs, doubles, strings, count, size);
+        }
+    }
+}
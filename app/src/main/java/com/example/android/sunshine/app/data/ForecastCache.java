@@ -0,0 +1,319 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.support.v4.util.LruCache;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded, read-through cache of WeatherProvider query results.
+ *
+ * Entries are keyed by route and every query argument, and tagged with the location setting
+ * they were read for.  Entries for routes that span every location (plain "weather" and
+ * "location") carry a null tag.
+ *
+ * Each entry is stamped with the database change counter (see WeatherDbHelper) it was read at,
+ * and is only served while the counter still has that value.  When WeatherProvider itself
+ * writes, it reports the counter values from just before and just after its transaction, so
+ * entries for untouched locations are carried over to the new value and only the affected
+ * ones are dropped.  A write that goes around the provider invalidates everything.
+ *
+ * Results that carry every detail column for one location are also indexed by date, so a
+ * query for a single day can be answered from rows the forecast list already read.  A day
+ * lookup doesn't read the change counter: it trusts the newest value the cache has been told
+ * about by a query or a write.  The app writes only through the provider, so that value is
+ * current; a write around the provider is noticed by the next query that reads the counter.
+ */
+final class ForecastCache {
+
+    static final int DEFAULT_MAX_BYTES = 256 * 1024;
+
+    // Results with more rows than this (a long history, say) are returned straight from
+    // SQLite rather than being copied into the cache.
+    static final int MAX_CACHED_ROWS = 512;
+
+    // Locations whose days are indexed; the least recently used one is dropped past this.
+    static final int MAX_INDEXED_LOCATIONS = 4;
+
+    private static final char SEPARATOR = '\u0000';
+
+    private final LruCache<String, Entry> mEntries;
+    // Access ordered, so the eldest entry is the least recently used location.
+    private final LinkedHashMap<String, DayIndex> mDays =
+            new LinkedHashMap<String, DayIndex>(8, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, DayIndex> eldest) {
+                    return size() > MAX_INDEXED_LOCATIONS;
+                }
+            };
+    // The newest change counter value seen by a query or reported by a write.
+    private long mKnownChangeCount = -1;
+
+    private long mHits;
+    private long mMisses;
+    private long mInvalidations;
+    private long mDayHits;
+    private long mDayMisses;
+
+    ForecastCache(int maxBytes) {
+        mEntries = new LruCache<String, Entry>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Entry entry) {
+                return entry.mSnapshot.getSizeInBytes() + 2 * key.length();
+            }
+        };
+    }
+
+    /** Cache key covering the route and every argument that can change the result. */
+    static String keyFor(int route, Uri uri, String[] projection, String selection,
+                         String[] selectionArgs, String sortOrder) {
+        StringBuilder key = new StringBuilder(128);
+        key.append(route).append(SEPARATOR).append(uri).append(SEPARATOR);
+        if (projection != null) {
+            for (String column : projection) key.append(column).append(',');
+        }
+        key.append(SEPARATOR).append(selection).append(SEPARATOR);
+        if (selectionArgs != null) {
+            for (String arg : selectionArgs) key.append(arg).append(SEPARATOR);
+        }
+        key.append(SEPARATOR).append(sortOrder);
+        return key.toString();
+    }
+
+    /**
+     * Returns a fresh cursor over the cached result, or null on a miss.
+     *
+     * @param changeCount the database change counter's current value
+     */
+    synchronized Cursor get(String key, long changeCount) {
+        noteChangeCount(changeCount);
+        Entry entry = mEntries.get(key);
+        if (entry != null && entry.mChangeCount != changeCount) {
+            mEntries.remove(key);
+            entry = null;
+        }
+        if (entry == null) {
+            mMisses++;
+            return null;
+        }
+        mHits++;
+        return new CompactCursor(entry.mSnapshot);
+    }
+
+    /**
+     * Copies a freshly queried cursor into the cache and returns a cursor to hand back in its
+     * place.  Cursors that are too big, or that can't be copied, are returned unchanged.
+     *
+     * @param tag         the location setting the result was read for, or null if it spans
+     *                    every location
+     * @param changeCount the database change counter, read before the query ran
+     */
+    Cursor readThrough(String key, String tag, long changeCount, Cursor cursor) {
+        return readThrough(key, tag, changeCount, cursor, false);
+    }
+
+    /**
+     * As {@link #readThrough(String, String, long, Cursor)}, and when {@code indexDays} is
+     * set, also indexes the rows by date for {@link #getDay}.  Only a result holding every
+     * column of a detail row for the tagged location should be indexed.
+     */
+    Cursor readThrough(String key, String tag, long changeCount, Cursor cursor,
+                       boolean indexDays) {
+        // Cursor.getType, which the snapshot needs, showed up in API level 11.
+        if (Build.VERSION.SDK_INT < 11 || cursor.getCount() > MAX_CACHED_ROWS) return cursor;
+
+        CompactCursor.Snapshot snapshot = CompactCursor.Snapshot.of(cursor);
+        if (snapshot == null) return cursor;
+        cursor.close();
+
+        synchronized (this) {
+            mEntries.put(key, new Entry(tag, snapshot, changeCount));
+            noteChangeCount(changeCount);
+            // A result read before a write that has since landed mustn't be indexed.
+            if (indexDays && tag != null && changeCount == mKnownChangeCount) {
+                DayIndex index = DayIndex.of(snapshot, changeCount);
+                if (index != null) mDays.put(tag, index);
+            }
+        }
+        return new CompactCursor(snapshot);
+    }
+
+    /**
+     * Returns a one-row cursor over a day the list has already read, or null if no current
+     * indexed result has it.  No SQLite query runs either way.
+     */
+    synchronized Cursor getDay(String locationSetting, long date) {
+        DayIndex index = mDays.get(locationSetting);
+        if (index != null && index.mChangeCount != mKnownChangeCount) {
+            mDays.remove(locationSetting);
+            index = null;
+        }
+        Integer row = index == null ? null : index.mRows.get(date);
+        if (row == null) {
+            mDayMisses++;
+            return null;
+        }
+        mDayHits++;
+        return new CompactCursor(index.mSnapshot.row(row));
+    }
+
+    // The counter only goes up, so an older value read by a slow query is ignored.
+    private void noteChangeCount(long changeCount) {
+        if (changeCount > mKnownChangeCount) mKnownChangeCount = changeCount;
+    }
+
+    /**
+     * Called by the provider after one of its own write transactions commits.  Entries for the
+     * given location settings, and entries spanning all locations, are dropped; the rest were
+     * untouched by the write and stay valid under the new counter value.
+     *
+     * @param locationSettings the settings the write touched, or null if it could have
+     *                         touched any of them
+     * @param before           the change counter at the start of the transaction
+     * @param after            the change counter at the end of the transaction
+     */
+    synchronized void onWrite(Collection<String> locationSettings, long before, long after) {
+        mInvalidations++;
+        // Two writers' callbacks can come in the other order from their commits.
+        noteChangeCount(after);
+        if (locationSettings == null) {
+            mEntries.evictAll();
+            mDays.clear();
+            return;
+        }
+        for (Iterator<Map.Entry<String, DayIndex>> it = mDays.entrySet().iterator();
+             it.hasNext(); ) {
+            Map.Entry<String, DayIndex> indexed = it.next();
+            DayIndex index = indexed.getValue();
+            if (index.mChangeCount != before || locationSettings.contains(indexed.getKey())) {
+                it.remove();
+            } else {
+                index.mChangeCount = after;
+            }
+        }
+        for (Map.Entry<String, Entry> cached : mEntries.snapshot().entrySet()) {
+            Entry entry = cached.getValue();
+            // An entry that isn't from just before this write already missed another one.
+            if (entry.mChangeCount != before || entry.mTag == null
+                    || locationSettings.contains(entry.mTag)) {
+                mEntries.remove(cached.getKey());
+            } else {
+                entry.mChangeCount = after;
+            }
+        }
+    }
+
+    synchronized void invalidateAll() {
+        mInvalidations++;
+        mEntries.evictAll();
+        mDays.clear();
+    }
+
+    synchronized long getHitCount() {
+        return mHits;
+    }
+
+    synchronized long getMissCount() {
+        return mMisses;
+    }
+
+    /** Fraction of lookups served from the cache, 0 before the first lookup. */
+    synchronized double getHitRate() {
+        long lookups = mHits + mMisses;
+        return lookups == 0 ? 0 : (double) mHits / lookups;
+    }
+
+    synchronized long getInvalidationCount() {
+        return mInvalidations;
+    }
+
+    /** Single days served from an indexed result. */
+    synchronized long getDayHitCount() {
+        return mDayHits;
+    }
+
+    synchronized long getDayMissCount() {
+        return mDayMisses;
+    }
+
+    synchronized int getIndexedLocationCount() {
+        return mDays.size();
+    }
+
+    synchronized int getEvictionCount() {
+        return mEntries.evictionCount();
+    }
+
+    synchronized int getEntryCount() {
+        return mEntries.snapshot().size();
+    }
+
+    /** Estimated heap held by the cached results. */
+    synchronized int getSizeInBytes() {
+        return mEntries.size();
+    }
+
+    int getMaxSizeInBytes() {
+        return mEntries.maxSize();
+    }
+
+    /** A cached result's rows, found by their date. */
+    private static final class DayIndex {
+        final CompactCursor.Snapshot mSnapshot;
+        final Map<Long, Integer> mRows;
+        // guarded by the cache's lock
+        long mChangeCount;
+
+        private DayIndex(CompactCursor.Snapshot snapshot, Map<Long, Integer> rows,
+                         long changeCount) {
+            mSnapshot = snapshot;
+            mRows = rows;
+            mChangeCount = changeCount;
+        }
+
+        /** Indexes the snapshot's rows, or returns null if it has no date column. */
+        static DayIndex of(CompactCursor.Snapshot snapshot, long changeCount) {
+            int dateColumn = snapshot.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_DATE);
+            if (dateColumn == -1) return null;
+            Map<Long, Integer> rows = new HashMap<>(snapshot.getCount() * 2);
+            for (int row = 0; row < snapshot.getCount(); row++) {
+                rows.put(snapshot.getLong(row, dateColumn), row);
+            }
+            return new DayIndex(snapshot, rows, changeCount);
+        }
+    }
+
+    private static final class Entry {
+        final String mTag;
+        final CompactCursor.Snapshot mSnapshot;
+        // guarded by the cache's lock
+        long mChangeCount;
+
+        Entry(String tag, CompactCursor.Snapshot snapshot, long changeCount) {
+            mTag = tag;
+            mSnapshot = snapshot;
+            mChangeCount = changeCount;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.example.android.sunshine.core.ForecastBatch;
+import com.example.android.sunshine.core.ForecastSnapshot;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Keeps a {@link ForecastSnapshot} of the preferred location's forecast in a file of its own,
+ * so that the list can be filled at startup before the database is opened or the network is
+ * asked.  The file is replaced whole after every refresh of that location and read through a
+ * memory map; a missing, damaged or out of date file just means no head start.
+ */
+public class ForecastSnapshotStore {
+
+    private static final String LOG_TAG = ForecastSnapshotStore.class.getSimpleName();
+
+    static final String FILE_NAME = "forecast.snapshot";
+
+    private static ForecastSnapshotStore sInstance;
+
+    private final File mFile;
+
+    public static synchronized ForecastSnapshotStore getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ForecastSnapshotStore(
+                    new File(context.getApplicationContext().getFilesDir(), FILE_NAME));
+        }
+        return sInstance;
+    }
+
+    ForecastSnapshotStore(File file) {
+        mFile = file;
+    }
+
+    /**
+     * Replaces the snapshot with this forecast.  It's written to a file alongside and renamed
+     * over the old one, so a reader sees either the old snapshot or the new, never half of one.
+     */
+    public synchronized void write(String locationSetting, ForecastBatch batch) {
+        if (batch.size() == 0) return;
+        byte[] bytes = new ForecastSnapshot(locationSetting, System.currentTimeMillis(), batch)
+                .encode();
+        File temp = new File(mFile.getPath() + ".tmp");
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(temp);
+            out.write(bytes);
+            out.getFD().sync();
+            out.close();
+            out = null;
+            if (!temp.renameTo(mFile)) throw new IOException("Couldn't rename " + temp);
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Snapshot not written", e);
+            temp.delete();
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // Already on the way out with the first error.
+                }
+            }
+        }
+    }
+
+    /** The whole snapshot as last written, or null if there's none that can be read. */
+    public ForecastSnapshot read() {
+        if (!mFile.exists()) return null;
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(mFile);
+            FileChannel channel = in.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return ForecastSnapshot.decode(buffer);
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Snapshot not read", e);
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // The snapshot has been read, or it hasn't; either way it's done with.
+                }
+            }
+        }
+    }
+
+    /**
+     * The snapshot's days from today on, if it's for this location, as the list would show
+     * them; or null if there's no snapshot of the location or nothing in it is still to come.
+     */
+    public ForecastBatch read(String locationSetting, long now) {
+        ForecastSnapshot snapshot = read();
+        if (snapshot == null || !snapshot.getLocationSetting().equals(locationSetting)) {
+            return null;
+        }
+        ForecastBatch stored = snapshot.getBatch();
+        long today = WeatherContract.normalizeDate(now);
+        ForecastBatch batch = new ForecastBatch(stored.getLocationId(), stored.size());
+        for (int day = 0; day < stored.size(); day++) {
+            if (stored.getDate(day) < today) continue;
+            batch.add(stored.getDate(day), stored.getMinTemp(day), stored.getMaxTemp(day),
+                    stored.getHumidity(day), stored.getPressure(day), stored.getWindSpeed(day),
+                    stored.getDegrees(day), stored.getWeatherId(day), stored.getDescription(day));
+        }
+        return batch.size() > 0 ? batch : null;
+    }
+
+    /** Forgets the snapshot. */
+    public synchronized void delete() {
+        mFile.delete();
+    }
+}
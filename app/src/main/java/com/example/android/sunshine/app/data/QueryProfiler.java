@@ -0,0 +1,305 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.annotation.TargetApi;
+import android.database.Cursor;
+import android.database.CursorWindow;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteCursorDriver;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteQuery;
+import android.util.Log;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An opt-in profiler for WeatherProvider calls.  It's off unless the "QueryProfiler" log tag
+ * is enabled for DEBUG:
+ *
+ *     adb shell setprop log.tag.QueryProfiler DEBUG
+ *
+ * While on, every provider call records its operation, matched route, SQL with bound
+ * arguments, rows returned, cursor window fills and wall time.  Calls that take longer than
+ * the threshold also get their EXPLAIN QUERY PLAN, and the most recent of those are kept in a
+ * bounded ring buffer, which "adb shell dumpsys activity provider WeatherProvider" prints.
+ *
+ * A call is tracked per thread from {@link #begin} to {@link #end}, so the code in between can
+ * add the SQL it ends up running through {@link #current}.
+ */
+final class QueryProfiler {
+
+    static final String LOG_TAG = "QueryProfiler";
+
+    // A call that holds up a frame is worth a look.
+    static final long DEFAULT_THRESHOLD_MILLIS = 16;
+    static final int DEFAULT_CAPACITY = 32;
+
+    private final ThreadLocal<Call> mCurrent = new ThreadLocal<>();
+    private volatile boolean mEnabled;
+    private volatile long mThresholdNanos = DEFAULT_THRESHOLD_MILLIS * 1000000;
+
+    // guarded by this
+    private final Call[] mSlowCalls;
+    private int mNextSlot;
+    private long mProfiledCount;
+    private long mSlowCount;
+
+    QueryProfiler(int capacity) {
+        mSlowCalls = new Call[capacity];
+        mEnabled = Log.isLoggable(LOG_TAG, Log.DEBUG);
+    }
+
+    void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+    }
+
+    boolean isEnabled() {
+        return mEnabled;
+    }
+
+    void setThresholdMillis(long thresholdMillis) {
+        mThresholdNanos = thresholdMillis * 1000000;
+    }
+
+    /**
+     * Starts tracking a call on this thread.  Returns null, and tracks nothing, while the
+     * profiler is off.
+     */
+    Call begin(String operation, String route) {
+        if (!mEnabled) return null;
+        Call call = new Call(operation, route);
+        mCurrent.set(call);
+        return call;
+    }
+
+    /** The call being tracked on this thread, or null. */
+    Call current() {
+        return mCurrent.get();
+    }
+
+    /**
+     * Finishes a call from {@link #begin}; a null call is ignored.  A slow call has its query
+     * plan read from the helper's database before it goes into the ring buffer.
+     */
+    void end(Call call, SQLiteOpenHelper helper) {
+        if (call == null) return;
+        call.mWallNanos = System.nanoTime() - call.mStartNanos;
+        mCurrent.remove();
+
+        boolean slow = call.mWallNanos >= mThresholdNanos;
+        if (slow) {
+            call.mPlan = explain(helper.getReadableDatabase(), call.mPlanSql, call.mArgs);
+            Log.w(LOG_TAG, "Slow call: " + call);
+        }
+        synchronized (this) {
+            mProfiledCount++;
+            if (slow) {
+                mSlowCount++;
+                mSlowCalls[mNextSlot] = call;
+                mNextSlot = (mNextSlot + 1) % mSlowCalls.length;
+            }
+        }
+    }
+
+    /** The slow calls still in the ring buffer, oldest first. */
+    synchronized List<Call> getSlowCalls() {
+        List<Call> calls = new ArrayList<>(mSlowCalls.length);
+        for (int i = 0; i < mSlowCalls.length; i++) {
+            Call call = mSlowCalls[(mNextSlot + i) % mSlowCalls.length];
+            if (call != null) calls.add(call);
+        }
+        return calls;
+    }
+
+    synchronized long getProfiledCount() {
+        return mProfiledCount;
+    }
+
+    /** Every slow call seen, including those since pushed out of the ring buffer. */
+    synchronized long getSlowCount() {
+        return mSlowCount;
+    }
+
+    synchronized void clear() {
+        Arrays.fill(mSlowCalls, null);
+        mNextSlot = 0;
+        mProfiledCount = 0;
+        mSlowCount = 0;
+    }
+
+    void dump(PrintWriter writer) {
+        List<Call> calls = getSlowCalls();
+        synchronized (this) {
+            writer.println("QueryProfiler: " + (mEnabled ? "on" : "off") + ", threshold " +
+                    mThresholdNanos / 1000000 + "ms, " + mProfiledCount + " calls profiled, " +
+                    mSlowCount + " slow");
+        }
+        for (Call call : calls) {
+            writer.println("  " + call);
+            if (call.mPlan != null) writer.println("    plan: " + call.mPlan);
+        }
+    }
+
+    // The detail lines of the statement's EXPLAIN QUERY PLAN, or null if it has no plan
+    // worth reading, like an insert, or the plan couldn't be read.
+    private static String explain(SQLiteDatabase db, String sql, String[] args) {
+        if (sql == null) return null;
+        Cursor cursor = null;
+        try {
+            cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+            int detail = cursor.getColumnIndex("detail");
+            if (detail == -1) return null;
+            StringBuilder plan = new StringBuilder();
+            while (cursor.moveToNext()) {
+                if (plan.length() > 0) plan.append("; ");
+                plan.append(cursor.getString(detail));
+            }
+            return plan.toString();
+        } catch (RuntimeException e) {
+            // The profiler must never break the call it's watching.
+            Log.w(LOG_TAG, "Couldn't explain " + sql, e);
+            return null;
+        } finally {
+            if (cursor != null) cursor.close();
+        }
+    }
+
+    /** One profiled provider call. */
+    static final class Call {
+        final String mOperation;
+        final String mRoute;
+        final long mStartNanos = System.nanoTime();
+
+        String mSql;
+        String[] mArgs;
+        // The SELECT whose plan describes the call, which for a delete or update is the
+        // lookup of the rows it changes.
+        String mPlanSql;
+        int mRows = -1;
+        // Counted by the call's cursors, which can go on filling windows after the call ends,
+        // each on whatever thread reads it.
+        final AtomicInteger mWindowFills = new AtomicInteger();
+        long mWallNanos;
+        String mPlan;
+
+        Call(String operation, String route) {
+            mOperation = operation;
+            mRoute = route;
+        }
+
+        /**
+         * @param planSql a SELECT that finds the rows the statement touches, or null if there
+         *                isn't one
+         */
+        void setStatement(String sql, String[] args, String planSql) {
+            mSql = sql;
+            mArgs = args;
+            mPlanSql = planSql;
+        }
+
+        void setRows(int rows) {
+            mRows = rows;
+        }
+
+        String getOperation() {
+            return mOperation;
+        }
+
+        String getRoute() {
+            return mRoute;
+        }
+
+        /** The SQL that ran, or null if the call was answered from the cache. */
+        String getSql() {
+            return mSql;
+        }
+
+        String[] getArgs() {
+            return mArgs;
+        }
+
+        int getRows() {
+            return mRows;
+        }
+
+        int getWindowFills() {
+            return mWindowFills.get();
+        }
+
+        long getWallNanos() {
+            return mWallNanos;
+        }
+
+        /** The query plan of a slow call, null for fast ones. */
+        String getPlan() {
+            return mPlan;
+        }
+
+        @Override
+        public String toString() {
+            return mOperation + " " + mRoute + " " + mWallNanos / 1000 + "us, " + mRows +
+                    " rows, " + mWindowFills.get() + " window fills: " +
+                    (mSql == null ? "(cached)" : mSql) +
+                    (mArgs == null ? "" : " " + Arrays.toString(mArgs));
+        }
+    }
+
+    /**
+     * Makes cursors that count their window fills into a call.  SQLiteCursor fills its first
+     * window on getCount, and another whenever a move leaves the current one.
+     */
+    @TargetApi(11)
+    static final class CursorFactory implements SQLiteDatabase.CursorFactory {
+        private final Call mCall;
+
+        CursorFactory(Call call) {
+            mCall = call;
+        }
+
+        @Override
+        public Cursor newCursor(SQLiteDatabase db, SQLiteCursorDriver driver, String editTable,
+                                SQLiteQuery query) {
+            return new SQLiteCursor(driver, editTable, query) {
+                private boolean mCounted;
+
+                @Override
+                public int getCount() {
+                    if (!mCounted) {
+                        mCounted = true;
+                        if (getWindow() == null) mCall.mWindowFills.incrementAndGet();
+                    }
+                    return super.getCount();
+                }
+
+                @Override
+                public boolean onMove(int oldPosition, int newPosition) {
+                    CursorWindow window = getWindow();
+                    if (window == null || newPosition < window.getStartPosition()
+                            || newPosition >= window.getStartPosition() + window.getNumRows()) {
+                        mCall.mWindowFills.incrementAndGet();
+                    }
+                    return super.onMove(oldPosition, newPosition);
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Canonical SQL for one WeatherProvider route, built once per (projection, sort order).
+ *
+ * SQLiteDatabase keeps a per-connection cache of prepared statements keyed by the SQL text,
+ * so handing it the exact same string every time means SQLite parses and prepares the
+ * statement once and then only rebinds the arguments.  SQLiteQueryBuilder can't give us that,
+ * since it rebuilds (and re-concatenates) the text on every call.
+ */
+final class QueryTemplates {
+
+    // Enough for every projection/sort order combination the app uses, with room to spare.
+    // Anything past this still works, it's just built on every call.
+    static final int MAX_TEMPLATES = 16;
+
+    private final String mTables;
+    private final String mSelection;
+    private final Map<String, String> mSql = new HashMap<>();
+
+    // Templates for the contract's named projections, matched by array identity so the common
+    // queries don't even have to build a cache key.  Only written while the provider class is
+    // being initialized.
+    private String[][] mNamedProjections = new String[0][];
+    private String[] mNamedSortOrders = new String[0];
+    private String[] mNamedSql = new String[0];
+
+    /**
+     * @param tables    the FROM clause, e.g. "weather INNER JOIN location ON ..."
+     * @param selection the route's fixed WHERE clause with ? placeholders, or null for none
+     */
+    QueryTemplates(String tables, String selection) {
+        mTables = tables;
+        mSelection = selection;
+    }
+
+    /**
+     * Builds the template for one of WeatherContract's named projections up front.  Queries
+     * that pass that very array (not just an equal one) are then served without any lookup.
+     */
+    QueryTemplates prepare(String[] projection, String sortOrder) {
+        int n = mNamedSql.length;
+        String[][] projections = new String[n + 1][];
+        String[] sortOrders = new String[n + 1];
+        String[] sql = new String[n + 1];
+        System.arraycopy(mNamedProjections, 0, projections, 0, n);
+        System.arraycopy(mNamedSortOrders, 0, sortOrders, 0, n);
+        System.arraycopy(mNamedSql, 0, sql, 0, n);
+        projections[n] = projection;
+        sortOrders[n] = sortOrder;
+        sql[n] = get(projection, sortOrder);
+
+        mNamedProjections = projections;
+        mNamedSortOrders = sortOrders;
+        mNamedSql = sql;
+        return this;
+    }
+
+    /**
+     * Returns the SQL text for this route.  Repeated calls with an equal projection and sort
+     * order return the same String instance.
+     */
+    String get(String[] projection, String sortOrder) {
+        for (int i = 0; i < mNamedSql.length; i++) {
+            if (mNamedProjections[i] == projection && sameSortOrder(mNamedSortOrders[i], sortOrder))
+                return mNamedSql[i];
+        }
+
+        String key = keyFor(projection, sortOrder);
+        synchronized (mSql) {
+            String sql = mSql.get(key);
+            if (sql == null) {
+                sql = build(projection, null, sortOrder);
+                if (mSql.size() < MAX_TEMPLATES) mSql.put(key, sql);
+            }
+            return sql;
+        }
+    }
+
+    /**
+     * Builds (without caching) the SQL for a query that also carries a caller supplied
+     * selection.  Arbitrary selections would just churn the template cache.
+     */
+    String build(String[] projection, String selection, String sortOrder) {
+        StringBuilder sql = select(projection);
+        appendWhere(sql, selection);
+        appendOrderBy(sql, sortOrder);
+        return sql.toString();
+    }
+
+    /** The SQL of the templates built up front by {@link #prepare}, for warming up with. */
+    String[] getPreparedSql() {
+        return mNamedSql.clone();
+    }
+
+    int size() {
+        synchronized (mSql) {
+            return mSql.size();
+        }
+    }
+
+    private StringBuilder select(String[] projection) {
+        StringBuilder sql = new StringBuilder(128).append("SELECT ");
+        if (projection == null || projection.length == 0) {
+            sql.append('*');
+        } else {
+            for (int i = 0; i < projection.length; i++) {
+                if (i > 0) sql.append(", ");
+                sql.append(projection[i]);
+            }
+        }
+        return sql.append(" FROM ").append(mTables);
+    }
+
+    private void appendWhere(StringBuilder sql, String selection) {
+        boolean hasRouteSelection = mSelection != null;
+        boolean hasSelection = selection != null && selection.length() > 0;
+        if (!hasRouteSelection && !hasSelection) return;
+
+        sql.append(" WHERE ");
+        if (hasRouteSelection) sql.append('(').append(mSelection).append(')');
+        if (hasRouteSelection && hasSelection) sql.append(" AND ");
+        if (hasSelection) sql.append('(').append(selection).append(')');
+    }
+
+    private static void appendOrderBy(StringBuilder sql, String sortOrder) {
+        if (sortOrder != null && sortOrder.length() > 0) sql.append(" ORDER BY ").append(sortOrder);
+    }
+
+    private static boolean sameSortOrder(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private static String keyFor(String[] projection, String sortOrder) {
+        StringBuilder key = new StringBuilder(64);
+        key.append(sortOrder).append('|');
+        if (projection != null) {
+            for (String column : projection) key.append(column).append(',');
+        }
+        return key.toString();
+    }
+}
@@ -19,7 +19,10 @@ import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.net.Uri;
 import android.provider.BaseColumns;
-import android.text.format.Time;
+
+import com.example.android.sunshine.core.ForecastDates;
+
+import java.util.TimeZone;
 
 /**
  * Defines table and column names for the weather database.
@@ -43,15 +46,41 @@ public class WeatherContract {
     // At least, let's hope not.  Don't be that dev, reader.  Don't be that dev.
     public static final String PATH_WEATHER = "weather";
     public static final String PATH_LOCATION = "location";
+    public static final String PATH_STATS = "stats";
+    // Pages of one location's days: weather/<location setting>/range?start=...
+    public static final String PATH_RANGE = "range";
+    // Weekly and monthly summaries of one location's days: weather/<location setting>/weekly
+    public static final String PATH_WEEKLY = "weekly";
+    public static final String PATH_MONTHLY = "monthly";
+    // Locations whose city name or setting starts with what's been typed: location/search?q=...
+    public static final String PATH_SEARCH = "search";
+    // Locations inside a box, location/box?south=...&west=..., and the one nearest a point,
+    // location/nearest?lat=...&lon=...
+    public static final String PATH_BOX = "box";
+    public static final String PATH_NEAREST = "nearest";
 
     // To make it easy to query for the exact date, we normalize all dates that go into
     // the database to the start of the the Julian day at UTC.
     public static long normalizeDate(long startDate) {
-        // normalize the start date to the beginning of the (UTC) day
-        Time time = new Time();
-        time.set(startDate);
-        int julianDay = Time.getJulianDay(startDate, time.gmtoff);
-        return time.setJulianDay(julianDay);
+        // normalize the start date to the beginning of the day
+        return ForecastDates.normalizeDate(startDate, TimeZone.getDefault());
+    }
+
+    // Weeks start on Monday.  Like normalized dates, periods start at local midnight.
+    public static long getStartOfWeek(long date) {
+        return ForecastDates.getStartOfWeek(date, TimeZone.getDefault());
+    }
+
+    public static long getStartOfNextWeek(long date) {
+        return ForecastDates.getStartOfNextWeek(date, TimeZone.getDefault());
+    }
+
+    public static long getStartOfMonth(long date) {
+        return ForecastDates.getStartOfMonth(date, TimeZone.getDefault());
+    }
+
+    public static long getStartOfNextMonth(long date) {
+        return ForecastDates.getStartOfNextMonth(date, TimeZone.getDefault());
     }
 
     /* Inner class that defines the table contents of the location table */
@@ -81,9 +110,100 @@ public class WeatherContract {
         public static final String COLUMN_COORD_LAT = "coord_lat";
         public static final String COLUMN_COORD_LONG = "coord_long";
 
+        // The geohash of the coordinates, GEOHASH_PRECISION characters long, so the box and
+        // nearest queries can narrow the table down by ranges of an ordinary index.  The
+        // provider fills it in; a row written straight to the table without one may be
+        // missing from their results.
+        public static final String COLUMN_GEOHASH = "geohash";
+        public static final int GEOHASH_PRECISION = 9;
+
+        // Projection for showing the forecast location on a map.  The columns are table
+        // qualified so the same projection works against the weather/location join, and
+        // the MAP_COL_* constants are their indices in the returned cursor.
+        public static final String[] MAP_PROJECTION = {
+                TABLE_NAME + "." + COLUMN_LOCATION_SETTING,
+                TABLE_NAME + "." + COLUMN_COORD_LAT,
+                TABLE_NAME + "." + COLUMN_COORD_LONG
+        };
+
+        public static final int MAP_COL_LOCATION_SETTING = 0;
+        public static final int MAP_COL_COORD_LAT = 1;
+        public static final int MAP_COL_COORD_LONG = 2;
+
+        // The full text index of the city names and settings, kept in step with this table
+        // by triggers.  Its docid is the location's _id.
+        public static final String SEARCH_TABLE_NAME = "location_search";
+
+        // Query parameters of a search URI: the text typed so far, and the most locations to
+        // return for it.
+        public static final String PARAM_QUERY = "q";
+        public static final String PARAM_LIMIT = "limit";
+        public static final int DEFAULT_SEARCH_LIMIT = 20;
+
+        // Search results come back in city name order.
+        public static final String SORT_BY_CITY_NAME = COLUMN_CITY_NAME + " ASC";
+
+        // Query parameters of box and nearest URIs, in degrees.  A box with west greater than
+        // east crosses the antimeridian.
+        public static final String PARAM_SOUTH = "south";
+        public static final String PARAM_WEST = "west";
+        public static final String PARAM_NORTH = "north";
+        public static final String PARAM_EAST = "east";
+        public static final String PARAM_LAT = "lat";
+        public static final String PARAM_LON = "lon";
+
         public static Uri buildLocationUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
+
+        /**
+         * The locations with a word in their city name or setting starting with each word of
+         * the query, so "san fr" finds "South San Francisco" and "940" finds 94043.
+         */
+        public static Uri buildSearchUri(String query, int limit) {
+            return CONTENT_URI.buildUpon().appendPath(PATH_SEARCH)
+                    .appendQueryParameter(PARAM_QUERY, query)
+                    .appendQueryParameter(PARAM_LIMIT, Integer.toString(limit))
+                    .build();
+        }
+
+        public static String getSearchQueryFromUri(Uri uri) {
+            String query = uri.getQueryParameter(PARAM_QUERY);
+            return query == null ? "" : query;
+        }
+
+        /** The most results a search URI asks for, or the default if it doesn't say. */
+        public static int getSearchLimitFromUri(Uri uri) {
+            String limit = uri.getQueryParameter(PARAM_LIMIT);
+            return limit == null || limit.length() == 0 ? DEFAULT_SEARCH_LIMIT
+                    : Integer.parseInt(limit);
+        }
+
+        /** The locations with coordinates inside the box, edges included. */
+        public static Uri buildBoxUri(double south, double west, double north, double east) {
+            return CONTENT_URI.buildUpon().appendPath(PATH_BOX)
+                    .appendQueryParameter(PARAM_SOUTH, Double.toString(south))
+                    .appendQueryParameter(PARAM_WEST, Double.toString(west))
+                    .appendQueryParameter(PARAM_NORTH, Double.toString(north))
+                    .appendQueryParameter(PARAM_EAST, Double.toString(east))
+                    .build();
+        }
+
+        /** The location nearest the point by great circle distance, if there are any. */
+        public static Uri buildNearestUri(double lat, double lon) {
+            return CONTENT_URI.buildUpon().appendPath(PATH_NEAREST)
+                    .appendQueryParameter(PARAM_LAT, Double.toString(lat))
+                    .appendQueryParameter(PARAM_LON, Double.toString(lon))
+                    .build();
+        }
+
+        public static double getCoordinateFromUri(Uri uri, String param) {
+            String value = uri.getQueryParameter(param);
+            if (value == null || value.length() == 0) {
+                throw new IllegalArgumentException("Missing " + param + " in uri: " + uri);
+            }
+            return Double.parseDouble(value);
+        }
     }
 
     /* Inner class that defines the table contents of the weather table */
@@ -126,6 +246,55 @@ public class WeatherContract {
         // Degrees are meteorological degrees (e.g, 0 is north, 180 is south).  Stored as floats.
         public static final String COLUMN_DEGREES = "degrees";
 
+        // Projection for the forecast list: just what a list row shows, so the cursor window
+        // doesn't fill up with city names and coordinates.  The LIST_COL_* constants are the
+        // column indices in the returned cursor, so callers don't need getColumnIndex.
+        // _id is table qualified because both sides of the weather/location join have one.
+        public static final String[] LIST_PROJECTION = {
+                TABLE_NAME + "." + _ID,
+                COLUMN_DATE,
+                COLUMN_SHORT_DESC,
+                COLUMN_MAX_TEMP,
+                COLUMN_MIN_TEMP,
+                COLUMN_WEATHER_ID
+        };
+
+        public static final int LIST_COL_ID = 0;
+        public static final int LIST_COL_DATE = 1;
+        public static final int LIST_COL_SHORT_DESC = 2;
+        public static final int LIST_COL_MAX_TEMP = 3;
+        public static final int LIST_COL_MIN_TEMP = 4;
+        public static final int LIST_COL_WEATHER_ID = 5;
+
+        // Projection for the detail screen of a single day.  It starts with the list columns,
+        // in the same order, so a list row can stand in for the head of a detail row.
+        public static final String[] DETAIL_PROJECTION = {
+                TABLE_NAME + "." + _ID,
+                COLUMN_DATE,
+                COLUMN_SHORT_DESC,
+                COLUMN_MAX_TEMP,
+                COLUMN_MIN_TEMP,
+                COLUMN_WEATHER_ID,
+                COLUMN_HUMIDITY,
+                COLUMN_PRESSURE,
+                COLUMN_WIND_SPEED,
+                COLUMN_DEGREES
+        };
+
+        public static final int DETAIL_COL_ID = 0;
+        public static final int DETAIL_COL_DATE = 1;
+        public static final int DETAIL_COL_SHORT_DESC = 2;
+        public static final int DETAIL_COL_MAX_TEMP = 3;
+        public static final int DETAIL_COL_MIN_TEMP = 4;
+        public static final int DETAIL_COL_WEATHER_ID = 5;
+        public static final int DETAIL_COL_HUMIDITY = 6;
+        public static final int DETAIL_COL_PRESSURE = 7;
+        public static final int DETAIL_COL_WIND_SPEED = 8;
+        public static final int DETAIL_COL_DEGREES = 9;
+
+        // The forecast is always shown oldest day first.
+        public static final String SORT_BY_DATE = COLUMN_DATE + " ASC";
+
         public static Uri buildWeatherUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
@@ -149,6 +318,70 @@ public class WeatherContract {
                     .appendPath(Long.toString(normalizeDate(date))).build();
         }
 
+        // Query parameters of a range URI.  A range is the days in [start, end), oldest first,
+        // at most limit of them, and only those after the "after" date when it's given.
+        public static final String PARAM_START = "start";
+        public static final String PARAM_END = "end";
+        public static final String PARAM_LIMIT = "limit";
+        public static final String PARAM_AFTER = "after";
+
+        /**
+         * The first page of the days in [startDate, endDate) for a location, at most limit of
+         * them.  Pass the date of a page's last row to {@link #buildNextPage} for the next one.
+         */
+        public static Uri buildWeatherRange(String locationSetting, long startDate, long endDate,
+                                            int limit) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).appendPath(PATH_RANGE)
+                    .appendQueryParameter(PARAM_START, Long.toString(normalizeDate(startDate)))
+                    .appendQueryParameter(PARAM_END, Long.toString(normalizeDate(endDate)))
+                    .appendQueryParameter(PARAM_LIMIT, Integer.toString(limit))
+                    .build();
+        }
+
+        /**
+         * The page of a range URI that follows the row dated lastDate.  The page starts from
+         * that date rather than from an offset, so rows written since the previous page can't
+         * shift it, and reading it costs the same however deep into the range it is.
+         */
+        public static Uri buildNextPage(Uri rangeUri, long lastDate) {
+            return CONTENT_URI.buildUpon().appendPath(getLocationSettingFromUri(rangeUri))
+                    .appendPath(PATH_RANGE)
+                    .appendQueryParameter(PARAM_START,
+                            Long.toString(getRangeStartFromUri(rangeUri)))
+                    .appendQueryParameter(PARAM_END, Long.toString(getRangeEndFromUri(rangeUri)))
+                    .appendQueryParameter(PARAM_LIMIT,
+                            Integer.toString(getRangeLimitFromUri(rangeUri)))
+                    .appendQueryParameter(PARAM_AFTER, Long.toString(lastDate))
+                    .build();
+        }
+
+        public static long getRangeStartFromUri(Uri uri) {
+            return getLongParameter(uri, PARAM_START, 0);
+        }
+
+        /** The end of a range URI, or Long.MAX_VALUE if it's open ended. */
+        public static long getRangeEndFromUri(Uri uri) {
+            return getLongParameter(uri, PARAM_END, Long.MAX_VALUE);
+        }
+
+        /** The page size of a range URI, or -1 if it has none. */
+        public static int getRangeLimitFromUri(Uri uri) {
+            return (int) getLongParameter(uri, PARAM_LIMIT, -1);
+        }
+
+        /** The date of the previous page's last row, or -1 on the first page. */
+        public static long getRangeAfterFromUri(Uri uri) {
+            return getLongParameter(uri, PARAM_AFTER, -1);
+        }
+
+        private static long getLongParameter(Uri uri, String name, long defaultValue) {
+            String value = uri.getQueryParameter(name);
+            if (null != value && value.length() > 0)
+                return Long.parseLong(value);
+            else
+                return defaultValue;
+        }
+
         public static String getLocationSettingFromUri(Uri uri) {
             return uri.getPathSegments().get(1);
         }
@@ -165,4 +398,139 @@ public class WeatherContract {
                 return 0;
         }
     }
+
+    /*
+        Inner class that defines the weekly and monthly rollup tables.  Each row summarizes the
+        days of one location that fall in one week or month.  WeatherProvider keeps them up to
+        date as it writes weather rows, so reading a summary costs the same however long the
+        history behind it is.  They're read-only through the provider.
+     */
+    public static final class RollupEntry implements BaseColumns {
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/rollup";
+
+        public static final String WEEKLY_TABLE_NAME = "weather_weekly";
+        public static final String MONTHLY_TABLE_NAME = "weather_monthly";
+
+        // Column with the foreign key into the location table.
+        public static final String COLUMN_LOC_KEY = "location_id";
+        // Midnight at the start of the period's first day, stored as long in milliseconds.
+        public static final String COLUMN_PERIOD_START = "period_start";
+        // How many days of the period have weather, and so went into the row.
+        public static final String COLUMN_DAYS = "days";
+
+        // The lowest daily min and highest daily max temperature.  The mean is that of each
+        // day's midpoint, (min + max) / 2.
+        public static final String COLUMN_MIN_TEMP = "min_temp";
+        public static final String COLUMN_MAX_TEMP = "max_temp";
+        public static final String COLUMN_MEAN_TEMP = "mean_temp";
+
+        public static final String COLUMN_MIN_HUMIDITY = "min_humidity";
+        public static final String COLUMN_MAX_HUMIDITY = "max_humidity";
+        public static final String COLUMN_MEAN_HUMIDITY = "mean_humidity";
+
+        public static final String COLUMN_MIN_WIND_SPEED = "min_wind";
+        public static final String COLUMN_MAX_WIND_SPEED = "max_wind";
+        public static final String COLUMN_MEAN_WIND_SPEED = "mean_wind";
+
+        // Every summary column, in the order the ROLLUP_COL_* constants index them.
+        public static final String[] ROLLUP_PROJECTION = {
+                _ID,
+                COLUMN_PERIOD_START,
+                COLUMN_DAYS,
+                COLUMN_MIN_TEMP,
+                COLUMN_MAX_TEMP,
+                COLUMN_MEAN_TEMP,
+                COLUMN_MIN_HUMIDITY,
+                COLUMN_MAX_HUMIDITY,
+                COLUMN_MEAN_HUMIDITY,
+                COLUMN_MIN_WIND_SPEED,
+                COLUMN_MAX_WIND_SPEED,
+                COLUMN_MEAN_WIND_SPEED
+        };
+
+        public static final int ROLLUP_COL_ID = 0;
+        public static final int ROLLUP_COL_PERIOD_START = 1;
+        public static final int ROLLUP_COL_DAYS = 2;
+        public static final int ROLLUP_COL_MIN_TEMP = 3;
+        public static final int ROLLUP_COL_MAX_TEMP = 4;
+        public static final int ROLLUP_COL_MEAN_TEMP = 5;
+        public static final int ROLLUP_COL_MIN_HUMIDITY = 6;
+        public static final int ROLLUP_COL_MAX_HUMIDITY = 7;
+        public static final int ROLLUP_COL_MEAN_HUMIDITY = 8;
+        public static final int ROLLUP_COL_MIN_WIND_SPEED = 9;
+        public static final int ROLLUP_COL_MAX_WIND_SPEED = 10;
+        public static final int ROLLUP_COL_MEAN_WIND_SPEED = 11;
+
+        public static final String SORT_BY_PERIOD = COLUMN_PERIOD_START + " ASC";
+
+        /** The weeks of a location that have a day in [startDate, endDate). */
+        public static Uri buildWeeklyUri(String locationSetting, long startDate, long endDate) {
+            return buildRollupUri(locationSetting, PATH_WEEKLY, getStartOfWeek(startDate),
+                    endDate);
+        }
+
+        /** The months of a location that have a day in [startDate, endDate). */
+        public static Uri buildMonthlyUri(String locationSetting, long startDate, long endDate) {
+            return buildRollupUri(locationSetting, PATH_MONTHLY, getStartOfMonth(startDate),
+                    endDate);
+        }
+
+        private static Uri buildRollupUri(String locationSetting, String path, long periodStart,
+                                          long endDate) {
+            return WeatherEntry.CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendPath(path)
+                    .appendQueryParameter(WeatherEntry.PARAM_START, Long.toString(periodStart))
+                    .appendQueryParameter(WeatherEntry.PARAM_END,
+                            Long.toString(normalizeDate(endDate)))
+                    .build();
+        }
+    }
+
+    /*
+        Inner class that defines the read-only stats listing.  It isn't a table: each row is
+        one of the pipeline's metrics, read at query time.  Counters only fill in the count.
+     */
+    public static final class StatsEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_STATS).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_STATS;
+
+        // The metric's name, e.g. "net.first_byte_us".  Times are in microseconds.
+        public static final String COLUMN_NAME = "name";
+        // How many values a histogram has recorded, or a counter's value.
+        public static final String COLUMN_COUNT = "count";
+        // The sum and largest of a histogram's values.
+        public static final String COLUMN_SUM = "sum";
+        public static final String COLUMN_MAX = "max";
+        // Percentiles, as the upper bound of the histogram bucket they fall in.
+        public static final String COLUMN_P50 = "p50";
+        public static final String COLUMN_P90 = "p90";
+        public static final String COLUMN_P99 = "p99";
+
+        // Every column, in the order the STATS_COL_* constants index them.
+        public static final String[] STATS_PROJECTION = {
+                _ID,
+                COLUMN_NAME,
+                COLUMN_COUNT,
+                COLUMN_SUM,
+                COLUMN_MAX,
+                COLUMN_P50,
+                COLUMN_P90,
+                COLUMN_P99
+        };
+
+        public static final int STATS_COL_ID = 0;
+        public static final int STATS_COL_NAME = 1;
+        public static final int STATS_COL_COUNT = 2;
+        public static final int STATS_COL_SUM = 3;
+        public static final int STATS_COL_MAX = 4;
+        public static final int STATS_COL_P50 = 5;
+        public static final int STATS_COL_P90 = 6;
+        public static final int STATS_COL_P99 = 7;
+    }
 }
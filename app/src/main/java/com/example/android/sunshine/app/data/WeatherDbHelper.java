@@ -16,10 +16,12 @@
 package com.example.android.sunshine.app.data;
 
 import android.content.Context;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.RollupEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
 /**
@@ -28,17 +30,59 @@ import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 public class WeatherDbHelper extends SQLiteOpenHelper {
 
     // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 2;
+    private static final int DATABASE_VERSION = 8;
 
     static final String DATABASE_NAME = "weather.db";
 
+    // A single row counter that triggers bump on every change to the weather and location
+    // tables, whoever makes it.  WeatherProvider's result cache compares it against the value
+    // each cached result was read at, which catches writes that bypass the provider.
+    static final String CHANGE_COUNTER_TABLE = "change_counter";
+    static final String COLUMN_CHANGE_COUNT = "change_count";
+
+    static final String LOCATION_GEOHASH_INDEX = "location_geohash_index";
+
+    private static final String SQL_READ_CHANGE_COUNTER =
+            "SELECT " + COLUMN_CHANGE_COUNT + " FROM " + CHANGE_COUNTER_TABLE;
+
     public WeatherDbHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
     }
 
     @Override
     public void onCreate(SQLiteDatabase sqLiteDatabase) {
-        final String SQL_CREATE_WEATHER_TABLE = "CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
+        final String SQL_CREATE_LOCATION_TABLE = "CREATE TABLE " + LocationEntry.TABLE_NAME + " (" +
+                LocationEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+
+                LocationEntry.COLUMN_CITY_NAME + " TEXT NOT NULL," +
+                LocationEntry.COLUMN_LOCATION_SETTING + " TEXT NOT NULL," +
+                LocationEntry.COLUMN_COORD_LAT + " REAL NOT NULL," +
+                LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL," +
+                LocationEntry.COLUMN_GEOHASH + " TEXT);";
+
+        sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
+        // Each cell of a box or nearest query is a range scan of this index.
+        sqLiteDatabase.execSQL("CREATE INDEX " + LOCATION_GEOHASH_INDEX + " ON " +
+                LocationEntry.TABLE_NAME + " (" + LocationEntry.COLUMN_GEOHASH + ");");
+        createSearchTable(sqLiteDatabase);
+        createWeatherTable(sqLiteDatabase, WeatherEntry.TABLE_NAME);
+
+        createRollupTable(sqLiteDatabase, RollupEntry.WEEKLY_TABLE_NAME);
+        createRollupTable(sqLiteDatabase, RollupEntry.MONTHLY_TABLE_NAME);
+
+        sqLiteDatabase.execSQL("CREATE TABLE " + CHANGE_COUNTER_TABLE + " (" +
+                COLUMN_CHANGE_COUNT + " INTEGER NOT NULL);");
+        sqLiteDatabase.execSQL("INSERT INTO " + CHANGE_COUNTER_TABLE + " VALUES (0);");
+        createChangeCounterTriggers(sqLiteDatabase, LocationEntry.TABLE_NAME);
+        createChangeCounterTriggers(sqLiteDatabase, WeatherEntry.TABLE_NAME);
+    }
+
+    /**
+     * Creates a table with the weather table's columns and constraints.  Besides the weather
+     * table itself, WeatherPartitions makes one for each month of archived history.
+     */
+    static void createWeatherTable(SQLiteDatabase db, String table) {
+        db.execSQL("CREATE TABLE " + table + " (" +
                 // Why AutoIncrement here, and not above?
                 // Unique keys will be auto-generated in either case.  But for weather
                 // forecasting, it's reasonable to assume the user will want information
@@ -65,20 +109,86 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                 LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
 
                 // To assure the application have just one weather entry per day
-                // per location, it's created a UNIQUE constraint with REPLACE strategy
-                " UNIQUE (" + WeatherEntry.COLUMN_DATE + ", " +
-                WeatherEntry.COLUMN_LOC_KEY + ") ON CONFLICT REPLACE);";
+                // per location, it's created a UNIQUE constraint with REPLACE strategy.
+                // Location first, so its index also holds each location's days in date
+                // order, and a page of them is a seek and a short walk with no sort.
+                " UNIQUE (" + WeatherEntry.COLUMN_LOC_KEY + ", " +
+                WeatherEntry.COLUMN_DATE + ") ON CONFLICT REPLACE);");
+    }
 
-        final String SQL_CREATE_LOCATION_TABLE = "CREATE TABLE " + LocationEntry.TABLE_NAME + " (" +
-                LocationEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+    // Makes every insert, update and delete on the table bump the change counter.
+    static void createChangeCounterTriggers(SQLiteDatabase db, String table) {
+        for (String event : new String[]{"INSERT", "UPDATE", "DELETE"}) {
+            db.execSQL("CREATE TRIGGER " + table + "_" + event.toLowerCase() +
+                    "_counter AFTER " + event + " ON " + table + " BEGIN UPDATE " +
+                    CHANGE_COUNTER_TABLE + " SET " + COLUMN_CHANGE_COUNT + " = " +
+                    COLUMN_CHANGE_COUNT + " + 1; END;");
+        }
+    }
 
-                LocationEntry.COLUMN_CITY_NAME + " TEXT NOT NULL," +
-                LocationEntry.COLUMN_LOCATION_SETTING + " INTEGER NOT NULL," +
-                LocationEntry.COLUMN_COORD_LAT + " REAL NOT NULL," +
-                LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL);";
+    // FTS3 rather than FTS4, which only arrived in API 11.  The triggers keep it in step with
+    // every write to the location table, the provider's or not.
+    private static void createSearchTable(SQLiteDatabase db) {
+        String columns = LocationEntry.COLUMN_CITY_NAME + ", " +
+                LocationEntry.COLUMN_LOCATION_SETTING;
+        String insertNew = "INSERT INTO " + LocationEntry.SEARCH_TABLE_NAME + " (docid, " +
+                columns + ") VALUES (new." + LocationEntry._ID + ", new." +
+                LocationEntry.COLUMN_CITY_NAME + ", new." + LocationEntry.COLUMN_LOCATION_SETTING +
+                ");";
+        String deleteOld = "DELETE FROM " + LocationEntry.SEARCH_TABLE_NAME +
+                " WHERE docid = old." + LocationEntry._ID + ";";
+
+        db.execSQL("CREATE VIRTUAL TABLE " + LocationEntry.SEARCH_TABLE_NAME +
+                " USING fts3(" + columns + ");");
+        db.execSQL("CREATE TRIGGER " + LocationEntry.SEARCH_TABLE_NAME + "_insert AFTER INSERT" +
+                " ON " + LocationEntry.TABLE_NAME + " BEGIN " + insertNew + " END;");
+        db.execSQL("CREATE TRIGGER " + LocationEntry.SEARCH_TABLE_NAME + "_update AFTER UPDATE" +
+                " ON " + LocationEntry.TABLE_NAME + " BEGIN " + deleteOld + " " + insertNew +
+                " END;");
+        db.execSQL("CREATE TRIGGER " + LocationEntry.SEARCH_TABLE_NAME + "_delete AFTER DELETE" +
+                " ON " + LocationEntry.TABLE_NAME + " BEGIN " + deleteOld + " END;");
+    }
 
-        sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
-        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+    // The weekly and monthly tables have the same columns.  WeatherRollups fills them in, in
+    // the same transaction as the weather rows they summarize, so they need no triggers of
+    // their own: the weather write already bumps the change counter.
+    private static void createRollupTable(SQLiteDatabase db, String table) {
+        db.execSQL("CREATE TABLE " + table + " (" +
+                RollupEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+                RollupEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                RollupEntry.COLUMN_PERIOD_START + " INTEGER NOT NULL, " +
+                RollupEntry.COLUMN_DAYS + " INTEGER NOT NULL, " +
+
+                RollupEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+                RollupEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+                RollupEntry.COLUMN_MEAN_TEMP + " REAL NOT NULL, " +
+                RollupEntry.COLUMN_MIN_HUMIDITY + " REAL NOT NULL, " +
+                RollupEntry.COLUMN_MAX_HUMIDITY + " REAL NOT NULL, " +
+                RollupEntry.COLUMN_MEAN_HUMIDITY + " REAL NOT NULL, " +
+                RollupEntry.COLUMN_MIN_WIND_SPEED + " REAL NOT NULL, " +
+                RollupEntry.COLUMN_MAX_WIND_SPEED + " REAL NOT NULL, " +
+                RollupEntry.COLUMN_MEAN_WIND_SPEED + " REAL NOT NULL, " +
+
+                " FOREIGN KEY (" + RollupEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+                LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+
+                // One row per period per location, in period order for each location.
+                " UNIQUE (" + RollupEntry.COLUMN_LOC_KEY + ", " +
+                RollupEntry.COLUMN_PERIOD_START + ") ON CONFLICT REPLACE);");
+    }
+
+    /**
+     * Returns the current value of the change counter.  Read inside a write transaction, the
+     * difference between two reads is exactly that transaction's own changes.
+     */
+    static long readChangeCounter(SQLiteDatabase db) {
+        return DatabaseUtils.longForQuery(db, SQL_READ_CHANGE_COUNTER, null);
+    }
+
+    /** Counts a change that the triggers can't see, such as a dropped table. */
+    static void bumpChangeCounter(SQLiteDatabase db) {
+        db.execSQL("UPDATE " + CHANGE_COUNTER_TABLE + " SET " + COLUMN_CHANGE_COUNT + " = " +
+                COLUMN_CHANGE_COUNT + " + 1");
     }
 
     @Override
@@ -90,7 +200,14 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
         // If you want to update the schema without wiping data, commenting out the next 2 lines
         // should be your top priority before modifying this method.
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.SEARCH_TABLE_NAME);
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + RollupEntry.WEEKLY_TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + RollupEntry.MONTHLY_TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + CHANGE_COUNTER_TABLE);
+        for (String partition : WeatherPartitions.readTableNames(sqLiteDatabase)) {
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + partition);
+        }
         onCreate(sqLiteDatabase);
     }
 }
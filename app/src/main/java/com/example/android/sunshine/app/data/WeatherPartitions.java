@@ -0,0 +1,271 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The archive of a long weather history, kept as one table per month beside the weather table.
+ *
+ * The weather table holds the live days, from the cutoff on; every day before the cutoff lives
+ * in the partition of its month, "weather_archive_yyyymm", which has the weather table's
+ * columns, (location_id, date) index and change counter triggers.  The cutoff is the end of
+ * the newest partition, so it only moves when {@link #archiveBefore} or {@link #dropBefore}
+ * does.  A query reads just the partitions its dates overlap, and retention drops whole
+ * tables instead of deleting rows one at a time.
+ *
+ * The partitions are found in sqlite_master the first time they're needed.  One instance per
+ * provider; thread safe.
+ */
+final class WeatherPartitions {
+
+    static final String TABLE_PREFIX = WeatherEntry.TABLE_NAME + "_archive_";
+
+    private static final String sMoveSql = "INSERT INTO %s SELECT * FROM " +
+            WeatherEntry.TABLE_NAME + " WHERE " + WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+            WeatherEntry.COLUMN_DATE + " >= ? AND " + WeatherEntry.COLUMN_DATE + " < ?";
+
+    // month start -> partition table, oldest first, or null until read from sqlite_master
+    private TreeMap<Long, String> mTables;
+    // FROM and WHERE clauses -> the templates of a route run against one partition
+    private final Map<String, QueryTemplates> mTemplates = new HashMap<>();
+
+    /** The names of the partition tables in the database, in no particular order. */
+    static List<String> readTableNames(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery("SELECT name FROM sqlite_master WHERE type = 'table'" +
+                " AND name GLOB ?", new String[]{TABLE_PREFIX + "[0-9]*"});
+        List<String> names = new ArrayList<>();
+        try {
+            while (cursor.moveToNext()) names.add(cursor.getString(0));
+        } finally {
+            cursor.close();
+        }
+        return names;
+    }
+
+    /** Days before this date are in the partitions, days from it on in the weather table. */
+    synchronized long getCutoff(SQLiteDatabase db) {
+        load(db);
+        return mTables.isEmpty() ? 0
+                : WeatherContract.getStartOfNextMonth(mTables.lastKey());
+    }
+
+    /** The partitions holding days in [startDate, endDate), oldest first. */
+    synchronized List<String> getTables(SQLiteDatabase db, long startDate, long endDate) {
+        load(db);
+        if (mTables.isEmpty() || startDate >= endDate) return new ArrayList<>();
+        return new ArrayList<>(mTables.subMap(WeatherContract.getStartOfMonth(startDate), true,
+                endDate, false).values());
+    }
+
+    /**
+     * The table a day is stored in: its month's partition if it's before the cutoff, or the
+     * weather table.  A day before the cutoff whose month has no partition has no rows, and
+     * gets the weather table too.
+     */
+    synchronized String getTable(SQLiteDatabase db, long date) {
+        load(db);
+        if (mTables.isEmpty() || date >= getCutoff(db)) return WeatherEntry.TABLE_NAME;
+        String table = mTables.get(WeatherContract.getStartOfMonth(date));
+        return table != null ? table : WeatherEntry.TABLE_NAME;
+    }
+
+    /**
+     * The table a new day goes into, making its month's partition if it's before the cutoff
+     * and there isn't one yet.  Must run inside the insert's transaction.
+     */
+    synchronized String getTableForInsert(SQLiteDatabase db, long date) {
+        load(db);
+        if (mTables.isEmpty() || date >= getCutoff(db)) return WeatherEntry.TABLE_NAME;
+        return createTable(db, WeatherContract.getStartOfMonth(date));
+    }
+
+    /**
+     * The source of a rollup period's rows: the weather table, a single partition, or the
+     * UNION ALL of the tables the period spans.  Null if none of them can hold its days.
+     */
+    synchronized String getSource(SQLiteDatabase db, long startDate, long endDate) {
+        long cutoff = getCutoff(db);
+        if (startDate >= cutoff) return WeatherEntry.TABLE_NAME;
+
+        List<String> tables = getTables(db, startDate, endDate);
+        if (endDate > cutoff) tables.add(WeatherEntry.TABLE_NAME);
+        if (tables.isEmpty()) return null;
+        if (tables.size() == 1) return tables.get(0);
+
+        StringBuilder union = new StringBuilder("(");
+        for (int i = 0; i < tables.size(); i++) {
+            if (i > 0) union.append(" UNION ALL ");
+            union.append("SELECT * FROM ").append(tables.get(i));
+        }
+        return union.append(')').toString();
+    }
+
+    /**
+     * The templates of a route run against one partition.
+     *
+     * @param tables    the route's FROM clause, with %s for the weather table
+     * @param selection the route's WHERE clause
+     */
+    synchronized QueryTemplates getTemplates(String tables, String table, String selection) {
+        String key = table + '|' + tables + '|' + selection;
+        QueryTemplates templates = mTemplates.get(key);
+        if (templates == null) {
+            templates = new QueryTemplates(String.format(tables, table), selection);
+            mTemplates.put(key, templates);
+        }
+        return templates;
+    }
+
+    /**
+     * Moves the days of every month before the one the date is in out of the weather table
+     * and into their months' partitions, one location's month at a time along the
+     * (location_id, date) index.  Must run inside a transaction.
+     */
+    synchronized void archiveBefore(SQLiteDatabase db, long date) {
+        load(db);
+        long end = WeatherContract.getStartOfMonth(date);
+
+        List<Long> locationIds = new ArrayList<>();
+        Cursor cursor = db.rawQuery("SELECT DISTINCT " + WeatherEntry.COLUMN_LOC_KEY +
+                " FROM " + WeatherEntry.TABLE_NAME, null);
+        try {
+            while (cursor.moveToNext()) locationIds.add(cursor.getLong(0));
+        } finally {
+            cursor.close();
+        }
+
+        // Jumps from each month with days straight to the next, so empty months get no table.
+        SQLiteStatement first = db.compileStatement("SELECT ifnull(min(" +
+                WeatherEntry.COLUMN_DATE + "), -1) FROM " + WeatherEntry.TABLE_NAME + " WHERE " +
+                WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DATE +
+                " >= ? AND " + WeatherEntry.COLUMN_DATE + " < ?");
+        SQLiteStatement delete = db.compileStatement("DELETE FROM " + WeatherEntry.TABLE_NAME +
+                " WHERE " + WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                WeatherEntry.COLUMN_DATE + " >= ? AND " + WeatherEntry.COLUMN_DATE + " < ?");
+        try {
+            for (long locationId : locationIds) {
+                long from = Long.MIN_VALUE;
+                while (true) {
+                    first.bindLong(1, locationId);
+                    first.bindLong(2, from);
+                    first.bindLong(3, end);
+                    long day = first.simpleQueryForLong();
+                    if (day == -1) break;
+
+                    long month = WeatherContract.getStartOfMonth(day);
+                    long nextMonth = WeatherContract.getStartOfNextMonth(day);
+                    db.execSQL(String.format(sMoveSql, createTable(db, month)),
+                            new Object[]{locationId, month, nextMonth});
+                    delete.bindLong(1, locationId);
+                    delete.bindLong(2, month);
+                    delete.bindLong(3, nextMonth);
+                    delete.execute();
+                    from = nextMonth;
+                }
+            }
+        } finally {
+            first.close();
+            delete.close();
+        }
+    }
+
+    /**
+     * Drops the partitions of every month before the one the date is in.  Each is a single
+     * DROP TABLE, however many days it holds.  Must run inside a transaction.
+     *
+     * @return the number of partitions dropped
+     */
+    synchronized int dropBefore(SQLiteDatabase db, long date) {
+        load(db);
+        List<String> dropped = new ArrayList<>(
+                mTables.headMap(WeatherContract.getStartOfMonth(date)).values());
+        for (String table : dropped) db.execSQL("DROP TABLE " + table);
+        if (!dropped.isEmpty()) {
+            mTables.headMap(WeatherContract.getStartOfMonth(date)).clear();
+            mTemplates.clear();
+        }
+        return dropped.size();
+    }
+
+    /**
+     * Deletes every archived day, for a delete of the whole weather table.  Must run inside
+     * the delete's transaction.
+     *
+     * @return the number of days deleted
+     */
+    synchronized int deleteAll(SQLiteDatabase db) {
+        load(db);
+        int deleted = 0;
+        for (String table : mTables.values()) {
+            // Row by row first, so the count is right and the change counter moves.
+            deleted += db.delete(table, "1", null);
+            db.execSQL("DROP TABLE " + table);
+        }
+        mTables.clear();
+        mTemplates.clear();
+        return deleted;
+    }
+
+    /**
+     * Forgets what's known of the partitions, for a write whose transaction rolled back and
+     * may have taken a new partition with it.  They're read again when next needed.
+     */
+    synchronized void onRollback() {
+        mTables = null;
+        mTemplates.clear();
+    }
+
+    private String createTable(SQLiteDatabase db, long monthStart) {
+        String table = mTables.get(monthStart);
+        if (table != null) return table;
+
+        table = getTableName(monthStart);
+        WeatherDbHelper.createWeatherTable(db, table);
+        WeatherDbHelper.createChangeCounterTriggers(db, table);
+        mTables.put(monthStart, table);
+        return table;
+    }
+
+    private void load(SQLiteDatabase db) {
+        if (mTables != null) return;
+        mTables = new TreeMap<>();
+        for (String table : readTableNames(db)) {
+            int yearMonth = Integer.parseInt(table.substring(TABLE_PREFIX.length()));
+            Calendar month = Calendar.getInstance();
+            month.clear();
+            month.set(yearMonth / 100, yearMonth % 100 - 1, 1);
+            mTables.put(month.getTimeInMillis(), table);
+        }
+    }
+
+    private static String getTableName(long monthStart) {
+        Calendar month = Calendar.getInstance();
+        month.setTimeInMillis(monthStart);
+        return TABLE_PREFIX + (month.get(Calendar.YEAR) * 100 + month.get(Calendar.MONTH) + 1);
+    }
+}
@@ -20,42 +20,126 @@ import android.content.ContentProvider;
 import android.content.ContentValues;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.MergeCursor;
 import android.database.sqlite.SQLiteDatabase;
-import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Build;
+import android.util.Log;
+
+import com.example.android.sunshine.app.metrics.Histogram;
+import com.example.android.sunshine.app.metrics.Metrics;
+import com.example.android.sunshine.app.metrics.StripedCounter;
+import com.example.android.sunshine.app.perf.StartupTrace;
+import com.example.android.sunshine.app.utils.Deadline;
+import com.example.android.sunshine.core.ForecastBatch;
+import com.example.android.sunshine.core.GeoHash;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 public class WeatherProvider extends ContentProvider {
 
     // The URI Matcher used by this content provider.
     private static final UriMatcher sUriMatcher = buildUriMatcher();
+    private static final String LOG_TAG = WeatherProvider.class.getSimpleName();
     private WeatherDbHelper mOpenHelper;
+    // Whether onCreate opens the database in the background, and the task doing it.
+    private final boolean mWarmUp;
+    private volatile FutureTask<Void> mWarmup;
+    private final ForecastCache mCache = new ForecastCache(ForecastCache.DEFAULT_MAX_BYTES);
+    private final QueryProfiler mProfiler = new QueryProfiler(QueryProfiler.DEFAULT_CAPACITY);
+    private final WeatherPartitions mPartitions = new WeatherPartitions();
 
     static final int WEATHER = 100;
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
+    static final int WEATHER_RANGE = 103;
+    static final int WEATHER_WEEKLY = 104;
+    static final int WEATHER_MONTHLY = 105;
     static final int LOCATION = 300;
+    static final int LOCATION_SEARCH = 301;
+    static final int LOCATION_BOX = 302;
+    static final int LOCATION_NEAREST = 303;
+    static final int STATS = 400;
 
-    private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
+    // Query latency per route, cache hits included.
+    private static final Histogram sWeatherQueryLatency =
+            Metrics.histogram("provider.query.weather_us");
+    private static final Histogram sWeatherWithLocationQueryLatency =
+            Metrics.histogram("provider.query.weather_with_location_us");
+    private static final Histogram sWeatherWithLocationAndDateQueryLatency =
+            Metrics.histogram("provider.query.weather_with_location_and_date_us");
+    private static final Histogram sWeatherRangeQueryLatency =
+            Metrics.histogram("provider.query.weather_range_us");
+    private static final Histogram sWeatherRollupQueryLatency =
+            Metrics.histogram("provider.query.weather_rollup_us");
+    private static final Histogram sLocationQueryLatency =
+            Metrics.histogram("provider.query.location_us");
+    private static final Histogram sLocationSearchQueryLatency =
+            Metrics.histogram("provider.query.location_search_us");
+    private static final Histogram sLocationBoxQueryLatency =
+            Metrics.histogram("provider.query.location_box_us");
+    private static final Histogram sLocationNearestQueryLatency =
+            Metrics.histogram("provider.query.location_nearest_us");
+    // How long the background warm-up took, and how long calls that came in during it waited.
+    private static final Histogram sWarmupLatency = Metrics.histogram("provider.warmup_us");
+    private static final Histogram sWarmupWait = Metrics.histogram("provider.warmup_wait_us");
 
-    static{
-        sWeatherByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
-        
-        //This is an inner join which looks like
-        //weather INNER JOIN location ON weather.location_id = location._id
-        sWeatherByLocationSettingQueryBuilder.setTables(
-                WeatherContract.WeatherEntry.TABLE_NAME + " INNER JOIN " +
-                        WeatherContract.LocationEntry.TABLE_NAME +
-                        " ON " + WeatherContract.WeatherEntry.TABLE_NAME +
-                        "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY +
-                        " = " + WeatherContract.LocationEntry.TABLE_NAME +
-                        "." + WeatherContract.LocationEntry._ID);
-    }
+    //This is an inner join which looks like
+    //weather INNER JOIN location ON weather.location_id = location._id
+    private static final String sWeatherJoinLocationTables =
+            WeatherContract.WeatherEntry.TABLE_NAME + " INNER JOIN " +
+                    WeatherContract.LocationEntry.TABLE_NAME +
+                    " ON " + WeatherContract.WeatherEntry.TABLE_NAME +
+                    "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY +
+                    " = " + WeatherContract.LocationEntry.TABLE_NAME +
+                    "." + WeatherContract.LocationEntry._ID;
 
-    private static final SQLiteQueryBuilder sLocationQueryBuilder;
-    static{
-        sLocationQueryBuilder = new SQLiteQueryBuilder();
-        sLocationQueryBuilder.setTables(WeatherContract.LocationEntry.TABLE_NAME);
-    }
+    //The same join, but always with weather as the outer loop.  A range query looks its
+    //location up once, below, and then walks the (location_id, date) index in date order, so
+    //SQLite reads only the rows of the page and never sorts.  Left to itself it may scan
+    //location first, and then has to sort every matching day before it can apply the limit.
+    private static final String sWeatherCrossJoinLocationTables =
+            WeatherContract.WeatherEntry.TABLE_NAME + " CROSS JOIN " +
+                    WeatherContract.LocationEntry.TABLE_NAME +
+                    " ON " + WeatherContract.WeatherEntry.TABLE_NAME +
+                    "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY +
+                    " = " + WeatherContract.LocationEntry.TABLE_NAME +
+                    "." + WeatherContract.LocationEntry._ID;
+
+    //The same two joins with an archive partition standing in for the weather table.  It goes
+    //by the weather table's name, so projections and selections that name weather columns
+    //read the partition's instead.
+    private static final String sPartitionJoinLocationTables =
+            "%s AS " + WeatherContract.WeatherEntry.TABLE_NAME + " INNER JOIN " +
+                    WeatherContract.LocationEntry.TABLE_NAME +
+                    " ON " + WeatherContract.WeatherEntry.TABLE_NAME +
+                    "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY +
+                    " = " + WeatherContract.LocationEntry.TABLE_NAME +
+                    "." + WeatherContract.LocationEntry._ID;
+    private static final String sPartitionCrossJoinLocationTables =
+            "%s AS " + WeatherContract.WeatherEntry.TABLE_NAME + " CROSS JOIN " +
+                    WeatherContract.LocationEntry.TABLE_NAME +
+                    " ON " + WeatherContract.WeatherEntry.TABLE_NAME +
+                    "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY +
+                    " = " + WeatherContract.LocationEntry.TABLE_NAME +
+                    "." + WeatherContract.LocationEntry._ID;
+
+    private static final String sSortByDateDescending =
+            WeatherContract.WeatherEntry.COLUMN_DATE + " DESC";
 
     //location.location_setting = ?
     private static final String sLocationSettingSelection =
@@ -74,71 +158,529 @@ public class WeatherProvider extends ContentProvider {
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
 
-    private static final String sWeatherSelection =
-            WeatherContract.WeatherEntry.TABLE_NAME+
-                "." + WeatherContract.WeatherEntry._ID + " >= ? ";
-    private String sLocationSelection =
-            WeatherContract.LocationEntry.TABLE_NAME+
-                "." + WeatherContract.LocationEntry._ID + " >= ? ";
+    //weather.location_id = (SELECT _id FROM location WHERE location_setting = ?)
+    //    AND date >= ? AND date < ?
+    private static final String sLocationSettingAndDateRangeSelection =
+            WeatherContract.WeatherEntry.TABLE_NAME + "." +
+                    WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = (SELECT " +
+                    WeatherContract.LocationEntry._ID + " FROM " +
+                    WeatherContract.LocationEntry.TABLE_NAME + " WHERE " +
+                    WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?) AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " < ? ";
+
+    //location_id = (SELECT _id FROM location WHERE location_setting = ?)
+    //    AND period_start >= ? AND period_start < ?
+    private static final String sLocationSettingAndPeriodRangeSelection =
+            WeatherContract.RollupEntry.COLUMN_LOC_KEY + " = (SELECT " +
+                    WeatherContract.LocationEntry._ID + " FROM " +
+                    WeatherContract.LocationEntry.TABLE_NAME + " WHERE " +
+                    WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?) AND " +
+                    WeatherContract.RollupEntry.COLUMN_PERIOD_START + " >= ? AND " +
+                    WeatherContract.RollupEntry.COLUMN_PERIOD_START + " < ? ";
+
+    //_id IN (SELECT docid FROM location_search WHERE location_search MATCH ?)
+    private static final String sLocationSearchSelection =
+            WeatherContract.LocationEntry._ID + " IN (SELECT docid FROM " +
+                    WeatherContract.LocationEntry.SEARCH_TABLE_NAME + " WHERE " +
+                    WeatherContract.LocationEntry.SEARCH_TABLE_NAME + " MATCH ?)";
+
+    // Search results are cut off at the URI's limit, however many locations match.
+    private static final String sLocationSearchSortOrder =
+            WeatherContract.LocationEntry.SORT_BY_CITY_NAME + " LIMIT ?";
 
-    private Cursor getWeatherByLocationSetting(Uri uri, String[] projection, String sortOrder) {
+    // The most geohash cells a box query looks up.  A box that would need more is covered by
+    // coarser cells; one too big for even that is read with no help from the index.
+    static final int MAX_BOX_CELLS = 16;
+
+    // The first radius a nearest query searches, and how much it grows each time the nearest
+    // location it finds isn't inside it.
+    private static final double NEAREST_START_RADIUS_KM = 5;
+    private static final int NEAREST_RADIUS_GROWTH = 4;
+
+    // What a nearest query reads of each candidate location to work out its distance.
+    private static final String[] sCoordinatesProjection = {
+            WeatherContract.LocationEntry._ID,
+            WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+            WeatherContract.LocationEntry.COLUMN_COORD_LONG
+    };
+
+    //_id = ?
+    private static final String sLocationIdSelection = WeatherContract.LocationEntry._ID + " = ?";
+
+    // Range pages are always oldest first, which is the index order.  The limit is bound like
+    // any other argument, so every page of every range shares one prepared statement.
+    private static final String sDateRangeSortOrder =
+            WeatherContract.WeatherEntry.SORT_BY_DATE + " LIMIT ?";
+
+    // One set of precompiled query templates per route.  The "all rows" routes don't need a
+    // WHERE clause at all, so they no longer carry a dummy "_id >= -1" predicate.
+    // The contract's named projections are prepared up front for the sort orders they are
+    // used with, so those queries skip the template lookup entirely.
+    private static final QueryTemplates sWeatherTemplates =
+            new QueryTemplates(sWeatherJoinLocationTables, null)
+                    .prepare(WeatherContract.WeatherEntry.LIST_PROJECTION,
+                            WeatherContract.WeatherEntry.SORT_BY_DATE);
+    private static final QueryTemplates sWeatherByLocationSettingTemplates =
+            new QueryTemplates(sWeatherJoinLocationTables, sLocationSettingSelection)
+                    .prepare(WeatherContract.WeatherEntry.LIST_PROJECTION,
+                            WeatherContract.WeatherEntry.SORT_BY_DATE)
+                    .prepare(WeatherContract.LocationEntry.MAP_PROJECTION, null);
+    private static final QueryTemplates sWeatherByLocationSettingWithStartDateTemplates =
+            new QueryTemplates(sWeatherJoinLocationTables, sLocationSettingWithStartDateSelection)
+                    .prepare(WeatherContract.WeatherEntry.LIST_PROJECTION,
+                            WeatherContract.WeatherEntry.SORT_BY_DATE);
+    private static final QueryTemplates sWeatherByLocationSettingAndDayTemplates =
+            new QueryTemplates(sWeatherJoinLocationTables, sLocationSettingAndDaySelection)
+                    .prepare(WeatherContract.WeatherEntry.DETAIL_PROJECTION, null);
+    private static final QueryTemplates sWeatherByLocationSettingAndDateRangeTemplates =
+            new QueryTemplates(sWeatherCrossJoinLocationTables,
+                    sLocationSettingAndDateRangeSelection)
+                    .prepare(WeatherContract.WeatherEntry.LIST_PROJECTION, sDateRangeSortOrder)
+                    .prepare(WeatherContract.WeatherEntry.DETAIL_PROJECTION, sDateRangeSortOrder);
+    private static final QueryTemplates sWeeklyTemplates =
+            new QueryTemplates(WeatherContract.RollupEntry.WEEKLY_TABLE_NAME,
+                    sLocationSettingAndPeriodRangeSelection)
+                    .prepare(WeatherContract.RollupEntry.ROLLUP_PROJECTION,
+                            WeatherContract.RollupEntry.SORT_BY_PERIOD);
+    private static final QueryTemplates sMonthlyTemplates =
+            new QueryTemplates(WeatherContract.RollupEntry.MONTHLY_TABLE_NAME,
+                    sLocationSettingAndPeriodRangeSelection)
+                    .prepare(WeatherContract.RollupEntry.ROLLUP_PROJECTION,
+                            WeatherContract.RollupEntry.SORT_BY_PERIOD);
+    private static final QueryTemplates sLocationTemplates =
+            new QueryTemplates(WeatherContract.LocationEntry.TABLE_NAME, null)
+                    .prepare(WeatherContract.LocationEntry.MAP_PROJECTION, null);
+    private static final QueryTemplates sLocationSearchTemplates =
+            new QueryTemplates(WeatherContract.LocationEntry.TABLE_NAME, sLocationSearchSelection)
+                    .prepare(null, sLocationSearchSortOrder);
+    private static final QueryTemplates sLocationByIdTemplates =
+            new QueryTemplates(WeatherContract.LocationEntry.TABLE_NAME, sLocationIdSelection)
+                    .prepare(null, null);
+    // Indexed by the number of cells, from none to MAX_BOX_CELLS, for boxes that do and don't
+    // cross the antimeridian.
+    private static final QueryTemplates[] sLocationBoxTemplates = buildBoxTemplates(false);
+    private static final QueryTemplates[] sWrappedLocationBoxTemplates = buildBoxTemplates(true);
+    // The routes the app queries first, whose prepared SQL the warm-up compiles.
+    private static final QueryTemplates[] sWarmupTemplates = {
+            sWeatherByLocationSettingWithStartDateTemplates,
+            sWeatherByLocationSettingTemplates,
+            sWeatherByLocationSettingAndDayTemplates,
+            sWeatherByLocationSettingAndDateRangeTemplates,
+            sLocationTemplates,
+    };
+
+    private static QueryTemplates[] buildBoxTemplates(boolean wrapped) {
+        QueryTemplates[] templates = new QueryTemplates[MAX_BOX_CELLS + 1];
+        for (int cells = 0; cells <= MAX_BOX_CELLS; cells++) {
+            templates[cells] = new QueryTemplates(WeatherContract.LocationEntry.TABLE_NAME,
+                    buildBoxSelection(cells, wrapped));
+        }
+        return templates;
+    }
+
+    //(geohash >= ? AND geohash < ? OR ...) AND coord_lat BETWEEN ? AND ?
+    //    AND coord_long BETWEEN ? AND ?
+    //Each pair of geohash bounds is one cell, a range of the geohash index, and the
+    //coordinates then trim the cells down to the box.  Across the antimeridian the longitude
+    //test is coord_long >= ? OR coord_long <= ? instead.
+    private static String buildBoxSelection(int cells, boolean wrapped) {
+        StringBuilder selection = new StringBuilder();
+        if (cells > 0) {
+            selection.append('(');
+            for (int i = 0; i < cells; i++) {
+                if (i > 0) selection.append(" OR ");
+                selection.append('(').append(WeatherContract.LocationEntry.COLUMN_GEOHASH)
+                        .append(" >= ? AND ").append(WeatherContract.LocationEntry.COLUMN_GEOHASH)
+                        .append(" < ?)");
+            }
+            selection.append(") AND ");
+        }
+        selection.append(WeatherContract.LocationEntry.COLUMN_COORD_LAT)
+                .append(" BETWEEN ? AND ? AND ");
+        if (wrapped) {
+            selection.append('(').append(WeatherContract.LocationEntry.COLUMN_COORD_LONG)
+                    .append(" >= ? OR ").append(WeatherContract.LocationEntry.COLUMN_COORD_LONG)
+                    .append(" <= ?)");
+        } else {
+            selection.append(WeatherContract.LocationEntry.COLUMN_COORD_LONG)
+                    .append(" BETWEEN ? AND ?");
+        }
+        return selection.toString();
+    }
+
+    /**
+     * A location's days, from the start date on if the URI has one.  Days before the archive
+     * cutoff are read from the partitions they're in, one after another, when the rows come
+     * back in date order, either way, or in no set order.  Any other order reads the
+     * partitions and the weather table through one UNION ALL, which SQLite has to sort.
+     */
+    private Cursor getWeatherByLocationSetting(Uri uri, String[] projection, String selection,
+                                               String[] selectionArgs, String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
         long startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
 
-        String[] selectionArgs;
-        String selection;
-
+        QueryTemplates templates;
+        String routeSelection;
+        String[] routeArgs;
         if (startDate == 0) {
-            selection = sLocationSettingSelection;
-            selectionArgs = new String[]{locationSetting};
+            templates = sWeatherByLocationSettingTemplates;
+            routeSelection = sLocationSettingSelection;
+            routeArgs = new String[]{locationSetting};
         } else {
-            selectionArgs = new String[]{locationSetting, Long.toString(startDate)};
-            selection = sLocationSettingWithStartDateSelection;
-        }
-
-        return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
-                projection,
-                selection,
-                selectionArgs,
-                null,
-                null,
-                sortOrder
-        );
-    }
-
-    private Cursor getLocation(Uri uri, String[] projection, String sortOrder) {
-        return sLocationQueryBuilder.query(mOpenHelper.getReadableDatabase(),
-                projection,
-                sLocationSelection,
-                new String[]{"-1"},
-                null,
-                null,
-                sortOrder);
+            templates = sWeatherByLocationSettingWithStartDateTemplates;
+            routeSelection = sLocationSettingWithStartDateSelection;
+            routeArgs = new String[]{locationSetting, Long.toString(startDate)};
+        }
+
+        // The common case: the start date is today, long after anything archived.
+        List<String> partitions = mPartitions.getTables(getReadableDatabase(),
+                startDate, Long.MAX_VALUE);
+        if (partitions.isEmpty()) {
+            return runTemplate(templates, projection, selection, routeArgs, selectionArgs,
+                    sortOrder);
+        }
+
+        boolean descending = sSortByDateDescending.equals(sortOrder);
+        if (!descending && sortOrder != null
+                && !sortOrder.equals(WeatherContract.WeatherEntry.SORT_BY_DATE)) {
+            String source = mPartitions.getSource(getReadableDatabase(), startDate,
+                    Long.MAX_VALUE);
+            return runTemplate(mPartitions.getTemplates(sPartitionJoinLocationTables, source,
+                    routeSelection), projection, selection, routeArgs, selectionArgs, sortOrder);
+        }
+        List<Cursor> cursors = new ArrayList<>(partitions.size() + 1);
+        for (String partition : partitions) {
+            cursors.add(runTemplate(mPartitions.getTemplates(sPartitionJoinLocationTables,
+                    partition, routeSelection), projection, selection, routeArgs,
+                    selectionArgs, sortOrder));
+        }
+        cursors.add(runTemplate(templates, projection, selection, routeArgs, selectionArgs,
+                sortOrder));
+        if (descending) Collections.reverse(cursors);
+        return new MergeCursor(cursors.toArray(new Cursor[cursors.size()]));
     }
 
-    private Cursor getWeather(Uri uri, String[] projection, String sortOrder) {
-        return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
-                projection,
-                sWeatherSelection,
-                new String[] { "-1" },
-                null,
-                null,
+    private Cursor getLocation(Uri uri, String[] projection, String selection,
+                               String[] selectionArgs, String sortOrder) {
+        return runTemplate(sLocationTemplates, projection, selection, null, selectionArgs,
                 sortOrder);
     }
 
-    private Cursor getWeatherByLocationSettingAndDate(
-            Uri uri, String[] projection, String sortOrder) {
+    /**
+     * The locations matching what's been typed into a search, in city name order and at most
+     * the URI's limit of them.  Each word typed matches the start of a word of the city name
+     * or setting, looked up in the full text index, so a keystroke costs the same with ten
+     * locations or ten thousand.
+     */
+    private Cursor getLocationSearch(Uri uri, String[] projection, String selection,
+                                     String[] selectionArgs, String sortOrder) {
+        if (sortOrder != null
+                && !sortOrder.equals(WeatherContract.LocationEntry.SORT_BY_CITY_NAME)) {
+            throw new IllegalArgumentException("Searches are always sorted by city name: " + uri);
+        }
+        return runTemplate(sLocationSearchTemplates, projection, selection,
+                new String[]{buildMatchQuery(
+                        WeatherContract.LocationEntry.getSearchQueryFromUri(uri))},
+                concat(selectionArgs, new String[]{Integer.toString(
+                        WeatherContract.LocationEntry.getSearchLimitFromUri(uri))}),
+                sLocationSearchSortOrder);
+    }
+
+    /**
+     * The locations inside the URI's box, in the caller's sort order.  The box is covered by a
+     * few geohash cells, so only the locations in those cells are read, along the geohash
+     * index, rather than the whole table.
+     */
+    private Cursor getLocationsInBox(Uri uri, String[] projection, String selection,
+                                     String[] selectionArgs, String sortOrder) {
+        return queryBox(projection, selection, selectionArgs, sortOrder,
+                WeatherContract.LocationEntry.getCoordinateFromUri(uri,
+                        WeatherContract.LocationEntry.PARAM_SOUTH),
+                WeatherContract.LocationEntry.getCoordinateFromUri(uri,
+                        WeatherContract.LocationEntry.PARAM_WEST),
+                WeatherContract.LocationEntry.getCoordinateFromUri(uri,
+                        WeatherContract.LocationEntry.PARAM_NORTH),
+                WeatherContract.LocationEntry.getCoordinateFromUri(uri,
+                        WeatherContract.LocationEntry.PARAM_EAST));
+    }
+
+    private Cursor queryBox(String[] projection, String selection, String[] selectionArgs,
+                            String sortOrder, double south, double west, double north,
+                            double east) {
+        if (south > north || south < -90 || north > 90 || Math.abs(west) > 180
+                || Math.abs(east) > 180) {
+            throw new IllegalArgumentException("Not a box: " + south + ", " + west + ", " +
+                    north + ", " + east);
+        }
+        boolean wrapped = west > east;
+        List<String> cells;
+        if (!wrapped) {
+            cells = GeoHash.cover(south, west, north, east,
+                    WeatherContract.LocationEntry.GEOHASH_PRECISION, MAX_BOX_CELLS);
+        } else {
+            // Each side of the antimeridian gets half the cells.
+            cells = GeoHash.cover(south, west, north, 180,
+                    WeatherContract.LocationEntry.GEOHASH_PRECISION, MAX_BOX_CELLS / 2);
+            List<String> eastCells = GeoHash.cover(south, -180, north, east,
+                    WeatherContract.LocationEntry.GEOHASH_PRECISION, MAX_BOX_CELLS / 2);
+            if (cells.isEmpty() || eastCells.isEmpty()) cells.clear();
+            else cells.addAll(eastCells);
+        }
+
+        String[] routeArgs = new String[cells.size() * 2 + 4];
+        int i = 0;
+        for (String cell : cells) {
+            routeArgs[i++] = cell;
+            routeArgs[i++] = cell + GeoHash.END;
+        }
+        routeArgs[i++] = Double.toString(south);
+        routeArgs[i++] = Double.toString(north);
+        routeArgs[i++] = Double.toString(west);
+        routeArgs[i] = Double.toString(east);
+        return runTemplate(wrapped ? sWrappedLocationBoxTemplates[cells.size()]
+                        : sLocationBoxTemplates[cells.size()], projection, selection, routeArgs,
+                selectionArgs, sortOrder);
+    }
+
+    /**
+     * The location nearest the URI's point by great circle distance, among those matching the
+     * caller's selection: one row, or none if there are no locations.  It searches a box
+     * around the point, growing it until the nearest location found is no further away than
+     * the box's radius, since anything nearer would have been inside it.  The box is read
+     * along the geohash index and the distances worked out here.
+     */
+    private Cursor getNearestLocation(Uri uri, String[] projection, String selection,
+                                      String[] selectionArgs, String sortOrder) {
+        double lat = WeatherContract.LocationEntry.getCoordinateFromUri(uri,
+                WeatherContract.LocationEntry.PARAM_LAT);
+        double lon = WeatherContract.LocationEntry.getCoordinateFromUri(uri,
+                WeatherContract.LocationEntry.PARAM_LON);
+
+        long nearestId = -1;
+        double radius = NEAREST_START_RADIUS_KM;
+        while (true) {
+            double[] box = GeoHash.boundingBox(lat, lon, radius);
+            double nearestDistance = Double.MAX_VALUE;
+            Cursor cursor = queryBox(sCoordinatesProjection, selection, selectionArgs, null,
+                    box[0], box[1], box[2], box[3]);
+            try {
+                while (cursor.moveToNext()) {
+                    double distance = GeoHash.distanceKm(lat, lon, cursor.getDouble(1),
+                            cursor.getDouble(2));
+                    if (distance < nearestDistance) {
+                        nearestDistance = distance;
+                        nearestId = cursor.getLong(0);
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+            boolean wholeWorld = box[0] == -90 && box[2] == 90 && box[1] == -180
+                    && box[3] == 180;
+            if (nearestDistance <= radius || wholeWorld) break;
+            radius *= NEAREST_RADIUS_GROWTH;
+        }
+        // With no locations at all, an id no row has gives the same columns and no rows.
+        return runTemplate(sLocationByIdTemplates, projection, null,
+                new String[]{Long.toString(nearestId)}, null, sortOrder);
+    }
+
+    /**
+     * Fills in the geohash of a location whose coordinates are both in the values.
+     *
+     * @return whether it did
+     */
+    static boolean putGeohash(ContentValues values) {
+        Double lat = values.getAsDouble(WeatherContract.LocationEntry.COLUMN_COORD_LAT);
+        Double lon = values.getAsDouble(WeatherContract.LocationEntry.COLUMN_COORD_LONG);
+        if (lat == null || lon == null) return false;
+        values.put(WeatherContract.LocationEntry.COLUMN_GEOHASH,
+                GeoHash.encode(lat, lon, WeatherContract.LocationEntry.GEOHASH_PRECISION));
+        return true;
+    }
+
+    // Works the geohashes of the given locations out again from their coordinates, for an
+    // update that moved them with only one of the two in its values.
+    private static void updateGeohashes(SQLiteDatabase db, List<Long> locationIds) {
+        SQLiteStatement update = db.compileStatement("UPDATE " +
+                WeatherContract.LocationEntry.TABLE_NAME + " SET " +
+                WeatherContract.LocationEntry.COLUMN_GEOHASH + " = ? WHERE " +
+                sLocationIdSelection);
+        try {
+            for (long id : locationIds) {
+                Cursor cursor = db.rawQuery("SELECT " +
+                        WeatherContract.LocationEntry.COLUMN_COORD_LAT + ", " +
+                        WeatherContract.LocationEntry.COLUMN_COORD_LONG + " FROM " +
+                        WeatherContract.LocationEntry.TABLE_NAME + " WHERE " +
+                        sLocationIdSelection, new String[]{Long.toString(id)});
+                try {
+                    if (!cursor.moveToFirst()) continue;
+                    update.bindString(1, GeoHash.encode(cursor.getDouble(0),
+                            cursor.getDouble(1), WeatherContract.LocationEntry.GEOHASH_PRECISION));
+                } finally {
+                    cursor.close();
+                }
+                update.bindLong(2, id);
+                update.execute();
+            }
+        } finally {
+            update.close();
+        }
+    }
+
+    /**
+     * The full text query for what's been typed: each run of letters and digits becomes a
+     * prefix term, and everything else is dropped, so nothing typed can be read as an FTS
+     * operator.  "San Fr" gives "san* fr*"; nothing to search for gives "", which matches
+     * nothing.
+     */
+    static String buildMatchQuery(String typed) {
+        StringBuilder match = new StringBuilder(typed.length() + 8);
+        int i = 0;
+        while (i < typed.length()) {
+            if (!Character.isLetterOrDigit(typed.charAt(i))) {
+                i++;
+                continue;
+            }
+            int start = i;
+            while (i < typed.length() && Character.isLetterOrDigit(typed.charAt(i))) i++;
+            if (match.length() > 0) match.append(' ');
+            match.append(typed, start, i).append('*');
+        }
+        return match.toString();
+    }
+
+    // Once there's an archive, every day is read through the UNION ALL of its partitions and
+    // the weather table, standing in for the weather table.
+    private Cursor getWeather(Uri uri, String[] projection, String selection,
+                              String[] selectionArgs, String sortOrder) {
+        String source = mPartitions.getSource(getReadableDatabase(), 0, Long.MAX_VALUE);
+        QueryTemplates templates = source.equals(WeatherContract.WeatherEntry.TABLE_NAME)
+                ? sWeatherTemplates
+                : mPartitions.getTemplates(sPartitionJoinLocationTables, source, null);
+        return runTemplate(templates, projection, selection, null, selectionArgs, sortOrder);
+    }
+
+    private Cursor getWeatherByLocationSettingAndDate(Uri uri, String[] projection,
+                                                      String selection, String[] selectionArgs,
+                                                      String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
         long date = WeatherContract.WeatherEntry.getDateFromUri(uri);
 
-        return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
-                projection,
-                sLocationSettingAndDaySelection,
-                new String[]{locationSetting, Long.toString(date)},
-                null,
-                null,
-                sortOrder
-        );
+        // An archived day is read from its month's partition alone.
+        String table = mPartitions.getTable(getReadableDatabase(), date);
+        QueryTemplates templates = table.equals(WeatherContract.WeatherEntry.TABLE_NAME)
+                ? sWeatherByLocationSettingAndDayTemplates
+                : mPartitions.getTemplates(sPartitionJoinLocationTables, table,
+                        sLocationSettingAndDaySelection);
+        return runTemplate(templates, projection, selection,
+                new String[]{locationSetting, Long.toString(date)}, selectionArgs, sortOrder);
+    }
+
+    /**
+     * One page of a location's days in [start, end), oldest first.  A page after the first
+     * starts just past the last date of the one before it, so SQLite seeks straight to it in
+     * the (location_id, date) index: the cost of a page is its size, however deep it is.
+     * <p/>
+     * A range reaching back before the archive cutoff reads the partitions of its months in
+     * order, then the weather table, each for what's left of the limit, and stops as soon as
+     * the page is full.
+     */
+    private Cursor getWeatherByLocationSettingAndDateRange(Uri uri, String[] projection,
+                                                           String selection,
+                                                           String[] selectionArgs,
+                                                           String sortOrder) {
+        if (sortOrder != null && !sortOrder.equals(WeatherContract.WeatherEntry.SORT_BY_DATE)) {
+            throw new IllegalArgumentException("Range queries are always sorted by date: " + uri);
+        }
+        String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
+        long startDate = WeatherContract.WeatherEntry.getRangeStartFromUri(uri);
+        long afterDate = WeatherContract.WeatherEntry.getRangeAfterFromUri(uri);
+        if (afterDate >= startDate) startDate = afterDate + 1;
+        long endDate = WeatherContract.WeatherEntry.getRangeEndFromUri(uri);
+        int limit = WeatherContract.WeatherEntry.getRangeLimitFromUri(uri);
+        String[] routeArgs = new String[]{locationSetting, Long.toString(startDate),
+                Long.toString(endDate)};
+
+        SQLiteDatabase db = getReadableDatabase();
+        List<String> partitions = mPartitions.getTables(db, startDate, endDate);
+        if (partitions.isEmpty()) {
+            // The limit's placeholder comes after the caller's selection, so its argument
+            // does too.
+            return runTemplate(sWeatherByLocationSettingAndDateRangeTemplates, projection,
+                    selection, routeArgs,
+                    concat(selectionArgs, new String[]{Integer.toString(limit)}),
+                    sDateRangeSortOrder);
+        }
+
+        List<Cursor> cursors = new ArrayList<>(partitions.size() + 1);
+        if (endDate > mPartitions.getCutoff(db)) {
+            partitions.add(WeatherContract.WeatherEntry.TABLE_NAME);
+        }
+        for (String table : partitions) {
+            QueryTemplates templates = table.equals(WeatherContract.WeatherEntry.TABLE_NAME)
+                    ? sWeatherByLocationSettingAndDateRangeTemplates
+                    : mPartitions.getTemplates(sPartitionCrossJoinLocationTables, table,
+                            sLocationSettingAndDateRangeSelection);
+            Cursor cursor = runTemplate(templates, projection, selection, routeArgs,
+                    concat(selectionArgs, new String[]{Integer.toString(limit)}),
+                    sDateRangeSortOrder);
+            cursors.add(cursor);
+            if (limit >= 0) {
+                limit -= cursor.getCount();
+                if (limit <= 0) break;
+            }
+        }
+        return cursors.size() == 1 ? cursors.get(0)
+                : new MergeCursor(cursors.toArray(new Cursor[cursors.size()]));
+    }
+
+    /**
+     * The weekly or monthly summaries of a location whose periods start in [start, end), read
+     * from the rollup tables rather than worked out from the weather rows.
+     */
+    private Cursor getRollups(int match, Uri uri, String[] projection, String selection,
+                              String[] selectionArgs, String sortOrder) {
+        return runTemplate(match == WEATHER_WEEKLY ? sWeeklyTemplates : sMonthlyTemplates,
+                projection, selection,
+                new String[]{WeatherContract.WeatherEntry.getLocationSettingFromUri(uri),
+                        Long.toString(WeatherContract.WeatherEntry.getRangeStartFromUri(uri)),
+                        Long.toString(WeatherContract.WeatherEntry.getRangeEndFromUri(uri))},
+                selectionArgs, sortOrder);
+    }
+
+    /**
+     * Runs a route's query.  Without a caller selection (the common case) the SQL text comes
+     * straight out of the route's template cache, so SQLite reuses the prepared statement.
+     * A caller selection is ANDed onto the route's own selection and built per call.
+     */
+    @TargetApi(11)
+    private Cursor runTemplate(QueryTemplates templates, String[] projection, String selection,
+                               String[] routeArgs, String[] selectionArgs, String sortOrder) {
+        final String sql;
+        if (selection == null || selection.length() == 0) {
+            sql = templates.get(projection, sortOrder);
+        } else {
+            sql = templates.build(projection, selection, sortOrder);
+        }
+        String[] args = concat(routeArgs, selectionArgs);
+        QueryProfiler.Call call = mProfiler.current();
+        if (call == null || Build.VERSION.SDK_INT < 11) {
+            return getReadableDatabase().rawQuery(sql, args);
+        }
+        call.setStatement(sql, args, sql);
+        return getReadableDatabase().rawQueryWithFactory(
+                new QueryProfiler.CursorFactory(call), sql, args, null);
+    }
+
+    private static String[] concat(String[] first, String[] second) {
+        if (first == null || first.length == 0) return second;
+        if (second == null || second.length == 0) return first;
+        String[] args = new String[first.length + second.length];
+        System.arraycopy(first, 0, args, 0, first.length);
+        System.arraycopy(second, 0, args, first.length, second.length);
+        return args;
     }
 
     /*
@@ -160,23 +702,106 @@ public class WeatherProvider extends ContentProvider {
                 WEATHER_WITH_LOCATION);
         uriMatcher.addURI(WeatherContract.CONTENT_AUTHORITY, WeatherContract.PATH_WEATHER + "/*/#",
                 WEATHER_WITH_LOCATION_AND_DATE);
+        uriMatcher.addURI(WeatherContract.CONTENT_AUTHORITY, WeatherContract.PATH_WEATHER + "/*/" +
+                WeatherContract.PATH_RANGE, WEATHER_RANGE);
+        uriMatcher.addURI(WeatherContract.CONTENT_AUTHORITY, WeatherContract.PATH_WEATHER + "/*/" +
+                WeatherContract.PATH_WEEKLY, WEATHER_WEEKLY);
+        uriMatcher.addURI(WeatherContract.CONTENT_AUTHORITY, WeatherContract.PATH_WEATHER + "/*/" +
+                WeatherContract.PATH_MONTHLY, WEATHER_MONTHLY);
         uriMatcher.addURI(WeatherContract.CONTENT_AUTHORITY, WeatherContract.PATH_LOCATION,
                 LOCATION);
+        uriMatcher.addURI(WeatherContract.CONTENT_AUTHORITY, WeatherContract.PATH_LOCATION + "/" +
+                WeatherContract.PATH_SEARCH, LOCATION_SEARCH);
+        uriMatcher.addURI(WeatherContract.CONTENT_AUTHORITY, WeatherContract.PATH_LOCATION + "/" +
+                WeatherContract.PATH_BOX, LOCATION_BOX);
+        uriMatcher.addURI(WeatherContract.CONTENT_AUTHORITY, WeatherContract.PATH_LOCATION + "/" +
+                WeatherContract.PATH_NEAREST, LOCATION_NEAREST);
+        uriMatcher.addURI(WeatherContract.CONTENT_AUTHORITY, WeatherContract.PATH_STATS, STATS);
 
         // 3) Return the new matcher!
         return uriMatcher;
     }
 
+    public WeatherProvider() {
+        this(true);
+    }
+
+    /** @param warmUp whether onCreate starts opening the database in the background */
+    WeatherProvider(boolean warmUp) {
+        mWarmUp = warmUp;
+    }
+
     /*
         Students: We've coded this for you.  We just create a new WeatherDbHelper for later use
         here.
      */
     @Override
     public boolean onCreate() {
+        // Providers are created as the process starts, before the Application is.
+        StartupTrace.processStarted();
         mOpenHelper = new WeatherDbHelper(getContext());
+        if (mWarmUp) {
+            mWarmup = new FutureTask<>(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    warmUp();
+                    return null;
+                }
+            });
+            new Thread(mWarmup, "WeatherProvider warm-up").start();
+        }
         return true;
     }
 
+    /*
+        Opening the database is the slowest part of the first query: the file is opened,
+        onCreate or onUpgrade may run, and SQLite reads the schema before it can prepare
+        anything.  The provider is created at process start, well before the list asks for its
+        forecast, so all of that is done here on a thread of its own, along with preparing the
+        statements the app runs first.  They go into the connection's statement cache, which
+        keeps 25 by default, more than are prepared here.
+     */
+    private void warmUp() {
+        long start = System.nanoTime();
+        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        WeatherDbHelper.readChangeCounter(db);
+        for (QueryTemplates templates : sWarmupTemplates) {
+            for (String sql : templates.getPreparedSql()) {
+                db.compileStatement(sql).close();
+            }
+        }
+        db.compileStatement(sInsertWeatherSql).close();
+        sWarmupLatency.recordElapsed(start);
+    }
+
+    /**
+     * Waits for the warm-up to finish, if it's still going.  A warm-up that failed is left for
+     * the caller's own open to fail the same way, on the caller's thread.
+     */
+    void awaitWarmup() {
+        FutureTask<Void> warmup = mWarmup;
+        if (warmup == null || warmup.isDone()) return;
+        long start = System.nanoTime();
+        try {
+            warmup.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            Log.w(LOG_TAG, "Database warm-up failed", e.getCause());
+        }
+        sWarmupWait.recordElapsed(start);
+    }
+
+    private SQLiteDatabase getReadableDatabase() {
+        awaitWarmup();
+        return mOpenHelper.getReadableDatabase();
+    }
+
+    private SQLiteDatabase getWritableDatabase() {
+        awaitWarmup();
+        return mOpenHelper.getWritableDatabase();
+    }
+
     /*
         Students: Here's where you'll code the getType function that uses the UriMatcher.  You can
         test this by uncommenting testGetType in TestProvider.
@@ -194,10 +819,21 @@ public class WeatherProvider extends ContentProvider {
                 return WeatherContract.WeatherEntry.CONTENT_ITEM_TYPE;
             case WEATHER_WITH_LOCATION:
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
+            case WEATHER_RANGE:
+                return WeatherContract.WeatherEntry.CONTENT_TYPE;
+            case WEATHER_WEEKLY:
+            case WEATHER_MONTHLY:
+                return WeatherContract.RollupEntry.CONTENT_TYPE;
             case WEATHER:
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case LOCATION:
+            case LOCATION_SEARCH:
+            case LOCATION_BOX:
                 return WeatherContract.LocationEntry.CONTENT_TYPE;
+            case LOCATION_NEAREST:
+                return WeatherContract.LocationEntry.CONTENT_ITEM_TYPE;
+            case STATS:
+                return WeatherContract.StatsEntry.CONTENT_TYPE;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -206,109 +842,459 @@ public class WeatherProvider extends ContentProvider {
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
                         String sortOrder) {
+        final int match = sUriMatcher.match(uri);
+        if (match == UriMatcher.NO_MATCH) {
+            throw new UnsupportedOperationException("Unknown uri: " + uri);
+        }
+        // The metrics change all the time, so they're never cached or watched.
+        if (match == STATS) return getStats(projection);
+
+        QueryProfiler.Call call = mProfiler.begin("query", getRouteName(match));
+        try {
+            Cursor retCursor = queryRoute(match, uri, projection, selection, selectionArgs,
+                    sortOrder);
+            if (call != null) call.setRows(retCursor.getCount());
+            return retCursor;
+        } finally {
+            mProfiler.end(call, mOpenHelper);
+        }
+    }
+
+    private Cursor queryRoute(int match, Uri uri, String[] projection, String selection,
+                              String[] selectionArgs, String sortOrder) {
+        long start = System.nanoTime();
+
+        // A day the list has already read comes straight out of the cache, without even the
+        // change counter read below.  The index holds whole unfiltered rows, so a query with a
+        // selection of its own always goes to the database.
+        if (match == WEATHER_WITH_LOCATION_AND_DATE && isDetailQuery(projection, selection)) {
+            Cursor day = mCache.getDay(
+                    WeatherContract.WeatherEntry.getLocationSettingFromUri(uri),
+                    WeatherContract.WeatherEntry.getDateFromUri(uri));
+            if (day != null) {
+                Metrics.PROVIDER_DAY_HITS.increment();
+                day.setNotificationUri(getContext().getContentResolver(), uri);
+                getQueryLatency(match).recordElapsed(start);
+                return day;
+            }
+            Metrics.PROVIDER_DAY_MISSES.increment();
+        }
+
+        // Serve repeated queries from the read-through cache.  The change counter is read
+        // before the query so that a write landing in between can't be cached as current.
+        long changeCount = WeatherDbHelper.readChangeCounter(getReadableDatabase());
+        String key = ForecastCache.keyFor(match, uri, projection, selection, selectionArgs,
+                sortOrder);
+        Cursor retCursor = mCache.get(key, changeCount);
+        if (retCursor == null) {
+            retCursor = queryDatabase(match, uri, projection, selection, selectionArgs, sortOrder);
+            retCursor = mCache.readThrough(key, getCacheTag(match, uri), changeCount, retCursor,
+                    match == WEATHER_WITH_LOCATION && isDetailQuery(projection, selection));
+        }
+        retCursor.setNotificationUri(getContext().getContentResolver(), uri);
+        getQueryLatency(match).recordElapsed(start);
+        return retCursor;
+    }
+
+    // Whether a query asks for whole detail rows with no selection of its own, so that its
+    // rows can stand in for, or be stood in for by, the rows of the day index.
+    private static boolean isDetailQuery(String[] projection, String selection) {
+        return Arrays.equals(projection, WeatherContract.WeatherEntry.DETAIL_PROJECTION)
+                && (selection == null || selection.length() == 0);
+    }
+
+    private static Histogram getQueryLatency(int match) {
+        switch (match) {
+            case WEATHER_WITH_LOCATION_AND_DATE:
+                return sWeatherWithLocationAndDateQueryLatency;
+            case WEATHER_WITH_LOCATION:
+                return sWeatherWithLocationQueryLatency;
+            case WEATHER_RANGE:
+                return sWeatherRangeQueryLatency;
+            case WEATHER_WEEKLY:
+            case WEATHER_MONTHLY:
+                return sWeatherRollupQueryLatency;
+            case WEATHER:
+                return sWeatherQueryLatency;
+            case LOCATION_SEARCH:
+                return sLocationSearchQueryLatency;
+            case LOCATION_BOX:
+                return sLocationBoxQueryLatency;
+            case LOCATION_NEAREST:
+                return sLocationNearestQueryLatency;
+            default:
+                return sLocationQueryLatency;
+        }
+    }
+
+    /**
+     * One row per registered metric, counters first, with the requested columns of
+     * StatsEntry.STATS_PROJECTION.
+     */
+    private static Cursor getStats(String[] projection) {
+        if (projection == null) projection = WeatherContract.StatsEntry.STATS_PROJECTION;
+        int[] columns = new int[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            columns[i] = indexOf(WeatherContract.StatsEntry.STATS_PROJECTION, projection[i]);
+            if (columns[i] == -1) {
+                throw new IllegalArgumentException("Unknown stats column: " + projection[i]);
+            }
+        }
+
+        MatrixCursor cursor = new MatrixCursor(projection);
+        Object[] stats = new Object[WeatherContract.StatsEntry.STATS_PROJECTION.length];
+        long id = 0;
+        for (StripedCounter counter : Metrics.getCounters()) {
+            stats[WeatherContract.StatsEntry.STATS_COL_ID] = ++id;
+            stats[WeatherContract.StatsEntry.STATS_COL_NAME] = counter.getName();
+            stats[WeatherContract.StatsEntry.STATS_COL_COUNT] = counter.get();
+            addStatsRow(cursor, columns, stats);
+        }
+        for (Histogram histogram : Metrics.getHistograms()) {
+            stats[WeatherContract.StatsEntry.STATS_COL_ID] = ++id;
+            stats[WeatherContract.StatsEntry.STATS_COL_NAME] = histogram.getName();
+            stats[WeatherContract.StatsEntry.STATS_COL_COUNT] = histogram.getCount();
+            stats[WeatherContract.StatsEntry.STATS_COL_SUM] = histogram.getSum();
+            stats[WeatherContract.StatsEntry.STATS_COL_MAX] = histogram.getMax();
+            stats[WeatherContract.StatsEntry.STATS_COL_P50] = histogram.getPercentile(50);
+            stats[WeatherContract.StatsEntry.STATS_COL_P90] = histogram.getPercentile(90);
+            stats[WeatherContract.StatsEntry.STATS_COL_P99] = histogram.getPercentile(99);
+            addStatsRow(cursor, columns, stats);
+        }
+        return cursor;
+    }
+
+    private static void addStatsRow(MatrixCursor cursor, int[] columns, Object[] stats) {
+        Object[] row = new Object[columns.length];
+        for (int i = 0; i < columns.length; i++) row[i] = stats[columns[i]];
+        cursor.addRow(row);
+    }
+
+    private static int indexOf(String[] columns, String column) {
+        for (int i = 0; i < columns.length; i++) {
+            if (columns[i].equals(column)) return i;
+        }
+        return -1;
+    }
+
+    private Cursor queryDatabase(int match, Uri uri, String[] projection, String selection,
+                                 String[] selectionArgs, String sortOrder) {
         // Here's the switch statement that, given a URI, will determine what kind of request it is,
         // and query the database accordingly.
-        Cursor retCursor;
-        switch (sUriMatcher.match(uri)) {
+        switch (match) {
             // "weather/*/*"
             case WEATHER_WITH_LOCATION_AND_DATE:
-            {
-                retCursor = getWeatherByLocationSettingAndDate(uri, projection, sortOrder);
-                break;
-            }
+                return getWeatherByLocationSettingAndDate(uri, projection, selection,
+                        selectionArgs, sortOrder);
             // "weather/*"
-            case WEATHER_WITH_LOCATION: {
-                retCursor = getWeatherByLocationSetting(uri, projection, sortOrder);
-                break;
-            }
+            case WEATHER_WITH_LOCATION:
+                return getWeatherByLocationSetting(uri, projection, selection, selectionArgs,
+                        sortOrder);
+            // "weather/*/range"
+            case WEATHER_RANGE:
+                return getWeatherByLocationSettingAndDateRange(uri, projection, selection,
+                        selectionArgs, sortOrder);
+            // "weather/*/weekly" and "weather/*/monthly"
+            case WEATHER_WEEKLY:
+            case WEATHER_MONTHLY:
+                return getRollups(match, uri, projection, selection, selectionArgs, sortOrder);
             // "weather"
-            case WEATHER: {
-                retCursor = getWeather(uri, projection, sortOrder);
-                break;
-            }
+            case WEATHER:
+                return getWeather(uri, projection, selection, selectionArgs, sortOrder);
             // "location"
-            case LOCATION: {
-                retCursor = getLocation(uri, projection, sortOrder);
-                break;
-            }
-
+            case LOCATION:
+                return getLocation(uri, projection, selection, selectionArgs, sortOrder);
+            // "location/search"
+            case LOCATION_SEARCH:
+                return getLocationSearch(uri, projection, selection, selectionArgs, sortOrder);
+            // "location/box"
+            case LOCATION_BOX:
+                return getLocationsInBox(uri, projection, selection, selectionArgs, sortOrder);
+            // "location/nearest"
+            case LOCATION_NEAREST:
+                return getNearestLocation(uri, projection, selection, selectionArgs, sortOrder);
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        retCursor.setNotificationUri(getContext().getContentResolver(), uri);
-        return retCursor;
     }
 
+    /**
+     * The location setting a cached result depends on, or null for routes that span all
+     * locations.
+     */
+    private static String getCacheTag(int match, Uri uri) {
+        switch (match) {
+            case WEATHER_WITH_LOCATION:
+            case WEATHER_WITH_LOCATION_AND_DATE:
+            case WEATHER_RANGE:
+            case WEATHER_WEEKLY:
+            case WEATHER_MONTHLY:
+                return WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
+            default:
+                return null;
+        }
+    }
+
+    /** Used by tests to check the cache's counters. */
+    ForecastCache getForecastCache() {
+        return mCache;
+    }
+
+    // location.location_setting for the locations whose weather rows match a selection
+    private static final String sLocationSettingsForWeatherQuery =
+            "SELECT " + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING +
+                    " FROM " + WeatherContract.LocationEntry.TABLE_NAME +
+                    " WHERE " + WeatherContract.LocationEntry._ID + " IN (SELECT " +
+                    WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " FROM " +
+                    WeatherContract.WeatherEntry.TABLE_NAME + " WHERE %s)";
+
+    // The same for the rows of one archive partition, named by %s; the selection goes after it.
+    private static final String sLocationSettingsForPartitionQuery =
+            "SELECT " + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING +
+                    " FROM " + WeatherContract.LocationEntry.TABLE_NAME +
+                    " WHERE " + WeatherContract.LocationEntry._ID + " IN (SELECT " +
+                    WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " FROM %s WHERE ";
+
+    private static final String sLocationSettingsForLocationQuery =
+            "SELECT " + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING +
+                    " FROM " + WeatherContract.LocationEntry.TABLE_NAME + " WHERE %s";
 
+    /**
+     * Collects the location settings a write to the given table is about to touch: the rows
+     * matching its selection plus, for inserts and updates, the rows named in its values.
+     * Must run inside the write's transaction.  Returns null when the write could touch every
+     * location.
+     */
+    private static Set<String> getAffectedLocationSettings(SQLiteDatabase db, int match,
+                                                           String selection,
+                                                           String[] selectionArgs,
+                                                           ContentValues... values) {
+        if (match != WEATHER && match != LOCATION) return null;
+
+        Set<String> settings = new HashSet<>();
+        if (selection != null) {
+            addLocationSettings(db, String.format(match == WEATHER
+                    ? sLocationSettingsForWeatherQuery
+                    : sLocationSettingsForLocationQuery, selection), selectionArgs, settings);
+        }
+
+        Set<Long> locationIds = new HashSet<>();
+        for (ContentValues value : values) {
+            if (value == null) continue;
+            if (match == LOCATION) {
+                String setting = value.getAsString(
+                        WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+                if (setting != null) settings.add(setting);
+                else if (selection == null) return null;
+            } else {
+                Long locationId = value.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+                if (locationId != null) locationIds.add(locationId);
+                else if (selection == null) return null;
+            }
+        }
+
+        String byId = String.format(sLocationSettingsForLocationQuery,
+                WeatherContract.LocationEntry._ID + " = ?");
+        for (Long locationId : locationIds) {
+            addLocationSettings(db, byId, new String[]{Long.toString(locationId)}, settings);
+        }
+        return settings;
+    }
+
+    /**
+     * Every table holding weather rows, the archive partitions oldest first and then the
+     * weather table, for a write on the weather URI to run against.  The locations whose
+     * archived rows match the selection are added to those the write affects, unless that's
+     * every location already.
+     */
+    private List<String> getWeatherTables(SQLiteDatabase db, Set<String> affected,
+                                          String selection, String[] selectionArgs) {
+        List<String> tables = mPartitions.getTables(db, 0, Long.MAX_VALUE);
+        if (affected != null) {
+            for (String table : tables) {
+                addLocationSettings(db, String.format(sLocationSettingsForPartitionQuery, table)
+                        + selection + ")", selectionArgs, affected);
+            }
+        }
+        tables.add(WeatherContract.WeatherEntry.TABLE_NAME);
+        return tables;
+    }
+
+    private static List<Long> readLocationIds(SQLiteDatabase db, String where, String[] args) {
+        Cursor cursor = db.rawQuery("SELECT " + WeatherContract.LocationEntry._ID + " FROM " +
+                WeatherContract.LocationEntry.TABLE_NAME + " WHERE " + where, args);
+        List<Long> ids = new ArrayList<>();
+        try {
+            while (cursor.moveToNext()) ids.add(cursor.getLong(0));
+        } finally {
+            cursor.close();
+        }
+        return ids;
+    }
+
+    private static void addLocationSettings(SQLiteDatabase db, String sql, String[] args,
+                                            Set<String> settings) {
+        Cursor cursor = db.rawQuery(sql, args);
+        try {
+            while (cursor.moveToNext()) settings.add(cursor.getString(0));
+        } finally {
+            cursor.close();
+        }
+    }
 
     /*
         Student: Add the ability to insert Locations to the implementation of this function.
+
+        Every write runs in a transaction that also reads the database change counter before
+        and after, and collects the location settings it touches, so the result cache can drop
+        exactly the entries the write made stale.  The database is no longer closed after each
+        write: that threw away SQLite's prepared statements and pulled the connection out from
+        under concurrent readers.
      */
     @Override
     public Uri insert(Uri uri, ContentValues values) {
-        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        QueryProfiler.Call call = beginWrite("insert", uri, null, null);
+        try {
+            Uri returnUri = insertRow(uri, values);
+            if (call != null) call.setRows(1);
+            return returnUri;
+        } finally {
+            mProfiler.end(call, mOpenHelper);
+        }
+    }
+
+    private Uri insertRow(Uri uri, ContentValues values) {
+        final SQLiteDatabase db = getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         Uri returnUri;
+        Set<String> affected;
+        long before, after;
 
-        switch (match) {
-            case WEATHER: {
-                normalizeDate(values);
-                long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
-                if ( _id > 0 )
-                    returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
-                else
-                    throw new android.database.SQLException("Failed to insert row into " + uri);
-                break;
-            }
+        long start = System.nanoTime();
+        boolean committed = false;
+        db.beginTransaction();
+        try {
+            before = WeatherDbHelper.readChangeCounter(db);
+            affected = getAffectedLocationSettings(db, match, null, null, values);
+            switch (match) {
+                case WEATHER: {
+                    normalizeDate(values);
+                    long _id = db.insert(getTableForInsert(db, values), null, values);
+                    if ( _id > 0 )
+                        returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
+                    else
+                        throw new android.database.SQLException("Failed to insert row into " + uri);
+                    WeatherRollups rollups = new WeatherRollups();
+                    rollups.addValues(values);
+                    rollups.apply(db, mPartitions);
+                    break;
+                }
 
-            case LOCATION: {
-                long id = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
-                if (id > 0)
-                    returnUri = WeatherContract.LocationEntry.buildLocationUri(id);
-                else
-                    throw new android.database.SQLException("Failed to insert row into " + uri);
-                break;
+                case LOCATION: {
+                    putGeohash(values);
+                    long id = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
+                    if (id > 0)
+                        returnUri = WeatherContract.LocationEntry.buildLocationUri(id);
+                    else
+                        throw new android.database.SQLException("Failed to insert row into " + uri);
+                    break;
+                }
+                default:
+                    throw new UnsupportedOperationException("Unknown uri: " + uri);
             }
-            default:
-                throw new UnsupportedOperationException("Unknown uri: " + uri);
+            after = WeatherDbHelper.readChangeCounter(db);
+            db.setTransactionSuccessful();
+            committed = true;
+        } finally {
+            db.endTransaction();
+            if (!committed) mPartitions.onRollback();
+            Metrics.DB_TRANSACTION.recordElapsed(start);
         }
-        getContext().getContentResolver().notifyChange(uri, null);
-        db.close();
+        mCache.onWrite(affected, before, after);
+        Metrics.DB_ROWS_WRITTEN.increment();
+
+        notifyChange(uri);
         return returnUri;
     }
 
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
+        QueryProfiler.Call call = beginWrite("delete", uri, selection, selectionArgs);
+        try {
+            int deletedRowCount = deleteRows(uri, selection, selectionArgs);
+            if (call != null) call.setRows(deletedRowCount);
+            return deletedRowCount;
+        } finally {
+            mProfiler.end(call, mOpenHelper);
+        }
+    }
+
+    private int deleteRows(Uri uri, String selection, String[] selectionArgs) {
         // Student: Start by getting a writable database
-        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        final SQLiteDatabase db = getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         int deletedRowCount;
+        Set<String> affected;
+        long before, after;
 
-        if (selection == null) selection = "1";
+        // A null selection deletes every row, so it touches every location.
+        final String whereClause = selection == null ? "1" : selection;
 
-        // Student: Use the uriMatcher to match the WEATHER and LOCATION URI's we are going to
-        // handle.  If it doesn't match these, throw an UnsupportedOperationException
-        switch (match) {
-            case WEATHER :  {
-                deletedRowCount = db.delete(WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
-                break;
-            }
-            case LOCATION : {
-                deletedRowCount = db.delete(WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
-                break;
+        long start = System.nanoTime();
+        boolean committed = false;
+        db.beginTransaction();
+        try {
+            before = WeatherDbHelper.readChangeCounter(db);
+            affected = selection == null ? null
+                    : getAffectedLocationSettings(db, match, selection, selectionArgs);
+
+            // Student: Use the uriMatcher to match the WEATHER and LOCATION URI's we are going to
+            // handle.  If it doesn't match these, throw an UnsupportedOperationException
+            switch (match) {
+                case WEATHER :  {
+                    // Deleting everything drops the archive; a selection is run against each
+                    // of its partitions as well as the weather table.
+                    WeatherRollups rollups = new WeatherRollups();
+                    if (selection == null) {
+                        rollups.clear();
+                        deletedRowCount = db.delete(WeatherContract.WeatherEntry.TABLE_NAME,
+                                whereClause, selectionArgs);
+                        deletedRowCount += mPartitions.deleteAll(db);
+                    } else {
+                        deletedRowCount = 0;
+                        for (String table : getWeatherTables(db, affected, selection,
+                                selectionArgs)) {
+                            rollups.addMatchingDays(db, table, selection, selectionArgs, null);
+                            deletedRowCount += db.delete(table, selection, selectionArgs);
+                        }
+                    }
+                    rollups.apply(db, mPartitions);
+                    break;
+                }
+                case LOCATION : {
+                    deletedRowCount = db.delete(WeatherContract.LocationEntry.TABLE_NAME, whereClause, selectionArgs);
+                    break;
+                }
+                default:
+                    throw new UnsupportedOperationException("Unknown uri: " + uri);
             }
-            default:
-                throw new UnsupportedOperationException("Unknown uri: " + uri);
+            after = WeatherDbHelper.readChangeCounter(db);
+            db.setTransactionSuccessful();
+            committed = true;
+        } finally {
+            db.endTransaction();
+            if (!committed) mPartitions.onRollback();
+            Metrics.DB_TRANSACTION.recordElapsed(start);
         }
+        mCache.onWrite(affected, before, after);
+        Metrics.DB_ROWS_WRITTEN.add(deletedRowCount);
 
         // Student: A null value deletes all rows.  In my implementation of this, I only notified
         // the uri listeners (using the content resolver) if the rowsDeleted != 0 or the selection
         // is null.
         // Oh, and you should notify the listeners here.
         if (deletedRowCount != 0 || selectionArgs == null)
-            getContext().getContentResolver().notifyChange(uri, null);
-
-        db.close();
+            notifyChange(uri);
 
         // Student: return the actual rows deleted
         return deletedRowCount;
@@ -325,31 +1311,85 @@ public class WeatherProvider extends ContentProvider {
     @Override
     public int update(
             Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        QueryProfiler.Call call = beginWrite("update", uri, selection, selectionArgs);
+        try {
+            int updatedRowCount = updateRows(uri, values, selection, selectionArgs);
+            if (call != null) call.setRows(updatedRowCount);
+            return updatedRowCount;
+        } finally {
+            mProfiler.end(call, mOpenHelper);
+        }
+    }
+
+    private int updateRows(
+            Uri uri, ContentValues values, String selection, String[] selectionArgs) {
         // Student: This is a lot like the delete function.  We return the number of rows impacted
         // by the update.
-        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        SQLiteDatabase db = getWritableDatabase();
         int match = sUriMatcher.match(uri);
         int updatedRowCount;
+        Set<String> affected;
+        long before, after;
 
-        if (selection == null) selection = "1";
+        final String whereClause = selection == null ? "1" : selection;
 
-        switch (match) {
-            case WEATHER : {
-                updatedRowCount = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values, selection,  selectionArgs);
-                break;
-            }
-            case LOCATION : {
-                updatedRowCount = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection,  selectionArgs);
-                break;
+        long start = System.nanoTime();
+        boolean committed = false;
+        db.beginTransaction();
+        try {
+            before = WeatherDbHelper.readChangeCounter(db);
+            affected = selection == null ? null
+                    : getAffectedLocationSettings(db, match, selection, selectionArgs, values);
+            switch (match) {
+                case WEATHER : {
+                    // Archived days are updated in their partitions.  A row can't change tables,
+                    // so a new date has to be in the same one as the old.
+                    Long date = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+                    String dateTable = date == null ? null : mPartitions.getTable(db, date);
+                    WeatherRollups rollups = new WeatherRollups();
+                    updatedRowCount = 0;
+                    for (String table : getWeatherTables(db, affected, selection,
+                            selectionArgs)) {
+                        rollups.addMatchingDays(db, table, selection, selectionArgs, values);
+                        int updated = db.update(table, values, whereClause, selectionArgs);
+                        if (updated > 0 && dateTable != null && !dateTable.equals(table)) {
+                            throw new IllegalArgumentException(
+                                    "Days can't be moved into or out of the archive: " + uri);
+                        }
+                        updatedRowCount += updated;
+                    }
+                    rollups.apply(db, mPartitions);
+                    break;
+                }
+                case LOCATION : {
+                    // Read which rows are moving first: the selection may be on the old
+                    // coordinates.
+                    List<Long> moved = null;
+                    if (!putGeohash(values) && (values.containsKey(
+                            WeatherContract.LocationEntry.COLUMN_COORD_LAT) || values.containsKey(
+                            WeatherContract.LocationEntry.COLUMN_COORD_LONG))) {
+                        moved = readLocationIds(db, whereClause, selectionArgs);
+                    }
+                    updatedRowCount = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, whereClause,  selectionArgs);
+                    if (moved != null) updateGeohashes(db, moved);
+                    break;
+                }
+                default:
+                    throw new UnsupportedOperationException("Unknown uri: " + uri);
             }
-            default:
-                throw new UnsupportedOperationException("Unknown uri: " + uri);
+            after = WeatherDbHelper.readChangeCounter(db);
+            db.setTransactionSuccessful();
+            committed = true;
+        } finally {
+            db.endTransaction();
+            if (!committed) mPartitions.onRollback();
+            Metrics.DB_TRANSACTION.recordElapsed(start);
         }
+        mCache.onWrite(affected, before, after);
+        Metrics.DB_ROWS_WRITTEN.add(updatedRowCount);
 
         if (updatedRowCount != 0 || selectionArgs == null)
-            getContext().getContentResolver().notifyChange(uri, null);
-
-        db.close();
+            notifyChange(uri);
 
         // Student: return the actual rows updated
         return updatedRowCount;
@@ -358,37 +1398,307 @@ public class WeatherProvider extends ContentProvider {
 
     @Override
     public int bulkInsert(Uri uri, ContentValues[] values) {
-        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        QueryProfiler.Call call = beginWrite("bulkInsert", uri, null, null);
+        try {
+            int returnCount = bulkInsertRows(uri, values);
+            if (call != null) call.setRows(returnCount);
+            return returnCount;
+        } finally {
+            mProfiler.end(call, mOpenHelper);
+        }
+    }
+
+    private int bulkInsertRows(Uri uri, ContentValues[] values) {
+        final SQLiteDatabase db = getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case WEATHER:
+                Set<String> affected;
+                long before, after;
+                long start = System.nanoTime();
+                boolean committed = false;
                 db.beginTransaction();
                 int returnCount = 0;
                 try {
+                    before = WeatherDbHelper.readChangeCounter(db);
+                    affected = getAffectedLocationSettings(db, match, null, null, values);
+                    WeatherRollups rollups = new WeatherRollups();
                     for (ContentValues value : values) {
                         normalizeDate(value);
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
+                        long _id = db.insert(getTableForInsert(db, value), null, value);
                         if (_id != -1) {
                             returnCount++;
+                            rollups.addValues(value);
                         }
                     }
+                    rollups.apply(db, mPartitions);
+                    after = WeatherDbHelper.readChangeCounter(db);
                     db.setTransactionSuccessful();
+                    committed = true;
                 } finally {
                     db.endTransaction();
+                    if (!committed) mPartitions.onRollback();
+                    Metrics.DB_TRANSACTION.recordElapsed(start);
                 }
-                getContext().getContentResolver().notifyChange(uri, null);
+                mCache.onWrite(affected, before, after);
+                Metrics.DB_ROWS_WRITTEN.add(returnCount);
+                notifyChange(uri);
                 return returnCount;
             default:
                 return super.bulkInsert(uri, values);
         }
     }
 
+    private static final String sInsertWeatherSql =
+            getInsertWeatherSql(WeatherContract.WeatherEntry.TABLE_NAME);
+
+    private static String getInsertWeatherSql(String table) {
+        return "INSERT INTO " + table + " (" +
+                WeatherContract.WeatherEntry.COLUMN_LOC_KEY + ", " +
+                WeatherContract.WeatherEntry.COLUMN_DATE + ", " +
+                WeatherContract.WeatherEntry.COLUMN_SHORT_DESC + ", " +
+                WeatherContract.WeatherEntry.COLUMN_WEATHER_ID + ", " +
+                WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + ", " +
+                WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + ", " +
+                WeatherContract.WeatherEntry.COLUMN_HUMIDITY + ", " +
+                WeatherContract.WeatherEntry.COLUMN_PRESSURE + ", " +
+                WeatherContract.WeatherEntry.COLUMN_WIND_SPEED + ", " +
+                WeatherContract.WeatherEntry.COLUMN_DEGREES +
+                ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    }
+
+    // The table a row of weather values goes into: the weather table, or for a day before the
+    // archive cutoff, its month's partition.
+    private String getTableForInsert(SQLiteDatabase db, ContentValues values) {
+        Long date = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+        return date == null ? WeatherContract.WeatherEntry.TABLE_NAME
+                : mPartitions.getTableForInsert(db, date);
+    }
+
+    /**
+     * The same as a bulkInsert into the weather table, for callers in this process that hold
+     * their forecast as a ForecastBatch.  Each day is bound straight from the batch's primitive
+     * columns into one compiled statement, with no ContentValues in between.
+     * <p/>
+     * The deadline is checked before each row and once more before committing.  If it runs
+     * out the transaction is rolled back, so readers never see half a forecast.
+     *
+     * @return the number of rows inserted
+     * @throws Deadline.ExpiredException if the deadline ran out; nothing was written
+     */
+    public int bulkInsert(ForecastBatch batch, Deadline deadline)
+            throws Deadline.ExpiredException {
+        QueryProfiler.Call call = beginWrite("bulkInsert", WeatherContract.WeatherEntry.CONTENT_URI,
+                null, null);
+        try {
+            int returnCount = insertBatch(batch, deadline);
+            if (call != null) call.setRows(returnCount);
+            return returnCount;
+        } finally {
+            mProfiler.end(call, mOpenHelper);
+        }
+    }
+
+    private int insertBatch(ForecastBatch batch, Deadline deadline)
+            throws Deadline.ExpiredException {
+        deadline.check(Deadline.STAGE_WRITE);
+        final SQLiteDatabase db = getWritableDatabase();
+        Set<String> affected = new HashSet<>();
+        long before, after;
+        int returnCount = 0;
+
+        long start = System.nanoTime();
+        boolean committed = false;
+        db.beginTransaction();
+        SQLiteStatement live = db.compileStatement(sInsertWeatherSql);
+        // Days before the archive cutoff, each partition with a statement of its own.
+        Map<String, SQLiteStatement> archived = new HashMap<>();
+        try {
+            before = WeatherDbHelper.readChangeCounter(db);
+            addLocationSettings(db, String.format(sLocationSettingsForLocationQuery,
+                    WeatherContract.LocationEntry._ID + " = ?"),
+                    new String[]{Long.toString(batch.getLocationId())}, affected);
+
+            WeatherRollups rollups = new WeatherRollups();
+            for (int day = 0; day < batch.size(); day++) {
+                deadline.check(Deadline.STAGE_WRITE);
+                long date = WeatherContract.normalizeDate(batch.getDate(day));
+                String table = mPartitions.getTableForInsert(db, date);
+                SQLiteStatement insert = live;
+                if (!table.equals(WeatherContract.WeatherEntry.TABLE_NAME)) {
+                    insert = archived.get(table);
+                    if (insert == null) {
+                        insert = db.compileStatement(getInsertWeatherSql(table));
+                        archived.put(table, insert);
+                    }
+                }
+                insert.bindLong(1, batch.getLocationId());
+                insert.bindLong(2, date);
+                insert.bindString(3, batch.getDescription(day));
+                insert.bindLong(4, batch.getWeatherId(day));
+                insert.bindDouble(5, batch.getMinTemp(day));
+                insert.bindDouble(6, batch.getMaxTemp(day));
+                insert.bindDouble(7, batch.getHumidity(day));
+                insert.bindDouble(8, batch.getPressure(day));
+                insert.bindDouble(9, batch.getWindSpeed(day));
+                insert.bindDouble(10, batch.getDegrees(day));
+                if (insert.executeInsert() != -1) {
+                    returnCount++;
+                    rollups.addDay(batch.getLocationId(), date);
+                }
+            }
+            rollups.apply(db, mPartitions);
+            after = WeatherDbHelper.readChangeCounter(db);
+            deadline.check(Deadline.STAGE_WRITE);
+            db.setTransactionSuccessful();
+            committed = true;
+        } finally {
+            live.close();
+            for (SQLiteStatement insert : archived.values()) insert.close();
+            db.endTransaction();
+            if (!committed) mPartitions.onRollback();
+            Metrics.DB_TRANSACTION.recordElapsed(start);
+        }
+        mCache.onWrite(affected, before, after);
+        Metrics.DB_ROWS_WRITTEN.add(returnCount);
+        notifyChange(WeatherContract.WeatherEntry.CONTENT_URI);
+        return returnCount;
+    }
+
+    /**
+     * Moves the days of every month before the one the date is in into the archive, a table
+     * per month, leaving the weather table with just the recent days.  Archived days are still
+     * read through the same location, day and range URIs.
+     */
+    public void archiveBefore(long date) {
+        runArchiveWrite(date, false);
+    }
+
+    /**
+     * Drops the archived days of every month before the one the date is in, a DROP TABLE per
+     * month however many days it holds.  The weekly and monthly rollups of those months stay.
+     *
+     * @return the number of months dropped
+     */
+    public int dropArchiveBefore(long date) {
+        return runArchiveWrite(date, true);
+    }
+
+    private int runArchiveWrite(long date, boolean drop) {
+        final SQLiteDatabase db = getWritableDatabase();
+        int dropped = 0;
+        long before, after;
+
+        long start = System.nanoTime();
+        boolean committed = false;
+        db.beginTransaction();
+        try {
+            before = WeatherDbHelper.readChangeCounter(db);
+            if (drop) {
+                dropped = mPartitions.dropBefore(db, date);
+                // Dropping a table fires no triggers, so move the counter by hand.
+                if (dropped > 0) WeatherDbHelper.bumpChangeCounter(db);
+            } else {
+                mPartitions.archiveBefore(db, date);
+            }
+            after = WeatherDbHelper.readChangeCounter(db);
+            db.setTransactionSuccessful();
+            committed = true;
+        } finally {
+            db.endTransaction();
+            if (!committed) mPartitions.onRollback();
+            Metrics.DB_TRANSACTION.recordElapsed(start);
+        }
+        // Either way the table that answers for a month has changed, for every location.
+        mCache.onWrite(null, before, after);
+        if (after != before) notifyChange(WeatherContract.WeatherEntry.CONTENT_URI);
+        return dropped;
+    }
+
+    /**
+     * Starts profiling a write, if the profiler is on.  The statement recorded stands for the
+     * one SQLiteDatabase builds, and a delete or update is explained through a SELECT of the
+     * rows it would touch.
+     */
+    private QueryProfiler.Call beginWrite(String operation, Uri uri, String selection,
+                                          String[] selectionArgs) {
+        if (!mProfiler.isEnabled()) return null;
+        int match = sUriMatcher.match(uri);
+        QueryProfiler.Call call = mProfiler.begin(operation, getRouteName(match));
+
+        String table = match == LOCATION ? WeatherContract.LocationEntry.TABLE_NAME
+                : WeatherContract.WeatherEntry.TABLE_NAME;
+        String where = " WHERE " + (selection == null ? "1" : selection);
+        String planSql = "SELECT rowid FROM " + table + where;
+        switch (operation) {
+            case "delete":
+                call.setStatement("DELETE FROM " + table + where, selectionArgs, planSql);
+                break;
+            case "update":
+                call.setStatement("UPDATE " + table + " SET ..." + where, selectionArgs, planSql);
+                break;
+            default:
+                call.setStatement(match == WEATHER ? sInsertWeatherSql
+                        : "INSERT INTO " + table, null, null);
+        }
+        return call;
+    }
+
+    /** The UriMatcher pattern of a route, for the profiler. */
+    private static String getRouteName(int match) {
+        switch (match) {
+            case WEATHER:
+                return WeatherContract.PATH_WEATHER;
+            case WEATHER_WITH_LOCATION:
+                return WeatherContract.PATH_WEATHER + "/*";
+            case WEATHER_WITH_LOCATION_AND_DATE:
+                return WeatherContract.PATH_WEATHER + "/*/#";
+            case WEATHER_RANGE:
+                return WeatherContract.PATH_WEATHER + "/*/" + WeatherContract.PATH_RANGE;
+            case WEATHER_WEEKLY:
+                return WeatherContract.PATH_WEATHER + "/*/" + WeatherContract.PATH_WEEKLY;
+            case WEATHER_MONTHLY:
+                return WeatherContract.PATH_WEATHER + "/*/" + WeatherContract.PATH_MONTHLY;
+            case LOCATION:
+                return WeatherContract.PATH_LOCATION;
+            case LOCATION_SEARCH:
+                return WeatherContract.PATH_LOCATION + "/" + WeatherContract.PATH_SEARCH;
+            case LOCATION_BOX:
+                return WeatherContract.PATH_LOCATION + "/" + WeatherContract.PATH_BOX;
+            case LOCATION_NEAREST:
+                return WeatherContract.PATH_LOCATION + "/" + WeatherContract.PATH_NEAREST;
+            default:
+                return "unknown";
+        }
+    }
+
+    /** Used by tests to switch on and read the profiler. */
+    QueryProfiler getProfiler() {
+        return mProfiler;
+    }
+
+    /** Dumps the profiler's slow calls, for "adb shell dumpsys activity provider". */
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        mProfiler.dump(writer);
+    }
+
+    // Timed and counted, since observers are called back from inside it.
+    private void notifyChange(Uri uri) {
+        long start = System.nanoTime();
+        getContext().getContentResolver().notifyChange(uri, null);
+        Metrics.PROVIDER_NOTIFY.recordElapsed(start);
+        Metrics.PROVIDER_NOTIFICATIONS.increment();
+    }
+
     // You do not need to call this method. This is a method specifically to assist the testing
     // framework in running smoothly. You can read more at:
     // http://developer.android.com/reference/android/content/ContentProvider.html#shutdown()
     @Override
     @TargetApi(11)
     public void shutdown() {
+        awaitWarmup();
+        mCache.invalidateAll();
         mOpenHelper.close();
         super.shutdown();
     }
@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.sunshine.app.data.WeatherContract.RollupEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps the weekly and monthly rollup tables in step with one write to the weather table.
+ *
+ * The write notes the days it touches: those of the rows it adds, and, before it runs, those
+ * of the rows it changes, moves or deletes.  {@link #apply} then rebuilds just the weeks and
+ * months those days fall in, each from its own few rows of the (location_id, date) index,
+ * inside the write's transaction.  A fourteen day refresh rebuilds three weeks and two months
+ * at most, however long the history is.
+ *
+ * Rebuilding a period, rather than adding the new row to its totals, keeps the minimum and
+ * maximum right when a day is replaced or deleted, at the cost of reading at most a month of
+ * rows.  Writes that go around the provider don't update the rollups.
+ *
+ * A period before the archive cutoff is rebuilt from the partitions it spans, and the weather
+ * table if it reaches past the cutoff.  A period whose partition has been dropped keeps its
+ * rollup until a write touches it again.
+ *
+ * One instance per write; not thread safe.
+ */
+final class WeatherRollups {
+
+    private static final String sDaysSql =
+            "SELECT " + WeatherEntry.COLUMN_LOC_KEY + ", " + WeatherEntry.COLUMN_DATE +
+                    " FROM ";
+
+    // The columns of a rollup row, worked out from the weather rows of one period in the
+    // table or subquery that replaces %s.
+    private static final String sSummarySql =
+            " SELECT " + WeatherEntry.COLUMN_LOC_KEY + ", ?, count(*), " +
+                    "min(" + WeatherEntry.COLUMN_MIN_TEMP + "), " +
+                    "max(" + WeatherEntry.COLUMN_MAX_TEMP + "), " +
+                    "avg((" + WeatherEntry.COLUMN_MIN_TEMP + " + " +
+                    WeatherEntry.COLUMN_MAX_TEMP + ") / 2), " +
+                    "min(" + WeatherEntry.COLUMN_HUMIDITY + "), " +
+                    "max(" + WeatherEntry.COLUMN_HUMIDITY + "), " +
+                    "avg(" + WeatherEntry.COLUMN_HUMIDITY + "), " +
+                    "min(" + WeatherEntry.COLUMN_WIND_SPEED + "), " +
+                    "max(" + WeatherEntry.COLUMN_WIND_SPEED + "), " +
+                    "avg(" + WeatherEntry.COLUMN_WIND_SPEED + ")" +
+                    " FROM %s" +
+                    " WHERE " + WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    WeatherEntry.COLUMN_DATE + " >= ? AND " + WeatherEntry.COLUMN_DATE + " < ?" +
+                    // Grouped, so that a period with no days left gives no row at all.
+                    " GROUP BY " + WeatherEntry.COLUMN_LOC_KEY;
+
+    private static final String sInsertColumns = " (" +
+            RollupEntry.COLUMN_LOC_KEY + ", " +
+            RollupEntry.COLUMN_PERIOD_START + ", " +
+            RollupEntry.COLUMN_DAYS + ", " +
+            RollupEntry.COLUMN_MIN_TEMP + ", " +
+            RollupEntry.COLUMN_MAX_TEMP + ", " +
+            RollupEntry.COLUMN_MEAN_TEMP + ", " +
+            RollupEntry.COLUMN_MIN_HUMIDITY + ", " +
+            RollupEntry.COLUMN_MAX_HUMIDITY + ", " +
+            RollupEntry.COLUMN_MEAN_HUMIDITY + ", " +
+            RollupEntry.COLUMN_MIN_WIND_SPEED + ", " +
+            RollupEntry.COLUMN_MAX_WIND_SPEED + ", " +
+            RollupEntry.COLUMN_MEAN_WIND_SPEED + ")";
+
+    // location id -> the starts of the periods of that location to rebuild
+    private final Map<Long, Set<Long>> mWeeks = new HashMap<>();
+    private final Map<Long, Set<Long>> mMonths = new HashMap<>();
+    private boolean mClear;
+
+    /** Notes a day that the write adds, replaces, changes or deletes. */
+    void addDay(long locationId, long date) {
+        add(mWeeks, locationId, WeatherContract.getStartOfWeek(date));
+        add(mMonths, locationId, WeatherContract.getStartOfMonth(date));
+    }
+
+    /** Notes the day of a row about to be inserted from the given values. */
+    void addValues(ContentValues values) {
+        Long locationId = values.getAsLong(WeatherEntry.COLUMN_LOC_KEY);
+        Long date = values.getAsLong(WeatherEntry.COLUMN_DATE);
+        // Without either the insert fails on its NOT NULL constraint, and changes nothing.
+        if (locationId != null && date != null) addDay(locationId, date);
+    }
+
+    /**
+     * Notes the days of the weather rows matching a selection, which a delete or update is
+     * about to touch, so must run before it.  For an update, {@code values} moves each row to
+     * the location and date it sets, and those days are noted too.
+     *
+     * @param table     the weather table or one of its partitions
+     * @param selection a selection on that table, or null for every row
+     * @param values    the update's values, or null for a delete
+     */
+    void addMatchingDays(SQLiteDatabase db, String table, String selection,
+                         String[] selectionArgs, ContentValues values) {
+        Long newLocationId = values == null ? null
+                : values.getAsLong(WeatherEntry.COLUMN_LOC_KEY);
+        Long newDate = values == null ? null : values.getAsLong(WeatherEntry.COLUMN_DATE);
+
+        Cursor cursor = db.rawQuery(selection == null ? sDaysSql + table
+                : sDaysSql + table + " WHERE " + selection, selectionArgs);
+        try {
+            while (cursor.moveToNext()) {
+                long locationId = cursor.getLong(0);
+                long date = cursor.getLong(1);
+                addDay(locationId, date);
+                if (newLocationId != null || newDate != null) {
+                    addDay(newLocationId != null ? newLocationId : locationId,
+                            newDate != null ? newDate : date);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /** Notes that the write empties the weather table, so every rollup goes. */
+    void clear() {
+        mClear = true;
+    }
+
+    /** Rebuilds the noted periods.  Must run inside the write's transaction, after it. */
+    void apply(SQLiteDatabase db, WeatherPartitions partitions) {
+        if (mClear) {
+            db.delete(RollupEntry.WEEKLY_TABLE_NAME, null, null);
+            db.delete(RollupEntry.MONTHLY_TABLE_NAME, null, null);
+        }
+        rebuild(db, partitions, RollupEntry.WEEKLY_TABLE_NAME, mWeeks, false);
+        rebuild(db, partitions, RollupEntry.MONTHLY_TABLE_NAME, mMonths, true);
+    }
+
+    private static void rebuild(SQLiteDatabase db, WeatherPartitions partitions, String table,
+                                Map<Long, Set<Long>> periods, boolean monthly) {
+        if (periods.isEmpty()) return;
+        String insertSql = "INSERT INTO " + table + sInsertColumns + sSummarySql;
+        SQLiteStatement delete = db.compileStatement("DELETE FROM " + table + " WHERE " +
+                RollupEntry.COLUMN_LOC_KEY + " = ? AND " + RollupEntry.COLUMN_PERIOD_START +
+                " = ?");
+        SQLiteStatement insert = db.compileStatement(
+                String.format(insertSql, WeatherEntry.TABLE_NAME));
+        try {
+            for (Map.Entry<Long, Set<Long>> location : periods.entrySet()) {
+                long locationId = location.getKey();
+                for (long start : location.getValue()) {
+                    long end = monthly ? WeatherContract.getStartOfNextMonth(start)
+                            : WeatherContract.getStartOfNextWeek(start);
+                    delete.bindLong(1, locationId);
+                    delete.bindLong(2, start);
+                    delete.execute();
+
+                    String source = partitions.getSource(db, start, end);
+                    if (source == null) continue;
+                    if (source.equals(WeatherEntry.TABLE_NAME)) {
+                        insert(insert, locationId, start, end);
+                    } else {
+                        // An archived period, rare enough to build its statement each time.
+                        SQLiteStatement archived = db.compileStatement(
+                                String.format(insertSql, source));
+                        try {
+                            insert(archived, locationId, start, end);
+                        } finally {
+                            archived.close();
+                        }
+                    }
+                }
+            }
+        } finally {
+            delete.close();
+            insert.close();
+        }
+    }
+
+    private static void insert(SQLiteStatement insert, long locationId, long start, long end) {
+        insert.bindLong(1, start);
+        insert.bindLong(2, locationId);
+        insert.bindLong(3, start);
+        insert.bindLong(4, end);
+        insert.executeInsert();
+    }
+
+    private static void add(Map<Long, Set<Long>> periods, long locationId, long start) {
+        Set<Long> starts = periods.get(locationId);
+        if (starts == null) {
+            starts = new HashSet<>();
+            periods.put(locationId, starts);
+        }
+        starts.add(start);
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts values into fixed buckets on a 1-2-5 scale, from 1 up to 100 million, with one more
+ * bucket for anything larger.  Latencies are recorded in microseconds, so that covers 1us to
+ * 100s.  Recording is a binary search and two atomic adds, striped by thread like
+ * {@link StripedCounter}; percentiles are read back as the upper bound of their bucket.
+ */
+public class Histogram {
+
+    static final long[] BUCKET_BOUNDS = createBounds();
+
+    // Each stripe's row holds the bucket counts, then the sum and the max of its values.
+    private static final int SUM = BUCKET_BOUNDS.length + 1;
+    private static final int MAX = SUM + 1;
+    // Rows are rounded up to whole cache lines, so one stripe's cells never sit on a line in
+    // the middle of another's.
+    static final int ROW = (MAX + StripedCounter.PADDING) / StripedCounter.PADDING
+            * StripedCounter.PADDING;
+
+    private final String mName;
+    private final AtomicLongArray mCells = new AtomicLongArray(StripedCounter.STRIPES * ROW);
+
+    Histogram(String name) {
+        mName = name;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public void record(long value) {
+        int bucket = Arrays.binarySearch(BUCKET_BOUNDS, value);
+        if (bucket < 0) bucket = -bucket - 1;
+
+        int row = StripedCounter.stripe() * ROW;
+        mCells.incrementAndGet(row + bucket);
+        mCells.addAndGet(row + SUM, value);
+        // Only this stripe's threads race for its max, which is rarely more than one.
+        long max;
+        while (value > (max = mCells.get(row + MAX))) {
+            if (mCells.compareAndSet(row + MAX, max, value)) break;
+        }
+    }
+
+    /** Records the microseconds since startNanos, a System.nanoTime() reading. */
+    public void recordElapsed(long startNanos) {
+        record((System.nanoTime() - startNanos) / 1000);
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (int bucket = 0; bucket <= BUCKET_BOUNDS.length; bucket++) {
+            count += getBucketCount(bucket);
+        }
+        return count;
+    }
+
+    public long getSum() {
+        return sumColumn(SUM);
+    }
+
+    public long getMax() {
+        long max = 0;
+        for (int stripe = 0; stripe < StripedCounter.STRIPES; stripe++) {
+            max = Math.max(max, mCells.get(stripe * ROW + MAX));
+        }
+        return max;
+    }
+
+    /**
+     * The upper bound of the bucket holding the given percentile, or the largest value seen if
+     * that's smaller.  0 while nothing has been recorded.
+     */
+    public long getPercentile(double percentile) {
+        long[] counts = new long[BUCKET_BOUNDS.length + 1];
+        long total = 0;
+        for (int bucket = 0; bucket < counts.length; bucket++) {
+            counts[bucket] = getBucketCount(bucket);
+            total += counts[bucket];
+        }
+        if (total == 0) return 0;
+
+        long rank = (long) Math.ceil(total * percentile / 100);
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKET_BOUNDS.length; bucket++) {
+            seen += counts[bucket];
+            if (seen >= rank) return Math.min(BUCKET_BOUNDS[bucket], getMax());
+        }
+        return getMax();
+    }
+
+    private long getBucketCount(int bucket) {
+        return sumColumn(bucket);
+    }
+
+    private long sumColumn(int column) {
+        long sum = 0;
+        for (int stripe = 0; stripe < StripedCounter.STRIPES; stripe++) {
+            sum += mCells.get(stripe * ROW + column);
+        }
+        return sum;
+    }
+
+    void reset() {
+        for (int i = 0; i < mCells.length(); i++) mCells.set(i, 0);
+    }
+
+    private static long[] createBounds() {
+        long[] bounds = new long[25];
+        long decade = 1;
+        for (int i = 0; i < bounds.length; decade *= 10) {
+            bounds[i++] = decade;
+            if (i < bounds.length) bounds[i++] = 2 * decade;
+            if (i < bounds.length) bounds[i++] = 5 * decade;
+        }
+        return bounds;
+    }
+}
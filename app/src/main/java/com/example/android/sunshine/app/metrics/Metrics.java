@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The process-wide registry of counters and histograms for the forecast pipeline.  The
+ * pipeline's own metrics are constants here, so recording one is a field read and an atomic
+ * add with no lookup; other classes can register more by name.  WeatherProvider publishes all
+ * of them through its stats URI.
+ *
+ * Times are in microseconds, and the names say so.
+ */
+public final class Metrics {
+
+    // guarded by itself
+    private static final List<StripedCounter> sCounters = new ArrayList<>();
+    private static final List<Histogram> sHistograms = new ArrayList<>();
+
+    /** DNS lookup and TCP connect, or nothing much when a pooled connection is reused. */
+    public static final Histogram NET_CONNECT = histogram("net.connect_us");
+    /** From starting a request to its status line arriving, connecting included. */
+    public static final Histogram NET_FIRST_BYTE = histogram("net.first_byte_us");
+    /** Response bytes read, error bodies included. */
+    public static final StripedCounter NET_DOWNLOAD_BYTES = counter("net.download_bytes");
+
+    /** Turning a forecast's JSON into a ForecastBatch. */
+    public static final Histogram PIPELINE_PARSE = histogram("pipeline.parse_us");
+
+    /** Rows inserted, updated or deleted through WeatherProvider. */
+    public static final StripedCounter DB_ROWS_WRITTEN = counter("db.rows_written");
+    /** Each write transaction, from begin to end. */
+    public static final Histogram DB_TRANSACTION = histogram("db.transaction_us");
+
+    /** Change notifications sent by WeatherProvider after writes. */
+    public static final StripedCounter PROVIDER_NOTIFICATIONS = counter("provider.notifications");
+    /** Time spent handing each change notification to the observers. */
+    public static final Histogram PROVIDER_NOTIFY = histogram("provider.notify_us");
+
+    /** Single days answered from rows the forecast list already read, without SQLite. */
+    public static final StripedCounter PROVIDER_DAY_HITS = counter("provider.day_hits");
+    /** Single day queries that had to go on to the cache or the database. */
+    public static final StripedCounter PROVIDER_DAY_MISSES = counter("provider.day_misses");
+
+    private Metrics() {
+    }
+
+    /** The counter with this name, registering it the first time. */
+    public static StripedCounter counter(String name) {
+        synchronized (sCounters) {
+            for (StripedCounter counter : sCounters) {
+                if (counter.getName().equals(name)) return counter;
+            }
+            StripedCounter counter = new StripedCounter(name);
+            sCounters.add(counter);
+            return counter;
+        }
+    }
+
+    /** The histogram with this name, registering it the first time. */
+    public static Histogram histogram(String name) {
+        synchronized (sHistograms) {
+            for (Histogram histogram : sHistograms) {
+                if (histogram.getName().equals(name)) return histogram;
+            }
+            Histogram histogram = new Histogram(name);
+            sHistograms.add(histogram);
+            return histogram;
+        }
+    }
+
+    /** The registered counters, in the order they were registered. */
+    public static List<StripedCounter> getCounters() {
+        synchronized (sCounters) {
+            return new ArrayList<>(sCounters);
+        }
+    }
+
+    /** The registered histograms, in the order they were registered. */
+    public static List<Histogram> getHistograms() {
+        synchronized (sHistograms) {
+            return new ArrayList<>(sHistograms);
+        }
+    }
+
+    /** Zeroes every metric.  Meant for tests. */
+    public static void reset() {
+        for (StripedCounter counter : getCounters()) counter.reset();
+        for (Histogram histogram : getHistograms()) histogram.reset();
+    }
+}
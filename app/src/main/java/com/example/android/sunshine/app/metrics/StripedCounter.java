@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter that threads can bump without contending on one memory location.  Each thread
+ * adds into one of a few stripes picked by its id, and the stripes sit a cache line apart so
+ * that they don't share one.  Reading sums the stripes, so it's the slow side.
+ */
+public class StripedCounter {
+
+    // Both powers of two.  Eight longs are one 64 byte cache line.
+    static final int STRIPES = 8;
+    static final int PADDING = 8;
+
+    private final String mName;
+    private final AtomicLongArray mCells = new AtomicLongArray(STRIPES * PADDING);
+
+    StripedCounter(String name) {
+        mName = name;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public void increment() {
+        add(1);
+    }
+
+    public void add(long delta) {
+        mCells.addAndGet(stripe() * PADDING, delta);
+    }
+
+    public long get() {
+        long sum = 0;
+        for (int i = 0; i < STRIPES; i++) sum += mCells.get(i * PADDING);
+        return sum;
+    }
+
+    void reset() {
+        for (int i = 0; i < STRIPES; i++) mCells.set(i * PADDING, 0);
+    }
+
+    static int stripe() {
+        return (int) Thread.currentThread().getId() & (STRIPES - 1);
+    }
+}
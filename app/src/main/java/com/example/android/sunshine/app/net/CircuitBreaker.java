@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.net;
+
+import com.example.android.sunshine.app.utils.Clock;
+
+import java.util.Random;
+
+/**
+ * Tracks the failures of one endpoint and decides whether the next request may go out.
+ *
+ * While CLOSED, each consecutive failure holds requests back for an exponentially growing,
+ * jittered backoff.  After {@link #FAILURE_THRESHOLD} failures in a row the breaker OPENs and
+ * every request fails fast until the open period runs out.  It then goes HALF_OPEN and lets a
+ * single probe through: if that succeeds the breaker closes again, and if it fails the breaker
+ * reopens for twice as long.
+ */
+public class CircuitBreaker {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    static final int FAILURE_THRESHOLD = 5;
+    static final long BASE_BACKOFF_MILLIS = 5 * 1000;
+    static final long MAX_BACKOFF_MILLIS = 5 * 60 * 1000;
+    static final long BASE_OPEN_MILLIS = 60 * 1000;
+    static final long MAX_OPEN_MILLIS = 30 * 60 * 1000;
+
+    private final Clock mClock;
+    private final Random mRandom;
+
+    // guarded by this
+    private State mState = State.CLOSED;
+    private int mConsecutiveFailures;
+    private int mTimesOpened;
+    private long mRetryAt;
+    private boolean mProbeInFlight;
+    private long mRejectedCount;
+
+    public CircuitBreaker(Clock clock, Random random) {
+        mClock = clock;
+        mRandom = random;
+    }
+
+    /**
+     * Returns true if a request may be sent now.  The caller must then report how it went
+     * through {@link #onSuccess} or {@link #onFailure}.  In the HALF_OPEN state only the first
+     * caller gets through, as the probe.
+     */
+    public synchronized boolean tryAcquire() {
+        long now = mClock.currentTimeMillis();
+        if (mState == State.OPEN && now >= mRetryAt) {
+            mState = State.HALF_OPEN;
+            mProbeInFlight = false;
+        }
+        boolean allowed;
+        switch (mState) {
+            case HALF_OPEN:
+                allowed = !mProbeInFlight;
+                mProbeInFlight = true;
+                break;
+            case OPEN:
+                allowed = false;
+                break;
+            default:
+                allowed = now >= mRetryAt;
+        }
+        if (!allowed) mRejectedCount++;
+        return allowed;
+    }
+
+    /** The endpoint answered.  Closes the breaker and clears any backoff. */
+    public synchronized void onSuccess() {
+        mState = State.CLOSED;
+        mConsecutiveFailures = 0;
+        mTimesOpened = 0;
+        mRetryAt = 0;
+        mProbeInFlight = false;
+    }
+
+    /** The endpoint failed: a connection error, a timeout or a server error. */
+    public synchronized void onFailure() {
+        long now = mClock.currentTimeMillis();
+        mConsecutiveFailures++;
+        mProbeInFlight = false;
+        if (mState == State.HALF_OPEN || mConsecutiveFailures >= FAILURE_THRESHOLD) {
+            mState = State.OPEN;
+            mRetryAt = now + jitter(exponential(BASE_OPEN_MILLIS, mTimesOpened, MAX_OPEN_MILLIS));
+            mTimesOpened++;
+        } else {
+            mRetryAt = now + jitter(exponential(BASE_BACKOFF_MILLIS, mConsecutiveFailures - 1,
+                    MAX_BACKOFF_MILLIS));
+        }
+    }
+
+    public synchronized State getState() {
+        // An expired open period reads as HALF_OPEN even before the next request arrives.
+        if (mState == State.OPEN && mClock.currentTimeMillis() >= mRetryAt) {
+            return State.HALF_OPEN;
+        }
+        return mState;
+    }
+
+    /**
+     * How long until a request would be let through, 0 if one would be now.  While a half-open
+     * probe is out the answer isn't known yet, so this gives the base backoff.
+     */
+    public synchronized long getRetryAfterMillis() {
+        if (mState == State.HALF_OPEN) return mProbeInFlight ? BASE_BACKOFF_MILLIS : 0;
+        return Math.max(0, mRetryAt - mClock.currentTimeMillis());
+    }
+
+    public synchronized int getConsecutiveFailures() {
+        return mConsecutiveFailures;
+    }
+
+    /** Requests turned away by backoff or by the open breaker. */
+    public synchronized long getRejectedCount() {
+        return mRejectedCount;
+    }
+
+    private static long exponential(long base, int exponent, long max) {
+        // Past 2^20 the cap has long since taken over; stop before the shift overflows.
+        return exponent >= 20 ? max : Math.min(max, base << exponent);
+    }
+
+    // Somewhere between half and all of the delay, so clients that failed together spread out.
+    private long jitter(long delay) {
+        return delay / 2 + (long) (mRandom.nextDouble() * (delay / 2));
+    }
+}
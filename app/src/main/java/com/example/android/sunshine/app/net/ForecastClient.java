@@ -0,0 +1,311 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.net;
+
+import com.example.android.sunshine.app.metrics.Metrics;
+import com.example.android.sunshine.app.utils.Clock;
+import com.example.android.sunshine.app.utils.Deadline;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Downloads forecasts over HTTP, keeping a {@link CircuitBreaker} per endpoint so that a
+ * failing API is backed off from instead of being retried on every refresh.
+ *
+ * Connections are kept alive between refreshes.  HttpURLConnection pools a connection once its
+ * response body has been read to the end and the stream closed, while disconnect() closes the
+ * socket, so every response (error bodies included) is drained and closed instead, and
+ * disconnect() is kept for connections left in an unknown state by a failure.
+ *
+ * A fetch can be given the refresh's {@link Deadline}.  The connect and read timeouts are then
+ * cut down to what is left of it, and the body is read in chunks with the deadline checked
+ * between them, because a server trickling bytes never trips a read timeout.
+ */
+public class ForecastClient {
+
+    static final int CONNECT_TIMEOUT_MILLIS = 15 * 1000;
+    static final int READ_TIMEOUT_MILLIS = 30 * 1000;
+
+    private static ForecastClient sInstance;
+
+    private final Clock mClock;
+    private final Random mRandom;
+    private final int mConnectTimeoutMillis;
+    private final int mReadTimeoutMillis;
+    private final boolean mKeepAlive;
+
+    private final AtomicLong mRequests = new AtomicLong();
+    private final AtomicLong mReleased = new AtomicLong();
+    private final AtomicLong mDiscarded = new AtomicLong();
+    private final AtomicLong mDrainedBytes = new AtomicLong();
+    private final AtomicLong mTimeToFirstByteNanos = new AtomicLong();
+
+    // guarded by itself
+    private final Map<String, CircuitBreaker> mBreakers = new HashMap<>();
+
+    public static synchronized ForecastClient getInstance() {
+        if (sInstance == null) {
+            sInstance = new ForecastClient(Clock.SYSTEM, new Random(), CONNECT_TIMEOUT_MILLIS,
+                    READ_TIMEOUT_MILLIS);
+        }
+        return sInstance;
+    }
+
+    public ForecastClient(Clock clock, Random random, int connectTimeoutMillis,
+                          int readTimeoutMillis) {
+        this(clock, random, connectTimeoutMillis, readTimeoutMillis, true);
+    }
+
+    /**
+     * @param keepAlive false to ask for a new connection per request, as a baseline for
+     *                  benchmarks
+     */
+    public ForecastClient(Clock clock, Random random, int connectTimeoutMillis,
+                          int readTimeoutMillis, boolean keepAlive) {
+        mClock = clock;
+        mRandom = random;
+        mConnectTimeoutMillis = connectTimeoutMillis;
+        mReadTimeoutMillis = readTimeoutMillis;
+        mKeepAlive = keepAlive;
+    }
+
+    /**
+     * Fetches the body of a 200 response.
+     *
+     * @throws CircuitOpenException if the endpoint is backed off and no request was sent
+     * @throws HttpStatusException  if the server answered with anything but 200
+     * @throws IOException          if the connection failed or timed out
+     */
+    public String fetch(URL url) throws IOException {
+        return fetch(url, Deadline.none());
+    }
+
+    /**
+     * Fetches the body of a 200 response within the deadline.
+     *
+     * @throws Deadline.ExpiredException if the deadline ran out while connecting or reading
+     * @see #fetch(URL)
+     */
+    public String fetch(URL url, Deadline deadline) throws IOException {
+        // Out of time already: don't send anything, and don't hold it against the endpoint.
+        deadline.check(Deadline.STAGE_CONNECT);
+
+        CircuitBreaker breaker = getBreaker(url);
+        if (!breaker.tryAcquire()) {
+            throw new CircuitOpenException(url, breaker.getRetryAfterMillis());
+        }
+
+        boolean healthy = false;
+        boolean released = false;
+        boolean answered = false;
+        HttpURLConnection urlConnection = null;
+        mRequests.incrementAndGet();
+        try {
+            urlConnection = (HttpURLConnection) url.openConnection();
+            urlConnection.setConnectTimeout(
+                    deadline.getTimeoutMillis(Deadline.STAGE_CONNECT, mConnectTimeoutMillis));
+            urlConnection.setReadTimeout(
+                    deadline.getTimeoutMillis(Deadline.STAGE_READ, mReadTimeoutMillis));
+            urlConnection.setRequestMethod("GET");
+            if (!mKeepAlive) urlConnection.setRequestProperty("Connection", "close");
+
+            // Connecting explicitly splits the DNS lookup and TCP connect out of the wait for
+            // the first byte.
+            long start = System.nanoTime();
+            urlConnection.connect();
+            Metrics.NET_CONNECT.recordElapsed(start);
+            int status = urlConnection.getResponseCode();
+            mTimeToFirstByteNanos.addAndGet(System.nanoTime() - start);
+            Metrics.NET_FIRST_BYTE.recordElapsed(start);
+            answered = true;
+
+            if (status != HttpURLConnection.HTTP_OK) {
+                // A client error means the endpoint is up and answering; only server errors
+                // and throttling count against it.
+                healthy = status < 500 && status != 429;
+                // The error body still has to be read off the socket before it can be reused.
+                mDrainedBytes.addAndGet(drain(urlConnection.getErrorStream()));
+                released = true;
+                throw new HttpStatusException(url, status);
+            }
+            String body = readBody(urlConnection.getInputStream(), deadline);
+            healthy = true;
+            released = true;
+            return body;
+        } catch (SocketTimeoutException e) {
+            // The timeouts were cut short to fit the deadline, so say which ran out.
+            if (!deadline.isExpired()) throw e;
+            Deadline.ExpiredException expired = new Deadline.ExpiredException(
+                    answered ? Deadline.STAGE_READ : Deadline.STAGE_CONNECT);
+            expired.initCause(e);
+            throw expired;
+        } finally {
+            // A refresh cancelled while reading the body was answered; it's no failure of the
+            // endpoint's.
+            if (healthy || (answered && deadline.isCancelled())) {
+                breaker.onSuccess();
+            } else {
+                breaker.onFailure();
+            }
+            if (released && mKeepAlive) {
+                mReleased.incrementAndGet();
+            } else if (urlConnection != null) {
+                mDiscarded.incrementAndGet();
+                urlConnection.disconnect();
+            }
+        }
+    }
+
+    /** A snapshot of how connections have been handed back for reuse. */
+    public PoolStats getPoolStats() {
+        return new PoolStats(mRequests.get(), mReleased.get(), mDiscarded.get(),
+                mDrainedBytes.get(), mTimeToFirstByteNanos.get());
+    }
+
+    /** The breaker for the URL's endpoint: its scheme, host, port and path. */
+    public CircuitBreaker getBreaker(URL url) {
+        String endpoint = url.getProtocol() + "://" + url.getHost() + ":" + url.getPort() +
+                url.getPath();
+        synchronized (mBreakers) {
+            CircuitBreaker breaker = mBreakers.get(endpoint);
+            if (breaker == null) {
+                breaker = new CircuitBreaker(mClock, mRandom);
+                mBreakers.put(endpoint, breaker);
+            }
+            return breaker;
+        }
+    }
+
+    // Reads whatever arrives, a chunk at a time rather than a line at a time: the forecast is
+    // one long line, and the deadline has to be checked while it's still coming in.
+    private static String readBody(InputStream inputStream, Deadline deadline)
+            throws IOException {
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            byte[] chunk = new byte[1024];
+            int count;
+            while ((count = inputStream.read(chunk)) != -1) {
+                buffer.write(chunk, 0, count);
+                Metrics.NET_DOWNLOAD_BYTES.add(count);
+                deadline.check(Deadline.STAGE_READ);
+            }
+            return buffer.toString("UTF-8");
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    // Reads whatever is left of a response and closes it, so the connection can go back to
+    // the pool.  Returns the number of bytes thrown away.
+    private static long drain(InputStream inputStream) throws IOException {
+        if (inputStream == null) return 0;
+        long drained = 0;
+        byte[] buffer = new byte[1024];
+        try {
+            int count;
+            while ((count = inputStream.read(buffer)) != -1) drained += count;
+            Metrics.NET_DOWNLOAD_BYTES.add(drained);
+        } finally {
+            inputStream.close();
+        }
+        return drained;
+    }
+
+    public static class PoolStats {
+        private final long mRequests;
+        private final long mReleased;
+        private final long mDiscarded;
+        private final long mDrainedBytes;
+        private final long mTimeToFirstByteNanos;
+
+        PoolStats(long requests, long released, long discarded, long drainedBytes,
+                  long timeToFirstByteNanos) {
+            mRequests = requests;
+            mReleased = released;
+            mDiscarded = discarded;
+            mDrainedBytes = drainedBytes;
+            mTimeToFirstByteNanos = timeToFirstByteNanos;
+        }
+
+        /** Requests sent. */
+        public long getRequestCount() {
+            return mRequests;
+        }
+
+        /** Connections whose response was read to the end and handed back for reuse. */
+        public long getReleasedCount() {
+            return mReleased;
+        }
+
+        /** Connections closed instead, after a failure or with keep-alive turned off. */
+        public long getDiscardedCount() {
+            return mDiscarded;
+        }
+
+        /** Bytes of error bodies read only so that their connections could be reused. */
+        public long getDrainedBytes() {
+            return mDrainedBytes;
+        }
+
+        /** Total time from sending each request to its status line arriving. */
+        public long getTimeToFirstByteNanos() {
+            return mTimeToFirstByteNanos;
+        }
+
+        @Override
+        public String toString() {
+            return mRequests + " requests, " + mReleased + " connections released, " +
+                    mDiscarded + " discarded, " + mDrainedBytes + " bytes drained";
+        }
+    }
+
+    /** Thrown instead of sending a request while the endpoint is backed off. */
+    public static class CircuitOpenException extends IOException {
+        private final long mRetryAfterMillis;
+
+        CircuitOpenException(URL url, long retryAfterMillis) {
+            super("Not contacting " + url.getHost() + " for another " + retryAfterMillis + "ms");
+            mRetryAfterMillis = retryAfterMillis;
+        }
+
+        public long getRetryAfterMillis() {
+            return mRetryAfterMillis;
+        }
+    }
+
+    /** The server answered, but not with 200 OK. */
+    public static class HttpStatusException extends IOException {
+        private final int mStatus;
+
+        HttpStatusException(URL url, int status) {
+            super("HTTP " + status + " from " + url.getHost());
+            mStatus = status;
+        }
+
+        public int getStatus() {
+            return mStatus;
+        }
+    }
+}
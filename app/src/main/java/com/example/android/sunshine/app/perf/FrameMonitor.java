@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.perf;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.util.Log;
+import android.view.Choreographer;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Feeds a screen's {@link FrameTracker} from Choreographer while the screen is in the
+ * foreground.  Choreographer showed up in API level 16; below that frames aren't tracked, but
+ * refreshes still are.
+ *
+ * The trackers live for the life of the process, one per screen, so that a performance test can
+ * drive the UI and then read {@link #exportJson} for every screen at once.
+ *
+ * Counting frames means a callback on every vsync, so it's off unless the FrameMonitor tag is
+ * loggable at DEBUG, as for the query profiler, or a test turns it on with {@link #setEnabled}:
+ * "adb shell setprop log.tag.FrameMonitor DEBUG".
+ */
+public class FrameMonitor {
+
+    private static final String LOG_TAG = FrameMonitor.class.getSimpleName();
+
+    public static final String SCREEN_FORECAST_LIST = "forecast_list";
+    public static final String SCREEN_DETAIL = "detail";
+
+    // guarded by itself
+    private static final Map<String, FrameTracker> sTrackers = new LinkedHashMap<>();
+
+    private static volatile boolean sEnabled = Log.isLoggable(LOG_TAG, Log.DEBUG);
+
+    private final FrameTracker mTracker;
+    private FrameCallback mCallback;
+
+    public FrameMonitor(String screen) {
+        mTracker = getTracker(screen);
+    }
+
+    public static FrameTracker getTracker(String screen) {
+        synchronized (sTrackers) {
+            FrameTracker tracker = sTrackers.get(screen);
+            if (tracker == null) {
+                tracker = new FrameTracker(screen, FrameTracker.DEFAULT_FRAME_INTERVAL_NANOS);
+                sTrackers.put(screen, tracker);
+            }
+            return tracker;
+        }
+    }
+
+    /** Every screen's stats as a JSON array of {@link FrameStats#toJson} objects. */
+    public static String exportJson() {
+        StringBuilder json = new StringBuilder("[");
+        synchronized (sTrackers) {
+            for (FrameTracker tracker : sTrackers.values()) {
+                if (json.length() > 1) json.append(',');
+                json.append(tracker.getStats().toJson());
+            }
+        }
+        return json.append(']').toString();
+    }
+
+    /** Takes effect the next time a screen starts. */
+    public static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    public FrameTracker getTracker() {
+        return mTracker;
+    }
+
+    /** Starts counting frames, if enabled.  Call from the main thread, in onResume. */
+    public void start() {
+        if (!sEnabled || Build.VERSION.SDK_INT < 16 || mCallback != null) return;
+        mCallback = new FrameCallback(mTracker);
+        mCallback.post();
+    }
+
+    /** Stops counting frames and logs the screen's stats.  Call in onPause. */
+    public void stop() {
+        if (mCallback != null) {
+            mCallback.cancel();
+            mCallback = null;
+        }
+        mTracker.pause();
+        if (Log.isLoggable(LOG_TAG, Log.DEBUG)) {
+            Log.d(LOG_TAG, mTracker.getStats().toJson());
+        }
+    }
+
+    // Kept out of FrameMonitor itself so that older devices never load Choreographer.
+    @TargetApi(16)
+    private static class FrameCallback implements Choreographer.FrameCallback {
+        private final FrameTracker mTracker;
+        private boolean mCancelled;
+
+        FrameCallback(FrameTracker tracker) {
+            mTracker = tracker;
+        }
+
+        void post() {
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        void cancel() {
+            mCancelled = true;
+            Choreographer.getInstance().removeFrameCallback(this);
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (mCancelled) return;
+            mTracker.onFrame(frameTimeNanos);
+            post();
+        }
+    }
+}
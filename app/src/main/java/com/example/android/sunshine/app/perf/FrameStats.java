@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.perf;
+
+/**
+ * A snapshot of a {@link FrameTracker}.  The percentiles cover the most recent frames and
+ * refreshes the tracker keeps; the counts cover everything since it was last reset.
+ *
+ * {@link #toJson} writes it out as one flat JSON object with times in microseconds, e.g.
+ *
+ *     {"screen":"forecast_list","frames":240,"janky_frames":3,"dropped_frames":5,
+ *      "frame_p50_us":16667,"frame_p90_us":16702,"frame_p99_us":50001,"frame_max_us":66668,
+ *      "refreshes":2,"refresh_p50_us":4210,"refresh_max_us":6120}
+ */
+public class FrameStats {
+
+    private final String mScreen;
+    private final long mFrames;
+    private final long mDroppedFrames;
+    private final long mJankyFrames;
+    private final long[] mSortedFrameNanos;
+    private final long mRefreshes;
+    private final long[] mSortedRefreshNanos;
+
+    FrameStats(String screen, long frames, long droppedFrames, long jankyFrames,
+               long[] sortedFrameNanos, long refreshes, long[] sortedRefreshNanos) {
+        mScreen = screen;
+        mFrames = frames;
+        mDroppedFrames = droppedFrames;
+        mJankyFrames = jankyFrames;
+        mSortedFrameNanos = sortedFrameNanos;
+        mRefreshes = refreshes;
+        mSortedRefreshNanos = sortedRefreshNanos;
+    }
+
+    public String getScreen() {
+        return mScreen;
+    }
+
+    public long getFrameCount() {
+        return mFrames;
+    }
+
+    /** Vsync intervals missed, summed over every janky frame. */
+    public long getDroppedFrameCount() {
+        return mDroppedFrames;
+    }
+
+    /** Frames that took longer than one vsync interval. */
+    public long getJankyFrameCount() {
+        return mJankyFrames;
+    }
+
+    public long getFramePercentileNanos(double percentile) {
+        return percentile(mSortedFrameNanos, percentile);
+    }
+
+    public long getMaxFrameNanos() {
+        return max(mSortedFrameNanos);
+    }
+
+    public long getRefreshCount() {
+        return mRefreshes;
+    }
+
+    /** Main thread time spent putting a refresh's data on screen. */
+    public long getRefreshPercentileNanos(double percentile) {
+        return percentile(mSortedRefreshNanos, percentile);
+    }
+
+    public long getMaxRefreshNanos() {
+        return max(mSortedRefreshNanos);
+    }
+
+    public String toJson() {
+        return "{\"screen\":\"" + mScreen + "\"" +
+                ",\"frames\":" + mFrames +
+                ",\"janky_frames\":" + mJankyFrames +
+                ",\"dropped_frames\":" + mDroppedFrames +
+                ",\"frame_p50_us\":" + getFramePercentileNanos(50) / 1000 +
+                ",\"frame_p90_us\":" + getFramePercentileNanos(90) / 1000 +
+                ",\"frame_p99_us\":" + getFramePercentileNanos(99) / 1000 +
+                ",\"frame_max_us\":" + getMaxFrameNanos() / 1000 +
+                ",\"refreshes\":" + mRefreshes +
+                ",\"refresh_p50_us\":" + getRefreshPercentileNanos(50) / 1000 +
+                ",\"refresh_max_us\":" + getMaxRefreshNanos() / 1000 +
+                "}";
+    }
+
+    @Override
+    public String toString() {
+        return toJson();
+    }
+
+    // Nearest rank, 0 with no samples.
+    private static long percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) return 0;
+        int rank = (int) Math.ceil(sorted.length * percentile / 100);
+        return sorted[Math.max(0, Math.min(sorted.length, rank) - 1)];
+    }
+
+    private static long max(long[] sorted) {
+        return sorted.length == 0 ? 0 : sorted[sorted.length - 1];
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.perf;
+
+import java.util.Arrays;
+
+/**
+ * Frame timing for one screen, worked out from the start time of each frame.  A frame that
+ * took more than one vsync interval is janky, and every whole interval it ran over is a dropped
+ * frame.  Refreshes are timed separately: the main thread work of putting new data on screen.
+ *
+ * This class is plain Java, fed timestamps by {@link FrameMonitor} on a device and by hand in
+ * JVM tests.  All times are System.nanoTime() values.
+ */
+public class FrameTracker {
+
+    public static final long DEFAULT_FRAME_INTERVAL_NANOS = 1000000000L / 60;
+
+    // Enough for the last ten seconds of frames, and the last fifty refreshes.
+    static final int MAX_FRAME_SAMPLES = 600;
+    static final int MAX_REFRESH_SAMPLES = 50;
+
+    private final String mScreen;
+    private final long mFrameIntervalNanos;
+
+    // guarded by this
+    private long mLastFrameNanos = -1;
+    private long mFrames;
+    private long mDroppedFrames;
+    private long mJankyFrames;
+    private final long[] mFrameSamples = new long[MAX_FRAME_SAMPLES];
+    private long mRefreshes;
+    private long mRefreshStartNanos = -1;
+    private final long[] mRefreshSamples = new long[MAX_REFRESH_SAMPLES];
+
+    public FrameTracker(String screen, long frameIntervalNanos) {
+        mScreen = screen;
+        mFrameIntervalNanos = frameIntervalNanos;
+    }
+
+    public String getScreen() {
+        return mScreen;
+    }
+
+    /** Called at the start of every frame while the screen is showing. */
+    public synchronized void onFrame(long frameTimeNanos) {
+        if (mLastFrameNanos >= 0 && frameTimeNanos > mLastFrameNanos) {
+            long duration = frameTimeNanos - mLastFrameNanos;
+            // Round, so a frame that starts a little late isn't counted as a missed vsync.
+            long missed = (duration + mFrameIntervalNanos / 2) / mFrameIntervalNanos - 1;
+            if (missed > 0) {
+                mJankyFrames++;
+                mDroppedFrames += missed;
+            }
+            mFrameSamples[(int) (mFrames % MAX_FRAME_SAMPLES)] = duration;
+            mFrames++;
+        }
+        mLastFrameNanos = frameTimeNanos;
+    }
+
+    /**
+     * The screen stopped drawing.  The gap until the next frame isn't a frame, so it isn't
+     * counted.
+     */
+    public synchronized void pause() {
+        mLastFrameNanos = -1;
+    }
+
+    /** Main thread work on new data is starting, e.g. an adapter about to be refilled. */
+    public synchronized void beginRefresh(long nowNanos) {
+        mRefreshStartNanos = nowNanos;
+    }
+
+    public synchronized void endRefresh(long nowNanos) {
+        if (mRefreshStartNanos < 0) return;
+        mRefreshSamples[(int) (mRefreshes % MAX_REFRESH_SAMPLES)] = nowNanos - mRefreshStartNanos;
+        mRefreshes++;
+        mRefreshStartNanos = -1;
+    }
+
+    public synchronized void reset() {
+        mLastFrameNanos = -1;
+        mFrames = 0;
+        mDroppedFrames = 0;
+        mJankyFrames = 0;
+        mRefreshes = 0;
+        mRefreshStartNanos = -1;
+    }
+
+    public synchronized FrameStats getStats() {
+        long[] frames = Arrays.copyOf(mFrameSamples, (int) Math.min(mFrames, MAX_FRAME_SAMPLES));
+        long[] refreshes = Arrays.copyOf(mRefreshSamples,
+                (int) Math.min(mRefreshes, MAX_REFRESH_SAMPLES));
+        Arrays.sort(frames);
+        Arrays.sort(refreshes);
+        return new FrameStats(mScreen, mFrames, mDroppedFrames, mJankyFrames, frames,
+                mRefreshes, refreshes);
+    }
+}
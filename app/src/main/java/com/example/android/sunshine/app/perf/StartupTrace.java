@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.perf;
+
+import android.util.Log;
+
+import com.example.android.sunshine.app.metrics.Histogram;
+import com.example.android.sunshine.app.metrics.Metrics;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times one launch of the forecast list, from the start of the process (a cold start) or of
+ * MainActivity (a warm one) to the first frame that shows forecast rows, in phases:
+ *
+ *     application  process start to MainActivity.onCreate; providers are created first, so
+ *                  WeatherProvider.onCreate stands for the start of the process
+ *     activity     MainActivity.onCreate
+ *     inflate      until ForecastFragment has inflated its views
+ *     first_bind   until the list's adapter first has rows
+ *     first_frame  until the first frame that draws them
+ *
+ * Each phase is marked once, when it ends; a finished launch is logged, recorded in the
+ * startup histograms and kept for {@link #getLastLaunch}, after which it no longer changes.
+ * Call from the main thread.
+ */
+public final class StartupTrace {
+
+    private static final String LOG_TAG = StartupTrace.class.getSimpleName();
+
+    public static final String PHASE_APPLICATION = "application";
+    public static final String PHASE_ACTIVITY = "activity";
+    public static final String PHASE_INFLATE = "inflate";
+    public static final String PHASE_FIRST_BIND = "first_bind";
+    public static final String PHASE_FIRST_FRAME = "first_frame";
+
+    /** In the order they happen. */
+    public static final String[] PHASES = {PHASE_APPLICATION, PHASE_ACTIVITY, PHASE_INFLATE,
+            PHASE_FIRST_BIND, PHASE_FIRST_FRAME};
+
+    // A process that has been up this long before the activity was started for something else,
+    // a sync say, and the launch counts as warm.
+    static final long MAX_APPLICATION_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private static final Histogram sColdStartLatency = Metrics.histogram("startup.cold_us");
+    private static final Histogram sWarmStartLatency = Metrics.histogram("startup.warm_us");
+
+    // guarded by StartupTrace.class
+    private static StartupTrace sCurrent;
+    private static StartupTrace sLast;
+
+    private final boolean mCold;
+    private final long mStartNanos;
+    // When each phase ended, by its index in PHASES, or 0 if it hasn't yet.
+    private final long[] mMarks = new long[PHASES.length];
+
+    StartupTrace(boolean cold, long startNanos) {
+        mCold = cold;
+        mStartNanos = startNanos;
+    }
+
+    /** The process has started.  The next MainActivity launch is a cold start. */
+    public static synchronized void processStarted() {
+        sCurrent = new StartupTrace(true, System.nanoTime());
+    }
+
+    /** MainActivity.onCreate has been called.  Starts a warm launch unless a cold one is due. */
+    public static synchronized void activityCreated() {
+        long now = System.nanoTime();
+        if (sCurrent == null || !sCurrent.mCold || sCurrent.isMarked(PHASE_APPLICATION)
+                || now - sCurrent.mStartNanos > MAX_APPLICATION_NANOS) {
+            sCurrent = new StartupTrace(false, now);
+        }
+        sCurrent.mark(PHASE_APPLICATION, now);
+    }
+
+    /** The phase has ended, if it's the first time in this launch. */
+    public static synchronized void mark(String phase) {
+        if (sCurrent == null) return;
+        sCurrent.mark(phase, System.nanoTime());
+        if (sCurrent.isMarked(PHASE_FIRST_FRAME)) {
+            finish(sCurrent);
+            sLast = sCurrent;
+            sCurrent = null;
+        }
+    }
+
+    /** The last launch to reach its first frame, or null if none has. */
+    public static synchronized StartupTrace getLastLaunch() {
+        return sLast;
+    }
+
+    private static void finish(StartupTrace launch) {
+        long micros = launch.getTotalNanos() / 1000;
+        (launch.mCold ? sColdStartLatency : sWarmStartLatency).record(micros);
+        if (Log.isLoggable(LOG_TAG, Log.DEBUG)) Log.d(LOG_TAG, launch.toString());
+    }
+
+    private void mark(String phase, long now) {
+        int index = indexOf(phase);
+        if (mMarks[index] == 0) mMarks[index] = now;
+    }
+
+    private boolean isMarked(String phase) {
+        return mMarks[indexOf(phase)] != 0;
+    }
+
+    private static int indexOf(String phase) {
+        for (int i = 0; i < PHASES.length; i++) {
+            if (PHASES[i].equals(phase)) return i;
+        }
+        throw new IllegalArgumentException("Unknown phase: " + phase);
+    }
+
+    public boolean isCold() {
+        return mCold;
+    }
+
+    /**
+     * How long the phase took, from the end of the last phase marked before it, or -1 if it
+     * wasn't marked.  A warm launch has no application phase to speak of.
+     */
+    public long getPhaseNanos(String phase) {
+        int index = indexOf(phase);
+        if (mMarks[index] == 0) return -1;
+        long start = mStartNanos;
+        for (int i = 0; i < index; i++) {
+            if (mMarks[i] != 0) start = Math.max(start, mMarks[i]);
+        }
+        return Math.max(0, mMarks[index] - start);
+    }
+
+    /** From the start of the launch to its first frame, or -1 if it hasn't got there. */
+    public long getTotalNanos() {
+        long end = mMarks[indexOf(PHASE_FIRST_FRAME)];
+        return end == 0 ? -1 : end - mStartNanos;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder(mCold ? "cold start" : "warm start");
+        for (String phase : PHASES) {
+            s.append(' ').append(phase).append('=')
+                    .append(TimeUnit.NANOSECONDS.toMicros(getPhaseNanos(phase))).append("us");
+        }
+        return s.append(" total=").append(getTotalNanos() / 1000).append("us").toString();
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+
+import com.example.android.sunshine.app.FetchWeatherTask;
+import com.example.android.sunshine.app.utils.Deadline;
+
+/**
+ * How the background refreshers in this package download and store a location's forecast,
+ * behind an interface so that tests can stand in a fetcher that records what it was asked for.
+ */
+interface ForecastFetcher {
+
+    /**
+     * Downloads and stores the location's forecast before the deadline runs out, or within a
+     * refresh's usual budget if the deadline is null.
+     *
+     * @return the number of bytes downloaded, or -1 if the forecast wasn't stored
+     */
+    long fetch(String locationSetting, Deadline deadline);
+
+    /** Goes through FetchWeatherTask, as a refresh from the list does. */
+    class Network implements ForecastFetcher {
+        private final Context mContext;
+
+        Network(Context context) {
+            mContext = context;
+        }
+
+        @Override
+        public long fetch(String locationSetting, Deadline deadline) {
+            FetchWeatherTask task = new FetchWeatherTask(mContext, null);
+            String[] forecast = deadline == null ? task.fetchForecast(locationSetting)
+                    : task.fetchForecast(locationSetting, deadline);
+            return forecast == null ? -1 : task.getLastDownloadBytes();
+        }
+    }
+}
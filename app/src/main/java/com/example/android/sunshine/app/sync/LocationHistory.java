@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.example.android.sunshine.app.utils.Clock;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers which location settings the user looks at, and when each one's forecast was last
+ * downloaded.
+ *
+ * Each location has a score that goes up by one every time it's shown and halves every
+ * {@link #HALF_LIFE_MILLIS}, so it ranks locations by how often and how recently they've been
+ * used.  Only the decayed score and the time it was worked out are stored; two scores are
+ * compared by decaying both to the same moment.
+ *
+ * Everything is kept in its own preferences file, so the history survives restarts.
+ */
+public class LocationHistory {
+
+    public static final String PREFERENCES = "location_history";
+    private static final String KEY_SCORE = "score.";
+    private static final String KEY_SCORED_AT = "scored_at.";
+    private static final String KEY_REFRESHED_AT = "refreshed_at.";
+
+    // A use counts half as much after a week.
+    static final long HALF_LIFE_MILLIS = TimeUnit.DAYS.toMillis(7);
+
+    // A forecast younger than this is shown without asking the network again.  It matches the
+    // default sync frequency, so a synced location stays fresh.
+    static final long FRESH_MILLIS = TimeUnit.HOURS.toMillis(3);
+
+    // Beyond this many locations the lowest scoring ones are forgotten.
+    static final int MAX_LOCATIONS = 16;
+
+    private static LocationHistory sInstance;
+
+    private final SharedPreferences mPrefs;
+    private final Clock mClock;
+
+    public static synchronized LocationHistory getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new LocationHistory(context.getApplicationContext()
+                    .getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE), Clock.SYSTEM);
+        }
+        return sInstance;
+    }
+
+    LocationHistory(SharedPreferences prefs, Clock clock) {
+        mPrefs = prefs;
+        mClock = clock;
+    }
+
+    /** The user is looking at the forecast for this location. */
+    public synchronized void recordUse(String locationSetting) {
+        long now = mClock.currentTimeMillis();
+        mPrefs.edit()
+                .putFloat(KEY_SCORE + locationSetting,
+                        (float) (getScore(locationSetting, now) + 1))
+                .putLong(KEY_SCORED_AT + locationSetting, now)
+                .commit();
+        prune(now);
+    }
+
+    /** A forecast for this location was just downloaded and stored. */
+    public synchronized void recordRefresh(String locationSetting) {
+        mPrefs.edit()
+                .putLong(KEY_REFRESHED_AT + locationSetting, mClock.currentTimeMillis())
+                .commit();
+    }
+
+    /** When the location's forecast was last stored, or 0 if it never was. */
+    public synchronized long getLastRefresh(String locationSetting) {
+        return mPrefs.getLong(KEY_REFRESHED_AT + locationSetting, 0);
+    }
+
+    /** Whether the stored forecast is recent enough to show without a download. */
+    public boolean isFresh(String locationSetting) {
+        long age = mClock.currentTimeMillis() - getLastRefresh(locationSetting);
+        // A refresh in the future means the clock was set back; don't trust it.
+        return age >= 0 && age < FRESH_MILLIS;
+    }
+
+    /** The location's score as of now; 0 for a location that has never been used. */
+    public synchronized double getScore(String locationSetting) {
+        return getScore(locationSetting, mClock.currentTimeMillis());
+    }
+
+    /** Up to {@code count} locations, highest score first. */
+    public synchronized List<String> getTopLocations(int count) {
+        List<String> locations = getRankedLocations(mClock.currentTimeMillis());
+        return locations.subList(0, Math.min(count, locations.size()));
+    }
+
+    private double getScore(String locationSetting, long now) {
+        float score = mPrefs.getFloat(KEY_SCORE + locationSetting, 0);
+        if (score == 0) return 0;
+        long age = Math.max(0, now - mPrefs.getLong(KEY_SCORED_AT + locationSetting, now));
+        return score * Math.pow(0.5, (double) age / HALF_LIFE_MILLIS);
+    }
+
+    private List<String> getRankedLocations(final long now) {
+        List<String> locations = new ArrayList<>();
+        for (Map.Entry<String, ?> entry : mPrefs.getAll().entrySet()) {
+            if (entry.getKey().startsWith(KEY_SCORE)) {
+                locations.add(entry.getKey().substring(KEY_SCORE.length()));
+            }
+        }
+        Collections.sort(locations, new Comparator<String>() {
+            @Override
+            public int compare(String lhs, String rhs) {
+                return Double.compare(getScore(rhs, now), getScore(lhs, now));
+            }
+        });
+        return locations;
+    }
+
+    private void prune(long now) {
+        List<String> locations = getRankedLocations(now);
+        if (locations.size() <= MAX_LOCATIONS) return;
+        SharedPreferences.Editor editor = mPrefs.edit();
+        for (String locationSetting : locations.subList(MAX_LOCATIONS, locations.size())) {
+            editor.remove(KEY_SCORE + locationSetting)
+                    .remove(KEY_SCORED_AT + locationSetting)
+                    .remove(KEY_REFRESHED_AT + locationSetting);
+        }
+        editor.commit();
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.example.android.sunshine.app.FetchWeatherTask;
+import com.example.android.sunshine.app.utils.Clock;
+import com.example.android.sunshine.app.utils.Deadline;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Downloads the forecast for a location as soon as it's picked in Settings, so that it's
+ * stored by the time the user is back at the list.
+ *
+ * Each change waits {@link #SETTLE_MILLIS} before it starts, and a newer change replaces one
+ * that hasn't, so a burst of edits downloads only the last.  A change also cancels the
+ * download of a location it replaced, which stops at its next deadline check and rolls back
+ * anything it had written.  Leaving Settings calls {@link #flush}, which starts a waiting
+ * download at once.
+ *
+ * Downloads run one at a time on a background thread.
+ */
+public class LocationRefresher {
+
+    private static final String LOG_TAG = LocationRefresher.class.getSimpleName();
+
+    // Long enough to take in a quick correction, short enough to be done before the user has
+    // found their way back.
+    static final long SETTLE_MILLIS = 750;
+
+    private static LocationRefresher sInstance;
+
+    private final LocationHistory mHistory;
+    private final ForecastFetcher mFetcher;
+    private final Clock mClock;
+    private final ScheduledExecutorService mExecutor;
+    private final long mSettleMillis;
+    private final long mBudgetMillis;
+
+    // guarded by this
+    // Bumped by every change, so a download that was replaced before it started can tell.
+    private long mGeneration;
+    private ScheduledFuture<?> mPending;
+    private String mPendingLocation;
+    private String mRunningLocation;
+    private Deadline mRunningDeadline;
+    private long mRefreshCount;
+    private long mCancelledCount;
+    private long mSkippedCount;
+
+    public static synchronized LocationRefresher getInstance(Context context) {
+        if (sInstance == null) {
+            Context appContext = context.getApplicationContext();
+            sInstance = new LocationRefresher(LocationHistory.getInstance(appContext),
+                    new ForecastFetcher.Network(appContext), Clock.SYSTEM,
+                    Executors.newSingleThreadScheduledExecutor(), SETTLE_MILLIS,
+                    FetchWeatherTask.REFRESH_BUDGET_MILLIS);
+        }
+        return sInstance;
+    }
+
+    LocationRefresher(LocationHistory history, ForecastFetcher fetcher, Clock clock,
+                      ScheduledExecutorService executor, long settleMillis, long budgetMillis) {
+        mHistory = history;
+        mFetcher = fetcher;
+        mClock = clock;
+        mExecutor = executor;
+        mSettleMillis = settleMillis;
+        mBudgetMillis = budgetMillis;
+    }
+
+    /**
+     * The location setting was changed to this.  Its forecast is downloaded once no other
+     * change has come in for a while, unless a download of it is already under way.
+     */
+    public synchronized void onLocationChanged(String locationSetting) {
+        mGeneration++;
+        if (mPending != null) {
+            mPending.cancel(false);
+            mPending = null;
+            mPendingLocation = null;
+        }
+        if (mRunningLocation != null && !mRunningDeadline.isCancelled()) {
+            if (mRunningLocation.equals(locationSetting)) {
+                // Changed back before the download finished; let it carry on.
+                notifyAll();
+                return;
+            }
+            mRunningDeadline.cancel();
+            mCancelledCount++;
+        }
+        schedule(locationSetting, mSettleMillis);
+    }
+
+    /** Starts a download that's still waiting for its change to settle. */
+    public synchronized void flush() {
+        if (mPending == null) return;
+        mPending.cancel(false);
+        mGeneration++;
+        schedule(mPendingLocation, 0);
+    }
+
+    /**
+     * Waits until nothing for this location is waiting or downloading, starting a download
+     * that was still waiting to settle.
+     *
+     * @return false if the wait timed out or was interrupted
+     */
+    public synchronized boolean awaitRefresh(String locationSetting, long timeoutMillis) {
+        if (locationSetting.equals(mPendingLocation)) flush();
+        // Waiting is real time, whatever clock the deadlines use.
+        long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (locationSetting.equals(mPendingLocation)
+                || locationSetting.equals(mRunningLocation)) {
+            long remaining = TimeUnit.NANOSECONDS.toMillis(end - System.nanoTime());
+            if (remaining <= 0) return false;
+            try {
+                wait(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Forecasts stored by this refresher. */
+    synchronized long getRefreshCount() {
+        return mRefreshCount;
+    }
+
+    /** Downloads cancelled part way through because the location changed again. */
+    synchronized long getCancelledCount() {
+        return mCancelledCount;
+    }
+
+    /** Changes that needed no download, because the stored forecast was still fresh. */
+    synchronized long getSkippedCount() {
+        return mSkippedCount;
+    }
+
+    private void schedule(final String locationSetting, long delayMillis) {
+        final long generation = mGeneration;
+        mPendingLocation = locationSetting;
+        mPending = mExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                refresh(generation, locationSetting);
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void refresh(long generation, String locationSetting) {
+        Deadline deadline;
+        synchronized (this) {
+            if (generation != mGeneration) return;
+            mPending = null;
+            mPendingLocation = null;
+            if (mHistory.isFresh(locationSetting)) {
+                mSkippedCount++;
+                notifyAll();
+                return;
+            }
+            deadline = new Deadline(mClock, mBudgetMillis);
+            mRunningLocation = locationSetting;
+            mRunningDeadline = deadline;
+        }
+
+        boolean stored = false;
+        try {
+            stored = mFetcher.fetch(locationSetting, deadline) >= 0;
+        } finally {
+            synchronized (this) {
+                if (mRunningDeadline == deadline) {
+                    mRunningLocation = null;
+                    mRunningDeadline = null;
+                }
+                if (stored) mRefreshCount++;
+                notifyAll();
+            }
+        }
+        Log.d(LOG_TAG, "Refreshed " + locationSetting + ": " + (stored ? "stored" :
+                deadline.isCancelled() ? "cancelled" : "failed"));
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import com.example.android.sunshine.app.utils.Clock;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Downloads the forecasts of the user's most used locations ahead of time, so that switching
+ * to one of them in Settings shows a stored forecast instead of waiting on the network.
+ *
+ * A prefetch runs once the app has been idle for {@link #IDLE_DELAY_MILLIS}: every call to
+ * {@link #notifyActive} pushes it back, and stops one in progress after its current download.
+ * It goes through the top locations from {@link LocationHistory}, skips those whose stored
+ * forecast is still fresh, and stops early once the budget of downloads and bytes for the
+ * current {@link #BUDGET_WINDOW_MILLIS} is spent.  The window is kept in its own preferences
+ * file, so that restarting the app doesn't hand out a fresh budget.
+ */
+public class Prefetcher {
+
+    private static final String LOG_TAG = Prefetcher.class.getSimpleName();
+
+    static final String STATE_PREFERENCES = "prefetch_state";
+    static final String STATE_WINDOW_START = "window_start";
+    static final String STATE_WINDOW_REQUESTS = "window_requests";
+    static final String STATE_WINDOW_BYTES = "window_bytes";
+
+    static final long IDLE_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(30);
+    static final long BUDGET_WINDOW_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    static final int DEFAULT_TOP_LOCATIONS = 4;
+    static final int DEFAULT_MAX_REQUESTS = 24;
+    // A 14 day forecast is about 4KB, so this is plenty for the requests above.
+    static final long DEFAULT_MAX_BYTES = 256 * 1024;
+
+    private static Prefetcher sInstance;
+
+    private final LocationHistory mHistory;
+    private final SharedPreferences mState;
+    private final ForecastFetcher mFetcher;
+    private final Clock mClock;
+    private final ScheduledExecutorService mExecutor;
+    private final int mTopLocations;
+    private final int mMaxRequests;
+    private final long mMaxBytes;
+
+    // guarded by this
+    private ScheduledFuture<?> mPending;
+    // Bumped by notifyActive, so a prefetch in progress can tell it should stop.
+    private long mGeneration;
+    private long mWindowStart;
+    private int mWindowRequests;
+    private long mWindowBytes;
+    private long mPrefetchCount;
+    private long mFailedCount;
+    private long mOverBudgetCount;
+
+    public static synchronized Prefetcher getInstance(Context context) {
+        if (sInstance == null) {
+            Context appContext = context.getApplicationContext();
+            sInstance = new Prefetcher(LocationHistory.getInstance(appContext),
+                    appContext.getSharedPreferences(STATE_PREFERENCES, Context.MODE_PRIVATE),
+                    new ForecastFetcher.Network(appContext), Clock.SYSTEM,
+                    Executors.newSingleThreadScheduledExecutor(), DEFAULT_TOP_LOCATIONS,
+                    DEFAULT_MAX_REQUESTS, DEFAULT_MAX_BYTES);
+        }
+        return sInstance;
+    }
+
+    Prefetcher(LocationHistory history, SharedPreferences state, ForecastFetcher fetcher,
+               Clock clock, ScheduledExecutorService executor, int topLocations, int maxRequests,
+               long maxBytes) {
+        mHistory = history;
+        mState = state;
+        mFetcher = fetcher;
+        mClock = clock;
+        mExecutor = executor;
+        mTopLocations = topLocations;
+        mMaxRequests = maxRequests;
+        mMaxBytes = maxBytes;
+        mWindowStart = state.getLong(STATE_WINDOW_START, -1);
+        mWindowRequests = state.getInt(STATE_WINDOW_REQUESTS, 0);
+        mWindowBytes = state.getLong(STATE_WINDOW_BYTES, 0);
+    }
+
+    /**
+     * The user is doing something.  Any prefetch in progress stops after its current download,
+     * and the next one waits until the app has been idle for a while again.
+     */
+    public synchronized void notifyActive() {
+        mGeneration++;
+        if (mPending != null) mPending.cancel(false);
+        final long generation = mGeneration;
+        mPending = mExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                prefetch(generation);
+            }
+        }, IDLE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /** Forecasts downloaded by prefetching since this prefetcher was created. */
+    synchronized long getPrefetchCount() {
+        return mPrefetchCount;
+    }
+
+    synchronized long getFailedCount() {
+        return mFailedCount;
+    }
+
+    /** Prefetches cut short because the budget ran out. */
+    synchronized long getOverBudgetCount() {
+        return mOverBudgetCount;
+    }
+
+    synchronized int getWindowRequests() {
+        return mWindowRequests;
+    }
+
+    synchronized long getWindowBytes() {
+        return mWindowBytes;
+    }
+
+    private void prefetch(long generation) {
+        for (String locationSetting : mHistory.getTopLocations(mTopLocations)) {
+            if (mHistory.isFresh(locationSetting)) continue;
+            if (!startRequest(generation)) return;
+
+            long bytes = mFetcher.fetch(locationSetting, null);
+            synchronized (this) {
+                if (bytes < 0) {
+                    mFailedCount++;
+                } else {
+                    mPrefetchCount++;
+                    mWindowBytes += bytes;
+                    saveWindow();
+                }
+            }
+            Log.d(LOG_TAG, "Prefetched " + locationSetting + ": " +
+                    (bytes < 0 ? "failed" : bytes + " bytes"));
+        }
+    }
+
+    // Takes a request from the budget, unless the user came back or the budget is spent.
+    private synchronized boolean startRequest(long generation) {
+        if (generation != mGeneration) return false;
+
+        long now = mClock.currentTimeMillis();
+        if (mWindowStart < 0 || now - mWindowStart >= BUDGET_WINDOW_MILLIS || now < mWindowStart) {
+            mWindowStart = now;
+            mWindowRequests = 0;
+            mWindowBytes = 0;
+        }
+        // Don't start a download that the bytes left probably won't cover.
+        long averageBytes = mWindowRequests == 0 ? 0 : mWindowBytes / mWindowRequests;
+        if (mWindowRequests >= mMaxRequests || mWindowBytes + averageBytes > mMaxBytes) {
+            mOverBudgetCount++;
+            return false;
+        }
+        mWindowRequests++;
+        saveWindow();
+        return true;
+    }
+
+    // apply() rather than commit(), as notifyActive takes the same lock on the main thread.
+    private synchronized void saveWindow() {
+        mState.edit()
+                .putLong(STATE_WINDOW_START, mWindowStart)
+                .putInt(STATE_WINDOW_REQUESTS, mWindowRequests)
+                .putLong(STATE_WINDOW_BYTES, mWindowBytes)
+                .apply();
+    }
+}
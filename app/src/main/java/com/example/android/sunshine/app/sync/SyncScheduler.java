@@ -0,0 +1,284 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import com.example.android.sunshine.app.FetchWeatherTask;
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.utils.Clock;
+
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Refreshes the forecast for every tracked location in the background, on the interval chosen
+ * in the "Sync frequency" preference, so the list is usually current before the user opens it.
+ *
+ * Each run is spaced from the start of the previous one by the interval plus or minus a random
+ * jitter, so that devices that started together don't keep hitting the API together.  A run
+ * that's requested while another is queued or running is folded into that one.  The time and
+ * outcome of the last run are kept in their own preferences file, so the schedule carries on
+ * across process restarts instead of syncing on every launch.
+ */
+public class SyncScheduler implements SharedPreferences.OnSharedPreferenceChangeListener {
+
+    private static final String LOG_TAG = SyncScheduler.class.getSimpleName();
+
+    static final String STATE_PREFERENCES = "sync_state";
+    static final String STATE_LAST_RUN_START = "last_run_start";
+    static final String STATE_LAST_RUN_END = "last_run_end";
+    static final String STATE_LAST_RUN_SYNCED = "last_run_synced";
+    static final String STATE_LAST_RUN_FAILED = "last_run_failed";
+
+    // Runs land anywhere within this fraction of the interval either side of the due time.
+    static final double JITTER_FRACTION = 0.1;
+
+    // Besides the preferred location, the most used ones that a run keeps fresh.
+    static final int TRACKED_LOCATIONS = 4;
+
+    /** Where a run gets its locations from, and how it refreshes each one. */
+    interface LocationSyncer {
+        Collection<String> getTrackedLocations();
+
+        /** Returns true if the location's forecast was refreshed. */
+        boolean sync(String locationSetting);
+    }
+
+    private static SyncScheduler sInstance;
+
+    private final SharedPreferences mSettings;
+    private final SharedPreferences mState;
+    private final String mFrequencyKey;
+    private final String mFrequencyDefault;
+    private final LocationSyncer mSyncer;
+    private final Clock mClock;
+    private final ScheduledExecutorService mExecutor;
+    private final Random mRandom;
+
+    private final Runnable mRun = new Runnable() {
+        @Override
+        public void run() {
+            runSync();
+        }
+    };
+
+    // guarded by this
+    private boolean mStarted;
+    private boolean mRunning;
+    private ScheduledFuture<?> mNextRun;
+    private long mNextRunTime = -1;
+    private long mRunCount;
+    private long mCoalescedCount;
+
+    public static synchronized SyncScheduler getInstance(Context context) {
+        if (sInstance == null) {
+            Context appContext = context.getApplicationContext();
+            sInstance = new SyncScheduler(appContext,
+                    PreferenceManager.getDefaultSharedPreferences(appContext),
+                    appContext.getSharedPreferences(STATE_PREFERENCES, Context.MODE_PRIVATE),
+                    new ForecastSyncer(appContext, LocationHistory.getInstance(appContext),
+                            TRACKED_LOCATIONS), Clock.SYSTEM,
+                    Executors.newSingleThreadScheduledExecutor(), new Random());
+        }
+        return sInstance;
+    }
+
+    SyncScheduler(Context context, SharedPreferences settings, SharedPreferences state,
+                  LocationSyncer syncer, Clock clock, ScheduledExecutorService executor,
+                  Random random) {
+        mSettings = settings;
+        mState = state;
+        mFrequencyKey = context.getString(R.string.pref_sync_frequency_key);
+        mFrequencyDefault = context.getString(R.string.pref_sync_frequency_default);
+        mSyncer = syncer;
+        mClock = clock;
+        mExecutor = executor;
+        mRandom = random;
+    }
+
+    /**
+     * Starts following the sync frequency preference.  If a run is already overdue, for
+     * example on the first launch, it happens straight away.  Calling this again does nothing.
+     */
+    public synchronized void start() {
+        if (mStarted) return;
+        mStarted = true;
+        mSettings.registerOnSharedPreferenceChangeListener(this);
+        scheduleNext();
+    }
+
+    public synchronized void stop() {
+        if (!mStarted) return;
+        mStarted = false;
+        mSettings.unregisterOnSharedPreferenceChangeListener(this);
+        cancelNext();
+    }
+
+    /**
+     * Asks for a run now, outside the schedule.
+     *
+     * @return false if a run was already queued or running, in which case this request is
+     * served by that run
+     */
+    public boolean requestSync() {
+        if (!tryStartRun()) return false;
+        mExecutor.execute(mRun);
+        return true;
+    }
+
+    @Override
+    public synchronized void onSharedPreferenceChanged(SharedPreferences prefs, String key) {
+        if (mStarted && mFrequencyKey.equals(key)) scheduleNext();
+    }
+
+    /** The sync interval, or -1 if periodic sync is turned off. */
+    long getIntervalMillis() {
+        long minutes;
+        try {
+            minutes = Long.parseLong(mSettings.getString(mFrequencyKey, mFrequencyDefault));
+        } catch (NumberFormatException e) {
+            minutes = Long.parseLong(mFrequencyDefault);
+        }
+        return minutes <= 0 ? -1 : TimeUnit.MINUTES.toMillis(minutes);
+    }
+
+    /** When the next scheduled run is due, or -1 if none is scheduled. */
+    synchronized long getNextRunTime() {
+        return mNextRunTime;
+    }
+
+    /** Runs completed since this scheduler was created. */
+    synchronized long getRunCount() {
+        return mRunCount;
+    }
+
+    /** Run requests that were folded into a run already in progress. */
+    synchronized long getCoalescedCount() {
+        return mCoalescedCount;
+    }
+
+    long getLastRunStart() {
+        return mState.getLong(STATE_LAST_RUN_START, 0);
+    }
+
+    private synchronized boolean tryStartRun() {
+        if (mRunning) {
+            mCoalescedCount++;
+            return false;
+        }
+        mRunning = true;
+        return true;
+    }
+
+    private void runSync() {
+        long start = mClock.currentTimeMillis();
+        int synced = 0;
+        int failed = 0;
+        try {
+            for (String locationSetting : mSyncer.getTrackedLocations()) {
+                if (mSyncer.sync(locationSetting)) {
+                    synced++;
+                } else {
+                    failed++;
+                }
+            }
+        } catch (RuntimeException e) {
+            Log.e(LOG_TAG, "Sync failed", e);
+            failed++;
+        } finally {
+            mState.edit()
+                    .putLong(STATE_LAST_RUN_START, start)
+                    .putLong(STATE_LAST_RUN_END, mClock.currentTimeMillis())
+                    .putInt(STATE_LAST_RUN_SYNCED, synced)
+                    .putInt(STATE_LAST_RUN_FAILED, failed)
+                    .commit();
+            synchronized (this) {
+                mRunning = false;
+                mRunCount++;
+                if (mStarted) scheduleNext();
+            }
+        }
+        Log.d(LOG_TAG, "Sync complete: " + synced + " locations refreshed, " + failed + " failed");
+    }
+
+    // Must hold the lock.
+    private void scheduleNext() {
+        cancelNext();
+        long interval = getIntervalMillis();
+        if (interval < 0) return;
+
+        long now = mClock.currentTimeMillis();
+        long lastRun = getLastRunStart();
+        long jitter = (long) (interval * JITTER_FRACTION * (2 * mRandom.nextDouble() - 1));
+        // A last run in the future means the clock was set back; don't wait for it.
+        long due = lastRun == 0 || lastRun > now ? now : lastRun + interval + jitter;
+
+        mNextRunTime = Math.max(due, now);
+        mNextRun = mExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (tryStartRun()) mRun.run();
+            }
+        }, mNextRunTime - now, TimeUnit.MILLISECONDS);
+    }
+
+    // Must hold the lock.
+    private void cancelNext() {
+        if (mNextRun != null) mNextRun.cancel(false);
+        mNextRun = null;
+        mNextRunTime = -1;
+    }
+
+    /**
+     * Refreshes the preferred location and the user's most used ones, through FetchWeatherTask.
+     * The targets come from the settings and LocationHistory, not from the location table,
+     * which also holds every grid cell and searched place ever stored.
+     */
+    static class ForecastSyncer implements LocationSyncer {
+        private final Context mContext;
+        private final LocationHistory mHistory;
+        private final int mMaxLocations;
+
+        ForecastSyncer(Context context, LocationHistory history, int maxLocations) {
+            mContext = context;
+            mHistory = history;
+            mMaxLocations = maxLocations;
+        }
+
+        @Override
+        public Collection<String> getTrackedLocations() {
+            Set<String> locations = new LinkedHashSet<>();
+            locations.add(FetchWeatherTask.getPreferredLocation(mContext));
+            locations.addAll(mHistory.getTopLocations(mMaxLocations));
+            return locations;
+        }
+
+        @Override
+        public boolean sync(String locationSetting) {
+            return new FetchWeatherTask(mContext, null).fetchForecast(locationSetting) != null;
+        }
+    }
+}
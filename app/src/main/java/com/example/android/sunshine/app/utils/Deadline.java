@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.utils;
+
+import java.io.IOException;
+
+/**
+ * The time budget of one refresh, from the first connection attempt to the end of the
+ * database write.  Each stage checks it before doing more work, and the network stages size
+ * their socket timeouts from what is left of it, so a stalled server can't hold a refresh
+ * past its budget.
+ *
+ * A deadline can also be cancelled from another thread, which expires it at once: a refresh
+ * that is no longer wanted stops at its next check, the same way one that ran out of time does.
+ */
+public class Deadline {
+
+    // The stages of a refresh, in order.
+    public static final String STAGE_CONNECT = "connect";
+    public static final String STAGE_READ = "read";
+    public static final String STAGE_PARSE = "parse";
+    public static final String STAGE_WRITE = "write";
+
+    private final Clock mClock;
+    private final long mExpiresAt;
+    private volatile boolean mCancelled;
+
+    public Deadline(Clock clock, long budgetMillis) {
+        mClock = clock;
+        mExpiresAt = clock.currentTimeMillis() + budgetMillis;
+    }
+
+    /** A deadline that never expires, for callers that don't have a budget. */
+    public static Deadline none() {
+        return new Deadline(Clock.SYSTEM, Long.MAX_VALUE / 2);
+    }
+
+    /** Expires the deadline now.  Safe to call from any thread, and more than once. */
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    public long getRemainingMillis() {
+        if (mCancelled) return 0;
+        return Math.max(0, mExpiresAt - mClock.currentTimeMillis());
+    }
+
+    public boolean isExpired() {
+        return getRemainingMillis() == 0;
+    }
+
+    /**
+     * @param stage names the work that was about to start, for the exception's message
+     * @throws ExpiredException if the budget has run out
+     */
+    public void check(String stage) throws ExpiredException {
+        if (isExpired()) throw new ExpiredException(stage);
+    }
+
+    /**
+     * A socket timeout for the given stage: what's left of the budget, but no more than the
+     * stage's own limit.  Never 0, which HttpURLConnection would take to mean no timeout.
+     *
+     * @throws ExpiredException if the budget has already run out
+     */
+    public int getTimeoutMillis(String stage, int limitMillis) throws ExpiredException {
+        long remaining = getRemainingMillis();
+        if (remaining == 0) throw new ExpiredException(stage);
+        return (int) Math.min(limitMillis, remaining);
+    }
+
+    /** The refresh ran out of time.  Whatever it had written so far has been rolled back. */
+    public static class ExpiredException extends IOException {
+        private final String mStage;
+
+        public ExpiredException(String stage) {
+            super("Deadline expired before " + stage);
+            mStage = stage;
+        }
+
+        public String getStage() {
+            return mStage;
+        }
+    }
+}
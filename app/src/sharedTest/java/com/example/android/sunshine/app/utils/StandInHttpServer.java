@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.utils;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A minimal HTTP/1.1 server on the loopback interface that stands in for the forecast API in
+ * tests.  A {@link Handler} decides each response, which can be delayed, trickled out a few
+ * bytes at a time, or never sent at all.  Connections are kept alive unless the response says
+ * otherwise, and the server counts both requests and connections.
+ */
+public class StandInHttpServer implements Closeable {
+
+    public interface Handler {
+        /**
+         * @param requestNumber 1 for the first request the server sees, and so on
+         * @param path          the request path, including any query
+         */
+        Response handle(int requestNumber, String path);
+    }
+
+    public static class Response {
+        final int mStatus;
+        final byte[] mBody;
+        long mHeaderDelayMillis;
+        int mTrickleChunkBytes;
+        long mTrickleIntervalMillis;
+        boolean mHang;
+        boolean mClose;
+
+        public Response(int status, String body) {
+            mStatus = status;
+            mBody = body.getBytes();
+        }
+
+        /** Waits before sending the status line. */
+        public Response delay(long millis) {
+            mHeaderDelayMillis = millis;
+            return this;
+        }
+
+        /** Sends the body a few bytes at a time, pausing between chunks. */
+        public Response trickle(int chunkBytes, long intervalMillis) {
+            mTrickleChunkBytes = chunkBytes;
+            mTrickleIntervalMillis = intervalMillis;
+            return this;
+        }
+
+        /** Reads the request and never answers it. */
+        public Response hang() {
+            mHang = true;
+            return this;
+        }
+
+        /** Answers with "Connection: close" and closes the socket afterwards. */
+        public Response close() {
+            mClose = true;
+            return this;
+        }
+    }
+
+    private final ServerSocket mServerSocket;
+    private final Handler mHandler;
+    private final AtomicInteger mRequests = new AtomicInteger();
+    private final AtomicInteger mConnections = new AtomicInteger();
+    private final List<Socket> mSockets = new ArrayList<>();
+    private volatile boolean mClosed;
+
+    public StandInHttpServer(Handler handler) throws IOException {
+        mHandler = handler;
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptLoop();
+            }
+        }, "StandInHttpServer");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public URL getUrl(String path) throws IOException {
+        return new URL("http://127.0.0.1:" + mServerSocket.getLocalPort() + path);
+    }
+
+    public int getRequestCount() {
+        return mRequests.get();
+    }
+
+    /** TCP connections accepted so far; fewer than requests means connections were reused. */
+    public int getConnectionCount() {
+        return mConnections.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        mClosed = true;
+        mServerSocket.close();
+        synchronized (mSockets) {
+            for (Socket socket : mSockets) socket.close();
+            mSockets.clear();
+        }
+    }
+
+    private void acceptLoop() {
+        while (!mClosed) {
+            final Socket socket;
+            try {
+                socket = mServerSocket.accept();
+            } catch (IOException e) {
+                return;
+            }
+            mConnections.incrementAndGet();
+            synchronized (mSockets) {
+                mSockets.add(socket);
+            }
+            Thread worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    serve(socket);
+                }
+            }, "StandInHttpServer connection");
+            worker.setDaemon(true);
+            worker.start();
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            OutputStream out = socket.getOutputStream();
+            String requestLine;
+            while (!mClosed && (requestLine = in.readLine()) != null) {
+                if (requestLine.length() == 0) continue;
+                // The stand-in only serves GETs, so there's no body after the headers.
+                boolean clientCloses = false;
+                String header;
+                while ((header = in.readLine()) != null && header.length() > 0) {
+                    if (header.equalsIgnoreCase("Connection: close")) clientCloses = true;
+                }
+                String[] parts = requestLine.split(" ");
+                Response response = mHandler.handle(mRequests.incrementAndGet(),
+                        parts.length > 1 ? parts[1] : "/");
+                if (response.mHang) {
+                    // Hold the connection open until the client gives up or the server closes.
+                    while (!mClosed && in.read() != -1) {
+                        // discard
+                    }
+                    return;
+                }
+                if (!respond(out, response) || response.mClose || clientCloses) return;
+            }
+        } catch (IOException e) {
+            // The client went away.
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // ignored
+            }
+        }
+    }
+
+    private boolean respond(OutputStream out, Response response) throws IOException {
+        if (!sleep(response.mHeaderDelayMillis)) return false;
+        String headers = "HTTP/1.1 " + response.mStatus + " " + reason(response.mStatus) + "\r\n" +
+                "Content-Type: application/json\r\n" +
+                "Content-Length: " + response.mBody.length + "\r\n" +
+                (response.mClose ? "Connection: close\r\n" : "") +
+                "\r\n";
+        out.write(headers.getBytes());
+        out.flush();
+
+        if (response.mTrickleChunkBytes <= 0) {
+            out.write(response.mBody);
+            out.flush();
+            return true;
+        }
+        for (int offset = 0; offset < response.mBody.length;
+             offset += response.mTrickleChunkBytes) {
+            if (!sleep(response.mTrickleIntervalMillis)) return false;
+            out.write(response.mBody, offset,
+                    Math.min(response.mTrickleChunkBytes, response.mBody.length - offset));
+            out.flush();
+        }
+        return true;
+    }
+
+    private boolean sleep(long millis) {
+        if (millis <= 0) return true;
+        try {
+            Thread.sleep(millis);
+            return !mClosed;
+        } catch (InterruptedException e) {
+            return false;
+        }
+    }
+
+    private static String reason(int status) {
+        switch (status) {
+            case 200: return "OK";
+            case 404: return "Not Found";
+            case 429: return "Too Many Requests";
+            case 500: return "Internal Server Error";
+            case 503: return "Service Unavailable";
+            default: return "Status";
+        }
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.preference.PreferenceManager;
+import android.view.View;
+import android.widget.ListView;
+
+import com.example.android.sunshine.app.data.BenchmarkReport;
+import com.example.android.sunshine.app.data.ForecastSnapshotStore;
+import com.example.android.sunshine.app.data.SeedDataset;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherProvider;
+import com.example.android.sunshine.app.perf.StartupTrace;
+import com.example.android.sunshine.app.sync.LocationHistory;
+import com.example.android.sunshine.app.utils.StandInHttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowContentResolver;
+import org.robolectric.util.ActivityController;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/*
+    Launches MainActivity headless, against a seeded database and a local stand-in for the
+    forecast API, and times each launch from StartupTrace's marks: application, activity,
+    inflate, first_bind and first_frame, and the total.
+
+        ./gradlew test --tests '*TestStartupBenchmark' -Dbench.maxRatio=1.5
+
+    Three kinds of launch:
+
+    cold              a new process: a new WeatherProvider, so the database starts closed, and
+                      the forecast is out of date, so the list asks the stand-in for a new one
+                      after showing the snapshot the last refresh left
+    cold.no_snapshot  the same without a snapshot, so the list waits for the download
+    warm              a new activity in the same process, showing the stored forecast
+
+    Robolectric runs the refresh's AsyncTask only when told to, after the first frame has been
+    drawn, as it would be on a device where it runs alongside.  A frame is measure, layout and
+    draw of the whole window into a bitmap.  The activity isn't resumed: onResume only starts
+    frame tracking, whose Choreographer callbacks keep posting themselves to the main looper.
+    The rest of the process, the connection pool and the preferences, is shared by every
+    launch, and periodic sync is turned off so it can't run in the middle of one.
+
+    bench.startup.locations,    size of the seeded history besides the preferred location
+    bench.startup.days          (default 20 x 365)
+    bench.iterations,           timed and untimed launches of each kind (default 30, 5)
+    bench.warmup
+    bench.maxRatio, bench.recordBaseline    as for TestProviderBenchmark
+
+    Results go to build/benchmarks/startup-<locations>x<days>.json, with the median, p90 and
+    p99 of each phase; the baseline lives in benchmarks/ next to this module's build.gradle.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class TestStartupBenchmark {
+
+    private static final String PATH = "/data/2.5/forecast/daily?";
+    private static final int FORECAST_DAYS = 14;
+    private static final int FRAME_WIDTH = 1080;
+    private static final int FRAME_HEIGHT = 1920;
+    // Runs of the AsyncTasks and frames to wait for the list's first rows before giving up.
+    private static final int MAX_FRAMES = 10;
+
+    private final SeedDataset mDataset = new SeedDataset(
+            Integer.getInteger("bench.startup.locations", 20),
+            Integer.getInteger("bench.startup.days", 365), 42);
+    private final int mIterations = Integer.getInteger("bench.iterations", 30);
+    private final int mWarmup = Integer.getInteger("bench.warmup", 5);
+
+    private Context mContext;
+    private StandInHttpServer mServer;
+    private WeatherProvider mProvider;
+    private ActivityController<MainActivity> mActivity;
+    private BenchmarkReport mReport;
+
+    @Before
+    public void setUp() throws Exception {
+        mContext = RuntimeEnvironment.application;
+        PreferenceManager.getDefaultSharedPreferences(mContext).edit()
+                .putString(mContext.getString(R.string.pref_sync_frequency_key), "0")
+                .commit();
+
+        final String forecastJson = createForecastJson(FORECAST_DAYS);
+        mServer = new StandInHttpServer(new StandInHttpServer.Handler() {
+            @Override
+            public StandInHttpServer.Response handle(int requestNumber, String path) {
+                return new StandInHttpServer.Response(200, forecastJson);
+            }
+        });
+        FetchWeatherTask.setForecastBaseUrl(mServer.getUrl(PATH).toString());
+
+        startProcess();
+        mDataset.seed(mProvider);
+        // AsyncTasks wait to be run, as they would wait for a thread.
+        Robolectric.getBackgroundThreadScheduler().pause();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        closeActivity();
+        mProvider.shutdown();
+        FetchWeatherTask.setForecastBaseUrl(FetchWeatherTask.FORECAST_BASE_URL);
+        mServer.close();
+    }
+
+    // OpenWeatherMap's daily forecast, made up from a seeded Random.
+    private static String createForecastJson(int days) {
+        String[] descriptions = {"Clear", "Clouds", "Rain"};
+        int[] weatherIds = {800, 803, 500};
+        Random random = new Random(42);
+        StringBuilder json = new StringBuilder("{\"city\":{\"name\":\"Mountain View\"," +
+                "\"coord\":{\"lon\":-122.083847,\"lat\":37.386051}},\"cnt\":" + days +
+                ",\"list\":[");
+        for (int day = 0; day < days; day++) {
+            int kind = random.nextInt(descriptions.length);
+            float min = random.nextInt(20);
+            if (day > 0) json.append(',');
+            json.append(String.format(Locale.US, "{\"dt\":%d,\"temp\":{\"min\":%.2f," +
+                            "\"max\":%.2f},\"pressure\":%.2f,\"humidity\":%d,\"weather\":" +
+                            "[{\"id\":%d,\"main\":\"%s\"}],\"speed\":%.2f,\"deg\":%d}",
+                    1419105600L + day * 86400L, min, min + random.nextInt(10),
+                    980 + random.nextFloat() * 60, random.nextInt(100), weatherIds[kind],
+                    descriptions[kind], random.nextFloat() * 20, random.nextInt(360)));
+        }
+        return json.append("]}").toString();
+    }
+
+    // What a new process does before the activity: providers first.
+    private void startProcess() {
+        mProvider = new WeatherProvider();
+        mProvider.attachInfo(mContext, null);
+        ShadowContentResolver.registerProvider(WeatherContract.CONTENT_AUTHORITY, mProvider);
+    }
+
+    private void closeActivity() {
+        if (mActivity != null) mActivity.stop().destroy();
+        mActivity = null;
+    }
+
+    /**
+     * Starts MainActivity and draws frames until the list shows the forecast, running the
+     * refresh's AsyncTask between frames.  Whatever the refresh has left to do afterwards is
+     * done before returning, untimed.
+     */
+    private StartupTrace launch(boolean cold) {
+        StartupTrace previous = StartupTrace.getLastLaunch();
+        if (cold) startProcess();
+        mActivity = Robolectric.buildActivity(MainActivity.class)
+                .create().start().postCreate(null).visible();
+        drawFrame();
+        for (int frame = 1; StartupTrace.getLastLaunch() == previous && frame < MAX_FRAMES;
+             frame++) {
+            Robolectric.flushBackgroundThreadScheduler();
+            drawFrame();
+        }
+        Robolectric.flushBackgroundThreadScheduler();
+
+        StartupTrace launch = StartupTrace.getLastLaunch();
+        assertTrue("Error: the list never showed a forecast", launch != previous);
+        assertNotNull(launch);
+        assertEquals(cold, launch.isCold());
+        return launch;
+    }
+
+    private void drawFrame() {
+        View decor = mActivity.get().getWindow().getDecorView();
+        decor.measure(View.MeasureSpec.makeMeasureSpec(FRAME_WIDTH, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(FRAME_HEIGHT, View.MeasureSpec.EXACTLY));
+        decor.layout(0, 0, FRAME_WIDTH, FRAME_HEIGHT);
+        ListView list = (ListView) decor.findViewById(R.id.listview_forecast);
+        list.getViewTreeObserver().dispatchOnPreDraw();
+        decor.draw(new Canvas(Bitmap.createBitmap(FRAME_WIDTH, FRAME_HEIGHT,
+                Bitmap.Config.ARGB_8888)));
+    }
+
+    private void measure(String name, boolean cold, boolean snapshot) {
+        List<StartupTrace> launches = new ArrayList<>();
+        for (int i = 0; i < mWarmup + mIterations; i++) {
+            closeActivity();
+            if (cold) {
+                mProvider.shutdown();
+                // Out of date, so the launch downloads a new forecast.
+                mContext.getSharedPreferences(LocationHistory.PREFERENCES, Context.MODE_PRIVATE)
+                        .edit().clear().commit();
+                if (!snapshot) ForecastSnapshotStore.getInstance(mContext).delete();
+            }
+            StartupTrace launch = launch(cold);
+            if (i >= mWarmup) launches.add(launch);
+        }
+
+        for (String phase : StartupTrace.PHASES) {
+            // A warm launch has no application phase.
+            if (!cold && phase.equals(StartupTrace.PHASE_APPLICATION)) continue;
+            long[] nanos = new long[launches.size()];
+            for (int i = 0; i < nanos.length; i++) {
+                nanos[i] = launches.get(i).getPhaseNanos(phase);
+            }
+            mReport.add(name + "." + phase, nanos);
+        }
+        long[] total = new long[launches.size()];
+        for (int i = 0; i < total.length; i++) {
+            total[i] = launches.get(i).getTotalNanos();
+        }
+        mReport.add(name + ".total", total);
+    }
+
+    @Test
+    public void benchmarkStartup() throws Exception {
+        mReport = new BenchmarkReport("startup", mDataset.getName());
+        // The first cold launch downloads the forecast that the warm ones show.
+        measure("cold", true, true);
+        measure("cold.no_snapshot", true, false);
+        measure("warm", false, true);
+        mReport.finish("Startup benchmark");
+
+        assertTrue("Error: the stand-in was never asked for a forecast",
+                mServer.getRequestCount() > 0);
+    }
+}
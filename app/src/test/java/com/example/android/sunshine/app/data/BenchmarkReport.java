@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Collects benchmark timings for one suite and dataset, and writes them out as JSON:
+ *
+ *     {"suite":"provider","dataset":"4x120","results":[
+ *       {"name":"query.weather.cold","iterations":50,"median_us":812,"p90_us":1020,
+ *        "p99_us":1180,"min_us":760,"baseline_median_us":790,"ratio":1.03}, ...]}
+ *
+ * A baseline is a results file from an earlier run, copied into the module's benchmarks
+ * directory.  Each result is compared with the baseline result of the same name by median.
+ * When a comparison is asked for, a missing baseline file, or a result the baseline doesn't
+ * have, fails the run instead of passing against nothing.
+ */
+public class BenchmarkReport {
+
+    private static final File RESULTS_DIR = new File("build/benchmarks");
+    private static final File BASELINE_DIR = new File("benchmarks");
+
+    private final String mSuite;
+    private final String mDataset;
+    private final Map<String, long[]> mResults = new LinkedHashMap<>();
+
+    public BenchmarkReport(String suite, String dataset) {
+        mSuite = suite;
+        mDataset = dataset;
+    }
+
+    String getFileName() {
+        return mSuite + "-" + mDataset + ".json";
+    }
+
+    /** Adds one benchmark's per-iteration times, in nanoseconds. */
+    public void add(String name, long[] nanos) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        mResults.put(name, sorted);
+    }
+
+    public long getMedianMicros(String name) {
+        return percentile(mResults.get(name), 50) / 1000;
+    }
+
+    /**
+     * Writes the results to build/benchmarks and compares them with their baseline in
+     * benchmarks/, as the bench.* system properties ask: bench.recordBaseline stores them as
+     * the new baseline, and a bench.maxRatio above 0 fails on any median that many times its
+     * baseline's, or with no baseline to compare it with unless this run records one.
+     */
+    public void finish(String title) throws IOException, JSONException {
+        File results = new File(RESULTS_DIR, getFileName());
+        File baselineFile = new File(BASELINE_DIR, getFileName());
+        JSONObject baseline = read(baselineFile);
+        write(results, baseline);
+        System.out.println(title + " results: " + results.getAbsolutePath());
+        if (Boolean.getBoolean("bench.recordBaseline")) {
+            write(baselineFile, null);
+            System.out.println("Recorded baseline: " + baselineFile.getAbsolutePath());
+        }
+
+        double maxRatio = Double.parseDouble(System.getProperty("bench.maxRatio", "0"));
+        if (baseline == null && maxRatio > 0 && !Boolean.getBoolean("bench.recordBaseline")) {
+            fail("No baseline to compare with at " + baselineFile.getAbsolutePath() +
+                    ": record one with -Dbench.recordBaseline=true and check it in");
+        }
+        if (baseline != null && maxRatio > 0) {
+            List<String> regressions = findRegressions(baseline, maxRatio);
+            assertTrue("Slower than the baseline:\n" + regressions, regressions.isEmpty());
+        }
+    }
+
+    /**
+     * Writes the results, each with its baseline median and ratio when the baseline has it.
+     *
+     * @param baseline a parsed baseline file, or null if there isn't one yet
+     */
+    void write(File file, JSONObject baseline) throws IOException, JSONException {
+        Map<String, Long> baselineMedians = readMedians(baseline);
+        JSONArray results = new JSONArray();
+        for (Map.Entry<String, long[]> entry : mResults.entrySet()) {
+            long[] sorted = entry.getValue();
+            JSONObject result = new JSONObject()
+                    .put("name", entry.getKey())
+                    .put("iterations", sorted.length)
+                    .put("median_us", percentile(sorted, 50) / 1000)
+                    .put("p90_us", percentile(sorted, 90) / 1000)
+                    .put("p99_us", percentile(sorted, 99) / 1000)
+                    .put("min_us", sorted[0] / 1000);
+            Long baselineMedian = baselineMedians.get(entry.getKey());
+            if (baselineMedian != null) {
+                result.put("baseline_median_us", baselineMedian);
+                result.put("ratio", ratio(getMedianMicros(entry.getKey()), baselineMedian));
+            }
+            results.put(result);
+        }
+        JSONObject report = new JSONObject()
+                .put("suite", mSuite)
+                .put("dataset", mDataset)
+                .put("results", results);
+
+        File dir = file.getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Couldn't create " + dir);
+        }
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(report.toString(2).getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * The results whose median is more than {@code maxRatio} times their baseline's, or that
+     * the baseline doesn't have, as readable lines.
+     */
+    List<String> findRegressions(JSONObject baseline, double maxRatio) throws JSONException {
+        List<String> regressions = new ArrayList<>();
+        Map<String, Long> baselineMedians = readMedians(baseline);
+        for (String name : mResults.keySet()) {
+            Long baselineMedian = baselineMedians.get(name);
+            if (baselineMedian == null) {
+                regressions.add(name + ": not in the baseline");
+                continue;
+            }
+            double ratio = ratio(getMedianMicros(name), baselineMedian);
+            if (ratio > maxRatio) {
+                regressions.add(name + ": " + getMedianMicros(name) + "us against " +
+                        baselineMedian + "us (" + ratio + "x)");
+            }
+        }
+        return regressions;
+    }
+
+    /** Reads a results or baseline file, or returns null if it doesn't exist. */
+    static JSONObject read(File file) throws IOException, JSONException {
+        if (!file.isFile()) return null;
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] bytes = new byte[(int) file.length()];
+            int read = 0;
+            while (read < bytes.length) {
+                int n = in.read(bytes, read, bytes.length - read);
+                if (n == -1) break;
+                read += n;
+            }
+            return new JSONObject(new String(bytes, 0, read, "UTF-8"));
+        } finally {
+            in.close();
+        }
+    }
+
+    private static Map<String, Long> readMedians(JSONObject report) throws JSONException {
+        Map<String, Long> medians = new LinkedHashMap<>();
+        if (report == null) return medians;
+        JSONArray results = report.getJSONArray("results");
+        for (int i = 0; i < results.length(); i++) {
+            JSONObject result = results.getJSONObject(i);
+            medians.put(result.getString("name"), result.getLong("median_us"));
+        }
+        return medians;
+    }
+
+    // Rounded to two places.  A baseline of 0us is treated as 1us.
+    private static double ratio(long micros, long baselineMicros) {
+        return Math.round(100.0 * micros / Math.max(1, baselineMicros)) / 100.0;
+    }
+
+    // Nearest rank.
+    private static long percentile(long[] sorted, double percentile) {
+        int rank = (int) Math.ceil(sorted.length * percentile / 100);
+        return sorted[Math.max(0, Math.min(sorted.length, rank) - 1)];
+    }
+}
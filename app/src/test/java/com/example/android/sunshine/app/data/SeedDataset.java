@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.utils.Deadline;
+import com.example.android.sunshine.core.ForecastBatch;
+
+import java.util.Random;
+
+/**
+ * A made-up forecast history of a given size: {@code locations} locations with {@code days}
+ * consecutive days each.  The values come from a seeded Random, so the same size always gives
+ * the same rows and benchmark runs stay comparable.
+ */
+public class SeedDataset {
+
+    static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000L;
+    static final long START_DATE = 1419033600000L;  // December 20th, 2014
+
+    private static final String[] DESCRIPTIONS = {"Clear", "Clouds", "Rain", "Snow", "Fog"};
+    private static final int[] WEATHER_IDS = {800, 803, 500, 600, 741};
+
+    private final int mLocations;
+    private final int mDays;
+    private final long mSeed;
+
+    public SeedDataset(int locations, int days, long seed) {
+        mLocations = locations;
+        mDays = days;
+        mSeed = seed;
+    }
+
+    int getLocations() {
+        return mLocations;
+    }
+
+    int getDays() {
+        return mDays;
+    }
+
+    /** e.g. "10x365", for naming results and baselines. */
+    public String getName() {
+        return mLocations + "x" + mDays;
+    }
+
+    static String getLocationSetting(int location) {
+        return Integer.toString(10000 + location);
+    }
+
+    static long getDate(int day) {
+        return WeatherContract.normalizeDate(START_DATE + day * DAY_IN_MILLIS);
+    }
+
+    /**
+     * Writes the dataset through the provider, one location row and one ForecastBatch per
+     * location, as a refresh would.
+     *
+     * @return the location row ids, in order
+     */
+    public long[] seed(WeatherProvider provider) throws Deadline.ExpiredException {
+        Random random = new Random(mSeed);
+        long[] locationIds = new long[mLocations];
+        for (int location = 0; location < mLocations; location++) {
+            ContentValues values = new ContentValues();
+            values.put(LocationEntry.COLUMN_LOCATION_SETTING, getLocationSetting(location));
+            values.put(LocationEntry.COLUMN_CITY_NAME, "City " + location);
+            values.put(LocationEntry.COLUMN_COORD_LAT, random.nextDouble() * 180 - 90);
+            values.put(LocationEntry.COLUMN_COORD_LONG, random.nextDouble() * 360 - 180);
+            locationIds[location] = ContentUris.parseId(
+                    provider.insert(LocationEntry.CONTENT_URI, values));
+
+            provider.bulkInsert(createBatch(random, locationIds[location], 0, mDays),
+                    Deadline.none());
+        }
+        return locationIds;
+    }
+
+    /** {@code count} days of made-up weather for one location, starting at day {@code first}. */
+    static ForecastBatch createBatch(Random random, long locationId, int first, int count) {
+        ForecastBatch batch = new ForecastBatch(locationId, count);
+        for (int day = first; day < first + count; day++) {
+            float min = random.nextInt(40) - 10;
+            int kind = random.nextInt(DESCRIPTIONS.length);
+            batch.add(START_DATE + day * DAY_IN_MILLIS, min, min + random.nextInt(15),
+                    random.nextInt(100), 980 + random.nextInt(60), random.nextFloat() * 20,
+                    random.nextInt(360), WEATHER_IDS[kind], DESCRIPTIONS[kind]);
+        }
+        return batch;
+    }
+}
@@ -0,0 +1,815 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+
+import com.example.android.sunshine.app.BuildConfig;
+import com.example.android.sunshine.app.ForecastAdapter;
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.utils.Deadline;
+import com.example.android.sunshine.core.ForecastBatch;
+import com.example.android.sunshine.core.ForecastFormat;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/*
+    Times every WeatherProvider route and write path on the JVM, against Robolectric's SQLite,
+    over a seeded dataset.  Sized and tuned with system properties:
+
+        ./gradlew test -Dbench.locations=20 -Dbench.days=365 -Dbench.maxRatio=1.5
+
+    bench.locations, bench.days    size of the dataset (default 4 x 120)
+    bench.history.locations,       size of the dataset for the range pages, a long history
+    bench.history.days             (default 2 x 3653, ten years)
+    bench.pageSize                 days per range page (default 50)
+    bench.rollup.days              history lengths, in days, to time the weekly and monthly
+                                   summaries at (default 365,1826,3653)
+    bench.partition.days           length of the history archived into monthly partitions
+                                   (default 3653, with bench.history.locations locations)
+    bench.search.locations         locations to search as you type through (default 10000)
+    bench.spatial.locations        location counts to time the box and nearest lookups at
+                                   (default 1000,10000,100000)
+    bench.iterations, bench.warmup timed and untimed runs of each benchmark (default 30, 5)
+    bench.maxRatio                 fail if a median is this many times its baseline's, or if
+                                   there's no baseline for it (default 0, report only)
+    bench.recordBaseline           "true" to store this run as the new baseline
+
+    Results go to build/benchmarks/provider-<locations>x<days>.json, for the range pages to
+    provider_range-<locations>x<days>.json, for the summaries to
+    provider_rollup-<lengths>.json and for the partitions to
+    provider_partition-<locations>x<days>.json, for the location search to
+    provider_search-<locations>.json, for the box and nearest lookups to
+    provider_spatial-<counts>.json, for the time to a populated list at startup to
+    provider_startup-<locations>x<days>.json and for a new provider's first query with and
+    without the database warm-up to provider_first_query-<locations>x<days>.json.  Baselines
+    live in benchmarks/ next to this module's build.gradle, one per suite and dataset size.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class TestProviderBenchmark {
+
+    // The size of one download.
+    private static final int REFRESH_DAYS = 14;
+
+    private final SeedDataset mDataset = new SeedDataset(
+            Integer.getInteger("bench.locations", 4), Integer.getInteger("bench.days", 120), 42);
+    private final int mIterations = Integer.getInteger("bench.iterations", 30);
+    private final int mWarmup = Integer.getInteger("bench.warmup", 5);
+    private final SeedDataset mHistory = new SeedDataset(
+            Integer.getInteger("bench.history.locations", 2),
+            Integer.getInteger("bench.history.days", 3653), 42);
+    private final int mPageSize = Integer.getInteger("bench.pageSize", 50);
+    private final String mRollupDays = System.getProperty("bench.rollup.days", "365,1826,3653");
+    private final int mSearchLocations = Integer.getInteger("bench.search.locations", 10000);
+    private final String mSpatialLocations =
+            System.getProperty("bench.spatial.locations", "1000,10000,100000");
+    private final SeedDataset mPartitioned = new SeedDataset(
+            Integer.getInteger("bench.history.locations", 2),
+            Integer.getInteger("bench.partition.days", 3653), 42);
+
+    private WeatherProvider mProvider;
+    private long[] mLocationIds;
+    private BenchmarkReport mReport;
+
+    @Before
+    public void setUp() throws Exception {
+        mProvider = new WeatherProvider();
+        mProvider.attachInfo(RuntimeEnvironment.application, null);
+    }
+
+    @After
+    public void tearDown() {
+        mProvider.shutdown();
+    }
+
+    /** One benchmarked operation.  Only {@link #run} is timed. */
+    private abstract static class Benchmark {
+        void before(int iteration) throws Exception {
+        }
+
+        abstract void run(int iteration) throws Exception;
+
+        // Once, after the last run.
+        void after() throws Exception {
+        }
+    }
+
+    private void measure(String name, Benchmark benchmark) throws Exception {
+        for (int i = 0; i < mWarmup; i++) {
+            benchmark.before(i);
+            benchmark.run(i);
+        }
+        long[] nanos = new long[mIterations];
+        for (int i = 0; i < mIterations; i++) {
+            benchmark.before(mWarmup + i);
+            long start = System.nanoTime();
+            benchmark.run(mWarmup + i);
+            nanos[i] = System.nanoTime() - start;
+        }
+        benchmark.after();
+        mReport.add(name, nanos);
+    }
+
+    // A query as the UI runs it: every row read, then the cursor closed.
+    private Benchmark query(final Uri uri, final String[] projection, final String sortOrder,
+                            final boolean cold, final int expectedRows) {
+        return new Benchmark() {
+            @Override
+            void before(int iteration) {
+                if (cold) mProvider.getForecastCache().invalidateAll();
+            }
+
+            @Override
+            void run(int iteration) {
+                Cursor cursor = mProvider.query(uri, projection, null, null, sortOrder);
+                int rows = 0;
+                try {
+                    while (cursor.moveToNext()) {
+                        cursor.getLong(0);
+                        rows++;
+                    }
+                } finally {
+                    cursor.close();
+                }
+                if (expectedRows >= 0) assertEquals(uri.toString(), expectedRows, rows);
+            }
+        };
+    }
+
+    private void measureQuery(String name, Uri uri, String[] projection, String sortOrder,
+                              int expectedRows) throws Exception {
+        measure(name + ".cold", query(uri, projection, sortOrder, true, expectedRows));
+        measure(name + ".cached", query(uri, projection, sortOrder, false, expectedRows));
+    }
+
+    @Test
+    public void benchmarkProvider() throws Exception {
+        mLocationIds = mDataset.seed(mProvider);
+        mReport = new BenchmarkReport("provider", mDataset.getName());
+        int locations = mDataset.getLocations();
+        int days = mDataset.getDays();
+        String setting = SeedDataset.getLocationSetting(locations / 2);
+
+        measureQuery("query.weather", WeatherEntry.CONTENT_URI, WeatherEntry.LIST_PROJECTION,
+                WeatherEntry.SORT_BY_DATE, locations * days);
+        measureQuery("query.weather_with_location", WeatherEntry.buildWeatherLocation(setting),
+                WeatherEntry.LIST_PROJECTION, WeatherEntry.SORT_BY_DATE, days);
+        measureQuery("query.weather_with_location_start_date",
+                WeatherEntry.buildWeatherLocationWithStartDate(setting,
+                        SeedDataset.getDate(days - REFRESH_DAYS)),
+                WeatherEntry.LIST_PROJECTION, WeatherEntry.SORT_BY_DATE,
+                Math.min(days, REFRESH_DAYS));
+        measureQuery("query.weather_with_location_and_date",
+                WeatherEntry.buildWeatherLocationWithDate(setting, SeedDataset.getDate(days / 2)),
+                WeatherEntry.DETAIL_PROJECTION, null, 1);
+        measureQuery("query.location", LocationEntry.CONTENT_URI, LocationEntry.MAP_PROJECTION,
+                null, locations);
+        measure("query.stats", query(WeatherContract.StatsEntry.CONTENT_URI, null, null,
+                false, -1));
+
+        measureWrites(days);
+        finish();
+    }
+
+    // The first and the last page of a long history, which should cost the same, next to
+    // the unpaged query that reads all of it.
+    @Test
+    public void benchmarkRangePages() throws Exception {
+        mHistory.seed(mProvider);
+        mReport = new BenchmarkReport("provider_range", mHistory.getName());
+        int days = mHistory.getDays();
+        String setting = SeedDataset.getLocationSetting(mHistory.getLocations() / 2);
+
+        Uri firstPage = WeatherEntry.buildWeatherRange(setting, SeedDataset.getDate(0),
+                SeedDataset.getDate(days), mPageSize);
+        measureQuery("range.first_page", firstPage, WeatherEntry.LIST_PROJECTION,
+                WeatherEntry.SORT_BY_DATE, mPageSize);
+        measureQuery("range.deep_page",
+                WeatherEntry.buildNextPage(firstPage, SeedDataset.getDate(days - mPageSize - 1)),
+                WeatherEntry.LIST_PROJECTION, WeatherEntry.SORT_BY_DATE, mPageSize);
+        measureQuery("query.weather_with_location", WeatherEntry.buildWeatherLocation(setting),
+                WeatherEntry.LIST_PROJECTION, WeatherEntry.SORT_BY_DATE, days);
+        finish();
+    }
+
+    // Monthly and weekly summaries of one location read from the rollup tables, against
+    // working the months out from the weather rows, at each history length.  The rollups
+    // should stay flat per period returned while the scan grows with the history.
+    @Test
+    public void benchmarkRollups() throws Exception {
+        mReport = new BenchmarkReport("provider_rollup", mRollupDays.replace(',', '-'));
+        final SQLiteDatabase db = new WeatherDbHelper(RuntimeEnvironment.application)
+                .getReadableDatabase();
+        for (String length : mRollupDays.split(",")) {
+            int days = Integer.parseInt(length.trim());
+            mProvider.delete(WeatherEntry.CONTENT_URI, null, null);
+            mProvider.delete(LocationEntry.CONTENT_URI, null, null);
+            final long locationId = new SeedDataset(1, days, 42).seed(mProvider)[0];
+            String setting = SeedDataset.getLocationSetting(0);
+
+            measureQuery("rollup.weekly." + days,
+                    WeatherContract.RollupEntry.buildWeeklyUri(setting, SeedDataset.getDate(0),
+                            SeedDataset.getDate(days)),
+                    WeatherContract.RollupEntry.ROLLUP_PROJECTION,
+                    WeatherContract.RollupEntry.SORT_BY_PERIOD, -1);
+            measureQuery("rollup.monthly." + days,
+                    WeatherContract.RollupEntry.buildMonthlyUri(setting, SeedDataset.getDate(0),
+                            SeedDataset.getDate(days)),
+                    WeatherContract.RollupEntry.ROLLUP_PROJECTION,
+                    WeatherContract.RollupEntry.SORT_BY_PERIOD, -1);
+
+            // The aggregate a trend view would otherwise run per request, with thirty day
+            // buckets standing in for months: it has to read every day of the history.
+            measure("scan.monthly." + days, new Benchmark() {
+                @Override
+                void run(int iteration) {
+                    Cursor cursor = db.rawQuery("SELECT " + WeatherEntry.COLUMN_DATE + " / ?, " +
+                            "count(*), min(" + WeatherEntry.COLUMN_MIN_TEMP + "), max(" +
+                            WeatherEntry.COLUMN_MAX_TEMP + "), avg((" +
+                            WeatherEntry.COLUMN_MIN_TEMP + " + " + WeatherEntry.COLUMN_MAX_TEMP +
+                            ") / 2), min(" + WeatherEntry.COLUMN_HUMIDITY + "), max(" +
+                            WeatherEntry.COLUMN_HUMIDITY + "), avg(" +
+                            WeatherEntry.COLUMN_HUMIDITY + "), min(" +
+                            WeatherEntry.COLUMN_WIND_SPEED + "), max(" +
+                            WeatherEntry.COLUMN_WIND_SPEED + "), avg(" +
+                            WeatherEntry.COLUMN_WIND_SPEED + ") FROM " + WeatherEntry.TABLE_NAME +
+                            " WHERE " + WeatherEntry.COLUMN_LOC_KEY + " = ? GROUP BY 1",
+                            new String[]{Long.toString(30 * SeedDataset.DAY_IN_MILLIS),
+                                    Long.toString(locationId)});
+                    try {
+                        while (cursor.moveToNext()) cursor.getLong(0);
+                    } finally {
+                        cursor.close();
+                    }
+                }
+            });
+        }
+        db.close();
+        finish();
+    }
+
+    // A refresh, a deep range page, a year's range and retention of one month, over a long
+    // history kept all in the weather table and then with all but its last month or two
+    // archived into monthly partitions.  Dropping a partition should cost the same whatever it
+    // holds, where deleting a month costs a row at a time.
+    @Test
+    public void benchmarkPartitions() throws Exception {
+        mLocationIds = mPartitioned.seed(mProvider);
+        mReport = new BenchmarkReport("provider_partition", mPartitioned.getName());
+        int days = mPartitioned.getDays();
+
+        // The month starts of the history, oldest first.  Each retention iteration takes the
+        // next one, the deletes from the front and the drops from after them.
+        final List<Long> months = new ArrayList<>();
+        for (long month = WeatherContract.getStartOfMonth(SeedDataset.getDate(0));
+             month < SeedDataset.getDate(days);
+             month = WeatherContract.getStartOfNextMonth(month)) {
+            months.add(month);
+        }
+        final int runs = mWarmup + mIterations;
+        assertTrue("bench.partition.days is too short for two retention runs",
+                months.size() > 2 * runs + 2);
+
+        measurePartitionQueries(days, "flat");
+        measure("retention.delete_month.flat", new Benchmark() {
+            @Override
+            void run(int iteration) {
+                mProvider.delete(WeatherEntry.CONTENT_URI, WeatherEntry.COLUMN_DATE +
+                        " >= ? AND " + WeatherEntry.COLUMN_DATE + " < ?", new String[]{
+                        Long.toString(months.get(iteration)),
+                        Long.toString(months.get(iteration + 1))});
+            }
+        });
+
+        long start = System.nanoTime();
+        // Far enough back that the refreshes below still land in the weather table.
+        mProvider.archiveBefore(SeedDataset.getDate(days - 3 * REFRESH_DAYS));
+        mReport.add("archive.once", new long[]{System.nanoTime() - start});
+
+        measurePartitionQueries(days, "partitioned");
+        // The deleted months were never archived, so the first partition is the month after.
+        measure("retention.drop_month.partitioned", new Benchmark() {
+            @Override
+            void run(int iteration) {
+                assertEquals(1, mProvider.dropArchiveBefore(months.get(runs + iteration + 1)));
+            }
+        });
+        finish();
+    }
+
+    private void measurePartitionQueries(final int days, String layout) throws Exception {
+        final long locationId = mLocationIds[0];
+        final Random random = new Random(7);
+        String setting = SeedDataset.getLocationSetting(0);
+
+        // The newest days, which are never archived.
+        measure("insert.refresh." + layout, new Benchmark() {
+            private ForecastBatch mBatch;
+
+            @Override
+            void before(int iteration) {
+                mBatch = SeedDataset.createBatch(random, locationId, days - REFRESH_DAYS,
+                        REFRESH_DAYS);
+            }
+
+            @Override
+            void run(int iteration) throws Deadline.ExpiredException {
+                assertEquals(REFRESH_DAYS, mProvider.bulkInsert(mBatch, Deadline.none()));
+            }
+        });
+
+        // Well into the history, past the months the retention runs take away.
+        int from = days / 2;
+        Uri range = WeatherEntry.buildWeatherRange(setting, SeedDataset.getDate(from),
+                SeedDataset.getDate(days), mPageSize);
+        measureQuery("range.deep_page." + layout,
+                WeatherEntry.buildNextPage(range, SeedDataset.getDate(from + 200)),
+                WeatherEntry.LIST_PROJECTION, WeatherEntry.SORT_BY_DATE, mPageSize);
+        measureQuery("range.year." + layout, WeatherEntry.buildWeatherRange(setting,
+                        SeedDataset.getDate(from), SeedDataset.getDate(from + 365), -1),
+                WeatherEntry.LIST_PROJECTION, WeatherEntry.SORT_BY_DATE, 365);
+    }
+
+    // Word starts for the made-up city names, "San Barmoti" and the like.
+    private static final String[] CITY_PREFIXES = {"", "", "San ", "Santa ", "North ", "South ",
+            "New ", "Port ", "Lake ", "Mount "};
+    private static final String[] SYLLABLES = {"bar", "mo", "ti", "ka", "len", "so", "ri", "da",
+            "vel", "ton", "na", "gor", "pe", "lu", "wes", "ham"};
+
+    // What someone types one keystroke at a time into the location picker, through the full
+    // text index and, for comparison, through LIKE over the location table.
+    @Test
+    public void benchmarkLocationSearch() throws Exception {
+        mReport = new BenchmarkReport("provider_search", Integer.toString(mSearchLocations));
+        SQLiteDatabase db = new WeatherDbHelper(RuntimeEnvironment.application)
+                .getWritableDatabase();
+        Random random = new Random(42);
+        db.beginTransaction();
+        try {
+            ContentValues values = new ContentValues();
+            for (int i = 0; i < mSearchLocations; i++) {
+                StringBuilder name = new StringBuilder(
+                        CITY_PREFIXES[random.nextInt(CITY_PREFIXES.length)]);
+                int syllables = 2 + random.nextInt(2);
+                for (int j = 0; j < syllables; j++) {
+                    String syllable = SYLLABLES[random.nextInt(SYLLABLES.length)];
+                    name.append(j == 0 ? Character.toUpperCase(syllable.charAt(0)) +
+                            syllable.substring(1) : syllable);
+                }
+                values.put(LocationEntry.COLUMN_LOCATION_SETTING,
+                        SeedDataset.getLocationSetting(i));
+                values.put(LocationEntry.COLUMN_CITY_NAME, name.toString());
+                values.put(LocationEntry.COLUMN_COORD_LAT, random.nextDouble() * 180 - 90);
+                values.put(LocationEntry.COLUMN_COORD_LONG, random.nextDouble() * 360 - 180);
+                db.insert(LocationEntry.TABLE_NAME, null, values);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        for (String typed : new String[]{"s", "sa", "san", "san b", "san bar", "1", "123"}) {
+            String name = typed.replace(' ', '_');
+            measureQuery("search." + name, LocationEntry.buildSearchUri(typed,
+                    LocationEntry.DEFAULT_SEARCH_LIMIT), null, null, -1);
+            measure("scan.like." + name, likeScan(db, typed));
+        }
+        db.close();
+        finish();
+    }
+
+    // The same search without the index: every word of the query has to start some word of
+    // the city name or the setting, which LIKE can only find by reading every location.
+    private static Benchmark likeScan(final SQLiteDatabase db, String typed) {
+        String[] words = typed.split(" ");
+        StringBuilder where = new StringBuilder();
+        final String[] args = new String[words.length * 3 + 1];
+        for (int i = 0; i < words.length; i++) {
+            if (i > 0) where.append(" AND ");
+            where.append("(" + LocationEntry.COLUMN_CITY_NAME + " LIKE ? OR " +
+                    LocationEntry.COLUMN_CITY_NAME + " LIKE ? OR " +
+                    LocationEntry.COLUMN_LOCATION_SETTING + " LIKE ?)");
+            args[i * 3] = words[i] + "%";
+            args[i * 3 + 1] = "% " + words[i] + "%";
+            args[i * 3 + 2] = words[i] + "%";
+        }
+        args[args.length - 1] = Integer.toString(LocationEntry.DEFAULT_SEARCH_LIMIT);
+        final String sql = "SELECT * FROM " + LocationEntry.TABLE_NAME + " WHERE " + where +
+                " ORDER BY " + LocationEntry.SORT_BY_CITY_NAME + " LIMIT ?";
+        return new Benchmark() {
+            @Override
+            void run(int iteration) {
+                Cursor cursor = db.rawQuery(sql, args);
+                try {
+                    while (cursor.moveToNext()) cursor.getLong(0);
+                } finally {
+                    cursor.close();
+                }
+            }
+        };
+    }
+
+    // A small box (a degree square, a map zoomed in on a region), a large one (twenty degrees,
+    // most of a continent) and the location nearest a point, through the geohash index and,
+    // for comparison, through a scan of the location table, at each location count.
+    @Test
+    public void benchmarkSpatial() throws Exception {
+        mReport = new BenchmarkReport("provider_spatial", mSpatialLocations.replace(',', '-'));
+        SQLiteDatabase db = new WeatherDbHelper(RuntimeEnvironment.application)
+                .getWritableDatabase();
+        for (String count : mSpatialLocations.split(",")) {
+            int locations = Integer.parseInt(count.trim());
+            mProvider.delete(LocationEntry.CONTENT_URI, null, null);
+            seedLocations(db, locations);
+
+            Random random = new Random(7);
+            double lat = random.nextDouble() * 120 - 60;
+            double lon = random.nextDouble() * 340 - 170;
+            for (double size : new double[]{1, 20}) {
+                String name = (size == 1 ? "small." : "large.") + locations;
+                double south = lat - size / 2, west = lon - size / 2;
+                double north = lat + size / 2, east = lon + size / 2;
+                measure("scan.box." + name, boxScan(db, south, west, north, east));
+                measureQuery("box." + name, LocationEntry.buildBoxUri(south, west, north, east),
+                        new String[]{LocationEntry._ID}, null, countRows(db, south, west, north,
+                                east));
+            }
+            measureQuery("nearest." + locations, LocationEntry.buildNearestUri(lat, lon),
+                    new String[]{LocationEntry._ID}, null, 1);
+            measure("scan.nearest." + locations, nearestScan(db, lat, lon));
+        }
+        db.close();
+        finish();
+    }
+
+    // Straight into the table, as the provider would write them, in one transaction.
+    private static void seedLocations(SQLiteDatabase db, int locations) {
+        Random random = new Random(42);
+        db.beginTransaction();
+        try {
+            ContentValues values = new ContentValues();
+            for (int i = 0; i < locations; i++) {
+                values.put(LocationEntry.COLUMN_LOCATION_SETTING,
+                        SeedDataset.getLocationSetting(i));
+                values.put(LocationEntry.COLUMN_CITY_NAME, "Location " + i);
+                values.put(LocationEntry.COLUMN_COORD_LAT, random.nextDouble() * 180 - 90);
+                values.put(LocationEntry.COLUMN_COORD_LONG, random.nextDouble() * 360 - 180);
+                WeatherProvider.putGeohash(values);
+                db.insert(LocationEntry.TABLE_NAME, null, values);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private static final String sBoxScanSelection = LocationEntry.COLUMN_COORD_LAT +
+            " BETWEEN ? AND ? AND " + LocationEntry.COLUMN_COORD_LONG + " BETWEEN ? AND ?";
+
+    // The box without the index: every location's coordinates are compared.
+    private static Benchmark boxScan(final SQLiteDatabase db, double south, double west,
+                                     double north, double east) {
+        final String[] args = {Double.toString(south), Double.toString(north),
+                Double.toString(west), Double.toString(east)};
+        return new Benchmark() {
+            @Override
+            void run(int iteration) {
+                Cursor cursor = db.query(LocationEntry.TABLE_NAME,
+                        new String[]{LocationEntry._ID}, sBoxScanSelection, args, null, null,
+                        null);
+                try {
+                    while (cursor.moveToNext()) cursor.getLong(0);
+                } finally {
+                    cursor.close();
+                }
+            }
+        };
+    }
+
+    // The number of locations in the box, so the indexed lookup can be checked against it.
+    private static int countRows(SQLiteDatabase db, double south, double west, double north,
+                                 double east) {
+        Cursor cursor = db.query(LocationEntry.TABLE_NAME, new String[]{LocationEntry._ID},
+                sBoxScanSelection, new String[]{Double.toString(south), Double.toString(north),
+                        Double.toString(west), Double.toString(east)}, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // The nearest location without the index: every location sorted by its flat squared
+    // distance, which is as cheap as a scan gets and not even right far from the equator.
+    private static Benchmark nearestScan(final SQLiteDatabase db, double lat, double lon) {
+        final String sql = "SELECT " + LocationEntry._ID + " FROM " + LocationEntry.TABLE_NAME +
+                " ORDER BY (" + LocationEntry.COLUMN_COORD_LAT + " - ?) * (" +
+                LocationEntry.COLUMN_COORD_LAT + " - ?) + (" + LocationEntry.COLUMN_COORD_LONG +
+                " - ?) * (" + LocationEntry.COLUMN_COORD_LONG + " - ?) LIMIT 1";
+        final String[] args = {Double.toString(lat), Double.toString(lat), Double.toString(lon),
+                Double.toString(lon)};
+        return new Benchmark() {
+            @Override
+            void run(int iteration) {
+                Cursor cursor = db.rawQuery(sql, args);
+                try {
+                    assertTrue(cursor.moveToFirst());
+                } finally {
+                    cursor.close();
+                }
+            }
+        };
+    }
+
+    // Writes the report and compares it with its baseline.
+    /*
+        Time to a populated forecast list at startup, two ways: from the snapshot file the last
+        refresh left, and from the database through a provider created for the purpose, so
+        every iteration opens the database as a new process would.  Both end with the rows
+        formatted and handed to the list's adapter.
+     */
+    @Test
+    public void benchmarkFirstList() throws Exception {
+        mLocationIds = mDataset.seed(mProvider);
+        mReport = new BenchmarkReport("provider_startup", mDataset.getName());
+        final int days = mDataset.getDays();
+        final int location = mDataset.getLocations() / 2;
+        final String setting = SeedDataset.getLocationSetting(location);
+        // "Now" is the first day of the last download.
+        final long now = SeedDataset.getDate(days - REFRESH_DAYS);
+        final ForecastAdapter adapter = new ForecastAdapter(RuntimeEnvironment.application,
+                R.layout.list_item_forecast, R.id.list_item_forecast_textview);
+        final ForecastFormat format = new ForecastFormat(Locale.US, false);
+
+        File snapshotFile = new File(RuntimeEnvironment.application.getFilesDir(),
+                ForecastSnapshotStore.FILE_NAME);
+        new ForecastSnapshotStore(snapshotFile).write(setting, SeedDataset.createBatch(
+                new Random(7), mLocationIds[location], days - REFRESH_DAYS, REFRESH_DAYS));
+        final ForecastSnapshotStore store = new ForecastSnapshotStore(snapshotFile);
+        measure("first_list.snapshot", new Benchmark() {
+            @Override
+            void run(int iteration) {
+                showList(adapter, format, setting, store.read(setting, now));
+            }
+        });
+
+        final Uri uri = WeatherEntry.buildWeatherLocationWithStartDate(setting, now);
+        measure("first_list.database", new Benchmark() {
+            private WeatherProvider mColdProvider;
+
+            @Override
+            void before(int iteration) {
+                after();
+            }
+
+            @Override
+            void after() {
+                if (mColdProvider != null) mColdProvider.shutdown();
+                mColdProvider = null;
+            }
+
+            @Override
+            void run(int iteration) {
+                mColdProvider = new WeatherProvider();
+                mColdProvider.attachInfo(RuntimeEnvironment.application, null);
+                Cursor cursor = mColdProvider.query(uri, WeatherEntry.DETAIL_PROJECTION, null,
+                        null, WeatherEntry.SORT_BY_DATE);
+                ForecastBatch batch = new ForecastBatch(0, cursor.getCount());
+                try {
+                    while (cursor.moveToNext()) {
+                        batch.add(cursor.getLong(WeatherEntry.DETAIL_COL_DATE),
+                                cursor.getFloat(WeatherEntry.DETAIL_COL_MIN_TEMP),
+                                cursor.getFloat(WeatherEntry.DETAIL_COL_MAX_TEMP),
+                                cursor.getFloat(WeatherEntry.DETAIL_COL_HUMIDITY),
+                                cursor.getFloat(WeatherEntry.DETAIL_COL_PRESSURE),
+                                cursor.getFloat(WeatherEntry.DETAIL_COL_WIND_SPEED),
+                                cursor.getFloat(WeatherEntry.DETAIL_COL_DEGREES),
+                                cursor.getInt(WeatherEntry.DETAIL_COL_WEATHER_ID),
+                                cursor.getString(WeatherEntry.DETAIL_COL_SHORT_DESC));
+                    }
+                } finally {
+                    cursor.close();
+                }
+                showList(adapter, format, setting, batch);
+            }
+        });
+        snapshotFile.delete();
+        finish();
+    }
+
+    /*
+        The first query a new provider answers, for the list's forecast: without the warm-up,
+        so the query opens the database itself; after the warm-up has finished, as when the
+        list asks once the activity is up; and straight after onCreate, while the warm-up is
+        still going, when the query waits for it instead of opening the database again.
+     */
+    @Test
+    public void benchmarkFirstQuery() throws Exception {
+        mLocationIds = mDataset.seed(mProvider);
+        mReport = new BenchmarkReport("provider_first_query", mDataset.getName());
+        int days = mDataset.getDays();
+        Uri uri = WeatherEntry.buildWeatherLocationWithStartDate(
+                SeedDataset.getLocationSetting(mDataset.getLocations() / 2),
+                SeedDataset.getDate(days - REFRESH_DAYS));
+
+        measure("first_query.without_warmup", firstQuery(uri, false, false));
+        measure("first_query.after_warmup", firstQuery(uri, true, true));
+        measure("first_query.during_warmup", firstQuery(uri, true, false));
+        finish();
+
+        assertTrue("Error: the warm-up didn't make the first query any faster",
+                mReport.getMedianMicros("first_query.after_warmup") <
+                        mReport.getMedianMicros("first_query.without_warmup"));
+    }
+
+    // A new provider is created before each run and shut down before the next.
+    private static Benchmark firstQuery(final Uri uri, final boolean warmUp,
+                                        final boolean awaitWarmup) {
+        return new Benchmark() {
+            private WeatherProvider mFirstProvider;
+
+            @Override
+            void before(int iteration) {
+                after();
+                mFirstProvider = new WeatherProvider(warmUp);
+                mFirstProvider.attachInfo(RuntimeEnvironment.application, null);
+                if (awaitWarmup) mFirstProvider.awaitWarmup();
+            }
+
+            @Override
+            void after() {
+                if (mFirstProvider != null) mFirstProvider.shutdown();
+                mFirstProvider = null;
+            }
+
+            @Override
+            void run(int iteration) {
+                Cursor cursor = mFirstProvider.query(uri, WeatherEntry.LIST_PROJECTION, null,
+                        null, WeatherEntry.SORT_BY_DATE);
+                try {
+                    assertEquals(REFRESH_DAYS, cursor.getCount());
+                } finally {
+                    cursor.close();
+                }
+            }
+        };
+    }
+
+    private static void showList(ForecastAdapter adapter, ForecastFormat format, String setting,
+                                 ForecastBatch batch) {
+        long[] dates = new long[batch.size()];
+        for (int day = 0; day < batch.size(); day++) {
+            dates[day] = batch.getDate(day);
+        }
+        adapter.setForecast(setting, format.formatBatch(batch), dates);
+        assertEquals(REFRESH_DAYS, adapter.getCount());
+    }
+
+    private void finish() throws Exception {
+        mReport.finish("Provider benchmark");
+    }
+
+    // The writes go past the end of the seeded days, so they never change what the queries
+    // above saw, and each iteration writes rows of its own.
+    private void measureWrites(final int days) throws Exception {
+        final long locationId = mLocationIds[0];
+        final Random random = new Random(7);
+
+        measure("insert.location", new Benchmark() {
+            @Override
+            void run(int iteration) {
+                ContentValues values = new ContentValues();
+                values.put(LocationEntry.COLUMN_LOCATION_SETTING, "bench-" + iteration);
+                values.put(LocationEntry.COLUMN_CITY_NAME, "Bench");
+                values.put(LocationEntry.COLUMN_COORD_LAT, 0.0);
+                values.put(LocationEntry.COLUMN_COORD_LONG, 0.0);
+                mProvider.insert(LocationEntry.CONTENT_URI, values);
+            }
+        });
+
+        measure("insert.weather", new Benchmark() {
+            @Override
+            void run(int iteration) {
+                ForecastBatch day =
+                        SeedDataset.createBatch(random, locationId, days + iteration, 1);
+                mProvider.insert(WeatherEntry.CONTENT_URI, toValues(day)[0]);
+            }
+        });
+
+        // A whole refresh's worth of days, replacing the same days each time as a refresh does.
+        measure("bulk_insert.values", new Benchmark() {
+            private ContentValues[] mValues;
+
+            @Override
+            void before(int iteration) {
+                mValues = toValues(SeedDataset.createBatch(random, locationId, days, REFRESH_DAYS));
+            }
+
+            @Override
+            void run(int iteration) {
+                assertEquals(REFRESH_DAYS, mProvider.bulkInsert(WeatherEntry.CONTENT_URI, mValues));
+            }
+        });
+
+        measure("bulk_insert.batch", new Benchmark() {
+            private ForecastBatch mBatch;
+
+            @Override
+            void before(int iteration) {
+                mBatch = SeedDataset.createBatch(random, locationId, days, REFRESH_DAYS);
+            }
+
+            @Override
+            void run(int iteration) throws Deadline.ExpiredException {
+                assertEquals(REFRESH_DAYS, mProvider.bulkInsert(mBatch, Deadline.none()));
+            }
+        });
+
+        measure("update.weather", new Benchmark() {
+            @Override
+            void run(int iteration) {
+                ContentValues values = new ContentValues();
+                values.put(WeatherEntry.COLUMN_HUMIDITY, iteration % 100);
+                mProvider.update(WeatherEntry.CONTENT_URI, values,
+                        WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DATE +
+                                " = ?",
+                        new String[]{Long.toString(locationId),
+                                Long.toString(SeedDataset.getDate(days))});
+            }
+        });
+
+        // Puts back one of the days insert.weather wrote, then deletes it.
+        measure("delete.weather", new Benchmark() {
+            private long mDate;
+
+            @Override
+            void before(int iteration) {
+                ForecastBatch day = SeedDataset.createBatch(random, locationId,
+                        days + REFRESH_DAYS + iteration, 1);
+                mProvider.insert(WeatherEntry.CONTENT_URI, toValues(day)[0]);
+                mDate = WeatherContract.normalizeDate(day.getDate(0));
+            }
+
+            @Override
+            void run(int iteration) {
+                assertEquals(1, mProvider.delete(WeatherEntry.CONTENT_URI,
+                        WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DATE +
+                                " = ?",
+                        new String[]{Long.toString(locationId), Long.toString(mDate)}));
+            }
+        });
+    }
+
+    private static ContentValues[] toValues(ForecastBatch batch) {
+        ContentValues[] values = new ContentValues[batch.size()];
+        for (int day = 0; day < batch.size(); day++) {
+            ContentValues value = new ContentValues();
+            value.put(WeatherEntry.COLUMN_LOC_KEY, batch.getLocationId());
+            value.put(WeatherEntry.COLUMN_DATE, batch.getDate(day));
+            value.put(WeatherEntry.COLUMN_SHORT_DESC, batch.getDescription(day));
+            value.put(WeatherEntry.COLUMN_WEATHER_ID, batch.getWeatherId(day));
+            value.put(WeatherEntry.COLUMN_MIN_TEMP, batch.getMinTemp(day));
+            value.put(WeatherEntry.COLUMN_MAX_TEMP, batch.getMaxTemp(day));
+            value.put(WeatherEntry.COLUMN_HUMIDITY, batch.getHumidity(day));
+            value.put(WeatherEntry.COLUMN_PRESSURE, batch.getPressure(day));
+            value.put(WeatherEntry.COLUMN_WIND_SPEED, batch.getWindSpeed(day));
+            value.put(WeatherEntry.COLUMN_DEGREES, batch.getDegrees(day));
+            values[day] = value;
+        }
+        return values;
+    }
+}
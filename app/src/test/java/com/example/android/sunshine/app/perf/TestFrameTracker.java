@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.perf;
+
+import junit.framework.TestCase;
+
+/*
+    Feeds the tracker hand-made frame timestamps, so these run on the JVM with "gradlew test",
+    no device needed.
+ */
+public class TestFrameTracker extends TestCase {
+
+    private static final long VSYNC = FrameTracker.DEFAULT_FRAME_INTERVAL_NANOS;
+    private static final long MILLI = 1000000;
+
+    private FrameTracker mTracker;
+    private long mNow;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mTracker = new FrameTracker(FrameMonitor.SCREEN_FORECAST_LIST, VSYNC);
+        mNow = 1000 * MILLI;
+    }
+
+    // Starts a frame the given time after the last one.
+    private void frameAfter(long nanos) {
+        mNow += nanos;
+        mTracker.onFrame(mNow);
+    }
+
+    public void testSteadyFramesHaveNoJank() {
+        mTracker.onFrame(mNow);
+        for (int i = 0; i < 120; i++) {
+            // A little late now and then, as a real vsync is.
+            frameAfter(VSYNC + (i % 3) * MILLI);
+        }
+
+        FrameStats stats = mTracker.getStats();
+        assertEquals(120, stats.getFrameCount());
+        assertEquals(0, stats.getJankyFrameCount());
+        assertEquals(0, stats.getDroppedFrameCount());
+        assertEquals(VSYNC + MILLI, stats.getFramePercentileNanos(50));
+    }
+
+    public void testLongFrameDropsFrames() {
+        mTracker.onFrame(mNow);
+        for (int i = 0; i < 10; i++) frameAfter(VSYNC);
+        // Three vsyncs' worth, so two frames were dropped.
+        frameAfter(50 * MILLI);
+        for (int i = 0; i < 10; i++) frameAfter(VSYNC);
+        frameAfter(2 * VSYNC);
+
+        FrameStats stats = mTracker.getStats();
+        assertEquals(22, stats.getFrameCount());
+        assertEquals(2, stats.getJankyFrameCount());
+        assertEquals(3, stats.getDroppedFrameCount());
+        assertEquals(50 * MILLI, stats.getMaxFrameNanos());
+        assertEquals(VSYNC, stats.getFramePercentileNanos(50));
+        assertEquals(2 * VSYNC, stats.getFramePercentileNanos(95));
+    }
+
+    public void testPausedTimeIsNotAFrame() {
+        mTracker.onFrame(mNow);
+        frameAfter(VSYNC);
+        mTracker.pause();
+
+        // Ten seconds in the background, then drawing again.
+        mNow += 10000 * MILLI;
+        mTracker.onFrame(mNow);
+        frameAfter(VSYNC);
+
+        FrameStats stats = mTracker.getStats();
+        assertEquals(2, stats.getFrameCount());
+        assertEquals(0, stats.getJankyFrameCount());
+        assertEquals(VSYNC, stats.getMaxFrameNanos());
+    }
+
+    public void testRefreshesAreTimed() {
+        mTracker.beginRefresh(0);
+        mTracker.endRefresh(4 * MILLI);
+        mTracker.beginRefresh(100 * MILLI);
+        mTracker.endRefresh(112 * MILLI);
+        // An end without a begin is ignored.
+        mTracker.endRefresh(200 * MILLI);
+
+        FrameStats stats = mTracker.getStats();
+        assertEquals(2, stats.getRefreshCount());
+        assertEquals(4 * MILLI, stats.getRefreshPercentileNanos(50));
+        assertEquals(12 * MILLI, stats.getMaxRefreshNanos());
+    }
+
+    public void testSamplesAreBounded() {
+        mTracker.onFrame(mNow);
+        frameAfter(100 * MILLI);
+        for (int i = 0; i < FrameTracker.MAX_FRAME_SAMPLES; i++) frameAfter(VSYNC);
+
+        FrameStats stats = mTracker.getStats();
+        assertEquals(FrameTracker.MAX_FRAME_SAMPLES + 1, stats.getFrameCount());
+        // The long frame still counts, but has been pushed out of the samples.
+        assertEquals(1, stats.getJankyFrameCount());
+        assertEquals(VSYNC, stats.getMaxFrameNanos());
+    }
+
+    public void testResetClearsEverything() {
+        mTracker.onFrame(mNow);
+        frameAfter(50 * MILLI);
+        mTracker.beginRefresh(0);
+        mTracker.endRefresh(MILLI);
+        mTracker.reset();
+
+        FrameStats stats = mTracker.getStats();
+        assertEquals(0, stats.getFrameCount());
+        assertEquals(0, stats.getJankyFrameCount());
+        assertEquals(0, stats.getRefreshCount());
+        assertEquals(0, stats.getMaxFrameNanos());
+    }
+
+    public void testJson() {
+        mTracker.onFrame(mNow);
+        frameAfter(VSYNC);
+        frameAfter(50 * MILLI);
+        mTracker.beginRefresh(0);
+        mTracker.endRefresh(3 * MILLI);
+
+        assertEquals("{\"screen\":\"forecast_list\",\"frames\":2,\"janky_frames\":1," +
+                "\"dropped_frames\":2,\"frame_p50_us\":16666,\"frame_p90_us\":50000," +
+                "\"frame_p99_us\":50000,\"frame_max_us\":50000,\"refreshes\":1," +
+                "\"refresh_p50_us\":3000,\"refresh_max_us\":3000}",
+                mTracker.getStats().toJson());
+    }
+}
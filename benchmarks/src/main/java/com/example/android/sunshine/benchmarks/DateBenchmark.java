@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.benchmarks;
+
+import com.example.android.sunshine.core.ForecastDates;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The date arithmetic run on every stored day and every date in a content URI.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class DateBenchmark {
+
+    // A year of times, a little over seven hours apart, so they land at all times of day.
+    private static final long STEP_MILLIS = 26111111L;
+    private static final long START = 1419105600000L;
+    private static final long END = START + 365 * ForecastDates.DAY_IN_MILLIS;
+
+    private long mTime = START;
+    private int mJulianDay = Fixtures.JULIAN_START_DAY;
+
+    @Benchmark
+    public long normalizeDate() {
+        mTime = mTime + STEP_MILLIS < END ? mTime + STEP_MILLIS : START;
+        return ForecastDates.normalizeDate(mTime, Fixtures.ZONE);
+    }
+
+    @Benchmark
+    public int getJulianDay() {
+        mTime = mTime + STEP_MILLIS < END ? mTime + STEP_MILLIS : START;
+        return ForecastDates.getJulianDay(mTime, Fixtures.ZONE);
+    }
+
+    @Benchmark
+    public long getStartOfJulianDay() {
+        mJulianDay = mJulianDay < Fixtures.JULIAN_START_DAY + 365
+                ? mJulianDay + 1 : Fixtures.JULIAN_START_DAY;
+        return ForecastDates.getStartOfJulianDay(mJulianDay, Fixtures.ZONE);
+    }
+}
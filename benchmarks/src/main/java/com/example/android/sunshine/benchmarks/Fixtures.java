@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.TimeZone;
+
+/**
+ * OpenWeatherMap daily forecasts for Mountain View, recorded in the shape the API returns
+ * them, for 7, 14 (what the app asks for) and 16 (the most the API gives) days.
+ */
+final class Fixtures {
+
+    static final String FORECAST_DAILY_7 = "forecast_daily_7.json";
+    static final String FORECAST_DAILY_14 = "forecast_daily_14.json";
+    static final String FORECAST_DAILY_16 = "forecast_daily_16.json";
+
+    /** Benchmarks date in a zone with daylight saving time, like most users'. */
+    static final TimeZone ZONE = TimeZone.getTimeZone("America/Los_Angeles");
+
+    /** The Julian day of December 21st, 2014, the first day of the fixtures. */
+    static final int JULIAN_START_DAY = 2457013;
+
+    private Fixtures() {
+    }
+
+    static String read(String name) throws IOException {
+        InputStream in = Fixtures.class.getResourceAsStream("/fixtures/" + name);
+        if (in == null) throw new IOException("No fixture named " + name);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+            }
+            return out.toString("UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.benchmarks;
+
+import com.example.android.sunshine.core.ForecastBatch;
+import com.example.android.sunshine.core.ForecastFormat;
+import com.example.android.sunshine.core.ForecastJson;
+
+import org.json.JSONException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Turning a parsed forecast into the strings the forecast list shows.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class FormatBenchmark {
+
+    private ForecastBatch mBatch;
+    private ForecastFormat mFormat;
+    private SimpleDateFormat mDateFormat;
+    private int mDay;
+
+    @Setup
+    public void setUp() throws IOException, JSONException {
+        mBatch = ForecastJson.parse(Fixtures.read(Fixtures.FORECAST_DAILY_14))
+                .toBatch(1, Fixtures.JULIAN_START_DAY, Fixtures.ZONE);
+        mFormat = new ForecastFormat(Locale.US, false);
+        mDateFormat = new SimpleDateFormat("E, MMM d", Locale.US);
+    }
+
+    // Steps through the days, so no one day's values are all that gets measured.
+    private int nextDay() {
+        mDay = (mDay + 1) % mBatch.size();
+        return mDay;
+    }
+
+    @Benchmark
+    public String formatHighLows() {
+        int day = nextDay();
+        return ForecastFormat.formatHighLows(mBatch.getMaxTemp(day), mBatch.getMinTemp(day),
+                false);
+    }
+
+    @Benchmark
+    public String formatHighLowsImperial() {
+        int day = nextDay();
+        return ForecastFormat.formatHighLows(mBatch.getMaxTemp(day), mBatch.getMinTemp(day),
+                true);
+    }
+
+    @Benchmark
+    public String getReadableDateString() {
+        return ForecastFormat.getReadableDateString(mBatch.getDate(nextDay()), mDateFormat);
+    }
+
+    /** Every day of a refresh, with the format made once up front. */
+    @Benchmark
+    public String[] formatBatch() {
+        return mFormat.formatBatch(mBatch);
+    }
+
+    /** What a refresh pays, building the date format included. */
+    @Benchmark
+    public String[] formatRefresh() {
+        return new ForecastFormat(Locale.US, false).formatBatch(mBatch);
+    }
+}
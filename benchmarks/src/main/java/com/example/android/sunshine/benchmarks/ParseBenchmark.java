@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.benchmarks;
+
+import com.example.android.sunshine.core.ForecastBatch;
+import com.example.android.sunshine.core.ForecastJson;
+
+import org.json.JSONException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing a downloaded forecast, the first thing every refresh does with it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ParseBenchmark {
+
+    @Param({Fixtures.FORECAST_DAILY_7, Fixtures.FORECAST_DAILY_14, Fixtures.FORECAST_DAILY_16})
+    public String fixture;
+
+    private String mJson;
+    private ForecastJson mParsed;
+
+    @Setup
+    public void setUp() throws IOException, JSONException {
+        mJson = Fixtures.read(fixture);
+        mParsed = ForecastJson.parse(mJson);
+    }
+
+    /** The document and its city, with the days left as JSON. */
+    @Benchmark
+    public ForecastJson parseDocument() throws JSONException {
+        return ForecastJson.parse(mJson);
+    }
+
+    /** Just the days of an already parsed document into a batch. */
+    @Benchmark
+    public ForecastBatch readDays() throws JSONException {
+        return mParsed.toBatch(1, Fixtures.JULIAN_START_DAY, Fixtures.ZONE);
+    }
+
+    /** The whole parse, as a refresh does it. */
+    @Benchmark
+    public ForecastBatch parseForecast() throws JSONException {
+        return ForecastJson.parse(mJson).toBatch(1, Fixtures.JULIAN_START_DAY, Fixtures.ZONE);
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.core;
+
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Snaps location settings given as coordinates, "lat,lon", to the nearest point of a grid, so
+ * that fixes a few metres apart become the same setting and share one location row and one
+ * stored forecast.  Any other setting, a postal code or a city name, is left as it is.
+ *
+ * A grid of 0 degrees leaves coordinates as they are too.  Immutable.
+ */
+public final class CoordinateGrid {
+
+    private static final String DEGREES = "([-+]?\\d{1,3}(?:\\.\\d+)?)";
+    private static final Pattern COORDINATES =
+            Pattern.compile("\\s*" + DEGREES + "\\s*,\\s*" + DEGREES + "\\s*");
+
+    // Finer than any grid worth having: a tenth of a metre or so.
+    private static final int MAX_DECIMALS = 6;
+
+    private final double mCellDegrees;
+    private final String mFormat;
+
+    /** @param cellDegrees the spacing of the grid, in degrees of latitude and longitude */
+    public CoordinateGrid(double cellDegrees) {
+        if (cellDegrees < 0 || cellDegrees > 90 || Double.isNaN(cellDegrees)) {
+            throw new IllegalArgumentException("Not a grid spacing: " + cellDegrees);
+        }
+        mCellDegrees = cellDegrees;
+        mFormat = "%." + getDecimals(cellDegrees) + "f,%." + getDecimals(cellDegrees) + "f";
+    }
+
+    public double getCellDegrees() {
+        return mCellDegrees;
+    }
+
+    /**
+     * The coordinates of a setting, as {lat, lon}, or null if it isn't a pair of coordinates
+     * on the globe.
+     */
+    public static double[] parse(String setting) {
+        Matcher matcher = COORDINATES.matcher(setting);
+        if (!matcher.matches()) return null;
+        double lat = Double.parseDouble(matcher.group(1));
+        double lon = Double.parseDouble(matcher.group(2));
+        if (Math.abs(lat) > 90 || Math.abs(lon) > 180) return null;
+        return new double[]{lat, lon};
+    }
+
+    /**
+     * The setting for the grid point nearest a coordinate setting, always written the same
+     * way; any other setting, unchanged.
+     */
+    public String snap(String setting) {
+        double[] coordinates = parse(setting);
+        if (coordinates == null || mCellDegrees == 0) return setting;
+        return snap(coordinates[0], coordinates[1]);
+    }
+
+    /** The setting for the grid point nearest the coordinates. */
+    public String snap(double lat, double lon) {
+        if (mCellDegrees == 0) return format(lat, lon);
+        double snappedLat = Math.max(-90, Math.min(90,
+                Math.round(lat / mCellDegrees) * mCellDegrees));
+        double snappedLon = Math.round(lon / mCellDegrees) * mCellDegrees;
+        // Either side of the antimeridian is the same place.
+        if (snappedLon >= 180 - mCellDegrees / 2) snappedLon -= 360;
+        return format(snappedLat, snappedLon);
+    }
+
+    private String format(double lat, double lon) {
+        // Adding 0.0 turns -0.0 into 0.0, so the equator is never "-0.0".
+        return String.format(Locale.US, mFormat, lat + 0.0, lon + 0.0);
+    }
+
+    // The fewest decimal places that write every multiple of the spacing exactly.
+    private static int getDecimals(double cellDegrees) {
+        if (cellDegrees == 0) return MAX_DECIMALS;
+        for (int decimals = 0; decimals < MAX_DECIMALS; decimals++) {
+            double scaled = cellDegrees * Math.pow(10, decimals);
+            if (Math.abs(scaled - Math.rint(scaled)) < 1e-9) return decimals;
+        }
+        return MAX_DECIMALS;
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.core;
+
+import java.util.Arrays;
+
+/**
+ * The days of one forecast download for one location, stored column by column in primitive
+ * arrays rather than as a ContentValues map per day.  Adding a day allocates nothing once the
+ * batch has grown to size, and reading it back never boxes.
+ *
+ * Short descriptions repeat a lot ("Clear", "Rain"), so each distinct one is stored once in a
+ * small table and the days refer to it by index.
+ */
+public final class ForecastBatch {
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private final long mLocationId;
+    private int mSize;
+
+    private long[] mDates;
+    private float[] mMinTemps;
+    private float[] mMaxTemps;
+    private float[] mHumidity;
+    private float[] mPressure;
+    private float[] mWindSpeed;
+    private float[] mDegrees;
+    private int[] mWeatherIds;
+    private int[] mDescriptionIndices;
+
+    private String[] mDescriptions = new String[8];
+    private int mDescriptionCount;
+
+    public ForecastBatch(long locationId) {
+        this(locationId, DEFAULT_CAPACITY);
+    }
+
+    public ForecastBatch(long locationId, int capacity) {
+        mLocationId = locationId;
+        capacity = Math.max(capacity, 1);
+        mDates = new long[capacity];
+        mMinTemps = new float[capacity];
+        mMaxTemps = new float[capacity];
+        mHumidity = new float[capacity];
+        mPressure = new float[capacity];
+        mWindSpeed = new float[capacity];
+        mDegrees = new float[capacity];
+        mWeatherIds = new int[capacity];
+        mDescriptionIndices = new int[capacity];
+    }
+
+    /**
+     * Appends one day.
+     *
+     * @param date        the day, in milliseconds since the epoch
+     * @param description the short description, e.g. "Clear"
+     */
+    public void add(long date, float minTemp, float maxTemp, float humidity, float pressure,
+                    float windSpeed, float degrees, int weatherId, String description) {
+        if (mSize == mDates.length) grow();
+        int i = mSize++;
+        mDates[i] = date;
+        mMinTemps[i] = minTemp;
+        mMaxTemps[i] = maxTemp;
+        mHumidity[i] = humidity;
+        mPressure[i] = pressure;
+        mWindSpeed[i] = windSpeed;
+        mDegrees[i] = degrees;
+        mWeatherIds[i] = weatherId;
+        mDescriptionIndices[i] = intern(description);
+    }
+
+    public long getLocationId() {
+        return mLocationId;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public long getDate(int day) {
+        return mDates[day];
+    }
+
+    public float getMinTemp(int day) {
+        return mMinTemps[day];
+    }
+
+    public float getMaxTemp(int day) {
+        return mMaxTemps[day];
+    }
+
+    public float getHumidity(int day) {
+        return mHumidity[day];
+    }
+
+    public float getPressure(int day) {
+        return mPressure[day];
+    }
+
+    public float getWindSpeed(int day) {
+        return mWindSpeed[day];
+    }
+
+    public float getDegrees(int day) {
+        return mDegrees[day];
+    }
+
+    public int getWeatherId(int day) {
+        return mWeatherIds[day];
+    }
+
+    public String getDescription(int day) {
+        return mDescriptions[mDescriptionIndices[day]];
+    }
+
+    /** Number of distinct short descriptions in the batch. */
+    public int getDescriptionCount() {
+        return mDescriptionCount;
+    }
+
+    // A forecast has a handful of distinct descriptions, so a linear scan beats hashing (and
+    // doesn't box an index per day).
+    private int intern(String description) {
+        for (int i = 0; i < mDescriptionCount; i++) {
+            if (mDescriptions[i].equals(description)) return i;
+        }
+        if (mDescriptionCount == mDescriptions.length) {
+            mDescriptions = Arrays.copyOf(mDescriptions, mDescriptionCount * 2);
+        }
+        mDescriptions[mDescriptionCount] = description;
+        return mDescriptionCount++;
+    }
+
+    private void grow() {
+        int capacity = mDates.length * 2;
+        mDates = Arrays.copyOf(mDates, capacity);
+        mMinTemps = Arrays.copyOf(mMinTemps, capacity);
+        mMaxTemps = Arrays.copyOf(mMaxTemps, capacity);
+        mHumidity = Arrays.copyOf(mHumidity, capacity);
+        mPressure = Arrays.copyOf(mPressure, capacity);
+        mWindSpeed = Arrays.copyOf(mWindSpeed, capacity);
+        mDegrees = Arrays.copyOf(mDegrees, capacity);
+        mWeatherIds = Arrays.copyOf(mWeatherIds, capacity);
+        mDescriptionIndices = Arrays.copyOf(mDescriptionIndices, capacity);
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.core;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/**
+ * The day arithmetic behind stored forecast dates, in plain Java.  It gives the same answers
+ * as android.text.format.Time's getJulianDay and setJulianDay: a day is identified by its
+ * Julian day number in a time zone, and stored as the time of its midnight in that zone.
+ */
+public final class ForecastDates {
+
+    /** The Julian day of January 1st, 1970. */
+    public static final int EPOCH_JULIAN_DAY = 2440588;
+
+    public static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000L;
+
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    private ForecastDates() {
+    }
+
+    /** The Julian day that the given time falls on in the zone. */
+    public static int getJulianDay(long millis, TimeZone zone) {
+        return (int) ((millis + zone.getOffset(millis)) / DAY_IN_MILLIS) + EPOCH_JULIAN_DAY;
+    }
+
+    /** Midnight at the start of the Julian day in the zone. */
+    public static long getStartOfJulianDay(int julianDay, TimeZone zone) {
+        Calendar utc = Calendar.getInstance(UTC);
+        utc.setTimeInMillis((julianDay - EPOCH_JULIAN_DAY) * DAY_IN_MILLIS);
+
+        Calendar local = Calendar.getInstance(zone);
+        local.clear();
+        local.set(utc.get(Calendar.YEAR), utc.get(Calendar.MONTH),
+                utc.get(Calendar.DAY_OF_MONTH));
+        return local.getTimeInMillis();
+    }
+
+    /** Midnight at the start of the day the given time falls on in the zone. */
+    public static long normalizeDate(long millis, TimeZone zone) {
+        return getStartOfJulianDay(getJulianDay(millis, zone), zone);
+    }
+
+    /** Midnight at the start of the Monday of the week the given time falls in, in the zone. */
+    public static long getStartOfWeek(long millis, TimeZone zone) {
+        int julianDay = getJulianDay(millis, zone);
+        // Julian day 0 was a Monday.
+        return getStartOfJulianDay(julianDay - julianDay % 7, zone);
+    }
+
+    /** Midnight at the start of the Monday after the week the given time falls in. */
+    public static long getStartOfNextWeek(long millis, TimeZone zone) {
+        int julianDay = getJulianDay(millis, zone);
+        return getStartOfJulianDay(julianDay - julianDay % 7 + 7, zone);
+    }
+
+    /** Midnight at the start of the first of the month the given time falls in, in the zone. */
+    public static long getStartOfMonth(long millis, TimeZone zone) {
+        return getStartOfMonth(getJulianDay(millis, zone), 0, zone);
+    }
+
+    /** Midnight at the start of the first of the month after the given time's. */
+    public static long getStartOfNextMonth(long millis, TimeZone zone) {
+        return getStartOfMonth(getJulianDay(millis, zone), 1, zone);
+    }
+
+    // The first of the month that's the given number of months after the Julian day's.
+    private static long getStartOfMonth(int julianDay, int monthsLater, TimeZone zone) {
+        Calendar utc = Calendar.getInstance(UTC);
+        utc.setTimeInMillis((julianDay - EPOCH_JULIAN_DAY) * DAY_IN_MILLIS);
+
+        Calendar local = Calendar.getInstance(zone);
+        local.clear();
+        local.set(utc.get(Calendar.YEAR), utc.get(Calendar.MONTH) + monthsLater, 1);
+        return local.getTimeInMillis();
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.core;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Formats forecast days into the one-line strings the forecast list shows, e.g.
+ * "Sat, Dec 20 - Clear - 21/9".  The date format is built once, so one instance should format
+ * a whole batch.  Not thread safe, as SimpleDateFormat isn't.
+ */
+public final class ForecastFormat {
+
+    private final SimpleDateFormat mDateFormat;
+    private final boolean mImperial;
+
+    /**
+     * @param imperial true to show temperatures in Fahrenheit.  Forecasts are always fetched
+     *                 and stored in Celsius, so the unit can change without a refetch.
+     */
+    public ForecastFormat(Locale locale, boolean imperial) {
+        mDateFormat = new SimpleDateFormat("E, MMM d", locale);
+        mImperial = imperial;
+    }
+
+    public String formatDay(long date, String description, double high, double low) {
+        return getReadableDateString(date, mDateFormat) +
+                " - " + description +
+                " - " + formatHighLows(high, low, mImperial);
+    }
+
+    public String[] formatBatch(ForecastBatch batch) {
+        String[] resultStrs = new String[batch.size()];
+        for (int i = 0; i < batch.size(); i++) {
+            resultStrs[i] = formatDay(batch.getDate(i), batch.getDescription(i),
+                    batch.getMaxTemp(i), batch.getMinTemp(i));
+        }
+        return resultStrs;
+    }
+
+    public static String getReadableDateString(long time, SimpleDateFormat format) {
+        return format.format(new Date(time));
+    }
+
+    /**
+     * Prepare the weather high/lows for presentation, e.g. "21/9".
+     */
+    public static String formatHighLows(double high, double low, boolean imperial) {
+        if (imperial) {
+            high = (high * 1.8) + 32;
+            low = (low * 1.8) + 32;
+        }
+
+        // For presentation, assume the user doesn't care about tenths of a degree.
+        long roundedHigh = Math.round(high);
+        long roundedLow = Math.round(low);
+        return roundedHigh + "/" + roundedLow;
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.core;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.TimeZone;
+
+/**
+ * An OpenWeatherMap daily forecast, as returned by /data/2.5/forecast/daily.  Parsing reads
+ * the city up front, since it has to be stored before the days can refer to it, and leaves
+ * the days as JSON until {@link #toBatch}.
+ *
+ * org.json comes with Android; JVM users of this module have to supply it themselves.
+ */
+public final class ForecastJson {
+
+    // These are the names of the JSON objects that need to be extracted.
+
+    // Location information
+    private static final String OWM_CITY = "city";
+    private static final String OWM_CITY_NAME = "name";
+    private static final String OWM_COORD = "coord";
+
+    // Location coordinate
+    private static final String OWM_LATITUDE = "lat";
+    private static final String OWM_LONGITUDE = "lon";
+
+    // Weather information.  Each day's forecast info is an element of the "list" array.
+    private static final String OWM_LIST = "list";
+
+    private static final String OWM_PRESSURE = "pressure";
+    private static final String OWM_HUMIDITY = "humidity";
+    private static final String OWM_WINDSPEED = "speed";
+    private static final String OWM_WIND_DIRECTION = "deg";
+
+    // All temperatures are children of the "temp" object.
+    private static final String OWM_TEMPERATURE = "temp";
+    private static final String OWM_MAX = "max";
+    private static final String OWM_MIN = "min";
+
+    private static final String OWM_WEATHER = "weather";
+    private static final String OWM_DESCRIPTION = "main";
+    private static final String OWM_WEATHER_ID = "id";
+
+    private final String mCityName;
+    private final double mLatitude;
+    private final double mLongitude;
+    private final JSONArray mDays;
+
+    private ForecastJson(String cityName, double latitude, double longitude, JSONArray days) {
+        mCityName = cityName;
+        mLatitude = latitude;
+        mLongitude = longitude;
+        mDays = days;
+    }
+
+    public static ForecastJson parse(String forecastJsonStr) throws JSONException {
+        JSONObject forecastJson = new JSONObject(forecastJsonStr);
+        JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
+
+        JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
+        JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
+        return new ForecastJson(cityJson.getString(OWM_CITY_NAME),
+                cityCoord.getDouble(OWM_LATITUDE), cityCoord.getDouble(OWM_LONGITUDE),
+                weatherArray);
+    }
+
+    public String getCityName() {
+        return mCityName;
+    }
+
+    public double getLatitude() {
+        return mLatitude;
+    }
+
+    public double getLongitude() {
+        return mLongitude;
+    }
+
+    public int getDayCount() {
+        return mDays.length();
+    }
+
+    /** Reads the days into a batch; see {@link #parseForecastDays}. */
+    public ForecastBatch toBatch(long locationId, int julianStartDay, TimeZone zone)
+            throws JSONException {
+        return parseForecastDays(mDays, locationId, julianStartDay, zone);
+    }
+
+    /**
+     * Reads the days of the "list" array of a daily forecast into a batch.  OWM sends the days
+     * in order, starting with today, so each day is dated by counting on from the first.
+     *
+     * @param julianStartDay the Julian day of the first entry, in the city's local time
+     * @param zone           the zone whose midnight each day is stored as
+     */
+    public static ForecastBatch parseForecastDays(JSONArray weatherArray, long locationId,
+                                                  int julianStartDay, TimeZone zone)
+            throws JSONException {
+        ForecastBatch batch = new ForecastBatch(locationId, weatherArray.length());
+        long dateTime = 0;
+        for (int i = 0; i < weatherArray.length(); i++) {
+            // Get the JSON object representing the day
+            JSONObject dayForecast = weatherArray.getJSONObject(i);
+
+            // Midnight moves by a day at a time, except across a change to or from daylight
+            // saving time, so only the first day needs a calendar.
+            long nextDate = dateTime + ForecastDates.DAY_IN_MILLIS;
+            if (i > 0 && zone.getOffset(nextDate) == zone.getOffset(dateTime)) {
+                dateTime = nextDate;
+            } else {
+                dateTime = ForecastDates.getStartOfJulianDay(julianStartDay + i, zone);
+            }
+
+            // Description is in a child array called "weather", which is 1 element long.
+            // That element also contains a weather code.
+            JSONObject weatherObject =
+                    dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
+
+            // Temperatures are in a child object called "temp".  Try not to name variables
+            // "temp" when working with temperature.  It confuses everybody.
+            JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
+
+            batch.add(dateTime,
+                    (float) temperatureObject.getDouble(OWM_MIN),
+                    (float) temperatureObject.getDouble(OWM_MAX),
+                    dayForecast.getInt(OWM_HUMIDITY),
+                    (float) dayForecast.getDouble(OWM_PRESSURE),
+                    (float) dayForecast.getDouble(OWM_WINDSPEED),
+                    (float) dayForecast.getDouble(OWM_WIND_DIRECTION),
+                    weatherObject.getInt(OWM_WEATHER_ID),
+                    weatherObject.getString(OWM_DESCRIPTION));
+        }
+        return batch;
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.core;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * One location's forecast in a small binary form, for showing the list at startup without
+ * opening the database.  Big endian, laid out as:
+ *
+ *     int    magic, "SNSH"
+ *     short  version
+ *     long   written at, in milliseconds since the epoch
+ *     string location setting
+ *     long   location id
+ *     byte   number of distinct descriptions, then each description as a string
+ *     short  number of days, then for each day:
+ *            long date, float min temp, max temp, humidity, pressure, wind speed, degrees,
+ *            int weather id, byte description index
+ *     int    CRC32 of everything before it
+ *
+ * A string is a short byte count and that many bytes of UTF-8.  A day is 41 bytes, so two
+ * weeks come to well under a kilobyte.  Readers reject any version but their own rather than
+ * guess at it: a snapshot is only ever a head start on the database.
+ */
+public final class ForecastSnapshot {
+
+    public static final int MAGIC = 0x534E5348;
+    public static final int VERSION = 1;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int DAY_BYTES = 8 + 6 * 4 + 4 + 1;
+    // How much of a buffer without an array is checksummed at a time.
+    private static final int CRC_CHUNK_BYTES = 1024;
+
+    private final String mLocationSetting;
+    private final long mWrittenAt;
+    private final ForecastBatch mBatch;
+
+    public ForecastSnapshot(String locationSetting, long writtenAt, ForecastBatch batch) {
+        mLocationSetting = locationSetting;
+        mWrittenAt = writtenAt;
+        mBatch = batch;
+    }
+
+    public String getLocationSetting() {
+        return mLocationSetting;
+    }
+
+    public long getWrittenAt() {
+        return mWrittenAt;
+    }
+
+    public ForecastBatch getBatch() {
+        return mBatch;
+    }
+
+    /** The snapshot in its binary form. */
+    public byte[] encode() {
+        List<String> descriptions = new ArrayList<>();
+        for (int day = 0; day < mBatch.size(); day++) {
+            if (!descriptions.contains(mBatch.getDescription(day))) {
+                descriptions.add(mBatch.getDescription(day));
+            }
+        }
+        if (descriptions.size() > Byte.MAX_VALUE || mBatch.size() > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many days for a snapshot: " + mBatch.size());
+        }
+        byte[] setting = mLocationSetting.getBytes(UTF_8);
+        int size = 4 + 2 + 8 + 2 + setting.length + 8 + 1 + 2 + mBatch.size() * DAY_BYTES + 4;
+        byte[][] descriptionBytes = new byte[descriptions.size()][];
+        for (int i = 0; i < descriptionBytes.length; i++) {
+            descriptionBytes[i] = descriptions.get(i).getBytes(UTF_8);
+            size += 2 + descriptionBytes[i].length;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(MAGIC);
+        buffer.putShort((short) VERSION);
+        buffer.putLong(mWrittenAt);
+        putString(buffer, setting);
+        buffer.putLong(mBatch.getLocationId());
+        buffer.put((byte) descriptionBytes.length);
+        for (byte[] description : descriptionBytes) putString(buffer, description);
+        buffer.putShort((short) mBatch.size());
+        for (int day = 0; day < mBatch.size(); day++) {
+            buffer.putLong(mBatch.getDate(day));
+            buffer.putFloat(mBatch.getMinTemp(day));
+            buffer.putFloat(mBatch.getMaxTemp(day));
+            buffer.putFloat(mBatch.getHumidity(day));
+            buffer.putFloat(mBatch.getPressure(day));
+            buffer.putFloat(mBatch.getWindSpeed(day));
+            buffer.putFloat(mBatch.getDegrees(day));
+            buffer.putInt(mBatch.getWeatherId(day));
+            buffer.put((byte) descriptions.indexOf(mBatch.getDescription(day)));
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, buffer.position());
+        buffer.putInt((int) crc.getValue());
+        return buffer.array();
+    }
+
+    /**
+     * Reads a snapshot from the buffer's position to its limit, which may be a memory mapped
+     * file: the days are read straight out of it, and the checksum is worked out over the
+     * buffer's array, or a kilobyte at a time if it hasn't one, rather than over a copy.
+     *
+     * @throws IOException if it isn't a whole, undamaged snapshot of this version
+     */
+    public static ForecastSnapshot decode(ByteBuffer buffer) throws IOException {
+        ByteBuffer in = buffer.duplicate();
+        if (in.remaining() < 4 + 4) throw new IOException("Snapshot too short");
+        CRC32 crc = new CRC32();
+        int end = in.limit() - 4;
+        if (in.hasArray()) {
+            crc.update(in.array(), in.arrayOffset() + in.position(), end - in.position());
+            in.position(end);
+        } else {
+            byte[] chunk = new byte[Math.min(CRC_CHUNK_BYTES, end - in.position())];
+            while (in.position() < end) {
+                int length = Math.min(chunk.length, end - in.position());
+                in.get(chunk, 0, length);
+                crc.update(chunk, 0, length);
+            }
+        }
+        if ((int) crc.getValue() != in.getInt()) throw new IOException("Snapshot damaged");
+
+        in = buffer.duplicate();
+        try {
+            if (in.getInt() != MAGIC) throw new IOException("Not a snapshot");
+            int version = in.getShort();
+            if (version != VERSION) throw new IOException("Snapshot version " + version);
+            long writtenAt = in.getLong();
+            String locationSetting = getString(in);
+            long locationId = in.getLong();
+            String[] descriptions = new String[in.get()];
+            for (int i = 0; i < descriptions.length; i++) descriptions[i] = getString(in);
+
+            int days = in.getShort();
+            ForecastBatch batch = new ForecastBatch(locationId, days);
+            for (int day = 0; day < days; day++) {
+                batch.add(in.getLong(), in.getFloat(), in.getFloat(), in.getFloat(),
+                        in.getFloat(), in.getFloat(), in.getFloat(), in.getInt(),
+                        descriptions[in.get()]);
+            }
+            return new ForecastSnapshot(locationSetting, writtenAt, batch);
+        } catch (BufferUnderflowException | ArrayIndexOutOfBoundsException
+                | NegativeArraySizeException e) {
+            throw new IOException("Snapshot truncated", e);
+        }
+    }
+
+    private static void putString(ByteBuffer buffer, byte[] bytes) {
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort()];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+}
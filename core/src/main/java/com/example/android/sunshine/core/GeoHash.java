@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Geohashes, and the spherical geometry that goes with looking places up by them.
+ *
+ * A geohash names a cell of a grid over the globe, and the hash of any point inside a cell
+ * starts with the cell's hash.  The base 32 alphabet is in ASCII order, so the points in a
+ * cell are a single range of an ordinary string index: [hash, hash + "~").
+ */
+public final class GeoHash {
+
+    private static final char[] BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz".toCharArray();
+
+    /** The mean radius of the Earth, in kilometres. */
+    public static final double EARTH_RADIUS_KM = 6371.0;
+
+    /** Sorts after every geohash character, so [hash, hash + END) is exactly a cell. */
+    public static final String END = "~";
+
+    private GeoHash() {
+    }
+
+    /** The hash of the cell of the given number of characters that the point falls in. */
+    public static String encode(double lat, double lon, int precision) {
+        double latMin = -90, latMax = 90;
+        double lonMin = -180, lonMax = 180;
+        StringBuilder hash = new StringBuilder(precision);
+        boolean isLon = true;
+        int bits = 0;
+        int value = 0;
+        while (hash.length() < precision) {
+            value <<= 1;
+            if (isLon) {
+                double mid = (lonMin + lonMax) / 2;
+                if (lon >= mid) {
+                    value |= 1;
+                    lonMin = mid;
+                } else {
+                    lonMax = mid;
+                }
+            } else {
+                double mid = (latMin + latMax) / 2;
+                if (lat >= mid) {
+                    value |= 1;
+                    latMin = mid;
+                } else {
+                    latMax = mid;
+                }
+            }
+            isLon = !isLon;
+            if (++bits == 5) {
+                hash.append(BASE32[value]);
+                bits = 0;
+                value = 0;
+            }
+        }
+        return hash.toString();
+    }
+
+    /** The height in degrees of a cell of the given number of characters. */
+    public static double getCellHeight(int precision) {
+        return 180.0 / (1L << (5 * precision / 2));
+    }
+
+    /** The width in degrees of a cell of the given number of characters. */
+    public static double getCellWidth(int precision) {
+        return 360.0 / (1L << ((5 * precision + 1) / 2));
+    }
+
+    /**
+     * The cells that together cover a box, at the finest precision that needs no more than
+     * maxCells of them, sorted.  Empty if even one character cells would take more than
+     * maxCells, for a box so big that it's cheaper not to narrow it down by hash at all.
+     * The box mustn't cross the antimeridian: west is no further east than east.
+     */
+    public static List<String> cover(double south, double west, double north, double east,
+                                     int maxPrecision, int maxCells) {
+        for (int precision = maxPrecision; precision > 0; precision--) {
+            double height = getCellHeight(precision);
+            double width = getCellWidth(precision);
+            long rows = cellIndex(north, -90, height) - cellIndex(south, -90, height) + 1;
+            long columns = cellIndex(east, -180, width) - cellIndex(west, -180, width) + 1;
+            if (rows * columns > maxCells) continue;
+
+            TreeSet<String> cells = new TreeSet<>();
+            for (long row = 0; row < rows; row++) {
+                double lat = Math.min(north, south + row * height);
+                for (long column = 0; column < columns; column++) {
+                    cells.add(encode(lat, Math.min(east, west + column * width), precision));
+                }
+            }
+            // The corners, in case a step landed just short of the last row or column.
+            cells.add(encode(north, east, precision));
+            cells.add(encode(north, west, precision));
+            cells.add(encode(south, east, precision));
+            if (cells.size() <= maxCells) return new ArrayList<>(cells);
+        }
+        return new ArrayList<>();
+    }
+
+    private static long cellIndex(double degrees, double origin, double size) {
+        return (long) Math.floor((degrees - origin) / size);
+    }
+
+    /** The great circle distance between two points, in kilometres. */
+    public static double distanceKm(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2) +
+                Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) *
+                        Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    /**
+     * The smallest box holding every point within radiusKm of (lat, lon), as {south, west,
+     * north, east}.  Near a pole the box takes in every longitude, and a box that would
+     * cross the antimeridian comes back with west greater than east.
+     */
+    public static double[] boundingBox(double lat, double lon, double radiusKm) {
+        double angle = Math.toDegrees(radiusKm / EARTH_RADIUS_KM);
+        double south = lat - angle;
+        double north = lat + angle;
+        if (south <= -90 || north >= 90 || angle >= 180) {
+            return new double[]{Math.max(-90, south), -180, Math.min(90, north), 180};
+        }
+        double dLon = Math.toDegrees(Math.asin(Math.sin(radiusKm / EARTH_RADIUS_KM) /
+                Math.cos(Math.toRadians(lat))));
+        double west = lon - dLon;
+        double east = lon + dLon;
+        if (west < -180) west += 360;
+        if (east > 180) east -= 360;
+        return new double[]{south, west, north, east};
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.core;
+
+import junit.framework.TestCase;
+
+public class TestCoordinateGrid extends TestCase {
+
+    public void testParse() {
+        double[] coordinates = CoordinateGrid.parse(" 37.4219, -122.084 ");
+        assertEquals(37.4219, coordinates[0]);
+        assertEquals(-122.084, coordinates[1]);
+        assertNotNull(CoordinateGrid.parse("-90,180"));
+        assertNull(CoordinateGrid.parse("94043"));
+        assertNull(CoordinateGrid.parse("London, UK"));
+        assertNull(CoordinateGrid.parse("91,0"));
+        assertNull(CoordinateGrid.parse("0,180.5"));
+    }
+
+    public void testSnap() {
+        CoordinateGrid grid = new CoordinateGrid(0.1);
+        assertEquals("37.4,-122.1", grid.snap("37.4219,-122.084"));
+        assertEquals("37.4,-122.1", grid.snap("37.38, -122.06"));
+        assertEquals("37.5,-122.1", grid.snap("37.46,-122.084"));
+        assertEquals("0.0,0.0", grid.snap("-0.01,-0.02"));
+
+        assertEquals("37.40,-122.10", new CoordinateGrid(0.05).snap("37.4219,-122.084"));
+        assertEquals("37.50,-122.00", new CoordinateGrid(0.25).snap("37.4219,-122.084"));
+        assertEquals("37,-122", new CoordinateGrid(1).snap("37.4219,-122.084"));
+    }
+
+    public void testSnapLeavesOtherSettingsAlone() {
+        CoordinateGrid grid = new CoordinateGrid(0.1);
+        assertEquals("94043", grid.snap("94043"));
+        assertEquals("London, UK", grid.snap("London, UK"));
+        assertEquals("37.4219,-122.084", new CoordinateGrid(0).snap("37.4219,-122.084"));
+    }
+
+    public void testSnapAcrossTheAntimeridianAndPoles() {
+        CoordinateGrid grid = new CoordinateGrid(0.1);
+        assertEquals(grid.snap("10,179.99"), grid.snap("10,-179.99"));
+        assertEquals("10.0,-180.0", grid.snap("10,180"));
+        assertEquals("90.0,0.0", grid.snap("89.99,0"));
+        // The nearest multiple of 0.7 is 90.3, past the pole.
+        assertEquals("90.0,0.0", new CoordinateGrid(0.7).snap("89.99,0"));
+    }
+
+    public void testSnapIsIdempotent() {
+        CoordinateGrid grid = new CoordinateGrid(0.05);
+        String snapped = grid.snap("51.5074,-0.1278");
+        assertEquals(snapped, grid.snap(snapped));
+    }
+
+    public void testBadGrid() {
+        try {
+            new CoordinateGrid(-1);
+            fail("Error: a grid can't have a negative spacing");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
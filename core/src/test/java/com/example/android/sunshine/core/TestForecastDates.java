@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.core;
+
+import junit.framework.TestCase;
+
+import java.util.TimeZone;
+
+public class TestForecastDates extends TestCase {
+
+    private static final TimeZone LOS_ANGELES = TimeZone.getTimeZone("America/Los_Angeles");
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+    private static final long HOUR_IN_MILLIS = 60 * 60 * 1000L;
+
+    // Midnight, December 20th, 2014 in Los Angeles: 08:00 UTC.
+    private static final long DECEMBER_20TH = 1419062400000L;
+    private static final int DECEMBER_20TH_JULIAN_DAY = 2457012;
+
+    public void testJulianDay() {
+        assertEquals(ForecastDates.EPOCH_JULIAN_DAY, ForecastDates.getJulianDay(0, UTC));
+        assertEquals(DECEMBER_20TH_JULIAN_DAY,
+                ForecastDates.getJulianDay(DECEMBER_20TH, LOS_ANGELES));
+        // 23:59 local time is still the same day, though it's the next day in UTC.
+        assertEquals(DECEMBER_20TH_JULIAN_DAY, ForecastDates.getJulianDay(
+                DECEMBER_20TH + 24 * HOUR_IN_MILLIS - 60000, LOS_ANGELES));
+        assertEquals(DECEMBER_20TH_JULIAN_DAY + 1, ForecastDates.getJulianDay(
+                DECEMBER_20TH + 24 * HOUR_IN_MILLIS - 60000, UTC));
+    }
+
+    public void testNormalizeDate() {
+        assertEquals(DECEMBER_20TH, ForecastDates.normalizeDate(DECEMBER_20TH, LOS_ANGELES));
+        assertEquals(DECEMBER_20TH,
+                ForecastDates.normalizeDate(DECEMBER_20TH + 15 * HOUR_IN_MILLIS, LOS_ANGELES));
+        assertEquals(DECEMBER_20TH - 8 * HOUR_IN_MILLIS,
+                ForecastDates.normalizeDate(DECEMBER_20TH, UTC));
+        assertEquals(0, ForecastDates.normalizeDate(12 * HOUR_IN_MILLIS, UTC));
+    }
+
+    public void testStartOfJulianDayAcrossDaylightSaving() {
+        // Clocks went forward on March 8th, 2015, so that day was 23 hours long.
+        long march8th = ForecastDates.getStartOfJulianDay(2457090, LOS_ANGELES);
+        long march9th = ForecastDates.getStartOfJulianDay(2457091, LOS_ANGELES);
+        assertEquals(1425801600000L, march8th);
+        assertEquals(23 * HOUR_IN_MILLIS, march9th - march8th);
+        assertEquals(2457091, ForecastDates.getJulianDay(march9th, LOS_ANGELES));
+    }
+
+    public void testStartOfWeek() {
+        // December 20th, 2014 was a Saturday; its week started on Monday the 15th.
+        long december15th = ForecastDates.getStartOfJulianDay(2457007, LOS_ANGELES);
+        assertEquals(december15th, ForecastDates.getStartOfWeek(DECEMBER_20TH, LOS_ANGELES));
+        assertEquals(december15th, ForecastDates.getStartOfWeek(december15th, LOS_ANGELES));
+        assertEquals(december15th,
+                ForecastDates.getStartOfWeek(december15th + 23 * HOUR_IN_MILLIS, LOS_ANGELES));
+        assertEquals(ForecastDates.getStartOfJulianDay(2457014, LOS_ANGELES),
+                ForecastDates.getStartOfNextWeek(DECEMBER_20TH, LOS_ANGELES));
+    }
+
+    public void testStartOfWeekAcrossDaylightSaving() {
+        // The week of March 8th, 2015 started on Monday March 2nd, before the clocks went
+        // forward, so it's an hour short of seven days.
+        long march8th = ForecastDates.getStartOfJulianDay(2457090, LOS_ANGELES);
+        long march2nd = ForecastDates.getStartOfWeek(march8th, LOS_ANGELES);
+        long march9th = ForecastDates.getStartOfNextWeek(march8th, LOS_ANGELES);
+        assertEquals(2457084, ForecastDates.getJulianDay(march2nd, LOS_ANGELES));
+        assertEquals(2457091, ForecastDates.getJulianDay(march9th, LOS_ANGELES));
+        assertEquals(7 * 24 * HOUR_IN_MILLIS - HOUR_IN_MILLIS, march9th - march2nd);
+        assertEquals(march9th, ForecastDates.getStartOfWeek(march9th, LOS_ANGELES));
+    }
+
+    public void testStartOfMonth() {
+        // Midnight, December 1st, 2014 and January 1st, 2015 in Los Angeles.
+        long december1st = 1417420800000L;
+        long january1st = 1420099200000L;
+        assertEquals(december1st, ForecastDates.getStartOfMonth(DECEMBER_20TH, LOS_ANGELES));
+        assertEquals(december1st, ForecastDates.getStartOfMonth(december1st, LOS_ANGELES));
+        assertEquals(january1st, ForecastDates.getStartOfNextMonth(DECEMBER_20TH, LOS_ANGELES));
+        // The last minute of the year is still December.
+        assertEquals(december1st,
+                ForecastDates.getStartOfMonth(january1st - 60000, LOS_ANGELES));
+        assertEquals(january1st, ForecastDates.getStartOfMonth(january1st, LOS_ANGELES));
+    }
+}
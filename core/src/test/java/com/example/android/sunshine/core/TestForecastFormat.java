@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.core;
+
+import junit.framework.TestCase;
+
+import java.util.Locale;
+import java.util.TimeZone;
+
+public class TestForecastFormat extends TestCase {
+
+    public void testHighLows() {
+        assertEquals("21/10", ForecastFormat.formatHighLows(21.4, 9.6, false));
+        // Halves round up, towards warmer.
+        assertEquals("-3/-11", ForecastFormat.formatHighLows(-3.4, -11.5, false));
+        assertEquals("68/50", ForecastFormat.formatHighLows(20, 10, true));
+    }
+
+    public void testFormatBatch() {
+        TimeZone zone = TimeZone.getDefault();
+        ForecastBatch batch = new ForecastBatch(1);
+        batch.add(ForecastDates.getStartOfJulianDay(2457012, zone), 9.4f, 21.2f, 80, 1012,
+                3.5f, 180, 800, "Clear");
+        batch.add(ForecastDates.getStartOfJulianDay(2457013, zone), 8, 15, 95, 1002, 6, 200,
+                501, "Rain");
+
+        String[] lines = new ForecastFormat(Locale.US, false).formatBatch(batch);
+        assertEquals(2, lines.length);
+        assertEquals("Sat, Dec 20 - Clear - 21/9", lines[0]);
+        assertEquals("Sun, Dec 21 - Rain - 15/8", lines[1]);
+    }
+}
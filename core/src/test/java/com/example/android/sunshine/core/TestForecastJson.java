@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.core;
+
+import junit.framework.TestCase;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.TimeZone;
+
+public class TestForecastJson extends TestCase {
+
+    private static final TimeZone LOS_ANGELES = TimeZone.getTimeZone("America/Los_Angeles");
+
+    private static String createForecast(int days) throws Exception {
+        JSONArray list = new JSONArray();
+        for (int i = 0; i < days; i++) {
+            list.put(new JSONObject()
+                    .put("dt", 1419105600L + i * 86400L)
+                    .put("temp", new JSONObject().put("min", 5 + i).put("max", 15.5 + i))
+                    .put("pressure", 1012.5)
+                    .put("humidity", 80)
+                    .put("weather", new JSONArray().put(new JSONObject()
+                            .put("id", i % 2 == 0 ? 800 : 501)
+                            .put("main", i % 2 == 0 ? "Clear" : "Rain")
+                            .put("description", "whatever")))
+                    .put("speed", 3.5)
+                    .put("deg", 270));
+        }
+        JSONObject city = new JSONObject()
+                .put("name", "Mountain View")
+                .put("coord", new JSONObject().put("lat", 37.386051).put("lon", -122.083847));
+        return new JSONObject().put("city", city).put("cnt", days).put("list", list).toString();
+    }
+
+    public void testParse() throws Exception {
+        ForecastJson forecast = ForecastJson.parse(createForecast(3));
+        assertEquals("Mountain View", forecast.getCityName());
+        assertEquals(37.386051, forecast.getLatitude(), 1e-9);
+        assertEquals(-122.083847, forecast.getLongitude(), 1e-9);
+        assertEquals(3, forecast.getDayCount());
+
+        ForecastBatch batch = forecast.toBatch(42, 2457012, LOS_ANGELES);
+        assertEquals(42, batch.getLocationId());
+        assertEquals(3, batch.size());
+        assertEquals(2, batch.getDescriptionCount());
+        assertEquals(6f, batch.getMinTemp(1));
+        assertEquals(16.5f, batch.getMaxTemp(1));
+        assertEquals(501, batch.getWeatherId(1));
+        assertEquals("Rain", batch.getDescription(1));
+        assertEquals(80f, batch.getHumidity(2));
+        assertEquals(1012.5f, batch.getPressure(2));
+        assertEquals(3.5f, batch.getWindSpeed(2));
+        assertEquals(270f, batch.getDegrees(2));
+    }
+
+    public void testDaysAreLocalMidnights() throws Exception {
+        // Two weeks that cross the start of daylight saving time on March 8th, 2015.
+        int julianStartDay = 2457085;
+        ForecastBatch batch = ForecastJson.parse(createForecast(14))
+                .toBatch(1, julianStartDay, LOS_ANGELES);
+        for (int i = 0; i < batch.size(); i++) {
+            assertEquals("Error: wrong date for day " + i,
+                    ForecastDates.getStartOfJulianDay(julianStartDay + i, LOS_ANGELES),
+                    batch.getDate(i));
+        }
+    }
+
+    public void testMissingCityFails() throws Exception {
+        try {
+            ForecastJson.parse("{\"list\":[]}");
+            fail();
+        } catch (org.json.JSONException expected) {
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.core;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+public class TestForecastSnapshot extends TestCase {
+
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000L;
+    private static final long START_DATE = 1419033600000L;
+
+    private static ForecastBatch createBatch(int days) {
+        String[] descriptions = {"Clear", "Clouds", "Rain", "Neige fondue"};
+        ForecastBatch batch = new ForecastBatch(7, days);
+        for (int day = 0; day < days; day++) {
+            batch.add(START_DATE + day * DAY_IN_MILLIS, day - 5.5f, day + 10.25f, 80 + day,
+                    1013.5f, 4.1f, 270, 800 + day, descriptions[day % descriptions.length]);
+        }
+        return batch;
+    }
+
+    private static void assertDecodeFails(byte[] bytes) {
+        try {
+            ForecastSnapshot.decode(ByteBuffer.wrap(bytes));
+            fail("Error: decoded a broken snapshot");
+        } catch (IOException expected) {
+        }
+    }
+
+    public void testRoundTrip() throws Exception {
+        ForecastBatch batch = createBatch(14);
+        byte[] bytes = new ForecastSnapshot("Z\u00fcrich", 1234L, batch).encode();
+        ForecastSnapshot snapshot = ForecastSnapshot.decode(ByteBuffer.wrap(bytes));
+
+        assertEquals("Z\u00fcrich", snapshot.getLocationSetting());
+        assertEquals(1234L, snapshot.getWrittenAt());
+        ForecastBatch decoded = snapshot.getBatch();
+        assertEquals(7, decoded.getLocationId());
+        assertEquals(14, decoded.size());
+        for (int day = 0; day < batch.size(); day++) {
+            assertEquals(batch.getDate(day), decoded.getDate(day));
+            assertEquals(batch.getMinTemp(day), decoded.getMinTemp(day));
+            assertEquals(batch.getMaxTemp(day), decoded.getMaxTemp(day));
+            assertEquals(batch.getHumidity(day), decoded.getHumidity(day));
+            assertEquals(batch.getPressure(day), decoded.getPressure(day));
+            assertEquals(batch.getWindSpeed(day), decoded.getWindSpeed(day));
+            assertEquals(batch.getDegrees(day), decoded.getDegrees(day));
+            assertEquals(batch.getWeatherId(day), decoded.getWeatherId(day));
+            assertEquals(batch.getDescription(day), decoded.getDescription(day));
+        }
+        // Descriptions are written once each.
+        assertTrue("Error: snapshot is " + bytes.length + " bytes", bytes.length < 14 * 41 + 100);
+    }
+
+    public void testEmptyForecast() throws Exception {
+        byte[] bytes = new ForecastSnapshot("94043", 0, createBatch(0)).encode();
+        assertEquals(0, ForecastSnapshot.decode(ByteBuffer.wrap(bytes)).getBatch().size());
+    }
+
+    public void testDecodeFromPosition() throws Exception {
+        byte[] bytes = new ForecastSnapshot("94043", 0, createBatch(3)).encode();
+        ByteBuffer buffer = ByteBuffer.allocate(bytes.length + 5);
+        buffer.position(5);
+        buffer.put(bytes);
+        buffer.position(5);
+        assertEquals(3, ForecastSnapshot.decode(buffer).getBatch().size());
+        // Left where it was.
+        assertEquals(5, buffer.position());
+    }
+
+    public void testDecodeFromDirectBuffer() throws Exception {
+        // Long enough that the checksum takes a few chunks, as from a mapped file.
+        byte[] bytes = new ForecastSnapshot("94043", 0, createBatch(100)).encode();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes);
+        buffer.flip();
+        assertEquals(100, ForecastSnapshot.decode(buffer).getBatch().size());
+
+        buffer.put(bytes.length / 2, (byte) (bytes[bytes.length / 2] ^ 0x10));
+        try {
+            ForecastSnapshot.decode(buffer);
+            fail("Error: decoded a broken snapshot");
+        } catch (IOException expected) {
+        }
+    }
+
+    public void testDamageIsDetected() throws Exception {
+        byte[] bytes = new ForecastSnapshot("94043", 0, createBatch(14)).encode();
+        for (int i = 0; i < bytes.length; i += 7) {
+            byte[] damaged = bytes.clone();
+            damaged[i] ^= 0x10;
+            assertDecodeFails(damaged);
+        }
+        for (int length = 0; length < bytes.length; length += 5) {
+            byte[] truncated = new byte[length];
+            System.arraycopy(bytes, 0, truncated, 0, length);
+            assertDecodeFails(truncated);
+        }
+    }
+
+    public void testOtherVersionsAreRejected() throws Exception {
+        ByteBuffer buffer = ByteBuffer.wrap(
+                new ForecastSnapshot("94043", 0, createBatch(3)).encode());
+        buffer.putShort(4, (short) (ForecastSnapshot.VERSION + 1));
+        // With a good checksum, so that only the version is wrong.
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, buffer.capacity() - 4);
+        buffer.putInt(buffer.capacity() - 4, (int) crc.getValue());
+        try {
+            ForecastSnapshot.decode(buffer);
+            fail("Error: decoded a snapshot of another version");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().contains("version"));
+        }
+    }
+}
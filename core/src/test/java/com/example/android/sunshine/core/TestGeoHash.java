@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.core;
+
+import junit.framework.TestCase;
+
+import java.util.List;
+import java.util.Random;
+
+public class TestGeoHash extends TestCase {
+
+    public void testEncode() {
+        assertEquals("ezs42", GeoHash.encode(42.6, -5.6, 5));
+        assertEquals("u4pruydqqvj", GeoHash.encode(57.64911, 10.40744, 11));
+        assertEquals("s0000", GeoHash.encode(0, 0, 5));
+        // A shorter hash of the same point is a prefix of the longer one.
+        assertTrue(GeoHash.encode(57.64911, 10.40744, 11).startsWith(
+                GeoHash.encode(57.64911, 10.40744, 4)));
+    }
+
+    public void testCellSize() {
+        assertEquals(45.0, GeoHash.getCellWidth(1));
+        assertEquals(45.0, GeoHash.getCellHeight(1));
+        assertEquals(11.25, GeoHash.getCellWidth(2));
+        assertEquals(5.625, GeoHash.getCellHeight(2));
+    }
+
+    public void testCoverHoldsEveryPointInTheBox() {
+        double south = 37.2, west = -122.6, north = 37.9, east = -121.8;
+        List<String> cells = GeoHash.cover(south, west, north, east, 8, 16);
+        assertFalse(cells.isEmpty());
+        assertTrue(cells.size() <= 16);
+
+        Random random = new Random(7);
+        for (int i = 0; i < 1000; i++) {
+            double lat = south + random.nextDouble() * (north - south);
+            double lon = west + random.nextDouble() * (east - west);
+            String hash = GeoHash.encode(lat, lon, 9);
+            boolean covered = false;
+            for (String cell : cells) {
+                covered |= hash.compareTo(cell) >= 0 && hash.compareTo(cell + GeoHash.END) < 0;
+            }
+            assertTrue("Error: " + lat + "," + lon + " isn't in the cover", covered);
+        }
+    }
+
+    public void testCoverOfTheWorldIsEmpty() {
+        assertTrue(GeoHash.cover(-90, -180, 90, 180, 8, 16).isEmpty());
+    }
+
+    public void testDistance() {
+        // London to Paris.
+        assertEquals(343.5, GeoHash.distanceKm(51.5074, -0.1278, 48.8566, 2.3522), 1.0);
+        assertEquals(0.0, GeoHash.distanceKm(10, 20, 10, 20));
+        // Either side of the antimeridian, a degree of longitude apart on the equator.
+        assertEquals(111.2, GeoHash.distanceKm(0, 179.5, 0, -179.5), 0.1);
+    }
+
+    public void testBoundingBox() {
+        double[] box = GeoHash.boundingBox(45, 10, 100);
+        assertTrue(box[0] < 45 && box[2] > 45 && box[1] < 10 && box[3] > 10);
+        // A point just inside the radius due east is inside the box.
+        assertTrue(GeoHash.distanceKm(45, 10, 45, box[3]) >= 99);
+
+        double[] wrapped = GeoHash.boundingBox(0, 179.9, 100);
+        assertTrue(wrapped[1] > wrapped[3]);
+
+        double[] polar = GeoHash.boundingBox(89.5, 0, 100);
+        assertEquals(-180.0, polar[1]);
+        assertEquals(180.0, polar[3]);
+        assertEquals(90.0, polar[2]);
+    }
+}